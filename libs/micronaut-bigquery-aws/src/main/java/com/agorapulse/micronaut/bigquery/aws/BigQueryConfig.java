@@ -17,11 +17,8 @@
  */
 package com.agorapulse.micronaut.bigquery.aws;
 
-import com.amazonaws.services.kms.AWSKMS;
-import com.amazonaws.services.kms.AWSKMSClientBuilder;
-import com.amazonaws.services.kms.model.DecryptRequest;
-import com.amazonaws.services.kms.model.DecryptResult;
-import com.amazonaws.util.Base64;
+import com.agorapulse.micronaut.bigquery.impl.BigQueryEndpointConfiguration;
+import com.agorapulse.micronaut.bigquery.impl.BigQueryTransportConfiguration;
 import com.google.api.client.util.PemReader;
 import com.google.api.client.util.SecurityUtils;
 import com.google.auth.oauth2.GoogleCredentials;
@@ -34,28 +31,39 @@ import io.micronaut.context.env.Environment;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.net.URI;
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 @ConfigurationProperties("bigquery.credentials")
 public class BigQueryConfig {
 
-    private final String decryptedPrivateKey;
+    private static final String TOKEN_URI = "https://oauth2.googleapis.com/token";
+
+    private final Supplier<CompletableFuture<String>> decryptedPrivateKey;
     private String projectId;
     private String privateKeyId;
     private String clientEmail;
     private String clientId;
 
-    public BigQueryConfig(Environment environment) {
-        this.decryptedPrivateKey = decryptKMSIfRequired(environment.get("bigquery.credentials.private-key", String.class)
-            .orElse(""))
-            .replace("\\n", "\n");
+    public BigQueryConfig(Environment environment, KmsPrivateKeyDecryptor decryptor) {
+        this.decryptedPrivateKey = decryptedPrivateKey(decryptor, environment.get("bigquery.credentials.private-key", String.class).orElse(""));
+    }
+
+    /**
+     * Returns the supplier of the decrypted private key which starts the decryption again if the previous one failed.
+     * @param decryptor the private key decryptor
+     * @param privateKey the encrypted or the plain text private key
+     * @return the supplier of the decrypted private key
+     */
+    static Supplier<CompletableFuture<String>> decryptedPrivateKey(KmsPrivateKeyDecryptor decryptor, String privateKey) {
+        return () -> decryptor.decrypt(privateKey).thenApply(key -> key.replace("\\n", "\n"));
     }
 
     public String getProjectId() {
@@ -96,34 +104,77 @@ public class BigQueryConfig {
             return encrypted;
         }
 
-
-        AWSKMS kms = AWSKMSClientBuilder.standard().build();
-
-        byte[] cipherBytes = Base64.decode(encrypted);
-
-        DecryptRequest request = new DecryptRequest().withCiphertextBlob(ByteBuffer.wrap(cipherBytes));
-        DecryptResult response = kms.decrypt(request);
-
-        return new String(response.getPlaintext().array(), StandardCharsets.UTF_8);
+        return KmsPrivateKeyDecryptor.decryptKMS(encrypted);
     }
 
     public BigQuery createInstance() {
-        try {
-            URI tokenUri = new URI("https://oauth2.googleapis.com/token");
+        return createInstance(BigQueryOptions.newBuilder());
+    }
 
-            GoogleCredentials credentials;
+    public BigQuery createInstance(BigQueryTransportConfiguration transport) {
+        return createInstance(transport.configure(BigQueryOptions.newBuilder()));
+    }
 
-            credentials = ServiceAccountCredentials.newBuilder()
-                .setClientId(clientId)
-                .setClientEmail(clientEmail)
-                .setPrivateKey(privateKeyFromPkcs8(decryptedPrivateKey))
-                .setPrivateKeyId(privateKeyId)
-                .setTokenServerUri(tokenUri)
-                .setProjectId(projectId)
-                .build();
+    /**
+     * Creates the client using the transport settings and the endpoint override.
+     *
+     * If the endpoint is overridden, e.g. to connect to a local emulator, then the private key is never decrypted
+     * and no credentials are sent.
+     *
+     * @param transport the transport settings
+     * @param endpoint the endpoint override
+     * @return the BigQuery client
+     */
+    public BigQuery createInstance(BigQueryTransportConfiguration transport, BigQueryEndpointConfiguration endpoint) {
+        if (endpoint.isOverridden()) {
+            return endpoint.configure(transport.configure(BigQueryOptions.newBuilder())).build().getService();
+        }
+        return createInstance(transport);
+    }
 
+    private BigQuery createInstance(BigQueryOptions.Builder options) {
+        return createInstance(options, projectId, privateKeyId, clientEmail, clientId, decryptedPrivateKey);
+    }
 
-            return BigQueryOptions.newBuilder().setCredentials(credentials).build().getService();
+    /**
+     * Creates the client using the service account credentials which wait for the private key decryption lazily.
+     *
+     * @param options the client options
+     * @param projectId the project of the service account
+     * @param privateKeyId the ID of the private key
+     * @param clientEmail the email of the service account
+     * @param clientId the ID of the service account
+     * @param decryptedPrivateKey the supplier of the future holding the decrypted private key, called again on the next
+     *                            token refresh if the previous decryption failed
+     * @return the BigQuery client
+     */
+    static BigQuery createInstance(
+        BigQueryOptions.Builder options,
+        String projectId,
+        String privateKeyId,
+        String clientEmail,
+        String clientId,
+        Supplier<CompletableFuture<String>> decryptedPrivateKey
+    ) {
+        try {
+            URI tokenUri = new URI(TOKEN_URI);
+
+            GoogleCredentials credentials = new LazyServiceAccountCredentials(() -> decryptedPrivateKey.get().thenApply(privateKey -> {
+                try {
+                    return ServiceAccountCredentials.newBuilder()
+                        .setClientId(clientId)
+                        .setClientEmail(clientEmail)
+                        .setPrivateKey(privateKeyFromPkcs8(privateKey))
+                        .setPrivateKeyId(privateKeyId)
+                        .setTokenServerUri(tokenUri)
+                        .setProjectId(projectId)
+                        .build();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+
+            return options.setProjectId(projectId).setCredentials(credentials).build().getService();
         } catch (Exception e) {
             throw new IllegalArgumentException("Impossible to instantiate a service account with current parameters", e);
         }
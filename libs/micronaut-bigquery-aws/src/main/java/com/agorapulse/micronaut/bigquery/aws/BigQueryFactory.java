@@ -17,12 +17,22 @@
  */
 package com.agorapulse.micronaut.bigquery.aws;
 
+import com.agorapulse.micronaut.bigquery.impl.BigQueryClientPool;
+import com.agorapulse.micronaut.bigquery.impl.BigQueryEndpointConfiguration;
+import com.agorapulse.micronaut.bigquery.impl.BigQueryRoutingConfiguration;
+import com.agorapulse.micronaut.bigquery.impl.BigQueryTransportConfiguration;
+import com.agorapulse.micronaut.bigquery.metrics.BigQueryMetrics;
 import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
 import io.micronaut.context.annotation.Bean;
 import io.micronaut.context.annotation.Factory;
+import io.micronaut.context.annotation.Replaces;
 import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.env.Environment;
 
 import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
 
 @Factory
 public class BigQueryFactory {
@@ -30,8 +40,49 @@ public class BigQueryFactory {
     @Bean
     @Singleton
     @Requires(property = "bigquery.credentials.private-key")
-    public BigQuery bigQuery(BigQueryConfig config) {
-        return config.createInstance();
+    public BigQuery bigQuery(BigQueryConfig config, BigQueryTransportConfiguration transport, BigQueryEndpointConfiguration endpoint) {
+        return config.createInstance(transport, endpoint);
+    }
+
+    /**
+     * Creates the pool of the default client followed by the clients for every named credentials
+     * (<code>bigquery.credentials.&lt;name&gt;.*</code>).
+     *
+     * The named credentials are ignored if the endpoint is overridden, e.g. to connect to a local emulator.
+     */
+    @Bean
+    @Singleton
+    @Replaces(value = BigQueryClientPool.class, factory = com.agorapulse.micronaut.bigquery.impl.BigQueryFactory.class)
+    @Requires(property = "bigquery.credentials.private-key")
+    @Requires(condition = NamedCredentialsPresent.class)
+    public BigQueryClientPool bigQueryClientPool(
+        BigQuery bigQuery,
+        Environment environment,
+        KmsPrivateKeyDecryptor decryptor,
+        BigQueryTransportConfiguration transport,
+        BigQueryEndpointConfiguration endpoint,
+        BigQueryRoutingConfiguration routing,
+        BigQueryMetrics metrics
+    ) {
+        List<BigQueryClientPool.Client> clients = new ArrayList<>();
+        clients.add(new BigQueryClientPool.Client(BigQueryClientPool.PRIMARY, bigQuery));
+
+        if (!endpoint.isOverridden()) {
+            for (String name : NamedCredentialsPresent.getNames(environment)) {
+                String prefix = NamedCredentialsPresent.PREFIX + "." + name + ".";
+                BigQuery client = BigQueryConfig.createInstance(
+                    transport.configure(BigQueryOptions.newBuilder()),
+                    environment.get(prefix + "project-id", String.class).orElse(null),
+                    environment.get(prefix + "private-key-id", String.class).orElse(null),
+                    environment.get(prefix + "client-email", String.class).orElse(null),
+                    environment.get(prefix + "client-id", String.class).orElse(null),
+                    BigQueryConfig.decryptedPrivateKey(decryptor, environment.get(prefix + "private-key", String.class).orElse(""))
+                );
+                clients.add(new BigQueryClientPool.Client(name, client));
+            }
+        }
+
+        return new BigQueryClientPool(clients, routing, metrics);
     }
 
 }
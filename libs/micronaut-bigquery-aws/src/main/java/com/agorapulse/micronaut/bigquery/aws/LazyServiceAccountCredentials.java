@@ -0,0 +1,76 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.aws;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Credentials which wait for the private key decryption only when the access token is requested for the first time.
+ *
+ * The credentials are created again by the next refresh if the decryption or the creation of the credentials fails.
+ */
+class LazyServiceAccountCredentials extends GoogleCredentials {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Supplier<CompletableFuture<GoogleCredentials>> factory;
+    private final transient AtomicReference<CompletableFuture<GoogleCredentials>> credentials = new AtomicReference<>();
+
+    LazyServiceAccountCredentials(Supplier<CompletableFuture<GoogleCredentials>> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public AccessToken refreshAccessToken() throws IOException {
+        CompletableFuture<GoogleCredentials> current = credentials.get();
+        if (current == null) {
+            credentials.compareAndSet(null, factory.get());
+            current = credentials.get();
+        }
+
+        try {
+            return current.get().refreshAccessToken();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the private key decryption", e);
+        } catch (ExecutionException e) {
+            // create the credentials again on the next refresh
+            credentials.compareAndSet(current, null);
+            throw new IOException("Cannot create service account credentials", e.getCause());
+        }
+    }
+
+    @Override
+    public boolean createScopedRequired() {
+        return true;
+    }
+
+    @Override
+    public GoogleCredentials createScoped(Collection<String> scopes) {
+        return new LazyServiceAccountCredentials(() -> factory.get().thenApply(c -> c.createScoped(scopes)));
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.aws;
+
+import io.micronaut.context.ApplicationContext;
+import io.micronaut.context.condition.Condition;
+import io.micronaut.context.condition.ConditionContext;
+import io.micronaut.context.env.Environment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Matches if any named credentials (<code>bigquery.credentials.&lt;name&gt;.private-key</code>) are configured.
+ */
+public class NamedCredentialsPresent implements Condition {
+
+    static final String PREFIX = "bigquery.credentials";
+
+    @Override
+    public boolean matches(ConditionContext context) {
+        if (context.getBeanContext() instanceof ApplicationContext) {
+            return !getNames(((ApplicationContext) context.getBeanContext()).getEnvironment()).isEmpty();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the sorted names of the configured named credentials.
+     * @param environment the environment
+     * @return the sorted names of the configured named credentials
+     */
+    static List<String> getNames(Environment environment) {
+        List<String> names = new ArrayList<>();
+        for (String name : environment.getPropertyEntries(PREFIX)) {
+            if (environment.containsProperty(PREFIX + "." + name + ".private-key")) {
+                names.add(name);
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+}
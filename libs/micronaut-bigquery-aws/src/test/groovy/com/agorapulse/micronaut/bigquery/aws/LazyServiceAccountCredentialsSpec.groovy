@@ -0,0 +1,82 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.aws
+
+import com.google.auth.oauth2.AccessToken
+import com.google.auth.oauth2.GoogleCredentials
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.function.Supplier
+
+class LazyServiceAccountCredentialsSpec extends Specification {
+
+    AccessToken token = new AccessToken('token', null)
+    GoogleCredentials delegate = Mock()
+    Supplier<CompletableFuture<GoogleCredentials>> factory = Mock()
+
+    LazyServiceAccountCredentials credentials = new LazyServiceAccountCredentials(factory)
+
+    void 'credentials are created only once'() {
+        when:
+            AccessToken first = credentials.refreshAccessToken()
+            AccessToken second = credentials.refreshAccessToken()
+        then:
+            1 * factory.get() >> CompletableFuture.completedFuture(delegate)
+            2 * delegate.refreshAccessToken() >> token
+            first == token
+            second == token
+    }
+
+    void 'credentials are created again after a failure'() {
+        given:
+            CompletableFuture<GoogleCredentials> failed = new CompletableFuture<>()
+            failed.completeExceptionally(new IllegalStateException('KMS is not available'))
+
+        when:
+            credentials.refreshAccessToken()
+        then:
+            1 * factory.get() >> failed
+            IOException e = thrown()
+            e.cause instanceof IllegalStateException
+
+        when:
+            AccessToken refreshed = credentials.refreshAccessToken()
+        then:
+            1 * factory.get() >> CompletableFuture.completedFuture(delegate)
+            1 * delegate.refreshAccessToken() >> token
+            refreshed == token
+    }
+
+    void 'scoped credentials are created from the same factory'() {
+        given:
+            GoogleCredentials scoped = Mock()
+
+        when:
+            GoogleCredentials result = credentials.createScoped(['scope'])
+            AccessToken refreshed = result.refreshAccessToken()
+        then:
+            credentials.createScopedRequired()
+            result instanceof LazyServiceAccountCredentials
+            1 * factory.get() >> CompletableFuture.completedFuture(delegate)
+            1 * delegate.createScoped(['scope']) >> scoped
+            1 * scoped.refreshAccessToken() >> token
+            refreshed == token
+    }
+
+}
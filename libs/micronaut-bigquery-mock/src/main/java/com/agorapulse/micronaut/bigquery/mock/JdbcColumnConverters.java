@@ -0,0 +1,194 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.mock;
+
+import com.agorapulse.micronaut.bigquery.impl.InsertPlan;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Converters of the property values into the JDBC values selected by the declared types of the columns.
+ */
+final class JdbcColumnConverters {
+
+    private JdbcColumnConverters() { }
+
+    /**
+     * Creates the factory of the converters for the given columns.
+     * @param columnTypes the map of the lower case column names and their JDBC types
+     * @return the factory of the converters for the given columns
+     */
+    static InsertPlan.ConverterFactory forColumns(Map<String, Integer> columnTypes) {
+        return (column, propertyType) -> {
+            Integer type = columnTypes.get(column.toLowerCase(Locale.ROOT));
+            if (type == null) {
+                return null;
+            }
+            return forColumn(column, type, propertyType);
+        };
+    }
+
+    private static Function<Object, Object> forColumn(String column, int columnType, Class<?> propertyType) {
+        Class<?> type = box(propertyType);
+
+        if (Object.class.equals(type)) {
+            return JdbcColumnConverters::convertDynamically;
+        }
+
+        switch (columnType) {
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                if (Instant.class.isAssignableFrom(type)) {
+                    return value -> Timestamp.from((Instant) value);
+                }
+                if (java.util.Date.class.isAssignableFrom(type)) {
+                    return value -> new Timestamp(((java.util.Date) value).getTime());
+                }
+                if (LocalDateTime.class.isAssignableFrom(type)) {
+                    return value -> Timestamp.valueOf((LocalDateTime) value);
+                }
+                if (OffsetDateTime.class.isAssignableFrom(type)) {
+                    return value -> Timestamp.from(((OffsetDateTime) value).toInstant());
+                }
+                if (ZonedDateTime.class.isAssignableFrom(type)) {
+                    return value -> Timestamp.from(((ZonedDateTime) value).toInstant());
+                }
+                break;
+            case Types.DATE:
+                if (LocalDate.class.isAssignableFrom(type)) {
+                    return value -> Date.valueOf((LocalDate) value);
+                }
+                if (Instant.class.isAssignableFrom(type)) {
+                    return value -> Date.valueOf(((Instant) value).atOffset(ZoneOffset.UTC).toLocalDate());
+                }
+                break;
+            case Types.TIME:
+                if (LocalTime.class.isAssignableFrom(type)) {
+                    return value -> Time.valueOf((LocalTime) value);
+                }
+                break;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                if (BigDecimal.class.isAssignableFrom(type)) {
+                    return Function.identity();
+                }
+                if (Number.class.isAssignableFrom(type)) {
+                    return value -> new BigDecimal(value.toString());
+                }
+                break;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                if (Long.class.equals(type) || Integer.class.equals(type) || Short.class.equals(type) || Byte.class.equals(type)) {
+                    return value -> ((Number) value).longValue();
+                }
+                break;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                if (Number.class.isAssignableFrom(type)) {
+                    return value -> ((Number) value).doubleValue();
+                }
+                break;
+            case Types.BOOLEAN:
+            case Types.BIT:
+                if (Boolean.class.equals(type)) {
+                    return Function.identity();
+                }
+                break;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.CLOB:
+                if (CharSequence.class.isAssignableFrom(type) || Enum.class.isAssignableFrom(type) || UUID.class.equals(type)) {
+                    return Object::toString;
+                }
+                break;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                if (byte[].class.equals(type)) {
+                    return Function.identity();
+                }
+                break;
+            default:
+                return JdbcColumnConverters::convertDynamically;
+        }
+
+        throw new IllegalArgumentException("Property of type " + propertyType.getName() + " cannot be stored in column " + column + " of JDBC type " + columnType);
+    }
+
+    private static Object convertDynamically(Object value) {
+        if (value instanceof Instant) {
+            return Timestamp.from((Instant) value);
+        }
+        if (value instanceof Enum) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == int.class) {
+            return Integer.class;
+        }
+        if (type == long.class) {
+            return Long.class;
+        }
+        if (type == double.class) {
+            return Double.class;
+        }
+        if (type == float.class) {
+            return Float.class;
+        }
+        if (type == boolean.class) {
+            return Boolean.class;
+        }
+        if (type == short.class) {
+            return Short.class;
+        }
+        if (type == byte.class) {
+            return Byte.class;
+        }
+        return Character.class;
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.mock;
+
+import com.agorapulse.micronaut.bigquery.RowResult;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Row result backed by the map of values, used for the nested records and the elements of arrays.
+ */
+class MapRowResult implements RowResult {
+
+    MapRowResult(Map<String, Object> values) {
+        this.values = values;
+    }
+
+    @SuppressWarnings("unchecked")
+    static RowResult toRowResult(String key, Object value) {
+        if (value instanceof Map) {
+            return new MapRowResult((Map<String, Object>) value);
+        }
+        return new MapRowResult(Collections.singletonMap(key, value));
+    }
+
+    static List<RowResult> toRowResults(String key, Collection<?> elements) {
+        List<RowResult> result = new ArrayList<>(elements.size());
+        for (Object element : elements) {
+            result.add(toRowResult(key, element));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isNull(String key) {
+        return values.get(key) == null;
+    }
+
+    @Override
+    public Boolean getBooleanValue(String key) {
+        Object value = values.get(key);
+        if (value == null || value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return Boolean.valueOf(value.toString());
+    }
+
+    @Override
+    public Double getDoubleValue(String key) {
+        Object value = values.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.valueOf(value.toString());
+    }
+
+    @Override
+    public String getStringValue(String key) {
+        Object value = values.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public Long getLongValue(String key) {
+        Object value = values.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.valueOf(value.toString());
+    }
+
+    @Override
+    public Instant getTimestampValue(String key) {
+        Object value = values.get(key);
+        if (value == null || value instanceof Instant) {
+            return (Instant) value;
+        }
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toInstant();
+        }
+        if (value instanceof Number) {
+            return Instant.ofEpochMilli(((Number) value).longValue());
+        }
+        String text = value.toString().replace(' ', 'T');
+        try {
+            return Instant.parse(text);
+        } catch (DateTimeParseException e) {
+            return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC);
+        }
+    }
+
+    @Override
+    public RowResult getRecord(String key) {
+        Object value = values.get(key);
+        return value == null ? null : toRowResult(key, value);
+    }
+
+    @Override
+    public List<RowResult> getRepeated(String key) {
+        Object value = values.get(key);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value instanceof Collection) {
+            return toRowResults(key, (Collection<?>) value);
+        }
+        throw new IllegalArgumentException("Value " + key + " is not an array: " + value);
+    }
+
+    private final Map<String, Object> values;
+
+}
@@ -18,26 +18,63 @@
 package com.agorapulse.micronaut.bigquery.mock;
 
 import com.agorapulse.micronaut.bigquery.BigQueryService;
+import com.agorapulse.micronaut.bigquery.BufferedQueryService;
+import com.agorapulse.micronaut.bigquery.BufferedResult;
+import com.agorapulse.micronaut.bigquery.InMemoryWatermarkStore;
+import com.agorapulse.micronaut.bigquery.ParameterizedSql;
+import com.agorapulse.micronaut.bigquery.QueryOptions;
+import com.agorapulse.micronaut.bigquery.WatermarkStore;
+import com.agorapulse.micronaut.bigquery.impl.BigQuerySchedulerFactory;
 import com.agorapulse.micronaut.bigquery.impl.DefaultBigQueryService;
+import com.agorapulse.micronaut.bigquery.impl.InsertPlan;
+import com.agorapulse.micronaut.bigquery.impl.QueryOptionsConfiguration;
+import com.agorapulse.micronaut.bigquery.impl.RowBuffer;
+import com.agorapulse.micronaut.bigquery.impl.RowBufferConfiguration;
 import com.agorapulse.micronaut.bigquery.RowResult;
+import com.agorapulse.micronaut.bigquery.StatementStatistics;
 import com.axiomalaska.jdbc.NamedParameterPreparedStatement;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.micronaut.context.annotation.Replaces;
+import io.reactivex.Completable;
 import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
 
+import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.sql.DataSource;
+import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Singleton
 @Replaces(DefaultBigQueryService.class)
-public class SqlBigQueryService implements BigQueryService {
+public class SqlBigQueryService implements BigQueryService, BufferedQueryService {
 
     private static class Database {
         private final Connection connection;
@@ -51,21 +88,49 @@ public class SqlBigQueryService implements BigQueryService {
         }
     }
 
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final ConcurrentMap<String, InsertPlan<Object>> plans = new ConcurrentHashMap<>();
     private final DataSource dataSource;
+    private final WatermarkStore watermarkStore;
+    private final RowBufferConfiguration bufferConfiguration;
+    private final Scheduler scheduler;
+    private final QueryOptions defaults;
 
     public SqlBigQueryService(DataSource dataSource) {
+        this(dataSource, new InMemoryWatermarkStore(), new RowBufferConfiguration(), Schedulers.io(), new QueryOptionsConfiguration());
+    }
+
+    @Inject
+    public SqlBigQueryService(
+        DataSource dataSource,
+        WatermarkStore watermarkStore,
+        RowBufferConfiguration bufferConfiguration,
+        @Named(BigQuerySchedulerFactory.NAME) Scheduler scheduler,
+        QueryOptionsConfiguration queryOptions
+    ) {
         this.dataSource = dataSource;
+        this.watermarkStore = watermarkStore;
+        this.bufferConfiguration = bufferConfiguration;
+        this.scheduler = scheduler;
+        this.defaults = queryOptions.toQueryOptions();
     }
 
     @Override
     public <T> Flowable<T> query(Map<String, ?> namedParameters, String sqlString, final Function<RowResult, T> builder) {
+        return query(namedParameters, sqlString, QueryOptions.DEFAULT, builder);
+    }
 
+    @Override
+    public <T> Flowable<T> query(Map<String, ?> namedParameters, String sqlString, QueryOptions options, final Function<RowResult, T> builder) {
+        QueryOptions effective = options.withDefaults(defaults);
         return Flowable.generate(
             () -> {
                 Connection connection = dataSource.getConnection();
                 String sql = fixPlaceholders(sqlString, namedParameters);
                 NamedParameterPreparedStatement stmt = NamedParameterPreparedStatement.createNamedParameterPreparedStatement(connection, sql);
-                fillNamedParameters(namedParameters, stmt);
+                configure(stmt, effective);
+                fillNamedParameters(connection, namedParameters, stmt);
                 return new Database(connection, stmt, stmt.executeQuery());
             },
             (database, emitter) -> {
@@ -89,30 +154,331 @@ public class SqlBigQueryService implements BigQueryService {
         );
     }
 
+    @Override
+    public BufferedResult queryBuffered(Map<String, ?> namedParameters, String sqlString) {
+        String sql = fixPlaceholders(sqlString, namedParameters);
+        RowBuffer buffer = null;
+        try (
+            Connection connection = dataSource.getConnection();
+            NamedParameterPreparedStatement stmt = NamedParameterPreparedStatement.createNamedParameterPreparedStatement(connection, sql)
+        ) {
+            configure(stmt, defaults);
+            fillNamedParameters(connection, namedParameters, stmt);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                List<String> columns = new ArrayList<>(metaData.getColumnCount());
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    columns.add(metaData.getColumnLabel(i));
+                }
+
+                buffer = new RowBuffer(columns, bufferConfiguration);
+                while (resultSet.next()) {
+                    Object[] values = new Object[columns.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = toBufferedValue(resultSet, metaData.getColumnType(i + 1), i + 1);
+                    }
+                    buffer.append(values);
+                }
+                return buffer.complete();
+            }
+        } catch (SQLException e) {
+            if (buffer != null) {
+                buffer.dispose();
+            }
+            throw new IllegalArgumentException("Cannot execute " + sqlString, e);
+        }
+    }
+
     @Override
     public void execute(Map<String, ?> namedParameters, String sqlString) {
+        execute(namedParameters, sqlString, QueryOptions.DEFAULT);
+    }
+
+    @Override
+    public void execute(Map<String, ?> namedParameters, String sqlString, QueryOptions options) {
         String sql = fixPlaceholders(sqlString, namedParameters);
         try (
             Connection connection = dataSource.getConnection();
             NamedParameterPreparedStatement stmt = NamedParameterPreparedStatement.createNamedParameterPreparedStatement(connection, sql)
         ) {
-            fillNamedParameters(namedParameters, stmt);
+            configure(stmt, options.withDefaults(defaults));
+            fillNamedParameters(connection, namedParameters, stmt);
             stmt.execute();
         } catch (SQLException e) {
             throw new IllegalArgumentException("Cannot execute " + sqlString, e);
         }
     }
 
-    private void fillNamedParameters(Map<String, ?> namedParameters, NamedParameterPreparedStatement stmt) {
+    /**
+     * Runs the statements within a single JDBC transaction regardless of the transactional flag.
+     */
+    @Override
+    public List<StatementStatistics> executeScript(List<ParameterizedSql> statements, boolean transactional) {
+        List<StatementStatistics> statistics = new ArrayList<>(statements.size());
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                for (ParameterizedSql statement : statements) {
+                    String sql = fixPlaceholders(statement.getSql(), statement.getNamedParameters());
+                    try (NamedParameterPreparedStatement stmt = NamedParameterPreparedStatement.createNamedParameterPreparedStatement(connection, sql)) {
+                        configure(stmt, defaults);
+                        fillNamedParameters(connection, statement.getNamedParameters(), stmt);
+                        stmt.execute();
+                        int updateCount = stmt.getUpdateCount();
+                        statistics.add(StatementStatistics.of(
+                            statement.getSql(),
+                            statement.getSql().trim().split("\\s+", 2)[0].toUpperCase(Locale.ROOT),
+                            updateCount < 0 ? null : (long) updateCount,
+                            null
+                        ));
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new IllegalArgumentException("Cannot execute script " + statements.stream().map(ParameterizedSql::getSql).collect(Collectors.toList()), e);
+        }
+        return statistics;
+    }
+
+    /**
+     * Updates the changed rows or inserts the missing ones one by one within a single JDBC transaction as the
+     * <code>MERGE</code> statement is not available in all the databases used for testing. Only the columns with
+     * non-null values are updated unless the nulls are overwritten, the same way as by the merge statement.
+     */
+    @Override
+    public <T> StatementStatistics upsertAll(
+        Collection<T> objects,
+        String dataset,
+        String table,
+        List<String> keyColumns,
+        boolean overwriteNulls
+    ) {
+        if (keyColumns.isEmpty()) {
+            throw new IllegalArgumentException("At least one key column is required to upsert into " + dataset + "." + table);
+        }
+
+        // the last object with the same key wins the same way as in the merge statement
+        Map<List<Object>, Map<String, Object>> rows = new LinkedHashMap<>();
+        for (T object : objects) {
+            Map<String, Object> values = toColumnValues(object, dataset, table, overwriteNulls);
+            List<Object> key = new ArrayList<>(keyColumns.size());
+            for (String column : keyColumns) {
+                if (values.get(column) == null) {
+                    throw new IllegalArgumentException("Missing value of key column " + column + " in " + values);
+                }
+                key.add(values.get(column));
+            }
+            rows.put(key, values);
+        }
+
+        long affectedRows = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                for (Map<String, Object> values : rows.values()) {
+                    Map<String, Object> keys = new LinkedHashMap<>();
+                    keyColumns.forEach(c -> keys.put("k__" + c, values.get(c)));
+                    String condition = keyColumns.stream().map(c -> c + " = @k__" + c).collect(Collectors.joining(" and "));
+
+                    List<String> columns = values.keySet().stream().filter(c -> !keyColumns.contains(c)).collect(Collectors.toList());
+                    if (!columns.isEmpty()) {
+                        Map<String, Object> parameters = new LinkedHashMap<>(keys);
+                        columns.forEach(c -> {
+                            parameters.put("s__" + c, values.get(c));
+                            parameters.put("w__" + c, values.get(c));
+                        });
+                        String update = String.format(
+                            "update %s.%s set %s where %s and (%s)",
+                            dataset,
+                            table,
+                            columns.stream().map(c -> c + " = @s__" + c).collect(Collectors.joining(", ")),
+                            condition,
+                            columns.stream().map(c -> c + " is distinct from @w__" + c).collect(Collectors.joining(" or "))
+                        );
+                        int updated = executeUpdate(connection, parameters, update);
+                        if (updated > 0) {
+                            affectedRows += updated;
+                            continue;
+                        }
+                    }
+
+                    if (!exists(connection, keys, String.format("select 1 from %s.%s where %s", dataset, table, condition))) {
+                        Map<String, Object> inserted = new LinkedHashMap<>(values);
+                        inserted.values().removeIf(Objects::isNull);
+                        ParameterizedSql insert = generateInsert(inserted, dataset, table);
+                        affectedRows += executeUpdate(connection, insert.getNamedParameters(), insert.getSql());
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new IllegalArgumentException("Cannot upsert into " + dataset + "." + table, e);
+        }
+        return StatementStatistics.of(null, "MERGE", affectedRows, null);
+    }
+
+    @Override
+    public Completable executeAsync(Map<String, ?> namedParameters, String sql) {
+        return Completable.fromAction(() -> execute(namedParameters, sql)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public <T> Single<T> insertAsync(T object, String dataset, String table) {
+        return Single.fromCallable(() -> insert(object, dataset, table)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public <T> Single<T> insertAsync(T object, String dataset, String table, Instant partitionTime) {
+        return Single.fromCallable(() -> insert(object, dataset, table, partitionTime)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public <T> ParameterizedSql generateInsert(T object, String dataset, String table) {
+        return generateInsert(toColumnValues(object, dataset, table, false), dataset, table);
+    }
+
+    @Override
+    public <T> Flowable<T> tail(Map<String, ?> namedParameters, String sql, String watermarkColumn, Duration interval, Function<RowResult, T> builder) {
+        return tail(namedParameters, sql, watermarkColumn, interval, watermarkStore, builder);
+    }
+
+    private static void configure(PreparedStatement stmt, QueryOptions options) throws SQLException {
+        Duration remaining = options.getRemainingTime();
+        if (remaining != null) {
+            if (remaining.isNegative() || remaining.isZero()) {
+                throw new IllegalStateException("The deadline " + options.getDeadline() + " has passed before the query started");
+            }
+            stmt.setQueryTimeout((int) Math.max(1, (remaining.toMillis() + 999) / 1000));
+        }
+        if (options.getPageSize() != null) {
+            stmt.setFetchSize(options.getPageSize());
+        }
+    }
+
+    private void fillNamedParameters(Connection connection, Map<String, ?> namedParameters, NamedParameterPreparedStatement stmt) {
         namedParameters.forEach((parameter, x) -> {
             try {
-                stmt.setObject(parameter, convertIfNecessary(x));
-            } catch (SQLException throwables) {
+                stmt.setObject(parameter, toJdbcValue(connection, convertIfNecessary(x)));
+            } catch (SQLException | JsonProcessingException throwables) {
                 throw new IllegalStateException("Cannot set named parameter " + parameter + " with value " + x, throwables);
             }
         });
     }
 
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> toColumnValues(Object object, String dataset, String table, boolean includeNulls) {
+        String key = object.getClass().getName() + ":" + dataset + "." + table;
+        InsertPlan<Object> plan = plans.get(key);
+        if (plan == null) {
+            Map<String, Integer> columnTypes = readColumnTypes(dataset, table);
+            if (columnTypes.isEmpty()) {
+                return toColumnValues(object);
+            }
+            plan = InsertPlan.create((Class<Object>) object.getClass(), dataset + "." + table, JdbcColumnConverters.forColumns(columnTypes));
+            plans.put(key, plan);
+        }
+        return plan.toColumnValues(object, includeNulls);
+    }
+
+    private int executeUpdate(Connection connection, Map<String, ?> namedParameters, String sqlString) throws SQLException {
+        String sql = fixPlaceholders(sqlString, namedParameters);
+        try (NamedParameterPreparedStatement stmt = NamedParameterPreparedStatement.createNamedParameterPreparedStatement(connection, sql)) {
+            configure(stmt, defaults);
+            fillNamedParameters(connection, namedParameters, stmt);
+            return stmt.executeUpdate();
+        }
+    }
+
+    private boolean exists(Connection connection, Map<String, ?> namedParameters, String sqlString) throws SQLException {
+        String sql = fixPlaceholders(sqlString, namedParameters);
+        try (NamedParameterPreparedStatement stmt = NamedParameterPreparedStatement.createNamedParameterPreparedStatement(connection, sql)) {
+            configure(stmt, defaults);
+            fillNamedParameters(connection, namedParameters, stmt);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    private Map<String, Integer> readColumnTypes(String dataset, String table) {
+        try (Connection connection = dataSource.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            for (String[] names : new String[][] {
+                { dataset, table },
+                { dataset.toUpperCase(Locale.ROOT), table.toUpperCase(Locale.ROOT) },
+                { dataset.toLowerCase(Locale.ROOT), table.toLowerCase(Locale.ROOT) },
+            }) {
+                Map<String, Integer> columnTypes = new HashMap<>();
+                try (ResultSet columns = metaData.getColumns(null, names[0], names[1], null)) {
+                    while (columns.next()) {
+                        columnTypes.put(columns.getString("COLUMN_NAME").toLowerCase(Locale.ROOT), columns.getInt("DATA_TYPE"));
+                    }
+                }
+                if (!columnTypes.isEmpty()) {
+                    return columnTypes;
+                }
+            }
+            return Collections.emptyMap();
+        } catch (SQLException e) {
+            throw new IllegalArgumentException("Cannot read the columns of table " + dataset + "." + table, e);
+        }
+    }
+
+    private Object toJdbcValue(Connection connection, Object value) throws SQLException, JsonProcessingException {
+        if (value instanceof Map) {
+            return OBJECT_MAPPER.writeValueAsString(value);
+        }
+
+        List<Object> elements;
+        if (value instanceof Collection) {
+            elements = new ArrayList<>((Collection<?>) value);
+        } else if (value instanceof Object[]) {
+            elements = Arrays.asList((Object[]) value);
+        } else {
+            return value;
+        }
+
+        if (elements.stream().anyMatch(Map.class::isInstance)) {
+            return OBJECT_MAPPER.writeValueAsString(elements);
+        }
+
+        Object[] converted = elements.stream().map(this::convertIfNecessary).toArray();
+        return connection.createArrayOf(getSqlTypeName(converted), converted);
+    }
+
+    private static String getSqlTypeName(Object[] elements) {
+        Object first = elements.length == 0 ? null : elements[0];
+        if (first instanceof Long || first instanceof Integer || first instanceof Short) {
+            return "bigint";
+        }
+        if (first instanceof Double || first instanceof Float) {
+            return "float8";
+        }
+        if (first instanceof BigDecimal) {
+            return "numeric";
+        }
+        if (first instanceof Boolean) {
+            return "boolean";
+        }
+        if (first instanceof Timestamp) {
+            return "timestamp";
+        }
+        return "varchar";
+    }
+
     @Override
     public Object convertIfNecessary(Object object) {
         if (object instanceof Instant) {
@@ -121,6 +487,40 @@ public class SqlBigQueryService implements BigQueryService {
         return BigQueryService.super.convertIfNecessary(object);
     }
 
+    private static Object toBufferedValue(ResultSet resultSet, int type, int index) throws SQLException {
+        Object value;
+        switch (type) {
+            case Types.BOOLEAN:
+            case Types.BIT:
+                value = resultSet.getBoolean(index);
+                break;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                value = resultSet.getLong(index);
+                break;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                value = resultSet.getDouble(index);
+                break;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                value = resultSet.getBigDecimal(index);
+                break;
+            case Types.DATE:
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                Timestamp timestamp = resultSet.getTimestamp(index);
+                value = timestamp == null ? null : Instant.ofEpochMilli(timestamp.getTime());
+                break;
+            default:
+                value = resultSet.getString(index);
+        }
+        return resultSet.wasNull() ? null : value;
+    }
+
     private static String fixPlaceholders(String sqlString, Map<String, ?> namedParameters) {
         String result = sqlString;
         for (String key : namedParameters.keySet()) {
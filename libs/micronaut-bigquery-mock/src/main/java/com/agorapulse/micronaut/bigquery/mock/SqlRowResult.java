@@ -18,9 +18,17 @@
 package com.agorapulse.micronaut.bigquery.mock;
 
 import com.agorapulse.micronaut.bigquery.RowResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.sql.Array;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 public class SqlRowResult implements RowResult {
@@ -32,6 +40,8 @@ public class SqlRowResult implements RowResult {
 
     }
 
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
     private final ResultSet result;
 
     public SqlRowResult(ResultSet result) {
@@ -68,6 +78,48 @@ public class SqlRowResult implements RowResult {
         return getValue(key, k -> Optional.ofNullable(result.getTimestamp(k)).map(date -> Instant.ofEpochMilli(date.getTime())).orElse(null));
     }
 
+    @Override
+    public RowResult getRecord(String key) {
+        return getValue(key, k -> {
+            Object value = result.getObject(k);
+            return value == null ? null : MapRowResult.toRowResult(k, parseJson(value.toString()));
+        });
+    }
+
+    @Override
+    public List<RowResult> getRepeated(String key) {
+        return getValue(key, k -> {
+            Object value = result.getObject(k);
+            if (value == null) {
+                return Collections.emptyList();
+            }
+            if (value instanceof Array) {
+                List<Object> elements = new ArrayList<>();
+                for (Object element : (Object[]) ((Array) value).getArray()) {
+                    elements.add(isJsonObject(element) ? parseJson(element.toString()) : element);
+                }
+                return MapRowResult.toRowResults(k, elements);
+            }
+            Object parsed = parseJson(value.toString());
+            if (parsed instanceof Collection) {
+                return MapRowResult.toRowResults(k, (Collection<?>) parsed);
+            }
+            throw new IllegalArgumentException("Value " + k + " is neither JDBC array nor JSON array: " + value);
+        });
+    }
+
+    private static boolean isJsonObject(Object value) {
+        return value != null && value.toString().trim().startsWith("{");
+    }
+
+    private static Object parseJson(String json) {
+        try {
+            return OBJECT_MAPPER.readValue(json, Object.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot parse JSON value " + json, e);
+        }
+    }
+
     private <R> R getValue(String key, Extractor<R> extractor) {
         try {
             return extractor.extract(key);
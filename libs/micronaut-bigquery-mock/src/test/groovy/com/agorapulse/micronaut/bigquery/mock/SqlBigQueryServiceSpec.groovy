@@ -17,14 +17,23 @@
  */
 package com.agorapulse.micronaut.bigquery.mock
 
+import com.agorapulse.micronaut.bigquery.BigQueryService
+import com.agorapulse.micronaut.bigquery.ParameterizedSql
+import com.agorapulse.micronaut.bigquery.RowResult
+import com.agorapulse.micronaut.bigquery.StatementStatistics
 import com.agorapulse.micronaut.bigquery.tck.BigQueryServiceSpec
+import com.agorapulse.micronaut.bigquery.tck.Person
 import groovy.sql.Sql
 import groovy.transform.CompileDynamic
 import io.micronaut.context.ApplicationContext
+import io.reactivex.Flowable
 import org.testcontainers.containers.PostgreSQLContainer
 import org.testcontainers.spock.Testcontainers
 import spock.lang.Shared
 
+import java.time.Instant
+import java.util.function.Function
+
 @CompileDynamic
 @Testcontainers
 class SqlBigQueryServiceSpec extends BigQueryServiceSpec {
@@ -74,4 +83,169 @@ class SqlBigQueryServiceSpec extends BigQueryServiceSpec {
         ).build()
     }
 
+    void 'read nested records and arrays'() {
+        given:
+            bigquery.execute('DELETE FROM persons.persons')
+            bigquery.execute(id: 1L, first: 'Vladimir', last: 'Orany', '''
+                INSERT INTO persons.persons (id, first_name, last_name) VALUES (@id, @first, @last)
+            ''')
+            bigquery.execute(id: 2L, first: 'Ann', last: 'Orany', '''
+                INSERT INTO persons.persons (id, first_name, last_name) VALUES (@id, @first, @last)
+            ''')
+        when:
+            Map<String, Object> family = bigquery.querySingle(ids: [1L, 2L], '''
+                SELECT
+                    last_name,
+                    array_agg(id ORDER BY id) AS ids,
+                    json_agg(json_build_object('id', id, 'first_name', first_name) ORDER BY id) AS members,
+                    json_build_object('first_name', min(first_name)) AS first
+                FROM persons.persons
+                WHERE id = ANY(@ids)
+                GROUP BY last_name
+            ''') { row ->
+                [
+                    ids: row.getArray('ids') { it.getLongValue('ids') },
+                    members: row.getArray('members') { it.getStringValue('first_name') },
+                    first: row.getRecord('first').getStringValue('first_name'),
+                ]
+            }.get()
+        then:
+            family.ids == [1L, 2L]
+            family.members == ['Vladimir', 'Ann']
+            family.first == 'Ann'
+    }
+
+    void 'script runs within a single transaction'() {
+        given:
+            bigquery.execute('DELETE FROM persons.persons')
+        when:
+            List<StatementStatistics> statistics = bigquery.executeScript([
+                ParameterizedSql.from([id: 1L, last: 'Orany'], 'INSERT INTO persons.persons (id, last_name) VALUES (@id, @last)'),
+                ParameterizedSql.from([id: 2L, last: 'Orany'], 'INSERT INTO persons.persons (id, last_name) VALUES (@id, @last)'),
+                ParameterizedSql.from([last: 'Orany'], 'UPDATE persons.persons SET first_name = \'Unknown\' WHERE last_name = @last'),
+            ], true)
+        then:
+            statistics*.statementType == ['INSERT', 'INSERT', 'UPDATE']
+            statistics*.affectedRows == [1L, 1L, 2L]
+
+        when:
+            bigquery.executeScript([
+                ParameterizedSql.from([id: 3L], 'INSERT INTO persons.persons (id) VALUES (@id)'),
+                ParameterizedSql.from([id: 1L], 'INSERT INTO persons.persons (id) VALUES (@id)'),
+            ], true)
+        then:
+            thrown(IllegalArgumentException)
+            bigquery.query('SELECT id FROM persons.persons ORDER BY id') { it.getLongValue('id') }.toList().blockingGet() == [1L, 2L]
+    }
+
+    void 'upsert updates changed rows and inserts missing ones'() {
+        given:
+            Instant created = Instant.ofEpochMilli(1600000000000L)
+            bigquery.execute('DELETE FROM persons.persons')
+            bigquery.insert(new Person(id: 1L, firstName: 'Vladimir', lastName: 'Orany', created: created), 'persons', 'persons')
+            bigquery.insert(new Person(id: 2L, firstName: 'Ann', lastName: 'Orany', created: created), 'persons', 'persons')
+            List<Person> persons = [
+                new Person(id: 1L, firstName: 'Vladimir', lastName: 'Orany', created: created),
+                new Person(id: 2L, firstName: 'Anna', lastName: 'Orany', created: created),
+                new Person(id: 3L, firstName: 'Alice', lastName: 'Orany', created: created),
+            ]
+        when:
+            StatementStatistics statistics = bigquery.upsertAll(persons, 'persons', 'persons', 'id')
+        then:
+            statistics.statementType == 'MERGE'
+            statistics.affectedRows == 2L
+            bigquery.query('SELECT first_name FROM persons.persons ORDER BY id') { it.getStringValue('first_name') }.toList().blockingGet() == [
+                'Vladimir', 'Anna', 'Alice',
+            ]
+
+        when:
+            statistics = bigquery.upsertAll(persons, 'persons', 'persons', 'id')
+        then:
+            statistics.affectedRows == 0L
+
+        when:
+            bigquery.upsertAll([new Person(firstName: 'Nobody')], 'persons', 'persons', 'email')
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    void 'default upsert checks and updates the rows one by one'() {
+        given:
+            Instant created = Instant.ofEpochMilli(1600000000000L)
+            BigQueryService service = new QueryAndExecuteOnlyService(bigquery)
+            bigquery.execute('DELETE FROM persons.persons')
+            bigquery.insert(new Person(id: 1L, firstName: 'Vladimir', lastName: 'Orany', created: created), 'persons', 'persons')
+        when:
+            StatementStatistics statistics = service.upsertAll([
+                new Person(id: 1L, firstName: 'Vlad', created: created),
+                new Person(id: 2L, firstName: 'Ann', lastName: 'Orany', created: created),
+            ], 'persons', 'persons', 'id')
+        then:
+            statistics.affectedRows == 2L
+            bigquery.query('SELECT first_name, last_name FROM persons.persons ORDER BY id') {
+                [it.getStringValue('first_name'), it.getStringValue('last_name')]
+            }.toList().blockingGet() == [['Vlad', 'Orany'], ['Ann', 'Orany']]
+
+        when:
+            statistics = service.upsertAll([new Person(id: 1L, firstName: 'Vlad', created: created)], 'persons', 'persons', ['id'], true)
+        then:
+            statistics.affectedRows == 1L
+            bigquery.querySingle('SELECT last_name FROM persons.persons WHERE id = 1') { it.getStringValue('last_name') }.get() == null
+
+        when:
+            statistics = service.upsertAll([new Person(id: 1L, firstName: 'Vlad', created: created)], 'persons', 'persons', ['id'], true)
+        then:
+            statistics.affectedRows == 0L
+    }
+
+    void 'upsert keeps current values unless nulls are overwritten'() {
+        given:
+            Instant created = Instant.ofEpochMilli(1600000000000L)
+            bigquery.execute('DELETE FROM persons.persons')
+            bigquery.insert(new Person(id: 1L, firstName: 'Vladimir', lastName: 'Orany', created: created), 'persons', 'persons')
+        when:
+            bigquery.upsertAll([
+                new Person(id: 1L, firstName: 'Vladimir', created: created),
+                new Person(id: 1L, firstName: 'Vlad', created: created),
+            ], 'persons', 'persons', 'id')
+        then:
+            bigquery.querySingle('SELECT first_name, last_name FROM persons.persons WHERE id = 1') {
+                [it.getStringValue('first_name'), it.getStringValue('last_name')]
+            }.get() == ['Vlad', 'Orany']
+
+        when:
+            StatementStatistics statistics = bigquery.upsertAll([
+                new Person(id: 1L, firstName: 'Vlad', created: created),
+            ], 'persons', 'persons', ['id'], true)
+        then:
+            statistics.affectedRows == 1L
+            bigquery.querySingle('SELECT first_name, last_name FROM persons.persons WHERE id = 1') {
+                [it.getStringValue('first_name'), it.getStringValue('last_name')]
+            }.get() == ['Vlad', null]
+    }
+
+}
+
+/**
+ * Implements only the required methods to test the default implementations of the service.
+ */
+@CompileDynamic
+class QueryAndExecuteOnlyService implements BigQueryService {
+
+    private final BigQueryService delegate
+
+    QueryAndExecuteOnlyService(BigQueryService delegate) {
+        this.delegate = delegate
+    }
+
+    @Override
+    <T> Flowable<T> query(Map<String, ?> namedParameters, String sql, Function<RowResult, T> builder) {
+        return delegate.query(namedParameters, sql, builder)
+    }
+
+    @Override
+    void execute(Map<String, ?> namedParameters, String sql) {
+        delegate.execute(namedParameters, sql)
+    }
+
 }
@@ -21,14 +21,22 @@ import com.google.common.base.CaseFormat;
 import io.micronaut.core.beans.BeanIntrospection;
 import io.micronaut.core.beans.BeanIntrospector;
 import io.micronaut.core.beans.BeanProperty;
+import io.reactivex.Completable;
 import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -38,8 +46,22 @@ import java.util.stream.Collectors;
  */
 public interface BigQueryService {
 
+    /**
+     * The name of the array parameter holding the keys in {@link #queryByKeys(Map, Collection, String, Function, Function)}.
+     */
+    String KEYS_PARAMETER = "keys";
+
+    /**
+     * The maximal number of the chunks of keys queried concurrently in {@link #queryByKeys(Map, Collection, String, Function, Function)}.
+     */
+    int MAX_CONCURRENT_KEY_CHUNKS = 4;
+
     /**
      * Runs a SQL query against the BigQuery warehouse and map the results into an object.
+     *
+     * The query is started when the flowable is subscribed. Disposing the subscription before all the results are
+     * read cancels the query job if it is still running and stops fetching the remaining results.
+     *
      * @param namedParameters the named parameters for the SQL query
      * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
      * @param builder the function mapping the result into an object
@@ -48,6 +70,110 @@ public interface BigQueryService {
      */
     <T> Flowable<T> query(Map<String, ?> namedParameters, String sql, Function<RowResult, T> builder);
 
+    /**
+     * Runs a SQL query against the BigQuery warehouse using given options and map the results into an object.
+     *
+     * Implementations may ignore the options which are not applicable to them.
+     *
+     * @param namedParameters the named parameters for the SQL query
+     * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
+     * @param options the query options
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the flowable of objects mapped using the builder
+     */
+    default <T> Flowable<T> query(Map<String, ?> namedParameters, String sql, QueryOptions options, Function<RowResult, T> builder) {
+        return query(namedParameters, sql, builder);
+    }
+
+    /**
+     * Runs a SQL query against the BigQuery warehouse and returns a single page of the results mapped into objects.
+     *
+     * When the page token is <code>null</code> then the query is executed and the first page is returned. When the page
+     * token returned by the previous page is passed then the page is resumed from the results of the previous execution
+     * if the implementation supports it and the named parameters and the SQL query are ignored.
+     *
+     * The default implementation runs the query again and skips the rows returned by the previous pages.
+     *
+     * @param namedParameters the named parameters for the SQL query
+     * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
+     * @param pageSize the maximal number of rows in the page
+     * @param pageToken the token of the page returned by the previous page or <code>null</code> to fetch the first page
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the page holding the objects mapped using the builder
+     */
+    default <T> QueryPage<T> queryPage(Map<String, ?> namedParameters, String sql, int pageSize, String pageToken, Function<RowResult, T> builder) {
+        return queryPage(namedParameters, sql, pageSize, pageToken, QueryOptions.DEFAULT, builder);
+    }
+
+    /**
+     * Runs a SQL query against the BigQuery warehouse using given options and returns a single page of the results
+     * mapped into objects.
+     *
+     * The options are only applied when the first page is requested. The pages are read from the results of the job
+     * so the results are neither sampled nor materialized.
+     *
+     * The default implementation runs the query again and skips the rows returned by the previous pages.
+     *
+     * @param namedParameters the named parameters for the SQL query
+     * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
+     * @param pageSize the maximal number of rows in the page
+     * @param pageToken the token of the page returned by the previous page or <code>null</code> to fetch the first page
+     * @param options the query options
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the page holding the objects mapped using the builder
+     * @see #queryPage(Map, String, int, String, Function)
+     */
+    default <T> QueryPage<T> queryPage(
+        Map<String, ?> namedParameters,
+        String sql,
+        int pageSize,
+        String pageToken,
+        QueryOptions options,
+        Function<RowResult, T> builder
+    ) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+
+        long offset;
+        try {
+            offset = pageToken == null ? 0 : Long.parseLong(pageToken);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page token: " + pageToken, e);
+        }
+
+        List<T> rows = query(namedParameters, sql, options, builder).skip(offset).take(pageSize + 1L).toList().blockingGet();
+
+        if (rows.size() > pageSize) {
+            return QueryPage.of(rows.subList(0, pageSize), null, String.valueOf(offset + pageSize));
+        }
+
+        return QueryPage.of(rows, null, null);
+    }
+
+    /**
+     * Runs a SQL query against a sample of the referenced tables and returns all the results with the sample rate.
+     *
+     * The sample rate is either fixed using {@link QueryOptions.Builder#sample(double)} or picked automatically to
+     * stay under the number of bytes set using {@link QueryOptions.Builder#sampleBytes(long)}. The counts and
+     * the sums have to be scaled using {@link SampledResult#scale(double)}.
+     *
+     * The default implementation ignores the sampling and reads the whole tables.
+     *
+     * @param namedParameters the named parameters for the SQL query
+     * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
+     * @param options the query options
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the results mapped using the builder with the sample rate
+     */
+    default <T> SampledResult<T> querySampled(Map<String, ?> namedParameters, String sql, QueryOptions options, Function<RowResult, T> builder) {
+        return SampledResult.of(query(namedParameters, sql, options, builder).toList().blockingGet(), SampledResult.FULL);
+    }
+
     /**
      * Runs a SQL statement against the BigQuery warehouse.
      * @param namedParameters the named parameters for the SQL statement
@@ -55,6 +181,64 @@ public interface BigQueryService {
      */
     void execute(Map<String, ?> namedParameters, String sql);
 
+    /**
+     * Runs a SQL statement against the BigQuery warehouse using given options.
+     *
+     * Implementations may ignore the options which are not applicable to them.
+     *
+     * @param namedParameters the named parameters for the SQL statement
+     * @param sql the SQL statement, must contain <code>@</code> as named parameter prefix
+     * @param options the query options
+     */
+    default void execute(Map<String, ?> namedParameters, String sql, QueryOptions options) {
+        execute(namedParameters, sql);
+    }
+
+    /**
+     * Runs the SQL statements as a single script.
+     *
+     * The named parameters of each statement are only visible to that statement so the statements may use the same
+     * parameter names.
+     *
+     * @param statements the SQL statements to be executed in the given order
+     * @return the statistics of the executed statements
+     */
+    default List<StatementStatistics> executeScript(List<ParameterizedSql> statements) {
+        return executeScript(statements, false);
+    }
+
+    /**
+     * Runs the SQL statements as a single script, optionally within a transaction.
+     *
+     * The named parameters of each statement are only visible to that statement so the statements may use the same
+     * parameter names. The default implementation executes the statements one by one and ignores the transaction flag.
+     *
+     * @param statements the SQL statements to be executed in the given order
+     * @param transactional whether the statements should be executed within a single transaction
+     * @return the statistics of the executed statements
+     */
+    default List<StatementStatistics> executeScript(List<ParameterizedSql> statements, boolean transactional) {
+        List<StatementStatistics> statistics = new ArrayList<>(statements.size());
+        for (ParameterizedSql statement : statements) {
+            execute(statement.getNamedParameters(), statement.getSql());
+            statistics.add(StatementStatistics.of(statement.getSql(), null, null, null));
+        }
+        return statistics;
+    }
+
+    /**
+     * Run a SQL query against the BigQuery warehouse using given options and map the results into an single object if present.
+     * @param namedParameters the named parameters for the SQL query
+     * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
+     * @param options the query options
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the optional holding the first returned result or an empty optinal
+     */
+    default <T> Optional<T> querySingle(Map<String, ?> namedParameters, String sql, QueryOptions options, Function<RowResult, T> builder) {
+        return queryPage(namedParameters, sql, 1, null, options, builder).getRows().stream().findFirst();
+    }
+
     /**
      * Run a SQL query against the BigQuery warehouse and map the results into an single object if present.
      * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
@@ -75,7 +259,7 @@ public interface BigQueryService {
      * @return the optional holding the first returned result or an empty optinal
      */
     default <T> Optional<T> querySingle(Map<String, ?> namedParameters, String sql, Function<RowResult, T> builder) {
-        return Optional.ofNullable(query(namedParameters, sql, builder).blockingFirst(null));
+        return queryPage(namedParameters, sql, 1, null, builder).getRows().stream().findFirst();
     }
 
     /**
@@ -89,6 +273,169 @@ public interface BigQueryService {
         return query(Collections.emptyMap(), sql, builder);
     }
 
+    /**
+     * Runs a SQL query against the BigQuery warehouse and returns a single page of the results mapped into objects.
+     * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
+     * @param pageSize the maximal number of rows in the page
+     * @param pageToken the token of the page returned by the previous page or <code>null</code> to fetch the first page
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the page holding the objects mapped using the builder
+     * @see #queryPage(Map, String, int, String, Function)
+     */
+    default <T> QueryPage<T> queryPage(String sql, int pageSize, String pageToken, Function<RowResult, T> builder) {
+        return queryPage(Collections.emptyMap(), sql, pageSize, pageToken, builder);
+    }
+
+    /**
+     * Loads the rows for the given keys using as few queries as possible.
+     *
+     * The keys are bound as the <code>ARRAY</code> parameter <code>@keys</code> so the query is expected to contain
+     * a condition such as <code>id IN (SELECT * FROM UNNEST(@keys))</code>. Large collections of keys are split into
+     * chunks which fit into the query size limits and the chunks are queried concurrently.
+     *
+     * @param keys the keys to be loaded
+     * @param sql the SQL query, must contain <code>@keys</code> array parameter
+     * @param keyExtractor the function extracting the key from the row
+     * @param builder the function mapping the result into an object
+     * @param <K> type of the keys
+     * @param <T> type of the result objects
+     * @return the map of the keys and the loaded objects, the keys without any rows are not present in the map
+     */
+    default <K, T> Map<K, T> queryByKeys(Collection<K> keys, String sql, Function<RowResult, K> keyExtractor, Function<RowResult, T> builder) {
+        return queryByKeys(Collections.emptyMap(), keys, sql, keyExtractor, builder);
+    }
+
+    /**
+     * Loads the rows for the given keys using as few queries as possible.
+     *
+     * @param namedParameters the additional named parameters for the SQL query
+     * @param keys the keys to be loaded
+     * @param sql the SQL query, must contain <code>@keys</code> array parameter
+     * @param keyExtractor the function extracting the key from the row
+     * @param builder the function mapping the result into an object
+     * @param <K> type of the keys
+     * @param <T> type of the result objects
+     * @return the map of the keys and the loaded objects, the keys without any rows are not present in the map
+     * @see #queryByKeys(Collection, String, Function, Function)
+     */
+    default <K, T> Map<K, T> queryByKeys(
+        Map<String, ?> namedParameters,
+        Collection<K> keys,
+        String sql,
+        Function<RowResult, K> keyExtractor,
+        Function<RowResult, T> builder
+    ) {
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        List<List<K>> chunks = KeyChunks.split(keys, KeyChunks.MAX_KEYS, KeyChunks.MAX_BYTES);
+
+        Flowable<Map.Entry<K, T>> entries = Flowable.fromIterable(chunks).flatMap(chunk -> {
+            Map<String, Object> parameters = new LinkedHashMap<>(namedParameters);
+            parameters.put(KEYS_PARAMETER, chunk);
+            Flowable<Map.Entry<K, T>> rows = query(parameters, sql, row -> new AbstractMap.SimpleImmutableEntry<K, T>(keyExtractor.apply(row), builder.apply(row)));
+            return chunks.size() == 1 ? rows : rows.subscribeOn(Schedulers.io());
+        }, MAX_CONCURRENT_KEY_CHUNKS);
+
+        Map<K, T> result = new LinkedHashMap<>();
+        for (Map.Entry<K, T> entry : entries.blockingIterable()) {
+            result.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Runs a SQL query against a sample of the referenced tables and returns all the results with the sample rate.
+     * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
+     * @param options the query options
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the results mapped using the builder with the sample rate
+     * @see #querySampled(Map, String, QueryOptions, Function)
+     */
+    default <T> SampledResult<T> querySampled(String sql, QueryOptions options, Function<RowResult, T> builder) {
+        return querySampled(Collections.emptyMap(), sql, options, builder);
+    }
+
+    /**
+     * Run a SQL query against the BigQuery warehouse using given options and map the results into an object.
+     * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
+     * @param options the query options
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the flowable of objects mapped using the builder
+     */
+    default <T> Flowable<T> query(String sql, QueryOptions options, Function<RowResult, T> builder) {
+        return query(Collections.emptyMap(), sql, options, builder);
+    }
+
+    /**
+     * Polls the SQL query periodically and emits only the rows which have not been emitted yet.
+     *
+     * The query must contain the <code>@watermark</code> named parameter which is replaced by the greatest value of
+     * the watermark column seen so far, for example <code>select * from events where created &gt;= @watermark</code>.
+     * The rows with the same watermark as the last seen one are skipped when returned again so the result objects
+     * must implement <code>equals</code> and <code>hashCode</code>. The initial watermark can be passed as
+     * the <code>watermark</code> named parameter and its type determines the type of the watermark column,
+     * {@link Instant} starting at {@link Instant#EPOCH} is used by default.
+     *
+     * The last seen watermark is saved into the watermark store after each poll so the tailing resumes
+     * from the last seen watermark when the same query with the same named parameters is tailed again. The rows
+     * having exactly the last seen watermark are emitted again after resuming.
+     *
+     * @param namedParameters the named parameters for the SQL query, including the initial <code>watermark</code>
+     * @param sql the SQL query, must contain <code>@watermark</code> named parameter
+     * @param watermarkColumn the column holding the watermark
+     * @param interval the delay between the polls
+     * @param store the store for the last seen watermarks
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return never ending flowable of the objects mapped using the builder
+     */
+    default <T> Flowable<T> tail(
+        Map<String, ?> namedParameters,
+        String sql,
+        String watermarkColumn,
+        Duration interval,
+        WatermarkStore store,
+        Function<RowResult, T> builder
+    ) {
+        return WatermarkTail.tail(this, store, namedParameters, sql, watermarkColumn, interval, builder);
+    }
+
+    /**
+     * Polls the SQL query periodically and emits only the rows which have not been emitted yet using the default watermark store.
+     *
+     * @param namedParameters the named parameters for the SQL query, including the initial <code>watermark</code>
+     * @param sql the SQL query, must contain <code>@watermark</code> named parameter
+     * @param watermarkColumn the column holding the watermark
+     * @param interval the delay between the polls
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return never ending flowable of the objects mapped using the builder
+     * @see #tail(Map, String, String, Duration, WatermarkStore, Function)
+     */
+    default <T> Flowable<T> tail(Map<String, ?> namedParameters, String sql, String watermarkColumn, Duration interval, Function<RowResult, T> builder) {
+        return tail(namedParameters, sql, watermarkColumn, interval, new InMemoryWatermarkStore(), builder);
+    }
+
+    /**
+     * Polls the SQL query periodically and emits only the rows which have not been emitted yet using the default watermark store.
+     *
+     * @param sql the SQL query, must contain <code>@watermark</code> named parameter
+     * @param watermarkColumn the column holding the watermark
+     * @param interval the delay between the polls
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return never ending flowable of the objects mapped using the builder
+     * @see #tail(Map, String, String, Duration, WatermarkStore, Function)
+     */
+    default <T> Flowable<T> tail(String sql, String watermarkColumn, Duration interval, Function<RowResult, T> builder) {
+        return tail(Collections.emptyMap(), sql, watermarkColumn, interval, builder);
+    }
+
     /**
      * Runs a SQL statement against the BigQuery warehouse
      * @param sql the SQL statement, must contain <code>@</code> as named parameter prefix
@@ -97,6 +444,52 @@ public interface BigQueryService {
         execute(Collections.emptyMap(), sql);
     }
 
+    /**
+     * Runs a SQL statement against the BigQuery warehouse using given options.
+     * @param sql the SQL statement, must contain <code>@</code> as named parameter prefix
+     * @param options the query options
+     */
+    default void execute(String sql, QueryOptions options) {
+        execute(Collections.emptyMap(), sql, options);
+    }
+
+    /**
+     * Run a SQL query against the BigQuery warehouse using given options and map the results into an single object if present.
+     * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
+     * @param options the query options
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the optional holding the first returned result or an empty optinal
+     */
+    default <T> Optional<T> querySingle(String sql, QueryOptions options, Function<RowResult, T> builder) {
+        return querySingle(Collections.emptyMap(), sql, options, builder);
+    }
+
+    /**
+     * Runs a SQL statement against the BigQuery warehouse asynchronously.
+     *
+     * The statement is executed when the returned completable is subscribed. The default implementation uses
+     * the RxJava I/O scheduler, the implementations provided by this library use the bounded scheduler configured
+     * by <code>bigquery.async</code> properties.
+     *
+     * @param namedParameters the named parameters for the SQL statement
+     * @param sql the SQL statement, must contain <code>@</code> as named parameter prefix
+     * @return the completable which completes when the statement has been executed
+     */
+    default Completable executeAsync(Map<String, ?> namedParameters, String sql) {
+        return Completable.fromAction(() -> execute(namedParameters, sql)).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Runs a SQL statement against the BigQuery warehouse asynchronously.
+     * @param sql the SQL statement, must contain <code>@</code> as named parameter prefix
+     * @return the completable which completes when the statement has been executed
+     * @see #executeAsync(Map, String)
+     */
+    default Completable executeAsync(String sql) {
+        return executeAsync(Collections.emptyMap(), sql);
+    }
+
     /**
      * Inserts the object into the database.
      *
@@ -112,6 +505,187 @@ public interface BigQueryService {
         return object;
     }
 
+    /**
+     * Inserts the object into the given partition of an ingestion-time partitioned table.
+     *
+     * Implementations which are not aware of partitioning ignore the partition time.
+     *
+     * @param object the object to be inserted
+     * @param dataset the name of the dataset
+     * @param table the name of the table
+     * @param partitionTime the time of the partition the object should be inserted into
+     * @param <T> the type of the inserted object
+     * @return the very same object as has been passed into this method
+     */
+    default <T> T insert(T object, String dataset, String table, Instant partitionTime) {
+        ParameterizedSql insert = generateInsert(object, dataset, table, partitionTime);
+        execute(insert.getNamedParameters(), insert.getSql());
+        return object;
+    }
+
+    /**
+     * Inserts the object into the table asynchronously.
+     *
+     * The object is inserted when the returned single is subscribed.
+     *
+     * @param object the object to be inserted
+     * @param dataset the name of the dataset
+     * @param table the name of the table
+     * @param <T> the type of the inserted object
+     * @return the single emitting the very same object as has been passed into this method once it has been inserted
+     * @see #executeAsync(Map, String)
+     */
+    default <T> Single<T> insertAsync(T object, String dataset, String table) {
+        return Single.fromCallable(() -> insert(object, dataset, table)).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Inserts the object into the given partition of an ingestion-time partitioned table asynchronously.
+     *
+     * The object is inserted when the returned single is subscribed.
+     *
+     * @param object the object to be inserted
+     * @param dataset the name of the dataset
+     * @param table the name of the table
+     * @param partitionTime the time of the partition the object should be inserted into
+     * @param <T> the type of the inserted object
+     * @return the single emitting the very same object as has been passed into this method once it has been inserted
+     * @see #executeAsync(Map, String)
+     */
+    default <T> Single<T> insertAsync(T object, String dataset, String table, Instant partitionTime) {
+        return Single.fromCallable(() -> insert(object, dataset, table, partitionTime)).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Inserts the objects into the table or updates the existing rows with the same values of the key columns.
+     *
+     * The objects are converted the same way as by {@link #generateInsert(Object, String, String)} and applied using
+     * a single statement. Only the rows with changed values are updated. The properties with <code>null</code>
+     * values keep the current values of the existing rows, so this method can never clear a column, use
+     * {@link #upsertAll(Collection, String, String, List, boolean)} to overwrite the current values with
+     * <code>null</code>. If there are multiple objects with the same key, the last one wins.
+     *
+     * @param objects the objects to be inserted or updated
+     * @param dataset the name of the dataset
+     * @param table the name of the table
+     * @param keyColumns the names of the columns identifying the rows, the objects must contain values for all of them
+     * @param <T> the type of the objects
+     * @return the statistics of the upsert statement
+     */
+    default <T> StatementStatistics upsertAll(Collection<T> objects, String dataset, String table, List<String> keyColumns) {
+        return upsertAll(objects, dataset, table, keyColumns, false);
+    }
+
+    /**
+     * Inserts the objects into the table or updates the existing rows with the same values of the key columns.
+     *
+     * If the nulls are overwritten then the properties with <code>null</code> values clear the current values of
+     * the existing rows, i.e. the existing rows are replaced by the objects, otherwise they keep the current values.
+     *
+     * The default implementation checks, updates or inserts the rows one by one using
+     * {@link #querySingle(Map, String, Function)} and {@link #execute(Map, String)}, so it is neither atomic nor
+     * suitable for large collections. The implementations should apply all the rows using a single statement.
+     *
+     * @param objects the objects to be inserted or updated
+     * @param dataset the name of the dataset
+     * @param table the name of the table
+     * @param keyColumns the names of the columns identifying the rows, the objects must contain values for all of them
+     * @param overwriteNulls whether the properties with <code>null</code> values clear the current values
+     * @param <T> the type of the objects
+     * @return the statistics of the upsert statement
+     * @see #upsertAll(Collection, String, String, List)
+     */
+    @SuppressWarnings("unchecked")
+    default <T> StatementStatistics upsertAll(
+        Collection<T> objects,
+        String dataset,
+        String table,
+        List<String> keyColumns,
+        boolean overwriteNulls
+    ) {
+        if (keyColumns.isEmpty()) {
+            throw new IllegalArgumentException("At least one key column is required to upsert into " + dataset + "." + table);
+        }
+
+        // the last object with the same key wins the same way as in the merge statement
+        Map<List<Object>, Map<String, Object>> rows = new LinkedHashMap<>();
+        for (T object : objects) {
+            Map<String, Object> values = new LinkedHashMap<>(generateInsert(object, dataset, table).getNamedParameters());
+            if (overwriteNulls) {
+                BeanIntrospection<T> introspection = BeanIntrospector.SHARED.getIntrospection((Class<T>) object.getClass());
+                for (BeanProperty<T, Object> field : introspection.getBeanProperties()) {
+                    values.putIfAbsent(CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, field.getName()), null);
+                }
+            }
+            List<Object> key = new ArrayList<>(keyColumns.size());
+            for (String column : keyColumns) {
+                if (values.get(column) == null) {
+                    throw new IllegalArgumentException("Missing value of key column " + column + " in " + values);
+                }
+                key.add(values.get(column));
+            }
+            rows.put(key, values);
+        }
+
+        String select = "select 1 as found from " + dataset + "." + table + " where ";
+        long affectedRows = 0;
+        for (Map<String, Object> values : rows.values()) {
+            Map<String, Object> parameters = new LinkedHashMap<>();
+            keyColumns.forEach(c -> parameters.put("k__" + c, values.get(c)));
+            String condition = keyColumns.stream().map(c -> c + " = @k__" + c).collect(Collectors.joining(" and "));
+
+            if (!querySingle(parameters, select + condition, r -> true).isPresent()) {
+                Map<String, Object> inserted = new LinkedHashMap<>(values);
+                inserted.values().removeIf(Objects::isNull);
+                execute(inserted, generateInsert(inserted, dataset, table).getSql());
+                affectedRows++;
+                continue;
+            }
+
+            List<String> columns = values.keySet().stream().filter(c -> !keyColumns.contains(c)).collect(Collectors.toList());
+            if (columns.isEmpty()) {
+                continue;
+            }
+
+            // the nulls cannot be passed as named parameters
+            List<String> assignments = new ArrayList<>(columns.size());
+            List<String> changes = new ArrayList<>(columns.size());
+            for (String column : columns) {
+                Object value = values.get(column);
+                if (value == null) {
+                    assignments.add(column + " = NULL");
+                    changes.add(column + " IS NOT NULL");
+                } else {
+                    parameters.put("s__" + column, value);
+                    assignments.add(column + " = @s__" + column);
+                    changes.add(column + " IS DISTINCT FROM @s__" + column);
+                }
+            }
+            String changed = condition + " and (" + String.join(" or ", changes) + ")";
+
+            if (querySingle(parameters, select + changed, r -> true).isPresent()) {
+                execute(parameters, String.format("update %s.%s set %s where %s", dataset, table, String.join(", ", assignments), changed));
+                affectedRows++;
+            }
+        }
+        return StatementStatistics.of(null, "MERGE", affectedRows, null);
+    }
+
+    /**
+     * Inserts the objects into the table or updates the existing rows with the same values of the key columns.
+     *
+     * @param objects the objects to be inserted or updated
+     * @param dataset the name of the dataset
+     * @param table the name of the table
+     * @param keyColumns the names of the columns identifying the rows, the objects must contain values for all of them
+     * @param <T> the type of the objects
+     * @return the statistics of the upsert statement
+     * @see #upsertAll(Collection, String, String, List)
+     */
+    default <T> StatementStatistics upsertAll(Collection<T> objects, String dataset, String table, String... keyColumns) {
+        return upsertAll(objects, dataset, table, Arrays.asList(keyColumns));
+    }
+
     /**
      * Generates the insert statement with the named parameters prepared.
      *
@@ -121,33 +695,72 @@ public interface BigQueryService {
      * @param <T> the type of the inserted object
      * @return the sql and named parameters for the insertion of the given object
      */
-    @SuppressWarnings("unchecked")
     default <T> ParameterizedSql generateInsert(T object, final String dataset, String table) {
+        return generateInsert(toColumnValues(object), dataset, table);
+    }
+
+    /**
+     * Generates the insert statement with the named parameters prepared targeting the given partition.
+     *
+     * Implementations which are not aware of partitioning ignore the partition time.
+     *
+     * @param object the object to be inserted
+     * @param dataset the name of the dataset
+     * @param table the name of the table
+     * @param partitionTime the time of the partition the object should be inserted into
+     * @param <T> the type of the inserted object
+     * @return the sql and named parameters for the insertion of the given object
+     */
+    default <T> ParameterizedSql generateInsert(T object, String dataset, String table, Instant partitionTime) {
+        return generateInsert(object, dataset, table);
+    }
+
+    /**
+     * Generates the insert statement for the map of column names and their values.
+     *
+     * @param columnValues the map of the column names and their values
+     * @param dataset the name of the dataset
+     * @param table the name of the table
+     * @return the sql and named parameters for the insertion of the given values
+     */
+    default ParameterizedSql generateInsert(Map<String, ?> columnValues, String dataset, String table) {
+        String builder = String.format(
+                "insert into %s.%s (%s) values (%s)",
+                dataset,
+                table,
+                String.join(", ", columnValues.keySet()),
+                columnValues.keySet().stream().map(k -> "@" + k).collect(Collectors.joining(", "))
+        );
+
+        return ParameterizedSql.from(columnValues, builder);
+    }
+
+    /**
+     * Converts the introspected object into the map of column names and their values.
+     *
+     * Properties are converted from camel case to snake case and properties with <code>null</code> values are skipped.
+     *
+     * @param object the object to be converted
+     * @param <T> the type of the object
+     * @return the map of column names and the values ready to be used as named parameters
+     */
+    @SuppressWarnings("unchecked")
+    default <T> Map<String, Object> toColumnValues(T object) {
         BeanIntrospection<T> introspection = BeanIntrospector.SHARED.getIntrospection((Class<T>) object.getClass());
 
         Collection<BeanProperty<T, Object>> fields = introspection.getBeanProperties();
 
-        final List<String> keys = new ArrayList<>();
         Map<String, Object> values = new LinkedHashMap<>();
         for (BeanProperty<T, Object> field : fields) {
             Object value = field.get(object);
             String formattedName = CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, field.getName());
 
             if (value != null) {
-                keys.add(formattedName);
                 values.put(formattedName, convertIfNecessary(value));
             }
         }
 
-        String builder = String.format(
-                "insert into %s.%s (%s) values (%s)",
-                dataset,
-                table,
-                String.join(", ", keys),
-                keys.stream().map(k -> "@" + k).collect(Collectors.joining(", "))
-        );
-
-        return ParameterizedSql.from(values, builder);
+        return values;
     }
 
     /**
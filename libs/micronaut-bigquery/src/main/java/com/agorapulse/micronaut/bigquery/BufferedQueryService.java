@@ -0,0 +1,52 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Runs the queries whose results are buffered so they can be traversed any number of times.
+ *
+ * The buffering requires the access to the columns of the results so it is only available for the services which
+ * implement this interface, such as the default BigQuery service and the SQL mock.
+ */
+public interface BufferedQueryService {
+
+    /**
+     * Runs a SQL query against the BigQuery warehouse and buffers all the rows so they can be traversed any number of times.
+     *
+     * The returned result must be disposed once it is no longer needed.
+     *
+     * @param namedParameters the named parameters for the SQL query
+     * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
+     * @return the buffered result of the query
+     */
+    BufferedResult queryBuffered(Map<String, ?> namedParameters, String sql);
+
+    /**
+     * Runs a SQL query against the BigQuery warehouse and buffers all the rows so they can be traversed any number of times.
+     * @param sql the SQL query
+     * @return the buffered result of the query
+     * @see #queryBuffered(Map, String)
+     */
+    default BufferedResult queryBuffered(String sql) {
+        return queryBuffered(Collections.emptyMap(), sql);
+    }
+
+}
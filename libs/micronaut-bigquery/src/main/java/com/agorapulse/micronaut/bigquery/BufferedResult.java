@@ -0,0 +1,54 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery;
+
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+
+import java.util.function.Function;
+
+/**
+ * Buffered result holds all the rows returned by the query so they can be traversed any number of times.
+ *
+ * Small results are kept on the heap, larger results are spilled into memory mapped temporary files. The result must
+ * be disposed once it is no longer needed to release the memory and delete the temporary files.
+ */
+public interface BufferedResult extends Disposable {
+
+    /**
+     * @return the number of rows in the result
+     */
+    long size();
+
+    /**
+     * Returns the flowable of the rows in the result which can be subscribed any number of times until the result is disposed.
+     * @return the flowable of the rows in the result
+     */
+    Flowable<RowResult> rows();
+
+    /**
+     * Maps the rows in the result into the objects.
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the flowable of objects mapped using the builder
+     */
+    default <T> Flowable<T> map(Function<RowResult, T> builder) {
+        return rows().map(builder::apply);
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery;
+
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Watermark store which keeps the watermarks in memory.
+ */
+@Singleton
+public class InMemoryWatermarkStore implements WatermarkStore {
+
+    private final Map<String, String> watermarks = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<String> load(String key) {
+        return Optional.ofNullable(watermarks.get(key));
+    }
+
+    @Override
+    public void save(String key, String watermark) {
+        watermarks.put(key, watermark);
+    }
+
+}
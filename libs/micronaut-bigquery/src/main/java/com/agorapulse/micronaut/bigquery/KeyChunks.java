@@ -0,0 +1,78 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Splits the keys for {@link BigQueryService#queryByKeys(Map, Collection, String, Function, Function)} into chunks
+ * which fit into the limits of the size of the query parameters.
+ */
+final class KeyChunks {
+
+    /**
+     * The maximal number of keys in a single chunk.
+     */
+    static final int MAX_KEYS = 10_000;
+
+    /**
+     * The approximate maximal size of the keys in a single chunk, well below the limit of the query request size.
+     */
+    static final int MAX_BYTES = 1024 * 1024;
+
+    // approximate overhead of every value of the array parameter in the request
+    private static final int VALUE_OVERHEAD = 16;
+
+    private KeyChunks() { }
+
+    static <K> List<List<K>> split(Collection<K> keys, int maxKeys, int maxBytes) {
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("The maximal number of keys must be positive: " + maxKeys);
+        }
+
+        List<List<K>> chunks = new ArrayList<>();
+        List<K> chunk = new ArrayList<>();
+        long bytes = 0;
+
+        for (K key : keys) {
+            if (key == null) {
+                throw new IllegalArgumentException("Keys cannot contain null values");
+            }
+
+            long size = String.valueOf(key).length() + VALUE_OVERHEAD;
+            if (!chunk.isEmpty() && (chunk.size() >= maxKeys || bytes + size > maxBytes)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                bytes = 0;
+            }
+            chunk.add(key);
+            bytes += size;
+        }
+
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+}
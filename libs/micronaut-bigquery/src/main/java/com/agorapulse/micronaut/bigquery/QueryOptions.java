@@ -0,0 +1,496 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Query options customize how the particular query is executed.
+ *
+ * Implementations may ignore the options which are not applicable to them.
+ */
+public final class QueryOptions {
+
+    /**
+     * The priority of the query job.
+     */
+    public enum Priority {
+
+        /**
+         * The query is executed as soon as possible.
+         */
+        INTERACTIVE,
+
+        /**
+         * The query is queued and started as soon as idle resources are available.
+         */
+        BATCH
+
+    }
+
+    /**
+     * Builder for the query options.
+     */
+    public static final class Builder {
+
+        private Duration materialization;
+        private Boolean coalesced;
+        private Priority priority;
+        private Boolean useQueryCache;
+        private Integer pageSize;
+        private Long maximumBytesBilled;
+        private Duration timeout;
+        private Instant deadline;
+        private String location;
+        private Double samplePercent;
+        private Long sampleBytes;
+        private final Map<String, String> labels = new LinkedHashMap<>();
+
+        private Builder() { }
+
+        private Builder(QueryOptions options) {
+            this.materialization = options.materialization;
+            this.coalesced = options.coalesced;
+            this.priority = options.priority;
+            this.useQueryCache = options.useQueryCache;
+            this.pageSize = options.pageSize;
+            this.maximumBytesBilled = options.maximumBytesBilled;
+            this.timeout = options.timeout;
+            this.deadline = options.deadline;
+            this.location = options.location;
+            this.samplePercent = options.samplePercent;
+            this.sampleBytes = options.sampleBytes;
+            this.labels.putAll(options.labels);
+        }
+
+        /**
+         * Stores the result of the query into a managed table and reuses it for the subsequent identical queries
+         * until the result is older than the given freshness.
+         * @param freshness how long is the materialized result reused
+         * @return this builder
+         */
+        public Builder materialize(Duration freshness) {
+            this.materialization = freshness;
+            return this;
+        }
+
+        /**
+         * Enables or disables sharing of the job and the results with the identical queries running concurrently.
+         *
+         * If not set then <code>bigquery.coalesce-queries</code> configuration property decides, coalescing is enabled
+         * by default.
+         *
+         * @param coalesced whether the identical concurrent queries should share the job and the results
+         * @return this builder
+         */
+        public Builder coalesce(boolean coalesced) {
+            this.coalesced = coalesced;
+            return this;
+        }
+
+        /**
+         * Sets the priority of the query job.
+         * @param priority the priority of the query job
+         * @return this builder
+         */
+        public Builder priority(Priority priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * Enables or disables the lookup of the results in the query cache.
+         * @param useQueryCache whether the query cache should be used
+         * @return this builder
+         */
+        public Builder useQueryCache(boolean useQueryCache) {
+            this.useQueryCache = useQueryCache;
+            return this;
+        }
+
+        /**
+         * Sets the number of rows fetched in a single request.
+         * @param pageSize the number of rows fetched in a single request
+         * @return this builder
+         */
+        public Builder pageSize(int pageSize) {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+            }
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * Limits the bytes billed for the query, the query fails without any charge if the limit would be exceeded.
+         * @param maximumBytesBilled the maximum bytes billed for the query
+         * @return this builder
+         */
+        public Builder maximumBytesBilled(long maximumBytesBilled) {
+            this.maximumBytesBilled = maximumBytesBilled;
+            return this;
+        }
+
+        /**
+         * Sets how long to wait for the query to finish, the query job is cancelled once the timeout elapses.
+         * @param timeout how long to wait for the query to finish
+         * @return this builder
+         */
+        public Builder timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Sets the instant by which the query must finish including reading all the results.
+         *
+         * The query job is cancelled and the reading of the results stops with an error once the deadline passes.
+         *
+         * @param deadline the instant by which the query must finish
+         * @return this builder
+         */
+        public Builder deadline(Instant deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * Sets the location where the query job runs, it must match the location of the queried datasets.
+         * @param location the location of the query job
+         * @return this builder
+         */
+        public Builder location(String location) {
+            this.location = location;
+            return this;
+        }
+
+        /**
+         * Reads only the given percentage of the data blocks of every table referenced by the query using
+         * <code>TABLESAMPLE SYSTEM</code>, the aggregates have to be scaled using the returned sample rate.
+         * @param percent the percentage of the tables to be read, greater than zero and at most 100
+         * @return this builder
+         * @see BigQueryService#querySampled(Map, String, QueryOptions, java.util.function.Function)
+         */
+        public Builder sample(double percent) {
+            if (percent <= 0 || percent > 100) {
+                throw new IllegalArgumentException("Sample percent must be greater than zero and at most 100: " + percent);
+            }
+            this.samplePercent = percent;
+            this.sampleBytes = null;
+            return this;
+        }
+
+        /**
+         * Picks the sample rate automatically so the query processes approximately the given number of bytes.
+         *
+         * The whole tables are read if the query processes fewer bytes. The {@link #maximumBytesBilled(long)} limit,
+         * if lower, is used as the target instead.
+         *
+         * @param targetBytes the number of bytes the sampled query should process
+         * @return this builder
+         * @see BigQueryService#querySampled(Map, String, QueryOptions, java.util.function.Function)
+         */
+        public Builder sampleBytes(long targetBytes) {
+            if (targetBytes < 1) {
+                throw new IllegalArgumentException("Sample target bytes must be positive: " + targetBytes);
+            }
+            this.sampleBytes = targetBytes;
+            this.samplePercent = null;
+            return this;
+        }
+
+        /**
+         * Adds the label to the query job, for example to attribute the costs.
+         * @param key the key of the label
+         * @param value the value of the label
+         * @return this builder
+         */
+        public Builder label(String key, String value) {
+            this.labels.put(key, value);
+            return this;
+        }
+
+        /**
+         * Adds the labels to the query job, for example to attribute the costs.
+         * @param labels the labels to be added
+         * @return this builder
+         */
+        public Builder labels(Map<String, String> labels) {
+            this.labels.putAll(labels);
+            return this;
+        }
+
+        public QueryOptions build() {
+            return new QueryOptions(this);
+        }
+
+    }
+
+    /**
+     * The default options.
+     */
+    public static final QueryOptions DEFAULT = builder().build();
+
+    /**
+     * @return new builder for the query options
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private QueryOptions(Builder builder) {
+        this.materialization = builder.materialization;
+        this.coalesced = builder.coalesced;
+        this.priority = builder.priority;
+        this.useQueryCache = builder.useQueryCache;
+        this.pageSize = builder.pageSize;
+        this.maximumBytesBilled = builder.maximumBytesBilled;
+        this.timeout = builder.timeout;
+        this.deadline = builder.deadline;
+        this.location = builder.location;
+        this.samplePercent = builder.samplePercent;
+        this.sampleBytes = builder.sampleBytes;
+        this.labels = Collections.unmodifiableMap(new LinkedHashMap<>(builder.labels));
+    }
+
+    /**
+     * @return new builder initialized with the values of these options
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Returns the options using the values of the given defaults for the values which are not set in these options.
+     *
+     * The labels are merged, the labels of these options take precedence.
+     *
+     * @param defaults the default options
+     * @return the options using the values of the given defaults for the values which are not set in these options
+     */
+    public QueryOptions withDefaults(QueryOptions defaults) {
+        Builder builder = new Builder(defaults);
+        if (materialization != null) {
+            builder.materialization = materialization;
+        }
+        if (coalesced != null) {
+            builder.coalesced = coalesced;
+        }
+        if (priority != null) {
+            builder.priority = priority;
+        }
+        if (useQueryCache != null) {
+            builder.useQueryCache = useQueryCache;
+        }
+        if (pageSize != null) {
+            builder.pageSize = pageSize;
+        }
+        if (maximumBytesBilled != null) {
+            builder.maximumBytesBilled = maximumBytesBilled;
+        }
+        if (timeout != null) {
+            builder.timeout = timeout;
+        }
+        if (deadline != null) {
+            builder.deadline = deadline;
+        }
+        if (location != null) {
+            builder.location = location;
+        }
+        if (samplePercent != null || sampleBytes != null) {
+            builder.samplePercent = samplePercent;
+            builder.sampleBytes = sampleBytes;
+        }
+        builder.labels.putAll(labels);
+        return builder.build();
+    }
+
+    /**
+     * @return <code>true</code> if the result of the query should be materialized
+     */
+    public boolean isMaterialized() {
+        return materialization != null;
+    }
+
+    /**
+     * @return how long is the materialized result reused or <code>null</code> if the result should not be materialized
+     */
+    public Duration getMaterialization() {
+        return materialization;
+    }
+
+    /**
+     * @return whether the identical concurrent queries should share the job and the results or <code>null</code> to use the configured default
+     */
+    public Boolean getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return the priority of the query job or <code>null</code> to use the default priority
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return whether the query cache should be used or <code>null</code> to use the default behaviour
+     */
+    public Boolean getUseQueryCache() {
+        return useQueryCache;
+    }
+
+    /**
+     * @return the number of rows fetched in a single request or <code>null</code> to use the default page size
+     */
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the maximum bytes billed for the query or <code>null</code> if not limited
+     */
+    public Long getMaximumBytesBilled() {
+        return maximumBytesBilled;
+    }
+
+    /**
+     * @return how long to wait for the query to finish or <code>null</code> to wait indefinitely
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return the instant by which the query must finish or <code>null</code> if there is no deadline
+     */
+    public Instant getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Returns how long to wait for the query job to finish with respect to both the timeout and the deadline.
+     * @return how long to wait for the query job to finish or <code>null</code> to wait indefinitely
+     */
+    public Duration getRemainingTime() {
+        if (deadline == null) {
+            return timeout;
+        }
+        Duration remaining = Duration.between(Instant.now(), deadline);
+        return timeout == null || remaining.compareTo(timeout) < 0 ? remaining : timeout;
+    }
+
+    /**
+     * @return the location of the query job or <code>null</code> to use the default location
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * @return <code>true</code> if the query should read only a sample of the referenced tables
+     */
+    public boolean isSampled() {
+        return samplePercent != null || sampleBytes != null;
+    }
+
+    /**
+     * @return the percentage of the tables to be read or <code>null</code> if not sampled or the rate is picked automatically
+     */
+    public Double getSamplePercent() {
+        return samplePercent;
+    }
+
+    /**
+     * @return the number of bytes the sampled query should process or <code>null</code> if the rate is not picked automatically
+     */
+    public Long getSampleBytes() {
+        return sampleBytes;
+    }
+
+    /**
+     * @return the labels of the query job, never <code>null</code>
+     */
+    public Map<String, String> getLabels() {
+        return labels;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        QueryOptions that = (QueryOptions) o;
+        return Objects.equals(materialization, that.materialization)
+            && Objects.equals(coalesced, that.coalesced)
+            && priority == that.priority
+            && Objects.equals(useQueryCache, that.useQueryCache)
+            && Objects.equals(pageSize, that.pageSize)
+            && Objects.equals(maximumBytesBilled, that.maximumBytesBilled)
+            && Objects.equals(timeout, that.timeout)
+            && Objects.equals(deadline, that.deadline)
+            && Objects.equals(location, that.location)
+            && Objects.equals(samplePercent, that.samplePercent)
+            && Objects.equals(sampleBytes, that.sampleBytes)
+            && labels.equals(that.labels);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(materialization, coalesced, priority, useQueryCache, pageSize, maximumBytesBilled, timeout, deadline, location, samplePercent, sampleBytes, labels);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryOptions{"
+            + "materialization=" + materialization
+            + ", coalesced=" + coalesced
+            + ", priority=" + priority
+            + ", useQueryCache=" + useQueryCache
+            + ", pageSize=" + pageSize
+            + ", maximumBytesBilled=" + maximumBytesBilled
+            + ", timeout=" + timeout
+            + ", deadline=" + deadline
+            + ", location='" + location + '\''
+            + ", samplePercent=" + samplePercent
+            + ", sampleBytes=" + sampleBytes
+            + ", labels=" + labels
+            + '}';
+    }
+
+    private final Duration materialization;
+    private final Boolean coalesced;
+    private final Priority priority;
+    private final Boolean useQueryCache;
+    private final Integer pageSize;
+    private final Long maximumBytesBilled;
+    private final Duration timeout;
+    private final Instant deadline;
+    private final String location;
+    private final Double samplePercent;
+    private final Long sampleBytes;
+    private final Map<String, String> labels;
+}
@@ -0,0 +1,123 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Single page of the query results.
+ *
+ * The next page can be fetched by passing the {@link #getNextPageToken()} to
+ * {@link BigQueryService#queryPage(java.util.Map, String, int, String, java.util.function.Function)}, even from
+ * a different request or a different instance of the application. The page tokens are opaque and can only be used
+ * with the implementation which issued them.
+ *
+ * @param <T> type of the result objects
+ */
+public final class QueryPage<T> {
+
+    /**
+     * Creates new page of the query results.
+     * @param rows the rows of the page
+     * @param jobId the identifier of the job which produced the results or <code>null</code> if not applicable
+     * @param nextPageToken the token of the next page or <code>null</code> if this is the last page
+     * @param <T> type of the result objects
+     * @return new page of the query results
+     */
+    public static <T> QueryPage<T> of(List<T> rows, String jobId, String nextPageToken) {
+        return new QueryPage<>(rows, jobId, nextPageToken, null);
+    }
+
+    /**
+     * Creates new page of the query results.
+     * @param rows the rows of the page
+     * @param jobId the identifier of the job which produced the results or <code>null</code> if not applicable
+     * @param nextPageToken the token of the next page or <code>null</code> if this is the last page
+     * @param partitionsScanned the number of the partitions scanned by the job or <code>null</code> if not known
+     * @param <T> type of the result objects
+     * @return new page of the query results
+     */
+    public static <T> QueryPage<T> of(List<T> rows, String jobId, String nextPageToken, Long partitionsScanned) {
+        return new QueryPage<>(rows, jobId, nextPageToken, partitionsScanned);
+    }
+
+    private QueryPage(List<T> rows, String jobId, String nextPageToken, Long partitionsScanned) {
+        this.rows = Collections.unmodifiableList(rows);
+        this.jobId = jobId;
+        this.nextPageToken = nextPageToken;
+        this.partitionsScanned = partitionsScanned;
+    }
+
+    /**
+     * @return the rows of this page
+     */
+    public List<T> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the identifier of the job which produced the results or <code>null</code> if not applicable
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * @return the number of the partitions scanned by the job which produced the results or <code>null</code> if not known
+     */
+    public Long getPartitionsScanned() {
+        return partitionsScanned;
+    }
+
+    /**
+     * @return the token of the next page or <code>null</code> if this is the last page
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    /**
+     * @return the token of the next page if present
+     */
+    public Optional<String> findNextPageToken() {
+        return Optional.ofNullable(nextPageToken);
+    }
+
+    /**
+     * @return <code>true</code> if there is another page of the results
+     */
+    public boolean hasNextPage() {
+        return nextPageToken != null;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPage{rows=" + rows.size()
+            + ", jobId='" + jobId + '\''
+            + ", nextPageToken='" + nextPageToken + '\''
+            + ", partitionsScanned=" + partitionsScanned
+            + '}';
+    }
+
+    private final List<T> rows;
+    private final String jobId;
+    private final String nextPageToken;
+    private final Long partitionsScanned;
+}
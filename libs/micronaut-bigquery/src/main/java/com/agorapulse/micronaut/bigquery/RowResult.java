@@ -18,6 +18,9 @@
 package com.agorapulse.micronaut.bigquery;
 
 import java.time.Instant;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Row result is the abstraction of a row returned from the BigQuery job.
@@ -77,4 +80,34 @@ public interface RowResult {
         return isNull(key) ? null : Enum.valueOf(enumType, getStringValue(key));
     }
 
+    /**
+     * Returns the value of the <code>STRUCT</code> column as the nested row.
+     * @param key the name of the column
+     * @return the value of the <code>STRUCT</code> column as the nested row or <code>null</code> if the value is null
+     */
+    RowResult getRecord(String key);
+
+    /**
+     * Returns the elements of the <code>ARRAY</code> column as the nested rows.
+     *
+     * The elements of the array of <code>STRUCT</code>s are accessible by the field names, the elements of the array
+     * of scalar values are accessible by the name of the column itself.
+     *
+     * @param key the name of the column
+     * @return the elements of the <code>ARRAY</code> column as the nested rows, never <code>null</code>
+     */
+    List<RowResult> getRepeated(String key);
+
+    /**
+     * Returns the elements of the <code>ARRAY</code> column converted with the given mapper.
+     * @param key the name of the column
+     * @param mapper the function converting the elements of the array
+     * @param <T> the type of the elements
+     * @return the converted elements of the <code>ARRAY</code> column, never <code>null</code>
+     * @see #getRepeated(String)
+     */
+    default <T> List<T> getArray(String key, Function<RowResult, T> mapper) {
+        return getRepeated(key).stream().map(mapper).collect(Collectors.toList());
+    }
+
 }
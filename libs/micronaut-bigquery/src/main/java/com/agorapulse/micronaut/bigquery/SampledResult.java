@@ -0,0 +1,91 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Results of the query which may have read only a sample of the referenced tables.
+ *
+ * The counts and the sums computed from the sample have to be scaled using {@link #scale(double)} to estimate the
+ * values for the whole tables. The averages and the ratios do not need to be scaled.
+ *
+ * @param <T> type of the result objects
+ */
+public final class SampledResult<T> {
+
+    /**
+     * The sample percent of the results computed from the whole tables.
+     */
+    public static final double FULL = 100;
+
+    /**
+     * Creates new sampled results.
+     * @param rows the rows of the results
+     * @param samplePercent the percentage of the tables read by the query
+     * @param <T> type of the result objects
+     * @return new sampled results
+     */
+    public static <T> SampledResult<T> of(List<T> rows, double samplePercent) {
+        return new SampledResult<>(rows, samplePercent);
+    }
+
+    private SampledResult(List<T> rows, double samplePercent) {
+        this.rows = Collections.unmodifiableList(rows);
+        this.samplePercent = samplePercent;
+    }
+
+    /**
+     * @return the rows of the results
+     */
+    public List<T> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the percentage of the tables read by the query, 100 if the whole tables were read
+     */
+    public double getSamplePercent() {
+        return samplePercent;
+    }
+
+    /**
+     * @return <code>true</code> if only a sample of the tables was read
+     */
+    public boolean isSampled() {
+        return samplePercent < FULL;
+    }
+
+    /**
+     * Scales the count or the sum computed from the sample to the estimate for the whole tables.
+     * @param value the count or the sum computed from the sample
+     * @return the estimate for the whole tables
+     */
+    public double scale(double value) {
+        return value * FULL / samplePercent;
+    }
+
+    @Override
+    public String toString() {
+        return "SampledResult{rows=" + rows.size() + ", samplePercent=" + samplePercent + '}';
+    }
+
+    private final List<T> rows;
+    private final double samplePercent;
+}
@@ -0,0 +1,111 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery;
+
+/**
+ * Statistics of a single statement executed as part of a script.
+ *
+ * Implementations may not be able to provide all the values, the missing values are <code>null</code>.
+ */
+public final class StatementStatistics {
+
+    /**
+     * Creates new statement statistics.
+     * @param sql the SQL statement as passed to the script
+     * @param statementType the type of the statement such as <code>INSERT</code> or <code>DELETE</code>
+     * @param affectedRows the number of rows inserted, updated or deleted by the statement
+     * @param bytesProcessed the number of bytes processed by the statement
+     * @return new statement statistics
+     */
+    public static StatementStatistics of(String sql, String statementType, Long affectedRows, Long bytesProcessed) {
+        return new StatementStatistics(sql, statementType, affectedRows, bytesProcessed, null);
+    }
+
+    /**
+     * Creates new statement statistics.
+     * @param sql the SQL statement as passed to the script
+     * @param statementType the type of the statement such as <code>INSERT</code> or <code>DELETE</code>
+     * @param affectedRows the number of rows inserted, updated or deleted by the statement
+     * @param bytesProcessed the number of bytes processed by the statement
+     * @param partitionsScanned the number of partitions scanned by the statement
+     * @return new statement statistics
+     */
+    public static StatementStatistics of(String sql, String statementType, Long affectedRows, Long bytesProcessed, Long partitionsScanned) {
+        return new StatementStatistics(sql, statementType, affectedRows, bytesProcessed, partitionsScanned);
+    }
+
+    private StatementStatistics(String sql, String statementType, Long affectedRows, Long bytesProcessed, Long partitionsScanned) {
+        this.sql = sql;
+        this.statementType = statementType;
+        this.affectedRows = affectedRows;
+        this.bytesProcessed = bytesProcessed;
+        this.partitionsScanned = partitionsScanned;
+    }
+
+    /**
+     * @return the SQL statement as passed to the script
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the type of the statement such as <code>INSERT</code> or <code>DELETE</code> or <code>null</code> if not known
+     */
+    public String getStatementType() {
+        return statementType;
+    }
+
+    /**
+     * @return the number of rows inserted, updated or deleted by the statement or <code>null</code> if not known
+     */
+    public Long getAffectedRows() {
+        return affectedRows;
+    }
+
+    /**
+     * @return the number of bytes processed by the statement or <code>null</code> if not known
+     */
+    public Long getBytesProcessed() {
+        return bytesProcessed;
+    }
+
+    /**
+     * @return the number of partitions scanned by the statement or <code>null</code> if not known
+     */
+    public Long getPartitionsScanned() {
+        return partitionsScanned;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementStatistics{"
+            + "statementType='" + statementType + '\''
+            + ", affectedRows=" + affectedRows
+            + ", bytesProcessed=" + bytesProcessed
+            + ", partitionsScanned=" + partitionsScanned
+            + ", sql='" + sql + '\''
+            + '}';
+    }
+
+    private final String sql;
+    private final String statementType;
+    private final Long affectedRows;
+    private final Long bytesProcessed;
+    private final Long partitionsScanned;
+}
@@ -0,0 +1,44 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery;
+
+import java.util.Optional;
+
+/**
+ * Watermark store keeps the last seen watermarks of the tailed queries so the consumers can resume after restart.
+ *
+ * The default implementation {@link InMemoryWatermarkStore} keeps the watermarks in memory only. Replace it with
+ * a persistent implementation to resume the tailing after the application restart.
+ */
+public interface WatermarkStore {
+
+    /**
+     * Loads the last seen watermark.
+     * @param key the key of the tailed query
+     * @return the last seen watermark or empty optional if the query has not been tailed yet
+     */
+    Optional<String> load(String key);
+
+    /**
+     * Saves the last seen watermark.
+     * @param key the key of the tailed query
+     * @param watermark the last seen watermark
+     */
+    void save(String key, String watermark);
+
+}
@@ -0,0 +1,192 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery;
+
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Polls the query periodically with the last seen watermark.
+ *
+ * The rows having the same watermark as the last seen watermark are returned again by the subsequent query so they are
+ * remembered and skipped. Only the watermark is saved into the store so these rows are emitted once more when the tail
+ * is resumed from the store.
+ *
+ * @param <T> the type of the result objects
+ */
+final class WatermarkTail<T> {
+
+    static final String WATERMARK_PARAMETER = "watermark";
+
+    private static class Row<T> {
+        private final Comparable<Object> watermark;
+        private final T value;
+
+        Row(Comparable<Object> watermark, T value) {
+            this.watermark = watermark;
+            this.value = value;
+        }
+    }
+
+    private final BigQueryService service;
+    private final WatermarkStore store;
+    private final Map<String, ?> namedParameters;
+    private final String sql;
+    private final String watermarkColumn;
+    private final Function<RowResult, T> builder;
+    private final Class<?> watermarkType;
+    private final String key;
+
+    private final Set<T> boundary = new HashSet<>();
+    private Comparable<Object> watermark;
+
+    WatermarkTail(
+        BigQueryService service,
+        WatermarkStore store,
+        Map<String, ?> namedParameters,
+        String sql,
+        String watermarkColumn,
+        Function<RowResult, T> builder
+    ) {
+        this.service = service;
+        this.store = store;
+        this.namedParameters = namedParameters;
+        this.sql = sql;
+        this.watermarkColumn = watermarkColumn;
+        this.builder = builder;
+
+        Object initial = namedParameters.get(WATERMARK_PARAMETER);
+        this.watermarkType = initial == null ? Instant.class : initial.getClass();
+        this.key = createKey(namedParameters, sql, watermarkColumn);
+        this.watermark = store.load(key).map(this::parse).orElseGet(() -> asComparable(initial == null ? Instant.EPOCH : initial));
+    }
+
+    /**
+     * Creates the key of the tailed query from the SQL, the watermark column and the named parameters except the initial
+     * watermark so the tails of the same query with different parameters do not share the watermark.
+     */
+    static String createKey(Map<String, ?> namedParameters, String sql, String watermarkColumn) {
+        StringBuilder key = new StringBuilder(watermarkColumn).append('\n').append(sql);
+        for (Map.Entry<String, ?> parameter : new TreeMap<>(namedParameters).entrySet()) {
+            if (!WATERMARK_PARAMETER.equals(parameter.getKey())) {
+                key.append('\n').append(parameter.getKey()).append('=').append(parameter.getValue());
+            }
+        }
+        return UUID.nameUUIDFromBytes(key.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    static <T> Flowable<T> tail(
+        BigQueryService service,
+        WatermarkStore store,
+        Map<String, ?> namedParameters,
+        String sql,
+        String watermarkColumn,
+        Duration interval,
+        Function<RowResult, T> builder
+    ) {
+        return Flowable.defer(() -> {
+            WatermarkTail<T> tail = new WatermarkTail<>(service, store, namedParameters, sql, watermarkColumn, builder);
+            return Flowable.defer(tail::poll)
+                .subscribeOn(Schedulers.io())
+                .repeatWhen(completed -> completed.delay(interval.toMillis(), TimeUnit.MILLISECONDS));
+        });
+    }
+
+    private Flowable<T> poll() {
+        Map<String, Object> parameters = new LinkedHashMap<>(namedParameters);
+        parameters.put(WATERMARK_PARAMETER, watermark);
+
+        return service.query(parameters, sql, row -> new Row<>(readWatermark(row), builder.apply(row)))
+            .filter(row -> !boundary.contains(row.value))
+            .doOnNext(this::advance)
+            .map(row -> row.value)
+            .doOnComplete(() -> {
+                if (watermark != null) {
+                    store.save(key, watermark.toString());
+                }
+            });
+    }
+
+    private void advance(Row<T> row) {
+        if (row.watermark == null) {
+            return;
+        }
+
+        int comparison = watermark == null ? 1 : row.watermark.compareTo(watermark);
+        if (comparison > 0) {
+            watermark = row.watermark;
+            boundary.clear();
+            boundary.add(row.value);
+        } else if (comparison == 0) {
+            boundary.add(row.value);
+        }
+    }
+
+    private Comparable<Object> readWatermark(RowResult row) {
+        if (row.isNull(watermarkColumn)) {
+            return null;
+        }
+        if (Instant.class.equals(watermarkType)) {
+            return asComparable(row.getTimestampValue(watermarkColumn));
+        }
+        if (Long.class.equals(watermarkType) || Integer.class.equals(watermarkType)) {
+            return asComparable(row.getLongValue(watermarkColumn));
+        }
+        if (Double.class.equals(watermarkType) || Float.class.equals(watermarkType)) {
+            return asComparable(row.getDoubleValue(watermarkColumn));
+        }
+        return asComparable(row.getStringValue(watermarkColumn));
+    }
+
+    private Comparable<Object> parse(String value) {
+        if (Instant.class.equals(watermarkType)) {
+            return asComparable(Instant.parse(value));
+        }
+        if (Long.class.equals(watermarkType) || Integer.class.equals(watermarkType)) {
+            return asComparable(Long.valueOf(value));
+        }
+        if (Double.class.equals(watermarkType) || Float.class.equals(watermarkType)) {
+            return asComparable(Double.valueOf(value));
+        }
+        return asComparable(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparable<Object> asComparable(Object value) {
+        if (value instanceof Integer) {
+            return (Comparable<Object>) (Object) ((Integer) value).longValue();
+        }
+        if (value instanceof Float) {
+            return (Comparable<Object>) (Object) ((Float) value).doubleValue();
+        }
+        return (Comparable<Object>) value;
+    }
+
+}
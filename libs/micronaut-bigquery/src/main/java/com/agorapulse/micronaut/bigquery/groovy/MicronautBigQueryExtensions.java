@@ -19,6 +19,8 @@ package com.agorapulse.micronaut.bigquery.groovy;
 
 import com.agorapulse.micronaut.bigquery.BigQueryService;
 import com.agorapulse.micronaut.bigquery.ParameterizedSql;
+import com.agorapulse.micronaut.bigquery.QueryPage;
+import com.agorapulse.micronaut.bigquery.RowResult;
 import groovy.lang.Closure;
 import groovy.lang.GString;
 import groovy.transform.stc.ClosureParams;
@@ -26,10 +28,12 @@ import groovy.transform.stc.FromString;
 import io.reactivex.Flowable;
 import space.jasan.support.groovy.closure.FunctionWithDelegate;
 
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -56,6 +60,19 @@ public class MicronautBigQueryExtensions {
         return self.query(parameterizedSql.getNamedParameters(), parameterizedSql.getSql(), FunctionWithDelegate.create(builder));
     }
 
+    /**
+     * Runs a SQL query against the BigQuery warehouse and map the results into an object using the mapper such as
+     * {@link RowMapper}.
+     * @param sql the SQL query {@link GString} which is automatically turning its values into the named parameters
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the flowable of objects mapped using the builder
+     */
+    public static <T> Flowable<T> query(BigQueryService self, GString sql, Function<RowResult, T> builder) {
+        ParameterizedSql parameterizedSql = from(self, sql);
+        return self.query(parameterizedSql.getNamedParameters(), parameterizedSql.getSql(), builder);
+    }
+
     /**
      * Runs a SQL query against the BigQuery warehouse and map the results into an object.
      * @param namedParameters the named parameters for the SQL query
@@ -89,6 +106,19 @@ public class MicronautBigQueryExtensions {
         return self.querySingle(parameterizedSql.getNamedParameters(), parameterizedSql.getSql(), FunctionWithDelegate.create(builder));
     }
 
+    /**
+     * Run a SQL query against the BigQuery warehouse and map the results into an single object if present using
+     * the mapper such as {@link RowMapper}.
+     * @param sql the SQL query {@link GString} which is automatically turning its values into the named parameters
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the optional holding the first returned result or an empty optinal
+     */
+    public static <T> Optional<T> querySingle(BigQueryService self, GString sql, Function<RowResult, T> builder) {
+        ParameterizedSql parameterizedSql = from(self, sql);
+        return self.querySingle(parameterizedSql.getNamedParameters(), parameterizedSql.getSql(), builder);
+    }
+
     /**
      * Run a SQL query against the BigQuery warehouse and map the results into an single object if present.
      * @param namedParameters the named parameters for the SQL query
@@ -106,6 +136,106 @@ public class MicronautBigQueryExtensions {
         return self.querySingle(namedParameters, sql, FunctionWithDelegate.create(builder));
     }
 
+    /**
+     * Loads the rows for the given keys using as few queries as possible.
+     * @param keys the keys to be loaded
+     * @param sql the SQL query, must contain <code>@keys</code> array parameter
+     * @param keyExtractor the closure extracting the key from the row
+     * @param builder the closure mapping the result into an object
+     * @param <K> type of the keys
+     * @param <T> type of the result objects
+     * @return the map of the keys and the loaded objects
+     * @see BigQueryService#queryByKeys(Collection, String, java.util.function.Function, java.util.function.Function)
+     */
+    public static <K, T> Map<K, T> queryByKeys(
+        BigQueryService self,
+        Collection<K> keys,
+        String sql,
+        @ClosureParams(value = FromString.class, options = "com.agorapulse.micronaut.bigquery.RowResult") Closure<K> keyExtractor,
+        @ClosureParams(value = FromString.class, options = "com.agorapulse.micronaut.bigquery.RowResult") Closure<T> builder
+    ) {
+        return self.queryByKeys(keys, sql, FunctionWithDelegate.create(keyExtractor), FunctionWithDelegate.create(builder));
+    }
+
+    /**
+     * Loads the rows for the given keys using as few queries as possible.
+     * @param namedParameters the additional named parameters for the SQL query
+     * @param keys the keys to be loaded
+     * @param sql the SQL query, must contain <code>@keys</code> array parameter
+     * @param keyExtractor the closure extracting the key from the row
+     * @param builder the closure mapping the result into an object
+     * @param <K> type of the keys
+     * @param <T> type of the result objects
+     * @return the map of the keys and the loaded objects
+     * @see BigQueryService#queryByKeys(Map, Collection, String, java.util.function.Function, java.util.function.Function)
+     */
+    public static <K, T> Map<K, T> queryByKeys(
+        BigQueryService self,
+        Map<String, ?> namedParameters,
+        Collection<K> keys,
+        String sql,
+        @ClosureParams(value = FromString.class, options = "com.agorapulse.micronaut.bigquery.RowResult") Closure<K> keyExtractor,
+        @ClosureParams(value = FromString.class, options = "com.agorapulse.micronaut.bigquery.RowResult") Closure<T> builder
+    ) {
+        return self.queryByKeys(namedParameters, keys, sql, FunctionWithDelegate.create(keyExtractor), FunctionWithDelegate.create(builder));
+    }
+
+    /**
+     * Runs a SQL query against the BigQuery warehouse and returns a single page of the results mapped into objects.
+     * @param sql the SQL query {@link GString} which is automatically turning its values into the named parameters
+     * @param pageSize the maximal number of rows in the page
+     * @param pageToken the token of the page returned by the previous page or <code>null</code> to fetch the first page
+     * @param builder the closure mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the page holding the objects mapped using the builder
+     */
+    public static <T> QueryPage<T> queryPage(
+        BigQueryService self,
+        GString sql,
+        int pageSize,
+        String pageToken,
+        @ClosureParams(value = FromString.class, options = "com.agorapulse.micronaut.bigquery.RowResult") Closure<T> builder
+    ) {
+        ParameterizedSql parameterizedSql = from(self, sql);
+        return self.queryPage(parameterizedSql.getNamedParameters(), parameterizedSql.getSql(), pageSize, pageToken, FunctionWithDelegate.create(builder));
+    }
+
+    /**
+     * Runs a SQL query against the BigQuery warehouse and returns a single page of the results mapped into objects
+     * using the mapper such as {@link RowMapper}.
+     * @param sql the SQL query {@link GString} which is automatically turning its values into the named parameters
+     * @param pageSize the maximal number of rows in the page
+     * @param pageToken the token of the page returned by the previous page or <code>null</code> to fetch the first page
+     * @param builder the function mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the page holding the objects mapped using the builder
+     */
+    public static <T> QueryPage<T> queryPage(BigQueryService self, GString sql, int pageSize, String pageToken, Function<RowResult, T> builder) {
+        ParameterizedSql parameterizedSql = from(self, sql);
+        return self.queryPage(parameterizedSql.getNamedParameters(), parameterizedSql.getSql(), pageSize, pageToken, builder);
+    }
+
+    /**
+     * Runs a SQL query against the BigQuery warehouse and returns a single page of the results mapped into objects.
+     * @param namedParameters the named parameters for the SQL query
+     * @param sql the SQL query, must contain <code>@</code> as named parameter prefix
+     * @param pageSize the maximal number of rows in the page
+     * @param pageToken the token of the page returned by the previous page or <code>null</code> to fetch the first page
+     * @param builder the closure mapping the result into an object
+     * @param <T> type of the result objects
+     * @return the page holding the objects mapped using the builder
+     */
+    public static <T> QueryPage<T> queryPage(
+        BigQueryService self,
+        Map<String, ?> namedParameters,
+        String sql,
+        int pageSize,
+        String pageToken,
+        @ClosureParams(value = FromString.class, options = "com.agorapulse.micronaut.bigquery.RowResult") Closure<T> builder
+    ) {
+        return self.queryPage(namedParameters, sql, pageSize, pageToken, FunctionWithDelegate.create(builder));
+    }
+
     /**
      * Runs a SQL statement against the BigQuery warehouse.
      * @param sql the SQL query {@link GString} which is automatically turning its values into the named parameters
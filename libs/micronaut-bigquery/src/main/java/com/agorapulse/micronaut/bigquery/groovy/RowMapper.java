@@ -0,0 +1,119 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.groovy;
+
+import com.agorapulse.micronaut.bigquery.RowResult;
+import groovy.lang.Closure;
+import groovy.transform.stc.ClosureParams;
+import groovy.transform.stc.FromString;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Row mapper calling the closure directly with the row as its only argument.
+ *
+ * Unlike the closures passed to the {@link MicronautBigQueryExtensions} methods, the closure is not wrapped again for
+ * every query and it does not receive the row as its delegate for every row. The closure must access the row only
+ * using its parameter, which is what the statically compiled closures do. If the closure declares a single parameter accepting the row then its
+ * <code>doCall</code> method is invoked through a method handle, bypassing the Groovy dispatch entirely.
+ *
+ * The mapper can be created once and reused by any number of queries:
+ *
+ * <pre><code>
+ * private static final RowMapper&lt;Person&gt; PERSON = RowMapper.of { RowResult row -&gt;
+ *     new Person(id: row.getLongValue('id'), name: row.getStringValue('name'))
+ * }
+ * </code></pre>
+ *
+ * @param <T> type of the result objects
+ */
+public final class RowMapper<T> implements Function<RowResult, T> {
+
+    private static final ClassValue<Optional<MethodHandle>> DO_CALL = new ClassValue<Optional<MethodHandle>>() {
+        @Override
+        protected Optional<MethodHandle> computeValue(Class<?> type) {
+            return findDoCall(type);
+        }
+    };
+
+    /**
+     * Creates the mapper calling the closure directly.
+     * @param closure the closure mapping the row into an object, it must access the row only using its parameter
+     * @param <T> type of the result objects
+     * @return the mapper calling the closure directly
+     */
+    public static <T> RowMapper<T> of(
+        @ClosureParams(value = FromString.class, options = "com.agorapulse.micronaut.bigquery.RowResult") Closure<T> closure
+    ) {
+        if (closure.getMaximumNumberOfParameters() > 1) {
+            throw new IllegalArgumentException("The row mapper closure must accept a single parameter");
+        }
+        return new RowMapper<>(closure, DO_CALL.get(closure.getClass()).map(handle -> handle.bindTo(closure)).orElse(null));
+    }
+
+    private RowMapper(Closure<T> closure, MethodHandle doCall) {
+        this.closure = closure;
+        this.doCall = doCall;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T apply(RowResult row) {
+        if (doCall == null) {
+            return closure.call(row);
+        }
+        try {
+            return (T) doCall.invokeExact(row);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable th) {
+            throw new UndeclaredThrowableException(th);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the closure is invoked through a method handle
+     */
+    public boolean isDirect() {
+        return doCall != null;
+    }
+
+    private static Optional<MethodHandle> findDoCall(Class<?> type) {
+        for (Method method : type.getMethods()) {
+            if ("doCall".equals(method.getName()) && method.getParameterCount() == 1 && method.getParameterTypes()[0].isAssignableFrom(RowResult.class)) {
+                try {
+                    // the generated closure classes are not always public
+                    method.setAccessible(true);
+                    return Optional.of(MethodHandles.lookup().unreflect(method).asType(MethodType.methodType(Object.class, type, RowResult.class)));
+                } catch (IllegalAccessException | RuntimeException e) {
+                    return Optional.empty();
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private final Closure<T> closure;
+    private final MethodHandle doCall;
+}
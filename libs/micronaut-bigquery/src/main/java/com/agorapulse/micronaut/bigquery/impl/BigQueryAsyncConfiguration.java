@@ -0,0 +1,85 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Configures the scheduler running the asynchronous operations.
+ */
+@ConfigurationProperties("bigquery.async")
+public class BigQueryAsyncConfiguration {
+
+    private int maxThreads = 8;
+    private int queueSize = 1000;
+    private Duration keepAlive = Duration.ofMinutes(1);
+    private boolean virtualThreads;
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Sets the maximal number of threads waiting for the BigQuery jobs.
+     * @param maxThreads the maximal number of threads waiting for the BigQuery jobs
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Sets the maximal number of operations waiting for a free thread. If the queue is full then the operation
+     * fails with {@link java.util.concurrent.RejectedExecutionException}.
+     * @param queueSize the maximal number of operations waiting for a free thread
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public Duration getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Sets how long the idle thread is kept alive.
+     * @param keepAlive how long the idle thread is kept alive
+     */
+    public void setKeepAlive(Duration keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Enables running the blocking BigQuery calls on virtual threads. The query results are also subscribed on the
+     * virtual threads. Ignored with a warning if the runtime does not support virtual threads.
+     * @param virtualThreads whether the blocking BigQuery calls should run on virtual threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.agorapulse.micronaut.bigquery.metrics.BigQueryMetrics;
+import com.agorapulse.micronaut.bigquery.metrics.NoopBigQueryMetrics;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of the BigQuery clients using different projects or service accounts to spread the jobs over the per-project
+ * quotas.
+ *
+ * The first client is the primary one, it is used for the jobs writing into the managed tables and for the table
+ * metadata. The clients hitting the quotas or the rate limits are avoided for the configured backoff as long as there
+ * is any other client available.
+ */
+public class BigQueryClientPool {
+
+    /**
+     * Single client of the pool with its statistics.
+     */
+    public static final class Client {
+
+        public Client(String name, BigQuery bigquery) {
+            this.name = name;
+            this.bigquery = bigquery;
+        }
+
+        /**
+         * @return the name of the client
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the BigQuery client
+         */
+        public BigQuery getBigQuery() {
+            return bigquery;
+        }
+
+        /**
+         * @return the project billed for the jobs created by this client
+         */
+        public String getProjectId() {
+            return bigquery.getOptions().getProjectId();
+        }
+
+        /**
+         * @return the number of the jobs currently running
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return the number of the jobs started using this client
+         */
+        public long getJobs() {
+            return jobs.get();
+        }
+
+        /**
+         * @return the number of the quota or rate limit errors
+         */
+        public long getQuotaErrors() {
+            return quotaErrors.get();
+        }
+
+        /**
+         * @return <code>true</code> if the client has recently hit a quota or a rate limit
+         */
+        public boolean isThrottled() {
+            return System.nanoTime() - throttledUntil < 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Client{name='" + name + "', inFlight=" + inFlight + ", quotaErrors=" + quotaErrors + ", throttled=" + isThrottled() + '}';
+        }
+
+        private final String name;
+        private final BigQuery bigquery;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong jobs = new AtomicLong();
+        private final AtomicLong quotaErrors = new AtomicLong();
+        private volatile long throttledUntil = System.nanoTime();
+
+    }
+
+    /**
+     * The name of the client created from the default credentials.
+     */
+    public static final String PRIMARY = "default";
+
+    private static final List<String> QUOTA_REASONS = Collections.unmodifiableList(Arrays.asList(
+        "rateLimitExceeded", "quotaExceeded", "jobRateLimitExceeded"
+    ));
+
+    /**
+     * Creates the pool with the single client.
+     * @param bigquery the BigQuery client
+     * @return the pool with the single client
+     */
+    public static BigQueryClientPool of(BigQuery bigquery) {
+        return new BigQueryClientPool(
+            Collections.singletonList(new Client(PRIMARY, bigquery)),
+            new BigQueryRoutingConfiguration(),
+            NoopBigQueryMetrics.INSTANCE
+        );
+    }
+
+    /**
+     * Returns <code>true</code> if the error was caused by exceeding a quota or a rate limit.
+     * @param error the error thrown by the client
+     * @return <code>true</code> if the error was caused by exceeding a quota or a rate limit
+     */
+    public static boolean isQuotaError(BigQueryException error) {
+        return error.getCode() == 429 || QUOTA_REASONS.contains(error.getReason());
+    }
+
+    /**
+     * Returns <code>true</code> if the error of the job was caused by exceeding a quota or a rate limit.
+     * @param error the error of the job
+     * @return <code>true</code> if the error of the job was caused by exceeding a quota or a rate limit
+     */
+    public static boolean isQuotaError(BigQueryError error) {
+        return error != null && QUOTA_REASONS.contains(error.getReason());
+    }
+
+    public BigQueryClientPool(List<Client> clients, BigQueryRoutingConfiguration configuration, BigQueryMetrics metrics) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("At least one client is required");
+        }
+
+        this.clients = Collections.unmodifiableList(new ArrayList<>(clients));
+        this.configuration = configuration;
+        this.metrics = metrics;
+
+        for (Client client : clients) {
+            metrics.gauge("bigquery.client.in-flight", client.inFlight::get, "client", client.name);
+            metrics.gauge("bigquery.client.throttled", () -> client.isThrottled() ? 1 : 0, "client", client.name);
+        }
+    }
+
+    /**
+     * @return the clients of this pool, the first one is the primary client
+     */
+    public List<Client> getClients() {
+        return clients;
+    }
+
+    /**
+     * @return the primary client
+     */
+    public Client getPrimary() {
+        return clients.get(0);
+    }
+
+    /**
+     * Selects the client for the next job.
+     * @param labels the labels of the job
+     * @param excluded the clients which should not be selected, e.g. because they have already failed for the job
+     * @return the client for the next job or <code>null</code> if all the clients are excluded
+     */
+    public Client select(Map<String, String> labels, List<Client> excluded) {
+        List<Client> candidates = new ArrayList<>(clients.size());
+        List<Client> healthy = new ArrayList<>(clients.size());
+        for (Client client : clients) {
+            if (!excluded.contains(client)) {
+                candidates.add(client);
+                if (!client.isThrottled()) {
+                    healthy.add(client);
+                }
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        List<Client> available = healthy.isEmpty() ? candidates : healthy;
+
+        switch (configuration.getStrategy()) {
+            case LEAST_LOADED:
+                Client least = available.get(0);
+                for (Client client : available) {
+                    if (client.getInFlight() < least.getInFlight()) {
+                        least = client;
+                    }
+                }
+                return least;
+            case TAG:
+                String target = configuration.getTags().get(labels.get(configuration.getTagLabel()));
+                for (Client client : available) {
+                    if (client.name.equals(target)) {
+                        return client;
+                    }
+                }
+                return next(available);
+            case ROUND_ROBIN:
+            default:
+                return next(available);
+        }
+    }
+
+    /**
+     * Returns the client for the given project.
+     * @param projectId the project of the job
+     * @return the client for the given project or the primary client if no client uses the project
+     */
+    public Client forProject(String projectId) {
+        if (clients.size() == 1) {
+            return getPrimary();
+        }
+        for (Client client : clients) {
+            if (Objects.equals(client.getProjectId(), projectId)) {
+                return client;
+            }
+        }
+        return getPrimary();
+    }
+
+    /**
+     * Records that the job has been started by the client.
+     * @param client the client starting the job
+     */
+    public void started(Client client) {
+        client.inFlight.incrementAndGet();
+        client.jobs.incrementAndGet();
+        metrics.increment("bigquery.client.jobs", "client", client.name);
+    }
+
+    /**
+     * Records that the job started by the client has finished.
+     * @param client the client which started the job
+     */
+    public void finished(Client client) {
+        client.inFlight.decrementAndGet();
+    }
+
+    /**
+     * Records that the client has hit a quota or a rate limit so it should be avoided for a while.
+     * @param client the throttled client
+     */
+    public void throttled(Client client) {
+        client.quotaErrors.incrementAndGet();
+        client.throttledUntil = System.nanoTime() + configuration.getThrottleBackoff().toNanos();
+        metrics.increment("bigquery.client.quota-errors", "client", client.name);
+    }
+
+    private Client next(List<Client> available) {
+        return available.get(Math.floorMod(counter.getAndIncrement(), available.size()));
+    }
+
+    private final List<Client> clients;
+    private final BigQueryRoutingConfiguration configuration;
+    private final BigQueryMetrics metrics;
+    private final AtomicInteger counter = new AtomicInteger();
+
+}
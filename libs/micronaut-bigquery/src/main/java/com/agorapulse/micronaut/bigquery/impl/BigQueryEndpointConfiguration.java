@@ -0,0 +1,83 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.bigquery.BigQueryOptions;
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+/**
+ * Overrides the endpoint of the BigQuery client, for example to connect to a local BigQuery emulator.
+ *
+ * No credentials are sent to the overridden endpoint.
+ */
+@ConfigurationProperties("bigquery.endpoint")
+public class BigQueryEndpointConfiguration {
+
+    public static final String HOST_PROPERTY = "bigquery.endpoint.host";
+
+    private String host;
+    private String projectId = "test";
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Sets the root URL of the BigQuery API, e.g. <code>http://localhost:9050</code>.
+     * @param host the root URL of the BigQuery API
+     */
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public String getProjectId() {
+        return projectId;
+    }
+
+    /**
+     * Sets the project used with the overridden endpoint, defaults to <code>test</code>.
+     * @param projectId the project used with the overridden endpoint
+     */
+    public void setProjectId(String projectId) {
+        this.projectId = projectId;
+    }
+
+    /**
+     * @return <code>true</code> if the endpoint is overridden
+     */
+    public boolean isOverridden() {
+        return host != null && !host.isEmpty();
+    }
+
+    /**
+     * Applies the endpoint, the project and the empty credentials to the options builder if the endpoint is overridden.
+     * @param builder the options builder
+     * @return the options builder with the endpoint applied
+     */
+    public BigQueryOptions.Builder configure(BigQueryOptions.Builder builder) {
+        if (!isOverridden()) {
+            return builder;
+        }
+        return builder
+            .setHost(host)
+            .setProjectId(projectId)
+            .setCredentials(NoCredentials.getInstance());
+    }
+
+}
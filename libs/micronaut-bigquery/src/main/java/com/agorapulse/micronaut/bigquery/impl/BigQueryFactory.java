@@ -17,6 +17,7 @@
  */
 package com.agorapulse.micronaut.bigquery.impl;
 
+import com.agorapulse.micronaut.bigquery.metrics.BigQueryMetrics;
 import com.google.cloud.bigquery.BigQuery;
 import com.google.cloud.bigquery.BigQueryOptions;
 import io.micronaut.context.annotation.Bean;
@@ -24,6 +25,7 @@ import io.micronaut.context.annotation.Factory;
 import io.micronaut.context.annotation.Requires;
 
 import javax.inject.Singleton;
+import java.util.Collections;
 
 @Factory
 public class BigQueryFactory {
@@ -31,8 +33,34 @@ public class BigQueryFactory {
     @Bean
     @Singleton
     @Requires(condition = BigQueryCredentialsPresent.class)
-    public BigQuery bigQuery() {
-        return  BigQueryOptions.getDefaultInstance().getService();
+    @Requires(missingProperty = BigQueryEndpointConfiguration.HOST_PROPERTY)
+    public BigQuery bigQuery(BigQueryTransportConfiguration transport) {
+        return transport.configure(BigQueryOptions.newBuilder()).build().getService();
+    }
+
+    /**
+     * Creates the client connecting to the overridden endpoint such as a local emulator without any credentials.
+     *
+     * If the AWS integration is configured then its factory creates the client instead.
+     */
+    @Bean
+    @Singleton
+    @Requires(property = BigQueryEndpointConfiguration.HOST_PROPERTY)
+    @Requires(missingProperty = "bigquery.credentials.private-key")
+    public BigQuery emulatedBigQuery(BigQueryTransportConfiguration transport, BigQueryEndpointConfiguration endpoint) {
+        return endpoint.configure(transport.configure(BigQueryOptions.newBuilder())).build().getService();
+    }
+
+    /**
+     * Creates the pool containing just the default client.
+     *
+     * If the AWS integration is configured with the named credentials then its factory creates the pool instead.
+     */
+    @Bean
+    @Singleton
+    @Requires(beans = BigQuery.class)
+    public BigQueryClientPool bigQueryClientPool(BigQuery bigQuery, BigQueryRoutingConfiguration routing, BigQueryMetrics metrics) {
+        return new BigQueryClientPool(Collections.singletonList(new BigQueryClientPool.Client(BigQueryClientPool.PRIMARY, bigQuery)), routing, metrics);
     }
 
 }
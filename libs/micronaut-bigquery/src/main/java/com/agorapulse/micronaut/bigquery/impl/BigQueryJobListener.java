@@ -0,0 +1,38 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.google.cloud.bigquery.Job;
+
+/**
+ * Listener notified when a job issued by {@link DefaultBigQueryService} completes successfully.
+ *
+ * Declare the listener as a bean to receive the notifications. The job statistics such as the number of the partitions
+ * or bytes processed are available using {@link Job#getStatistics()}.
+ */
+@FunctionalInterface
+public interface BigQueryJobListener {
+
+    /**
+     * Called when the job completes successfully.
+     * @param sql the SQL statement executed by the job
+     * @param job the completed job
+     */
+    void onJobCompleted(String sql, Job job);
+
+}
@@ -0,0 +1,108 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Configures how the jobs are routed between the clients of the {@link BigQueryClientPool}.
+ */
+@ConfigurationProperties("bigquery.routing")
+public class BigQueryRoutingConfiguration {
+
+    /**
+     * The strategy selecting the client running the next job.
+     */
+    public enum Strategy {
+
+        /**
+         * The clients are used in turns.
+         */
+        ROUND_ROBIN,
+
+        /**
+         * The client with the least jobs currently running is used.
+         */
+        LEAST_LOADED,
+
+        /**
+         * The client is selected by the value of the tag label of the job, the jobs without the tag or with a tag
+         * which is not mapped to any client are distributed in turns.
+         */
+        TAG
+
+    }
+
+    private Strategy strategy = Strategy.ROUND_ROBIN;
+    private String tagLabel = "tag";
+    private Map<String, String> tags = new LinkedHashMap<>();
+    private Duration throttleBackoff = Duration.ofMinutes(1);
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Sets the strategy selecting the client running the next job.
+     * @param strategy the strategy selecting the client running the next job
+     */
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public String getTagLabel() {
+        return tagLabel;
+    }
+
+    /**
+     * Sets the key of the job label used by the {@link Strategy#TAG} strategy.
+     * @param tagLabel the key of the job label used by the tag strategy
+     */
+    public void setTagLabel(String tagLabel) {
+        this.tagLabel = tagLabel;
+    }
+
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    /**
+     * Sets the names of the clients running the jobs with the given tags.
+     * @param tags the map of the tags to the names of the clients
+     */
+    public void setTags(Map<String, String> tags) {
+        this.tags = tags;
+    }
+
+    public Duration getThrottleBackoff() {
+        return throttleBackoff;
+    }
+
+    /**
+     * Sets how long the client is avoided after hitting a quota or a rate limit.
+     * @param throttleBackoff how long the client is avoided after hitting a quota or a rate limit
+     */
+    public void setThrottleBackoff(Duration throttleBackoff) {
+        this.throttleBackoff = throttleBackoff;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import io.micronaut.context.annotation.Bean;
+import io.micronaut.context.annotation.Factory;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the bounded scheduler for the asynchronous operations.
+ *
+ * The operations submitted when all the threads are busy and the queue is full are rejected with
+ * {@link java.util.concurrent.RejectedExecutionException} instead of blocking the subscribing thread.
+ *
+ * If <code>bigquery.async.virtual-threads</code> is enabled and the runtime supports virtual threads then each operation
+ * runs on its own virtual thread instead.
+ */
+@Factory
+public class BigQuerySchedulerFactory {
+
+    public static final String NAME = "bigquery";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BigQuerySchedulerFactory.class);
+
+    @Bean(preDestroy = "shutdown")
+    @Singleton
+    @Named(NAME)
+    public ExecutorService bigQueryExecutor(BigQueryAsyncConfiguration configuration) {
+        if (configuration.isVirtualThreads()) {
+            if (VirtualThreads.isAvailable()) {
+                return VirtualThreads.newExecutor();
+            }
+            LOGGER.warn("Virtual threads are not supported by the current runtime, using the platform threads instead");
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            configuration.getMaxThreads(),
+            configuration.getMaxThreads(),
+            configuration.getKeepAlive().toMillis(),
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(configuration.getQueueSize()),
+            new BigQueryThreadFactory(),
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Bean
+    @Singleton
+    @Named(NAME)
+    public Scheduler bigQueryScheduler(@Named(NAME) ExecutorService executor) {
+        return Schedulers.from(executor);
+    }
+
+    private static class BigQueryThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "bigquery-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
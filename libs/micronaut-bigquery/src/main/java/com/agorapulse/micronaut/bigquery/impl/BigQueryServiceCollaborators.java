@@ -0,0 +1,277 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.agorapulse.micronaut.bigquery.InMemoryWatermarkStore;
+import com.agorapulse.micronaut.bigquery.WatermarkStore;
+import com.agorapulse.micronaut.bigquery.metrics.BigQueryMetrics;
+import com.agorapulse.micronaut.bigquery.metrics.NoopBigQueryMetrics;
+import com.agorapulse.micronaut.bigquery.tracing.BigQueryTracer;
+import com.agorapulse.micronaut.bigquery.tracing.NoopBigQueryTracer;
+import com.google.cloud.bigquery.BigQuery;
+import io.reactivex.schedulers.Schedulers;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Groups the collaborators and the configuration of the {@link DefaultBigQueryService}.
+ *
+ * The instances created by the {@link #builder(BigQuery)} use the defaults of a service without any application
+ * context which can be overridden one by one.
+ */
+@Singleton
+public class BigQueryServiceCollaborators {
+
+    /**
+     * Builds the collaborators using the defaults for those which are not set.
+     */
+    public static final class Builder {
+
+        private final BigQuery bigQuery;
+
+        private TableMetadataCache metadata;
+        private PartitionGuard partitionGuard;
+        private QueryMaterializer materializer;
+        private WatermarkStore watermarkStore;
+        private List<BigQueryJobListener> listeners;
+        private RowBufferConfiguration bufferConfiguration;
+        private InsertQueue insertQueue;
+        private Executor executor;
+        private BigQueryTracer tracer;
+        private QueryCoalescer coalescer;
+        private QueryOptionsConfiguration queryOptions;
+        private BigQueryMetrics metrics;
+        private BigQueryAsyncConfiguration asyncConfiguration;
+        private BigQueryClientPool pool;
+
+        private Builder(BigQuery bigQuery) {
+            this.bigQuery = bigQuery;
+        }
+
+        public Builder metadata(TableMetadataCache metadata) {
+            this.metadata = metadata;
+            return this;
+        }
+
+        public Builder partitionGuard(PartitionGuard partitionGuard) {
+            this.partitionGuard = partitionGuard;
+            return this;
+        }
+
+        public Builder materializer(QueryMaterializer materializer) {
+            this.materializer = materializer;
+            return this;
+        }
+
+        public Builder watermarkStore(WatermarkStore watermarkStore) {
+            this.watermarkStore = watermarkStore;
+            return this;
+        }
+
+        public Builder listeners(List<BigQueryJobListener> listeners) {
+            this.listeners = listeners;
+            return this;
+        }
+
+        public Builder bufferConfiguration(RowBufferConfiguration bufferConfiguration) {
+            this.bufferConfiguration = bufferConfiguration;
+            return this;
+        }
+
+        public Builder insertQueue(InsertQueue insertQueue) {
+            this.insertQueue = insertQueue;
+            return this;
+        }
+
+        /**
+         * Sets the executor running the asynchronous operations, defaults to the RxJava IO scheduler.
+         * @param executor the executor running the asynchronous operations
+         * @return self
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder tracer(BigQueryTracer tracer) {
+            this.tracer = tracer;
+            return this;
+        }
+
+        public Builder coalescer(QueryCoalescer coalescer) {
+            this.coalescer = coalescer;
+            return this;
+        }
+
+        public Builder queryOptions(QueryOptionsConfiguration queryOptions) {
+            this.queryOptions = queryOptions;
+            return this;
+        }
+
+        public Builder metrics(BigQueryMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder asyncConfiguration(BigQueryAsyncConfiguration asyncConfiguration) {
+            this.asyncConfiguration = asyncConfiguration;
+            return this;
+        }
+
+        public Builder pool(BigQueryClientPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        public BigQueryServiceCollaborators build() {
+            TableMetadataCache tables = metadata == null ? new TableMetadataCache(bigQuery, Duration.ofMinutes(10)) : metadata;
+            return new BigQueryServiceCollaborators(
+                tables,
+                partitionGuard == null ? new PartitionGuard(tables, PartitionGuard.Mode.NONE) : partitionGuard,
+                materializer == null ? new QueryMaterializer("", Duration.ofDays(1)) : materializer,
+                watermarkStore == null ? new InMemoryWatermarkStore() : watermarkStore,
+                listeners == null ? Collections.emptyList() : listeners,
+                bufferConfiguration == null ? new RowBufferConfiguration() : bufferConfiguration,
+                insertQueue == null ? new InsertQueue(new InsertQueueConfiguration(), () -> null, NoopBigQueryMetrics.INSTANCE) : insertQueue,
+                executor == null ? task -> Schedulers.io().scheduleDirect(task) : executor,
+                tracer == null ? NoopBigQueryTracer.INSTANCE : tracer,
+                coalescer == null ? new QueryCoalescer(false, NoopBigQueryMetrics.INSTANCE) : coalescer,
+                queryOptions == null ? new QueryOptionsConfiguration() : queryOptions,
+                metrics == null ? NoopBigQueryMetrics.INSTANCE : metrics,
+                asyncConfiguration == null ? new BigQueryAsyncConfiguration() : asyncConfiguration,
+                pool == null ? BigQueryClientPool.of(bigQuery) : pool
+            );
+        }
+
+    }
+
+    public static Builder builder(BigQuery bigQuery) {
+        return new Builder(bigQuery);
+    }
+
+    private final TableMetadataCache metadata;
+    private final PartitionGuard partitionGuard;
+    private final QueryMaterializer materializer;
+    private final WatermarkStore watermarkStore;
+    private final List<BigQueryJobListener> listeners;
+    private final RowBufferConfiguration bufferConfiguration;
+    private final InsertQueue insertQueue;
+    private final Executor executor;
+    private final BigQueryTracer tracer;
+    private final QueryCoalescer coalescer;
+    private final QueryOptionsConfiguration queryOptions;
+    private final BigQueryMetrics metrics;
+    private final BigQueryAsyncConfiguration asyncConfiguration;
+    private final BigQueryClientPool pool;
+
+    @Inject
+    public BigQueryServiceCollaborators(
+        TableMetadataCache metadata,
+        PartitionGuard partitionGuard,
+        QueryMaterializer materializer,
+        WatermarkStore watermarkStore,
+        List<BigQueryJobListener> listeners,
+        RowBufferConfiguration bufferConfiguration,
+        InsertQueue insertQueue,
+        @Named(BigQuerySchedulerFactory.NAME) Executor executor,
+        BigQueryTracer tracer,
+        QueryCoalescer coalescer,
+        QueryOptionsConfiguration queryOptions,
+        BigQueryMetrics metrics,
+        BigQueryAsyncConfiguration asyncConfiguration,
+        BigQueryClientPool pool
+    ) {
+        this.metadata = metadata;
+        this.partitionGuard = partitionGuard;
+        this.materializer = materializer;
+        this.watermarkStore = watermarkStore;
+        this.listeners = listeners;
+        this.bufferConfiguration = bufferConfiguration;
+        this.insertQueue = insertQueue;
+        this.executor = executor;
+        this.tracer = tracer;
+        this.coalescer = coalescer;
+        this.queryOptions = queryOptions;
+        this.metrics = metrics;
+        this.asyncConfiguration = asyncConfiguration;
+        this.pool = pool;
+    }
+
+    TableMetadataCache getMetadata() {
+        return metadata;
+    }
+
+    PartitionGuard getPartitionGuard() {
+        return partitionGuard;
+    }
+
+    QueryMaterializer getMaterializer() {
+        return materializer;
+    }
+
+    WatermarkStore getWatermarkStore() {
+        return watermarkStore;
+    }
+
+    List<BigQueryJobListener> getListeners() {
+        return listeners;
+    }
+
+    RowBufferConfiguration getBufferConfiguration() {
+        return bufferConfiguration;
+    }
+
+    InsertQueue getInsertQueue() {
+        return insertQueue;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    BigQueryTracer getTracer() {
+        return tracer;
+    }
+
+    QueryCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    QueryOptionsConfiguration getQueryOptions() {
+        return queryOptions;
+    }
+
+    BigQueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    BigQueryAsyncConfiguration getAsyncConfiguration() {
+        return asyncConfiguration;
+    }
+
+    BigQueryClientPool getPool() {
+        return pool;
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.http.HttpTransportOptions;
+import io.micronaut.context.annotation.ConfigurationProperties;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.protocol.HttpContext;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configures the HTTP transport and the retry settings of the BigQuery client.
+ */
+@ConfigurationProperties("bigquery.transport")
+public class BigQueryTransportConfiguration {
+
+    private Duration connectTimeout = Duration.ofSeconds(20);
+    private Duration readTimeout = Duration.ofSeconds(20);
+    private int maxConnections = 200;
+    private int maxConnectionsPerRoute = 20;
+    private Duration keepAlive = Duration.ofMinutes(5);
+    private long compressionThreshold = -1;
+
+    private int maxAttempts = 6;
+    private Duration initialRetryDelay = Duration.ofSeconds(1);
+    private double retryDelayMultiplier = 2.0;
+    private Duration maxRetryDelay = Duration.ofSeconds(32);
+    private Duration totalTimeout = Duration.ofMinutes(50);
+
+    private boolean warmUp;
+    private int warmUpConnections = 1;
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public Duration getKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(Duration keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public long getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the minimal size of the request body in bytes which is compressed using gzip. Negative values disable the compression.
+     * @param compressionThreshold the minimal size of the request body in bytes which is compressed using gzip
+     */
+    public void setCompressionThreshold(long compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public Duration getInitialRetryDelay() {
+        return initialRetryDelay;
+    }
+
+    public void setInitialRetryDelay(Duration initialRetryDelay) {
+        this.initialRetryDelay = initialRetryDelay;
+    }
+
+    public double getRetryDelayMultiplier() {
+        return retryDelayMultiplier;
+    }
+
+    public void setRetryDelayMultiplier(double retryDelayMultiplier) {
+        this.retryDelayMultiplier = retryDelayMultiplier;
+    }
+
+    public Duration getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    public void setMaxRetryDelay(Duration maxRetryDelay) {
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    public Duration getTotalTimeout() {
+        return totalTimeout;
+    }
+
+    public void setTotalTimeout(Duration totalTimeout) {
+        this.totalTimeout = totalTimeout;
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Sets whether the access token should be fetched and the connections opened on the application startup.
+     * @param warmUp whether the access token should be fetched and the connections opened on the application startup
+     */
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    public int getWarmUpConnections() {
+        return warmUpConnections;
+    }
+
+    public void setWarmUpConnections(int warmUpConnections) {
+        this.warmUpConnections = warmUpConnections;
+    }
+
+    /**
+     * Applies the transport and the retry settings to the options builder.
+     * @param builder the options builder
+     * @return the options builder with the transport and the retry settings applied
+     */
+    public BigQueryOptions.Builder configure(BigQueryOptions.Builder builder) {
+        HttpTransportOptions transportOptions = HttpTransportOptions.newBuilder()
+            .setConnectTimeout((int) connectTimeout.toMillis())
+            .setReadTimeout((int) readTimeout.toMillis())
+            .setHttpTransportFactory(this::createTransport)
+            .build();
+
+        RetrySettings retrySettings = ServiceOptions.getDefaultRetrySettings().toBuilder()
+            .setMaxAttempts(maxAttempts)
+            .setInitialRetryDelay(org.threeten.bp.Duration.ofMillis(initialRetryDelay.toMillis()))
+            .setRetryDelayMultiplier(retryDelayMultiplier)
+            .setMaxRetryDelay(org.threeten.bp.Duration.ofMillis(maxRetryDelay.toMillis()))
+            .setTotalTimeout(org.threeten.bp.Duration.ofMillis(totalTimeout.toMillis()))
+            .build();
+
+        return builder.setTransportOptions(transportOptions).setRetrySettings(retrySettings);
+    }
+
+    HttpTransport createTransport() {
+        HttpClientBuilder clientBuilder = ApacheHttpTransport.newDefaultHttpClientBuilder()
+            .setMaxConnTotal(maxConnections)
+            .setMaxConnPerRoute(maxConnectionsPerRoute)
+            .setConnectionTimeToLive(keepAlive.toMillis(), TimeUnit.MILLISECONDS)
+            .setKeepAliveStrategy((response, context) -> keepAlive.toMillis())
+            .evictIdleConnections(keepAlive.toMillis(), TimeUnit.MILLISECONDS);
+
+        if (compressionThreshold >= 0) {
+            // must run before the standard interceptors which compute the content headers
+            clientBuilder.addInterceptorFirst(new GzipInterceptor(compressionThreshold));
+        }
+
+        return new ApacheHttpTransport(clientBuilder.build());
+    }
+
+    /**
+     * Compresses the request bodies of at least given size which are not encoded yet.
+     */
+    static class GzipInterceptor implements HttpRequestInterceptor {
+
+        private final long threshold;
+
+        GzipInterceptor(long threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void process(HttpRequest request, HttpContext context) {
+            if (!(request instanceof HttpEntityEnclosingRequest)) {
+                return;
+            }
+            HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+            HttpEntity entity = enclosingRequest.getEntity();
+            if (entity != null && entity.getContentEncoding() == null && entity.getContentLength() >= threshold) {
+                enclosingRequest.setEntity(new GzipCompressingEntity(entity));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.google.auth.Credentials;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.bigquery.BigQuery;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.event.ApplicationEventListener;
+import io.micronaut.context.event.StartupEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.IntStream;
+
+/**
+ * Fetches the access token and opens the pooled connections in the background on the application startup
+ * if <code>bigquery.transport.warm-up</code> is enabled.
+ *
+ * The blocking calls run on the executor named <code>bigquery</code> configured by <code>bigquery.async</code>
+ * properties so they do not occupy the common fork join pool.
+ */
+@Singleton
+@Requires(property = "bigquery.transport.warm-up", value = "true")
+public class BigQueryWarmUp implements ApplicationEventListener<StartupEvent> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BigQueryWarmUp.class);
+
+    private final Provider<BigQuery> bigquery;
+    private final BigQueryTransportConfiguration configuration;
+    private final Executor executor;
+
+    public BigQueryWarmUp(
+        Provider<BigQuery> bigquery,
+        BigQueryTransportConfiguration configuration,
+        @Named(BigQuerySchedulerFactory.NAME) Executor executor
+    ) {
+        this.bigquery = bigquery;
+        this.configuration = configuration;
+        this.executor = executor;
+    }
+
+    @Override
+    public void onApplicationEvent(StartupEvent event) {
+        try {
+            CompletableFuture.runAsync(this::refreshCredentials, executor)
+                .thenCompose(ignored -> CompletableFuture.allOf(IntStream.range(0, configuration.getWarmUpConnections())
+                    .mapToObj(i -> CompletableFuture.runAsync(this::openConnection, executor))
+                    .toArray(CompletableFuture[]::new)
+                ))
+                .whenComplete((ignored, error) -> {
+                    if (error == null) {
+                        LOGGER.debug("BigQuery client warmed up");
+                    } else {
+                        LOGGER.warn("Failed to warm up BigQuery client", error);
+                    }
+                });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Failed to warm up BigQuery client", e);
+        }
+    }
+
+    private void refreshCredentials() {
+        Credentials credentials = bigquery.get().getOptions().getCredentials();
+        if (credentials != null && !(credentials instanceof NoCredentials)) {
+            try {
+                credentials.refresh();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot fetch the access token", e);
+            }
+        }
+    }
+
+    private void openConnection() {
+        bigquery.get().listDatasets(BigQuery.DatasetListOption.pageSize(1));
+    }
+
+}
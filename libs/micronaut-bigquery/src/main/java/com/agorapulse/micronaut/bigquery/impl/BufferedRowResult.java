@@ -0,0 +1,129 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.agorapulse.micronaut.bigquery.RowResult;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Row result backed by the values decoded from the {@link RowBuffer}.
+ */
+class BufferedRowResult implements RowResult {
+
+    BufferedRowResult(Map<String, Integer> columns, Object[] values) {
+        this.columns = columns;
+        this.values = values;
+    }
+
+    @Override
+    public boolean isNull(String key) {
+        return getValue(key) == null;
+    }
+
+    @Override
+    public Boolean getBooleanValue(String key) {
+        Object value = getValue(key);
+        if (value == null || value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return Boolean.valueOf(value.toString());
+    }
+
+    @Override
+    public Double getDoubleValue(String key) {
+        Object value = getValue(key);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.valueOf(value.toString());
+    }
+
+    @Override
+    public String getStringValue(String key) {
+        Object value = getValue(key);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public Long getLongValue(String key) {
+        Object value = getValue(key);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.valueOf(value.toString());
+    }
+
+    @Override
+    public Instant getTimestampValue(String key) {
+        Object value = getValue(key);
+        if (value == null || value instanceof Instant) {
+            return (Instant) value;
+        }
+        if (value instanceof Number) {
+            return Instant.ofEpochMilli(((Number) value).longValue());
+        }
+        return Instant.parse(value.toString());
+    }
+
+    /**
+     * Only the scalar columns are buffered so the value is never a nested record.
+     */
+    @Override
+    public RowResult getRecord(String key) {
+        Object value = getValue(key);
+        if (value == null) {
+            return null;
+        }
+        throw new IllegalArgumentException("Value " + key + " is not a record: " + value);
+    }
+
+    /**
+     * Only the scalar columns are buffered so the value is never an array.
+     */
+    @Override
+    public List<RowResult> getRepeated(String key) {
+        Object value = getValue(key);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        throw new IllegalArgumentException("Value " + key + " is not an array: " + value);
+    }
+
+    private Object getValue(String key) {
+        Integer index = columns.get(key.toLowerCase(Locale.ROOT));
+        if (index == null) {
+            throw new IllegalArgumentException("Cannot read value " + key + ", available columns are " + columns.keySet());
+        }
+        return values[index];
+    }
+
+    private final Map<String, Integer> columns;
+    private final Object[] values;
+
+}
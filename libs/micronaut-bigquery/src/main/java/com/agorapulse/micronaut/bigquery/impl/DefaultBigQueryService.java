@@ -18,93 +18,1116 @@
 package com.agorapulse.micronaut.bigquery.impl;
 
 import com.agorapulse.micronaut.bigquery.BigQueryService;
+import com.agorapulse.micronaut.bigquery.BufferedQueryService;
+import com.agorapulse.micronaut.bigquery.BufferedResult;
+import com.agorapulse.micronaut.bigquery.ParameterizedSql;
+import com.agorapulse.micronaut.bigquery.QueryOptions;
+import com.agorapulse.micronaut.bigquery.QueryPage;
 import com.agorapulse.micronaut.bigquery.RowResult;
+import com.agorapulse.micronaut.bigquery.SampledResult;
+import com.agorapulse.micronaut.bigquery.StatementStatistics;
+import com.agorapulse.micronaut.bigquery.WatermarkStore;
+import com.agorapulse.micronaut.bigquery.metrics.BigQueryMetrics;
+import com.agorapulse.micronaut.bigquery.tracing.BigQuerySpan;
+import com.agorapulse.micronaut.bigquery.tracing.BigQueryTracer;
+import com.google.cloud.RetryOption;
 import com.google.cloud.bigquery.BigQuery;
 import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.FieldValue;
+import com.google.cloud.bigquery.FieldValueList;
 import com.google.cloud.bigquery.Job;
 import com.google.cloud.bigquery.JobId;
 import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.JobStatistics;
+import com.google.cloud.bigquery.LegacySQLTypeName;
 import com.google.cloud.bigquery.QueryJobConfiguration;
 import com.google.cloud.bigquery.QueryParameterValue;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableInfo;
 import com.google.cloud.bigquery.TableResult;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
+import io.reactivex.Emitter;
 import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 
 @Singleton
-public class DefaultBigQueryService implements BigQueryService {
+public class DefaultBigQueryService implements BigQueryService, BufferedQueryService {
 
-    private final BigQuery bigquery;
+    @FunctionalInterface
+    private interface PageFetcher {
+
+        TableResult fetch() throws InterruptedException;
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultBigQueryService.class);
+
+    private static final class PlanKey {
+        private final Class<?> type;
+        private final TableId tableId;
+
+        PlanKey(Class<?> type, TableId tableId) {
+            this.type = type;
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PlanKey)) {
+                return false;
+            }
+            PlanKey other = (PlanKey) o;
+            return type.equals(other.type) && tableId.equals(other.tableId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + tableId.hashCode();
+        }
+    }
+
+    private static final class PlanEntry {
+        private final Schema schema;
+        private final InsertPlan<Object> plan;
+
+        PlanEntry(Schema schema, InsertPlan<Object> plan) {
+            this.schema = schema;
+            this.plan = plan;
+        }
+    }
+
+    private static final class StartedQuery {
+        private final TableResult result;
+        private final BigQuerySpan span;
+        private final double samplePercent;
+
+        StartedQuery(TableResult result, BigQuerySpan span, double samplePercent) {
+            this.result = result;
+            this.span = span;
+            this.samplePercent = samplePercent;
+        }
+    }
+
+    /**
+     * Tracks the job started by a single call so it can be cancelled from another thread.
+     *
+     * The state is guarded by a lock instead of <code>synchronized</code> and the job is cancelled outside of the lock
+     * so the virtual threads are never pinned to their carrier threads.
+     */
+    private final class RunningJob {
+        private final Lock lock = new ReentrantLock();
+        private Job job;
+        private String cancelled;
+        private boolean finished;
+
+        void started(Job job) {
+            lock.lock();
+            String reason;
+            try {
+                this.job = job;
+                reason = cancelled;
+            } finally {
+                lock.unlock();
+            }
+            if (reason != null) {
+                cancelJob(job, reason);
+            }
+        }
+
+        void finished() {
+            lock.lock();
+            try {
+                finished = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isCancelled() {
+            lock.lock();
+            try {
+                return cancelled != null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void cancel(String reason) {
+            Job started;
+            lock.lock();
+            try {
+                if (cancelled != null || finished) {
+                    return;
+                }
+                cancelled = reason;
+                started = job;
+            } finally {
+                lock.unlock();
+            }
+            if (started != null) {
+                cancelJob(started, reason);
+            }
+        }
+    }
+
+    private static final String CANCELLED_BY_DISPOSAL = "disposed";
+    private static final String CANCELLED_BY_DEADLINE = "deadline";
+    private static final String CANCELLED_BY_INTERRUPT = "interrupted";
+    private static final double MIN_SAMPLE_PERCENT = 0.01;
+    private static final Duration STAGING_EXPIRATION = Duration.ofHours(1);
+
+    private final ConcurrentMap<PlanKey, PlanEntry> plans = new ConcurrentHashMap<>();
+    private final TableMetadataCache metadata;
+    private final PartitionGuard partitionGuard;
+    private final QueryMaterializer materializer;
+    private final WatermarkStore watermarkStore;
+    private final List<BigQueryJobListener> listeners;
+    private final RowBufferConfiguration bufferConfiguration;
+    private final InsertQueue insertQueue;
+    private final Executor executor;
+    private final BigQueryTracer tracer;
+    private final QueryCoalescer coalescer;
+    private final QueryOptions defaults;
+    private final BigQueryMetrics metrics;
+    private final Scheduler resultsScheduler;
+    private final BigQueryClientPool pool;
 
     public DefaultBigQueryService(BigQuery bigQuery) {
-        this.bigquery = bigQuery;
+        this(BigQueryServiceCollaborators.builder(bigQuery).build());
+    }
+
+    @Inject
+    public DefaultBigQueryService(BigQueryServiceCollaborators collaborators) {
+        this.metadata = collaborators.getMetadata();
+        this.partitionGuard = collaborators.getPartitionGuard();
+        this.materializer = collaborators.getMaterializer();
+        this.watermarkStore = collaborators.getWatermarkStore();
+        this.listeners = collaborators.getListeners();
+        this.bufferConfiguration = collaborators.getBufferConfiguration();
+        this.insertQueue = collaborators.getInsertQueue();
+        this.executor = collaborators.getExecutor();
+        this.tracer = collaborators.getTracer();
+        this.coalescer = collaborators.getCoalescer();
+        this.defaults = collaborators.getQueryOptions().toQueryOptions();
+        this.metrics = collaborators.getMetrics();
+        this.resultsScheduler = collaborators.getAsyncConfiguration().isVirtualThreads() && VirtualThreads.isAvailable()
+            ? Schedulers.from(executor)
+            : null;
+        this.pool = collaborators.getPool();
     }
 
     @Override
     public <T> Flowable<T> query(Map<String, ?> namedParameters, String sql, Function<RowResult, T> builder) {
-        QueryJobConfiguration queryConfig = QueryJobConfiguration
-            .newBuilder(checkForNulls(sql, namedParameters))
-            .setUseLegacySql(false)
-            .setNamedParameters(toNamedParameters(namedParameters))
-            .build();
+        return query(namedParameters, sql, QueryOptions.DEFAULT, builder);
+    }
 
-        // Create a job ID
-        JobId jobId = JobId.of(UUID.randomUUID().toString());
-        Job job = bigquery.create(JobInfo.newBuilder(queryConfig).setJobId(jobId).build());
+    @Override
+    public <T> Flowable<T> query(Map<String, ?> namedParameters, String sql, QueryOptions options, Function<RowResult, T> builder) {
+        partitionGuard.check(sql);
+
+        ParameterizedSql expanded = StructParameters.expand(checkForNulls(sql, namedParameters), namedParameters);
+        String query = expanded.getSql();
+        Map<String, QueryParameterValue> parameters = toNamedParameters(expanded.getNamedParameters());
+
+        QueryOptions effective = options.withDefaults(defaults);
+
+        Flowable<FieldValueList> rows;
+        if (coalescer.isEnabled(effective)) {
+            // the shared job runs without any caller's timeout or deadline, each caller only stops waiting for it
+            QueryOptions shared = effective.toBuilder().timeout(null).deadline(null).build();
+            List<Object> key = Arrays.asList(query, new TreeMap<>(parameters), shared);
+            rows = coalescer.coalesce(key, effective, () -> runQuery(sql, query, parameters, shared));
+        } else {
+            rows = runQuery(sql, query, parameters, effective);
+        }
+
+        if (resultsScheduler != null) {
+            // the job is awaited and the pages are fetched on the virtual threads instead of the subscribing thread
+            rows = rows.subscribeOn(resultsScheduler);
+        }
+
+        return rows.map(FieldValueListRowResult::new).map(builder::apply);
+    }
+
+    /**
+     * Runs the query job lazily once subscribed, disposing the subscription cancels the job if it is still running and
+     * stops fetching the remaining pages.
+     */
+    private Flowable<FieldValueList> runQuery(String sql, String query, Map<String, QueryParameterValue> parameters, QueryOptions options) {
+        return Flowable.<StartedQuery>create(emitter -> {
+            RunningJob running = new RunningJob();
+            emitter.setCancellable(() -> running.cancel(CANCELLED_BY_DISPOSAL));
+
+            BigQuerySpan span = startSpan("bigquery.query", sql);
+            try {
+                emitter.onNext(startQuery(sql, query, parameters, options, span, running));
+                emitter.onComplete();
+            } catch (InterruptedException | BigQueryException e) {
+                endWithError(span, e);
+                emitter.tryOnError(new IllegalStateException("Could not execute query: " + sql, e));
+            } catch (RuntimeException e) {
+                endWithError(span, e);
+                emitter.tryOnError(e);
+            }
+        }, BackpressureStrategy.BUFFER)
+            .concatMap(started -> toFlowable(started.result, started.span, options.getDeadline()))
+            .doOnCancel(() -> metrics.increment("bigquery.query.cancelled"));
+    }
+
+    private StartedQuery startQuery(
+        String sql,
+        String query,
+        Map<String, QueryParameterValue> parameters,
+        QueryOptions options,
+        BigQuerySpan span,
+        RunningJob running
+    ) throws InterruptedException {
+        String statement = query;
+        double samplePercent = SampledResult.FULL;
+        if (options.isSampled()) {
+            samplePercent = samplePercent(query, parameters, options, span);
+            if (samplePercent < SampledResult.FULL) {
+                statement = TableReferences.sample(query, samplePercent);
+            }
+            span.setAttribute("bigquery.sample_percent", String.valueOf(samplePercent));
+        }
+
+        QueryJobConfiguration.Builder queryConfig = configure(newQueryConfig(statement, parameters), options);
+
+        TableId materializedTable = null;
+        if (options.isMaterialized()) {
+            materializedTable = materializer.getTableId(statement, parameters);
+            TableId table = materializedTable;
+            // the materialized queries are not routed so the table is always written by the primary client
+            BigQuery primary = pool.getPrimary().getBigQuery();
+            Optional<TableResult> materialized = Optional.ofNullable(
+                fetchPage(span, () -> materializer.read(primary, table, options.getMaterialization()).orElse(null))
+            );
+            span.setAttribute("bigquery.materialized", materialized.isPresent());
+            if (materialized.isPresent()) {
+                return new StartedQuery(materialized.get(), span, samplePercent);
+            }
+            materializer.configure(queryConfig, materializedTable);
+        }
+
+        Job completedJob = runJob(sql, queryConfig.build(), options, span, running, materializedTable == null);
+
+        if (materializedTable != null) {
+            materializer.expire(pool.forProject(completedJob.getJobId().getProject()).getBigQuery(), materializedTable);
+        }
+
+        return new StartedQuery(fetchPage(span, () -> completedJob.getQueryResults(resultsOptions(options))), span, samplePercent);
+    }
+
+    /**
+     * Returns the fixed sample percent or picks the one which keeps the query under the target bytes using the bytes
+     * processed by the dry run of the query reading the whole tables.
+     */
+    private double samplePercent(String query, Map<String, QueryParameterValue> parameters, QueryOptions options, BigQuerySpan span) {
+        if (options.getSamplePercent() != null) {
+            return options.getSamplePercent();
+        }
+
+        long target = options.getSampleBytes();
+        if (options.getMaximumBytesBilled() != null) {
+            target = Math.min(target, options.getMaximumBytesBilled());
+        }
+
+        QueryJobConfiguration dryRunConfig = configure(newQueryConfig(query, parameters), options).setDryRun(true).build();
+        JobId jobId = JobId.newBuilder().setJob(UUID.randomUUID().toString()).setLocation(options.getLocation()).build();
+
+        BigQuerySpan dryRun = span.startChild("bigquery.job.dry_run");
+        try {
+            Job job = pool.getPrimary().getBigQuery().create(JobInfo.newBuilder(dryRunConfig).setJobId(jobId).build());
+            JobStatistics.QueryStatistics statistics = job.getStatistics();
+            Long bytes = statistics == null ? null : statistics.getTotalBytesProcessed();
+            if (bytes == null || bytes <= target) {
+                return SampledResult.FULL;
+            }
+            dryRun.setAttribute("bigquery.bytes_processed", bytes);
+
+            // rounded down so the sampled query stays under the target
+            return Math.max(MIN_SAMPLE_PERCENT, Math.floor(target * SampledResult.FULL / bytes * 100) / 100);
+        } catch (RuntimeException e) {
+            dryRun.recordError(e);
+            throw e;
+        } finally {
+            dryRun.end();
+        }
+    }
+
+    @Override
+    public <T> SampledResult<T> querySampled(Map<String, ?> namedParameters, String sql, QueryOptions options, Function<RowResult, T> builder) {
+        partitionGuard.check(sql);
+
+        ParameterizedSql expanded = StructParameters.expand(checkForNulls(sql, namedParameters), namedParameters);
+        QueryOptions effective = options.withDefaults(defaults);
+
+        BigQuerySpan span = startSpan("bigquery.query", sql);
+        StartedQuery started;
+        try {
+            started = startQuery(sql, expanded.getSql(), toNamedParameters(expanded.getNamedParameters()), effective, span, new RunningJob());
+        } catch (InterruptedException | BigQueryException e) {
+            endWithError(span, e);
+            throw new IllegalStateException("Could not execute query: " + sql, e);
+        } catch (RuntimeException e) {
+            endWithError(span, e);
+            throw e;
+        }
+
+        List<T> rows = toFlowable(started.result, started.span, effective.getDeadline())
+            .map(FieldValueListRowResult::new)
+            .map(builder::apply)
+            .toList()
+            .blockingGet();
+
+        return SampledResult.of(rows, started.samplePercent);
+    }
+
+    @Override
+    public <T> QueryPage<T> queryPage(Map<String, ?> namedParameters, String sql, int pageSize, String pageToken, Function<RowResult, T> builder) {
+        return queryPage(namedParameters, sql, pageSize, pageToken, QueryOptions.DEFAULT, builder);
+    }
 
+    @Override
+    public <T> Optional<T> querySingle(Map<String, ?> namedParameters, String sql, QueryOptions options, Function<RowResult, T> builder) {
+        QueryOptions effective = options.withDefaults(defaults);
+        if (effective.isSampled() || effective.isMaterialized()) {
+            // only the streamed results can be sampled or materialized
+            return query(namedParameters, sql, options, builder).take(1).toList().blockingGet().stream().findFirst();
+        }
+        return queryPage(namedParameters, sql, 1, null, options, builder).getRows().stream().findFirst();
+    }
+
+    @Override
+    public <T> QueryPage<T> queryPage(
+        Map<String, ?> namedParameters,
+        String sql,
+        int pageSize,
+        String pageToken,
+        QueryOptions options,
+        Function<RowResult, T> builder
+    ) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+
+        BigQuerySpan span = startSpan("bigquery.query", sql);
         try {
-            // Wait for the query to complete.
-            Job completedJob = job.waitFor();
+            Job job;
+            List<BigQuery.QueryResultsOption> resultsOptions = new ArrayList<>(2);
+            resultsOptions.add(BigQuery.QueryResultsOption.pageSize(pageSize));
 
-            // Check for errors
-            if (completedJob == null) {
-                throw new IllegalStateException("Job no longer exists");
-            } else if (completedJob.getStatus().getError() != null) {
-                throw new IllegalStateException("Failed to execute sql " + sql + ":" + completedJob.getStatus().getError());
+            if (pageToken == null) {
+                partitionGuard.check(sql);
+                QueryOptions effective = options.withDefaults(defaults);
+                job = runJob(sql, prepareQuery(sql, namedParameters, effective).build(), effective, span, new RunningJob(), true);
+            } else {
+                String[] parts = decodePageToken(pageToken);
+                JobId.Builder jobId = JobId.newBuilder().setJob(parts[0]).setLocation(parts[1].isEmpty() ? null : parts[1]);
+                if (!parts[2].isEmpty()) {
+                    jobId.setProject(parts[2]);
+                }
+                job = pool.forProject(parts[2]).getBigQuery().getJob(jobId.build());
+                if (job == null) {
+                    throw new IllegalArgumentException("The job for the page token no longer exists: " + parts[0]);
+                }
+                resultsOptions.add(BigQuery.QueryResultsOption.pageToken(parts[3]));
+                span.setAttribute("bigquery.job_id", parts[0]);
             }
 
+            Job source = job;
+            TableResult result = fetchPage(span, () -> source.getQueryResults(resultsOptions.toArray(new BigQuery.QueryResultsOption[0])));
 
-            TableResult result = completedJob.getQueryResults();
-            return Flowable.fromIterable(result.iterateAll()).filter(r -> !r.isEmpty()).map(FieldValueListRowResult::new).map(builder::apply);
+            List<T> rows = new ArrayList<>(pageSize);
+            for (FieldValueList row : result.getValues()) {
+                if (!row.isEmpty()) {
+                    rows.add(builder.apply(new FieldValueListRowResult(row)));
+                }
+            }
+
+            String nextPageToken = result.hasNextPage() ? encodePageToken(job.getJobId(), result.getNextPageToken()) : null;
+            span.setAttribute("bigquery.rows", (long) rows.size());
+            span.end();
+            return QueryPage.of(rows, job.getJobId().getJob(), nextPageToken, partitionsScanned(job));
         } catch (InterruptedException | BigQueryException e) {
+            endWithError(span, e);
             throw new IllegalStateException("Could not execute query: " + sql, e);
+        } catch (RuntimeException e) {
+            endWithError(span, e);
+            throw e;
         }
     }
 
     @Override
-    public void execute(Map<String, ?> namedParameters, String sql) {
-        QueryJobConfiguration queryConfig = QueryJobConfiguration
-            .newBuilder(checkForNulls(sql, namedParameters))
-            .setUseLegacySql(false)
-            .setNamedParameters(toNamedParameters(namedParameters))
-            .build();
+    public BufferedResult queryBuffered(Map<String, ?> namedParameters, String sql) {
+        partitionGuard.check(sql);
 
-        // Create a job ID
-        JobId jobId = JobId.of(UUID.randomUUID().toString());
-        Job job = bigquery.create(JobInfo.newBuilder(queryConfig).setJobId(jobId).build());
+        QueryJobConfiguration queryConfig = prepareQuery(sql, namedParameters, defaults).build();
 
+        BigQuerySpan span = startSpan("bigquery.query", sql);
+        RowBuffer buffer = null;
         try {
-            // Wait for the query to complete.
-            Job completedJob = job.waitFor();
+            Job job = runJob(sql, queryConfig, defaults, span, new RunningJob(), true);
+            TableResult result = fetchPage(span, () -> job.getQueryResults(resultsOptions(defaults)));
+            FieldList fields = result.getSchema().getFields();
 
-            // Check for errors
-            if (completedJob == null) {
-                throw new IllegalStateException("Job no longer exists");
-            } else if (completedJob.getStatus().getError() != null) {
-                throw new IllegalStateException(completedJob.getStatus().getError().toString());
+            List<String> columns = new ArrayList<>(fields.size());
+            for (Field field : fields) {
+                if (field.getType() == LegacySQLTypeName.RECORD || field.getMode() == Field.Mode.REPEATED) {
+                    throw new IllegalArgumentException("Nested and repeated fields cannot be buffered: " + field.getName());
+                }
+                columns.add(field.getName());
             }
+
+            buffer = new RowBuffer(columns, bufferConfiguration);
+            for (TableResult page : pages(result, span, null).blockingIterable()) {
+                for (FieldValueList row : page.getValues()) {
+                    Object[] values = new Object[fields.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = toBufferedValue(fields.get(i), row.get(i));
+                    }
+                    buffer.append(values);
+                }
+            }
+            span.setAttribute("bigquery.rows", buffer.size());
+            span.end();
+            return buffer.complete();
+        } catch (InterruptedException | BigQueryException e) {
+            if (buffer != null) {
+                buffer.dispose();
+            }
+            endWithError(span, e);
+            throw new IllegalStateException("Could not execute query: " + sql, e);
+        } catch (RuntimeException e) {
+            if (buffer != null) {
+                buffer.dispose();
+            }
+            endWithError(span, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void execute(Map<String, ?> namedParameters, String sql) {
+        execute(namedParameters, sql, QueryOptions.DEFAULT);
+    }
+
+    @Override
+    public void execute(Map<String, ?> namedParameters, String sql, QueryOptions options) {
+        partitionGuard.check(sql);
+
+        QueryOptions effective = options.withDefaults(defaults);
+        QueryJobConfiguration queryConfig = prepareQuery(sql, namedParameters, effective).build();
+
+        BigQuerySpan span = startSpan("bigquery.execute", sql);
+        try {
+            runJob(sql, queryConfig, effective, span, new RunningJob(), false);
+            span.end();
         } catch (InterruptedException | BigQueryException e) {
+            endWithError(span, e);
             throw new IllegalStateException("Could not execute sql: " + sql, e);
+        } catch (RuntimeException e) {
+            endWithError(span, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<StatementStatistics> executeScript(List<ParameterizedSql> statements, boolean transactional) {
+        if (statements.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<ParameterizedSql> expanded = new ArrayList<>(statements.size());
+        for (ParameterizedSql statement : statements) {
+            partitionGuard.check(statement.getSql());
+            expanded.add(StructParameters.expand(checkForNulls(statement.getSql(), statement.getNamedParameters()), statement.getNamedParameters()));
+        }
+
+        ParameterizedSql script = ScriptStatements.combine(expanded, transactional);
+        QueryJobConfiguration queryConfig = configure(newQueryConfig(script.getSql(), toNamedParameters(script.getNamedParameters())), defaults).build();
+
+        BigQuerySpan span = startSpan("bigquery.script", script.getSql());
+        try {
+            Job job = runJob(script.getSql(), queryConfig, defaults, span, new RunningJob(), false);
+            List<StatementStatistics> statistics = readStatementStatistics(job, statements);
+            span.setAttribute("bigquery.statements", (long) statistics.size());
+            span.end();
+            return statistics;
+        } catch (InterruptedException | BigQueryException e) {
+            endWithError(span, e);
+            throw new IllegalStateException("Could not execute script: " + script.getSql(), e);
+        } catch (RuntimeException e) {
+            endWithError(span, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> StatementStatistics upsertAll(
+        Collection<T> objects,
+        String dataset,
+        String table,
+        List<String> keyColumns,
+        boolean overwriteNulls
+    ) {
+        if (keyColumns.isEmpty()) {
+            throw new IllegalArgumentException("At least one key column is required to upsert into " + dataset + "." + table);
+        }
+        if (objects.isEmpty()) {
+            return StatementStatistics.of(null, "MERGE", 0L, 0L);
+        }
+
+        TableId tableId = TableId.of(dataset, table);
+        Schema schema = metadata.getSchema(tableId)
+            .orElseThrow(() -> new IllegalArgumentException("Table " + dataset + "." + table + " does not exist"));
+
+        List<Map<String, Object>> rows = new ArrayList<>(objects.size());
+        for (T object : objects) {
+            rows.add(toColumnValues(object, tableId, overwriteNulls));
+        }
+        rows = MergeStatements.deduplicate(rows, keyColumns);
+
+        LinkedHashSet<String> columnSet = new LinkedHashSet<>(keyColumns);
+        rows.forEach(row -> columnSet.addAll(row.keySet()));
+        List<String> columns = new ArrayList<>(columnSet);
+
+        TableId stagingId = TableId.of(dataset, table + "_staging_" + UUID.randomUUID().toString().replace("-", ""));
+        String stagingTable = dataset + "." + stagingId.getTable();
+        String merge = MergeStatements.merge(schema, dataset + "." + table, stagingTable, columns, keyColumns, overwriteNulls);
+
+        BigQuery client = pool.getPrimary().getBigQuery();
+        BigQuerySpan span = startSpan("bigquery.upsert", merge);
+        try {
+            client.create(TableInfo.newBuilder(stagingId, StandardTableDefinition.of(MergeStatements.stagingSchema(schema, columns)))
+                .setExpirationTime(System.currentTimeMillis() + STAGING_EXPIRATION.toMillis())
+                .build());
+
+            for (ParameterizedSql insert : MergeStatements.stage(stagingTable, columns, rows)) {
+                QueryJobConfiguration insertConfig = prepareQuery(insert.getSql(), insert.getNamedParameters(), defaults).build();
+                runJob(insert.getSql(), insertConfig, defaults, span, new RunningJob(), false);
+            }
+
+            QueryJobConfiguration mergeConfig = configure(newQueryConfig(merge, Collections.emptyMap()), defaults).build();
+            Job job = runJob(merge, mergeConfig, defaults, span, new RunningJob(), false);
+            JobStatistics.QueryStatistics statistics = job.getStatistics();
+
+            span.setAttribute("bigquery.rows", (long) rows.size());
+            span.end();
+
+            return StatementStatistics.of(
+                merge,
+                "MERGE",
+                statistics == null ? null : statistics.getNumDmlAffectedRows(),
+                statistics == null ? null : statistics.getTotalBytesProcessed(),
+                statistics == null ? null : statistics.getTotalPartitionsProcessed()
+            );
+        } catch (InterruptedException | BigQueryException e) {
+            endWithError(span, e);
+            throw new IllegalStateException("Could not upsert into " + dataset + "." + table + ": " + merge, e);
+        } catch (RuntimeException e) {
+            endWithError(span, e);
+            throw e;
+        } finally {
+            try {
+                client.delete(stagingId);
+            } catch (BigQueryException e) {
+                LOGGER.warn("Failed to delete staging table {}, it expires in {}", stagingTable, STAGING_EXPIRATION, e);
+            }
+        }
+    }
+
+    @Override
+    public Completable executeAsync(Map<String, ?> namedParameters, String sql) {
+        return async(() -> {
+            execute(namedParameters, sql);
+            return sql;
+        }).ignoreElement();
+    }
+
+    @Override
+    public <T> Single<T> insertAsync(T object, String dataset, String table) {
+        return async(() -> insert(object, dataset, table));
+    }
+
+    @Override
+    public <T> Single<T> insertAsync(T object, String dataset, String table, Instant partitionTime) {
+        return async(() -> insert(object, dataset, table, partitionTime));
+    }
+
+    @Override
+    public <T> Flowable<T> tail(Map<String, ?> namedParameters, String sql, String watermarkColumn, Duration interval, Function<RowResult, T> builder) {
+        return tail(namedParameters, sql, watermarkColumn, interval, watermarkStore, builder);
+    }
+
+    @Override
+    public <T> T insert(T object, String dataset, String table) {
+        if (insertQueue.isEnabled()) {
+            insertQueue.offer(toColumnValues(object, TableId.of(dataset, table)), dataset, table);
+            return object;
+        }
+        return BigQueryService.super.insert(object, dataset, table);
+    }
+
+    @Override
+    public <T> T insert(T object, String dataset, String table, Instant partitionTime) {
+        if (insertQueue.isEnabled()) {
+            TableId tableId = TableId.of(dataset, table);
+            Map<String, Object> columnValues = toColumnValues(object, tableId);
+            partitionGuard.route(columnValues, tableId, partitionTime);
+            insertQueue.offer(columnValues, dataset, table);
+            return object;
+        }
+        return BigQueryService.super.insert(object, dataset, table, partitionTime);
+    }
+
+    @Override
+    public <T> ParameterizedSql generateInsert(T object, String dataset, String table) {
+        return generateInsert(toColumnValues(object, TableId.of(dataset, table)), dataset, table);
+    }
+
+    @Override
+    public <T> ParameterizedSql generateInsert(T object, String dataset, String table, Instant partitionTime) {
+        TableId tableId = TableId.of(dataset, table);
+        Map<String, Object> columnValues = toColumnValues(object, tableId);
+        partitionGuard.route(columnValues, tableId, partitionTime);
+        return generateInsert(columnValues, dataset, table);
+    }
+
+    private Map<String, Object> toColumnValues(Object object, TableId tableId) {
+        return toColumnValues(object, tableId, false);
+    }
+
+    private Map<String, Object> toColumnValues(Object object, TableId tableId, boolean includeNulls) {
+        Optional<Schema> schema;
+        try {
+            schema = metadata.getSchema(tableId);
+        } catch (BigQueryException e) {
+            LOGGER.debug("Cannot fetch schema of table {}.{}, using runtime types", tableId.getDataset(), tableId.getTable(), e);
+            return toColumnValues(object);
+        }
+
+        if (!schema.isPresent()) {
+            return toColumnValues(object);
+        }
+
+        PlanKey key = new PlanKey(object.getClass(), tableId);
+        PlanEntry entry = plans.get(key);
+        if (entry == null || entry.schema != schema.get()) {
+            entry = createPlan(object.getClass(), tableId, schema.get());
+            plans.put(key, entry);
         }
+        return entry.plan.toColumnValues(object, includeNulls);
     }
 
     @SuppressWarnings("unchecked")
+    private static PlanEntry createPlan(Class<?> type, TableId tableId, Schema schema) {
+        String table = tableId.getDataset() + "." + tableId.getTable();
+        return new PlanEntry(schema, InsertPlan.create((Class<Object>) type, table, QueryParameterConverters.forSchema(schema)));
+    }
+
+    private QueryJobConfiguration.Builder prepareQuery(String sql, Map<String, ?> namedParameters, QueryOptions options) {
+        ParameterizedSql expanded = StructParameters.expand(checkForNulls(sql, namedParameters), namedParameters);
+        return configure(newQueryConfig(expanded.getSql(), toNamedParameters(expanded.getNamedParameters())), options);
+    }
+
+    private static QueryJobConfiguration.Builder configure(QueryJobConfiguration.Builder queryConfig, QueryOptions options) {
+        if (options.getPriority() != null) {
+            queryConfig.setPriority(QueryJobConfiguration.Priority.valueOf(options.getPriority().name()));
+        }
+        if (options.getUseQueryCache() != null) {
+            queryConfig.setUseQueryCache(options.getUseQueryCache());
+        }
+        if (options.getMaximumBytesBilled() != null) {
+            queryConfig.setMaximumBytesBilled(options.getMaximumBytesBilled());
+        }
+        if (!options.getLabels().isEmpty()) {
+            queryConfig.setLabels(options.getLabels());
+        }
+        return queryConfig;
+    }
+
+    private static BigQuery.QueryResultsOption[] resultsOptions(QueryOptions options) {
+        if (options.getPageSize() == null) {
+            return new BigQuery.QueryResultsOption[0];
+        }
+        return new BigQuery.QueryResultsOption[] { BigQuery.QueryResultsOption.pageSize(options.getPageSize()) };
+    }
+
+    private static QueryJobConfiguration.Builder newQueryConfig(String query, Map<String, QueryParameterValue> parameters) {
+        return QueryJobConfiguration
+            .newBuilder(query)
+            .setUseLegacySql(false)
+            .setNamedParameters(parameters);
+    }
+
+    /**
+     * Runs the job and waits for its completion.
+     *
+     * The routed jobs are created by the client selected by the {@link BigQueryClientPool} and retried with another
+     * client if the selected one hits a quota or a rate limit. The other jobs, i.e. the statements which may create or
+     * write into the tables, always run using the primary client.
+     */
+    private Job runJob(
+        String sql,
+        QueryJobConfiguration queryConfig,
+        QueryOptions options,
+        BigQuerySpan span,
+        RunningJob running,
+        boolean routed
+    ) throws InterruptedException {
+        Duration remaining = options.getRemainingTime();
+        if (remaining != null && (remaining.isNegative() || remaining.isZero())) {
+            throw new IllegalStateException("The deadline " + options.getDeadline() + " has passed before the query started: " + sql);
+        }
+
+        if (running.isCancelled()) {
+            throw new CancellationException("The query has been cancelled before it started: " + sql);
+        }
+
+        // Create a job ID
+        JobId jobId = JobId.newBuilder().setJob(UUID.randomUUID().toString()).setLocation(options.getLocation()).build();
+        span.setAttribute("bigquery.job_id", jobId.getJob());
+
+        Map<String, String> labels = queryConfig.getLabels() == null ? Collections.emptyMap() : queryConfig.getLabels();
+        List<BigQueryClientPool.Client> excluded = new ArrayList<>(1);
+        BigQueryClientPool.Client client = routed ? pool.select(labels, excluded) : pool.getPrimary();
+
+        Job job = null;
+        while (job == null) {
+            span.setAttribute("bigquery.client", client.getName());
+            BigQuerySpan create = span.startChild("bigquery.job.create");
+            try {
+                job = client.getBigQuery().create(JobInfo.newBuilder(withTraceLabels(forClient(queryConfig, client), span)).setJobId(jobId).build());
+            } catch (BigQueryException e) {
+                create.recordError(e);
+                if (!BigQueryClientPool.isQuotaError(e)) {
+                    throw e;
+                }
+                pool.throttled(client);
+                excluded.add(client);
+                client = routed ? pool.select(labels, excluded) : null;
+                if (client == null) {
+                    throw e;
+                }
+                LOGGER.debug("Job {} hit the quota, retrying with client {}", jobId.getJob(), client.getName());
+            } catch (RuntimeException e) {
+                create.recordError(e);
+                throw e;
+            } finally {
+                create.end();
+            }
+        }
+
+        pool.started(client);
+        running.started(job);
+
+        // Wait for the query to complete.
+        Job completedJob;
+        BigQuerySpan poll = span.startChild("bigquery.job.wait");
+        long started = System.nanoTime();
+        try {
+            if (remaining == null) {
+                completedJob = job.waitFor();
+            } else {
+                completedJob = job.waitFor(RetryOption.totalTimeout(org.threeten.bp.Duration.ofMillis(remaining.toMillis())));
+            }
+        } catch (RuntimeException e) {
+            poll.recordError(e);
+            if (remaining != null && System.nanoTime() - started >= remaining.toNanos()) {
+                running.cancel(CANCELLED_BY_DEADLINE);
+                throw new IllegalStateException("Query did not finish within " + remaining + " and has been cancelled: " + sql, e);
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            poll.recordError(e);
+            running.cancel(CANCELLED_BY_INTERRUPT);
+            throw e;
+        } finally {
+            running.finished();
+            pool.finished(client);
+            poll.end();
+        }
+
+        // Check for errors
+        if (running.isCancelled()) {
+            throw new CancellationException("The query has been cancelled: " + sql);
+        } else if (completedJob == null) {
+            throw new IllegalStateException("Job no longer exists");
+        } else if (completedJob.getStatus().getError() != null) {
+            if (BigQueryClientPool.isQuotaError(completedJob.getStatus().getError())) {
+                pool.throttled(client);
+            }
+            throw new IllegalStateException("Failed to execute sql " + sql + ":" + completedJob.getStatus().getError());
+        }
+
+        report(sql, completedJob, span);
+
+        return completedJob;
+    }
+
+    /**
+     * Reads the statistics of the child jobs created for the statements of the script, the transaction control
+     * statements are skipped.
+     */
+    private List<StatementStatistics> readStatementStatistics(Job script, List<ParameterizedSql> statements) {
+        List<Job> children = new ArrayList<>();
+        BigQuery client = pool.forProject(script.getJobId().getProject()).getBigQuery();
+        for (Job child : client.listJobs(BigQuery.JobListOption.parentJobId(script.getJobId().getJob())).iterateAll()) {
+            if (child.getStatistics() instanceof JobStatistics.QueryStatistics) {
+                JobStatistics.QueryStatistics statistics = child.getStatistics();
+                if (statistics.getStatementType() == null || !statistics.getStatementType().toString().endsWith("_TRANSACTION")) {
+                    children.add(child);
+                }
+            }
+        }
+
+        children.sort(Comparator.comparing((Job child) -> child.getStatistics().getCreationTime(), Comparator.nullsLast(Comparator.naturalOrder())));
+
+        List<StatementStatistics> result = new ArrayList<>(children.size());
+        for (int i = 0; i < children.size(); i++) {
+            JobStatistics.QueryStatistics statistics = children.get(i).getStatistics();
+            result.add(StatementStatistics.of(
+                i < statements.size() ? statements.get(i).getSql() : null,
+                statistics.getStatementType() == null ? null : statistics.getStatementType().toString(),
+                statistics.getNumDmlAffectedRows(),
+                statistics.getTotalBytesProcessed(),
+                statistics.getTotalPartitionsProcessed()
+            ));
+        }
+        return result;
+    }
+
+    /**
+     * Qualifies the tables referenced as <code>dataset.table</code> with the primary project if the job is billed to
+     * another project so the job still reads the same tables.
+     */
+    private QueryJobConfiguration forClient(QueryJobConfiguration queryConfig, BigQueryClientPool.Client client) {
+        if (client == pool.getPrimary()) {
+            return queryConfig;
+        }
+        String primaryProject = pool.getPrimary().getProjectId();
+        if (primaryProject == null || primaryProject.equals(client.getProjectId())) {
+            return queryConfig;
+        }
+        return queryConfig.toBuilder().setQuery(TableReferences.qualify(queryConfig.getQuery(), primaryProject)).build();
+    }
+
+    private void cancelJob(Job job, String reason) {
+        try {
+            job.cancel();
+        } catch (BigQueryException e) {
+            LOGGER.warn("Failed to cancel job {}", job.getJobId(), e);
+        }
+        metrics.increment("bigquery.job.cancelled", "reason", reason);
+    }
+
+    private BigQuerySpan startSpan(String name, String sql) {
+        return tracer.startSpan(name).setAttribute("db.statement", sql);
+    }
+
+    private static QueryJobConfiguration withTraceLabels(QueryJobConfiguration queryConfig, BigQuerySpan span) {
+        Map<String, String> traceLabels = span.getJobLabels();
+        if (traceLabels.isEmpty()) {
+            return queryConfig;
+        }
+
+        Map<String, String> labels = new LinkedHashMap<>();
+        if (queryConfig.getLabels() != null) {
+            labels.putAll(queryConfig.getLabels());
+        }
+        labels.putAll(traceLabels);
+
+        return queryConfig.toBuilder().setLabels(labels).build();
+    }
+
+    private static TableResult fetchPage(BigQuerySpan span, PageFetcher fetcher) throws InterruptedException {
+        BigQuerySpan page = span.startChild("bigquery.page");
+        try {
+            return fetcher.fetch();
+        } catch (InterruptedException | RuntimeException e) {
+            page.recordError(e);
+            throw e;
+        } finally {
+            page.end();
+        }
+    }
+
+    private static void endWithError(BigQuerySpan span, Throwable error) {
+        span.recordError(error);
+        span.end();
+    }
+
+    /**
+     * Emits the given page and lazily fetches the following pages, each of them within its own child span.
+     *
+     * Fetching stops with an error once the deadline, if any, has passed.
+     */
+    private static Flowable<TableResult> pages(TableResult first, BigQuerySpan span, Instant deadline) {
+        return Flowable.generate(() -> new TableResult[1], (TableResult[] current, Emitter<TableResult> emitter) -> {
+            if (current[0] == null) {
+                current[0] = first;
+            } else if (current[0].hasNextPage()) {
+                if (deadline != null && Instant.now().isAfter(deadline)) {
+                    emitter.onError(new IllegalStateException("The deadline " + deadline + " has passed while reading the results"));
+                    return;
+                }
+                current[0] = fetchPage(span, current[0]::getNextPage);
+            } else {
+                emitter.onComplete();
+                return;
+            }
+            emitter.onNext(current[0]);
+        });
+    }
+
+    private static Flowable<FieldValueList> toFlowable(TableResult result, BigQuerySpan span, Instant deadline) {
+        AtomicLong rows = new AtomicLong();
+        return pages(result, span, deadline)
+            .concatMapIterable(TableResult::getValues)
+            .filter(r -> !r.isEmpty())
+            .doOnNext(r -> rows.incrementAndGet())
+            .doOnError(span::recordError)
+            .doFinally(() -> {
+                span.setAttribute("bigquery.rows", rows.get());
+                span.end();
+            });
+    }
+
+    private static String encodePageToken(JobId jobId, String pageToken) {
+        String location = jobId.getLocation() == null ? "" : jobId.getLocation();
+        String project = jobId.getProject() == null ? "" : jobId.getProject();
+        String token = jobId.getJob() + "\n" + location + "\n" + project + "\n" + pageToken;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes the page token into the job ID, the location, the project and the BigQuery page token.
+     */
+    private static String[] decodePageToken(String pageToken) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8).split("\n", 4);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token: " + pageToken, e);
+        }
+
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Invalid page token: " + pageToken);
+        }
+
+        return parts;
+    }
+
+    private static Object toBufferedValue(Field field, FieldValue value) {
+        if (value.isNull()) {
+            return null;
+        }
+
+        LegacySQLTypeName type = field.getType();
+
+        if (type == LegacySQLTypeName.BOOLEAN) {
+            return value.getBooleanValue();
+        }
+
+        if (type == LegacySQLTypeName.INTEGER) {
+            return value.getLongValue();
+        }
+
+        if (type == LegacySQLTypeName.FLOAT) {
+            return value.getDoubleValue();
+        }
+
+        if (type == LegacySQLTypeName.NUMERIC) {
+            return value.getNumericValue();
+        }
+
+        if (type == LegacySQLTypeName.TIMESTAMP) {
+            long timestampValue = value.getTimestampValue();
+            return Instant.ofEpochSecond(timestampValue / 1_000_000, timestampValue % 1_000_000 * 1000);
+        }
+
+        return value.getStringValue();
+    }
+
+    private static Long partitionsScanned(Job job) {
+        JobStatistics statistics = job.getStatistics();
+        if (statistics instanceof JobStatistics.QueryStatistics) {
+            return ((JobStatistics.QueryStatistics) statistics).getTotalPartitionsProcessed();
+        }
+        return null;
+    }
+
+    private void report(String sql, Job job, BigQuerySpan span) {
+        JobStatistics statistics = job.getStatistics();
+        if (statistics instanceof JobStatistics.QueryStatistics) {
+            JobStatistics.QueryStatistics queryStatistics = (JobStatistics.QueryStatistics) statistics;
+            if (queryStatistics.getStatementType() != null) {
+                span.setAttribute("bigquery.statement_type", queryStatistics.getStatementType().toString());
+            }
+            span.setAttribute("bigquery.bytes_processed", queryStatistics.getTotalBytesProcessed());
+            span.setAttribute("bigquery.cache_hit", queryStatistics.getCacheHit());
+        }
+
+        if (LOGGER.isDebugEnabled() && statistics instanceof JobStatistics.QueryStatistics) {
+            JobStatistics.QueryStatistics queryStatistics = (JobStatistics.QueryStatistics) statistics;
+            LOGGER.debug(
+                "Job {} scanned {} partition(s) and processed {} bytes of {}: {}",
+                job.getJobId().getJob(),
+                queryStatistics.getTotalPartitionsProcessed(),
+                queryStatistics.getTotalBytesProcessed(),
+                queryStatistics.getReferencedTables(),
+                sql
+            );
+        }
+
+        for (BigQueryJobListener listener : listeners) {
+            listener.onJobCompleted(sql, job);
+        }
+    }
+
     private Map<String, QueryParameterValue> toNamedParameters(Map<String, ?> namedParameters) {
         if (namedParameters.isEmpty()) {
             return Collections.emptyMap();
@@ -114,11 +1137,8 @@ public class DefaultBigQueryService implements BigQueryService {
 
         namedParameters.forEach((key, value) -> {
             Object converted = convertIfNecessary(value);
-            if (converted instanceof Instant) {
-                Instant instant = (Instant) converted;
-                result.put(key, QueryParameterValue.timestamp(instant.getEpochSecond() * 1_000_000 + instant.getNano() / 1000));
-            } else if (converted != null){
-                result.put(key, QueryParameterValue.of(converted, (Class<Object>) converted.getClass()));
+            if (converted != null) {
+                result.put(key, QueryParameterConverters.toParameter(converted));
             }
         });
 
@@ -135,4 +1155,28 @@ public class DefaultBigQueryService implements BigQueryService {
         return result;
     }
 
+    /**
+     * Runs the blocking operation using the BigQuery executor. Unlike {@link Single#subscribeOn(Scheduler)},
+     * the operation rejected by the busy executor is signalled to the subscriber.
+     */
+    private <T> Single<T> async(Callable<T> operation) {
+        return Single.create(emitter -> {
+            try {
+                executor.execute(() -> {
+                    if (emitter.isDisposed()) {
+                        return;
+                    }
+                    try {
+                        emitter.onSuccess(operation.call());
+                    } catch (Exception e) {
+                        emitter.tryOnError(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                metrics.increment("bigquery.async.rejected");
+                emitter.tryOnError(e);
+            }
+        });
+    }
+
 }
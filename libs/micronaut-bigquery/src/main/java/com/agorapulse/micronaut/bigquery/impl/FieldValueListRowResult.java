@@ -18,9 +18,16 @@
 package com.agorapulse.micronaut.bigquery.impl;
 
 import com.agorapulse.micronaut.bigquery.RowResult;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.FieldValue;
 import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.LegacySQLTypeName;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 class FieldValueListRowResult implements RowResult {
 
@@ -66,4 +73,30 @@ class FieldValueListRowResult implements RowResult {
         return  Instant.ofEpochSecond(timestampValue / 1_000_000, timestampValue % 1_000_000 * 1000);
     }
 
+    @Override
+    public RowResult getRecord(String key) {
+        FieldValue value = values.get(key);
+        return value.isNull() ? null : new FieldValueListRowResult(value.getRecordValue());
+    }
+
+    @Override
+    public List<RowResult> getRepeated(String key) {
+        FieldValue value = values.get(key);
+        if (value.isNull()) {
+            return Collections.emptyList();
+        }
+
+        List<FieldValue> elements = value.getRepeatedValue();
+        List<RowResult> result = new ArrayList<>(elements.size());
+        for (FieldValue element : elements) {
+            if (element.getAttribute() == FieldValue.Attribute.RECORD) {
+                result.add(new FieldValueListRowResult(element.getRecordValue()));
+            } else {
+                FieldList schema = FieldList.of(Field.of(key, LegacySQLTypeName.STRING));
+                result.add(new FieldValueListRowResult(FieldValueList.of(Collections.singletonList(element), schema)));
+            }
+        }
+        return result;
+    }
+
 }
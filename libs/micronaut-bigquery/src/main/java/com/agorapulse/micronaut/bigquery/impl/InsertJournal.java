@@ -0,0 +1,351 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of records stored in the segmented memory mapped files.
+ *
+ * Each record is stored as its length, CRC32 checksum and the data. The segment files are zero filled when created
+ * so the zero length marks the end of the segment. The position of the first record which has not been acknowledged
+ * yet is stored in the checkpoint file so the pending records are replayed when the journal is opened again.
+ */
+final class InsertJournal implements Closeable {
+
+    static final class Record {
+
+        private final byte[] data;
+        private final long segment;
+        private final int end;
+
+        private Record(byte[] data, long segment, int end) {
+            this.data = data;
+            this.segment = segment;
+            this.end = end;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+    }
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    static InsertJournal open(Path directory, long segmentSize, long maxSize, boolean sync) throws IOException {
+        Files.createDirectories(directory);
+        InsertJournal journal = new InsertJournal(directory, segmentSize, maxSize, sync);
+        journal.recover();
+        return journal;
+    }
+
+    private InsertJournal(Path directory, long segmentSize, long maxSize, boolean sync) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        this.sync = sync;
+    }
+
+    /**
+     * Appends the record to the journal.
+     * @param data the data of the record
+     * @throws IllegalStateException if the journal is full
+     */
+    void append(byte[] data) throws IOException {
+        lock.lock();
+        try {
+            if (data.length == 0) {
+                throw new IllegalArgumentException("Empty records are not supported");
+            }
+
+            int recordSize = HEADER_SIZE + data.length;
+            if (pendingBytes + recordSize > maxSize) {
+                throw new IllegalStateException("Insert queue is full, " + pendingBytes + " bytes are waiting to be sent");
+            }
+
+            MappedByteBuffer tail = segments.lastEntry().getValue();
+            if (tail.remaining() < recordSize) {
+                tail.force();
+                tail = createSegment(segments.lastKey() + 1, recordSize);
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(data);
+
+            tail.putInt(data.length).putInt((int) crc.getValue()).put(data);
+
+            if (sync) {
+                tail.force();
+            }
+
+            pendingRecords++;
+            pendingBytes += recordSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the oldest records which have not been acknowledged yet.
+     * @param max the maximal number of records returned
+     * @return the oldest records which have not been acknowledged yet
+     */
+    List<Record> peek(int max) {
+        lock.lock();
+        try {
+            List<Record> records = new ArrayList<>(Math.min(max, (int) Math.min(pendingRecords, Integer.MAX_VALUE)));
+            long segment = headSegment;
+            int position = headPosition;
+
+            while (records.size() < max && segments.containsKey(segment)) {
+                ByteBuffer buffer = segments.get(segment).duplicate();
+                buffer.limit(segment == segments.lastKey() ? buffer.position() : buffer.capacity());
+                buffer.position(position);
+
+                byte[] data = read(buffer);
+                while (data != null && records.size() < max) {
+                    records.add(new Record(data, segment, buffer.position()));
+                    data = records.size() < max ? read(buffer) : null;
+                }
+
+                segment++;
+                position = 0;
+            }
+
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Acknowledges the records returned by {@link #peek(int)} so they will not be returned again.
+     * @param records the records to be acknowledged, must be the prefix of the records returned by {@link #peek(int)}
+     */
+    void acknowledge(List<Record> records) throws IOException {
+        lock.lock();
+        try {
+            if (records.isEmpty()) {
+                return;
+            }
+
+            Record last = records.get(records.size() - 1);
+            headSegment = last.segment;
+            headPosition = last.end;
+
+            for (Record record : records) {
+                pendingRecords--;
+                pendingBytes -= HEADER_SIZE + record.data.length;
+            }
+
+            writeCheckpoint();
+
+            while (segments.firstKey() < headSegment) {
+                Files.deleteIfExists(segmentPath(segments.pollFirstEntry().getKey()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getPendingRecords() {
+        lock.lock();
+        try {
+            return pendingRecords;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getPendingBytes() {
+        lock.lock();
+        try {
+            return pendingBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            for (MappedByteBuffer segment : segments.values()) {
+                segment.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recover() throws IOException {
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            headSegment = buffer.getLong();
+            headPosition = buffer.getInt();
+        }
+
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            if (file.getKey() < headSegment) {
+                Files.deleteIfExists(file.getValue());
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(file.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segments.put(file.getKey(), channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+        }
+
+        if (segments.isEmpty()) {
+            headPosition = 0;
+            createSegment(headSegment, 0);
+            writeCheckpoint();
+            return;
+        }
+
+        if (!segments.containsKey(headSegment)) {
+            headSegment = segments.firstKey();
+            headPosition = 0;
+        }
+
+        for (Map.Entry<Long, MappedByteBuffer> segment : segments.entrySet()) {
+            ByteBuffer buffer = segment.getValue().duplicate();
+            buffer.position(segment.getKey() == headSegment ? headPosition : 0);
+            byte[] data = read(buffer);
+            while (data != null) {
+                pendingRecords++;
+                pendingBytes += HEADER_SIZE + data.length;
+                data = read(buffer);
+            }
+            if (segment.getKey().equals(segments.lastKey())) {
+                // continue writing after the last valid record
+                segment.getValue().position(buffer.position());
+            }
+        }
+    }
+
+    private MappedByteBuffer createSegment(long id, int minimalSize) throws IOException {
+        long size = Math.min(Math.max(segmentSize, minimalSize + HEADER_SIZE), Integer.MAX_VALUE);
+        try (FileChannel channel = FileChannel.open(
+            segmentPath(id),
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        )) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            segments.put(id, segment);
+            return segment;
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES).putLong(headSegment).putInt(headPosition);
+        buffer.flip();
+
+        Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(
+            temporary,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            channel.write(buffer);
+            channel.force(true);
+        }
+
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Reads the next record from the buffer.
+     * @param buffer the buffer positioned at the beginning of the record
+     * @return the data of the record or <code>null</code> if there is no valid record at the current position
+     */
+    private static byte[] read(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+
+        int start = buffer.position();
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+
+        if (length <= 0 || length > buffer.remaining()) {
+            buffer.position(start);
+            return null;
+        }
+
+        byte[] data = new byte[length];
+        buffer.get(data);
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        if ((int) crc.getValue() != checksum) {
+            // partially written record
+            buffer.position(start);
+            return null;
+        }
+
+        return data;
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long maxSize;
+    private final boolean sync;
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    // not synchronized, so the forced writes do not pin the virtual threads to their carrier threads
+    private final Lock lock = new ReentrantLock();
+
+    private long headSegment = 1;
+    private int headPosition;
+    private long pendingRecords;
+    private long pendingBytes;
+}
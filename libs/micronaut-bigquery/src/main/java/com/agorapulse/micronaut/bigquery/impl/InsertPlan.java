@@ -0,0 +1,143 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.google.common.base.CaseFormat;
+import io.micronaut.core.beans.BeanIntrospection;
+import io.micronaut.core.beans.BeanIntrospector;
+import io.micronaut.core.beans.BeanProperty;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Precomputed plan for inserting the instances of the particular class into the particular table.
+ *
+ * The plan is created once for each combination of the class and the table. Each property is matched with the column
+ * of the table and the converter of the property values to the values expected by the column is selected upfront
+ * so the inserts only apply the converters.
+ *
+ * @param <T> the type of the inserted objects
+ */
+public final class InsertPlan<T> {
+
+    /**
+     * Maximum number of the named parameters of a single BigQuery query, shared by all the generated inserts.
+     */
+    static final int MAX_PARAMETERS = 10000;
+
+    /**
+     * Factory of the converters for the particular columns.
+     */
+    @FunctionalInterface
+    public interface ConverterFactory {
+
+        /**
+         * Creates the converter of the property values into the values expected by the column.
+         * @param column the name of the column
+         * @param propertyType the type of the property
+         * @return the converter or <code>null</code> if there is no such column
+         * @throws IllegalArgumentException if the property type is not compatible with the column
+         */
+        Function<Object, Object> create(String column, Class<?> propertyType);
+
+    }
+
+    /**
+     * Creates the plan for inserting the instances of the given type.
+     * @param type the type of the inserted objects
+     * @param table the name of the table used in the error messages
+     * @param converters the factory of the column converters
+     * @param <T> the type of the inserted objects
+     * @return the plan for inserting the instances of the given type
+     * @throws IllegalArgumentException if the properties do not match the columns of the table
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> InsertPlan<T> create(Class<T> type, String table, ConverterFactory converters) {
+        BeanIntrospection<T> introspection = BeanIntrospector.SHARED.getIntrospection(type);
+
+        List<BeanProperty<T, Object>> properties = new ArrayList<>();
+        List<String> columns = new ArrayList<>();
+        List<Function<Object, Object>> converterList = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+
+        for (BeanProperty<T, Object> property : introspection.getBeanProperties()) {
+            String column = CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, property.getName());
+            Function<Object, Object> converter = converters.create(column, property.getType());
+            if (converter == null) {
+                missing.add(column);
+                continue;
+            }
+            properties.add(property);
+            columns.add(column);
+            converterList.add(converter);
+        }
+
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException("Table " + table + " does not contain columns " + missing + " required by " + type.getName());
+        }
+
+        return new InsertPlan<>(
+            properties.toArray(new BeanProperty[0]),
+            columns.toArray(new String[0]),
+            converterList.toArray(new Function[0])
+        );
+    }
+
+    private InsertPlan(BeanProperty<T, Object>[] properties, String[] columns, Function<Object, Object>[] converters) {
+        this.properties = properties;
+        this.columns = columns;
+        this.converters = converters;
+    }
+
+    /**
+     * Converts the object into the map of column names and the converted values. Properties with <code>null</code>
+     * values are skipped.
+     * @param object the object to be converted
+     * @return the map of column names and the converted values
+     */
+    public Map<String, Object> toColumnValues(T object) {
+        return toColumnValues(object, false);
+    }
+
+    /**
+     * Converts the object into the map of column names and the converted values.
+     * @param object the object to be converted
+     * @param includeNulls whether the properties with <code>null</code> values are included as <code>null</code> values
+     * @return the map of column names and the converted values
+     */
+    public Map<String, Object> toColumnValues(T object, boolean includeNulls) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < properties.length; i++) {
+            Object value = properties[i].get(object);
+            if (value != null) {
+                values.put(columns[i], converters[i].apply(value));
+            } else if (includeNulls) {
+                values.put(columns[i], null);
+            }
+        }
+        return values;
+    }
+
+    private final BeanProperty<T, Object>[] properties;
+    private final String[] columns;
+    private final Function<Object, Object>[] converters;
+}
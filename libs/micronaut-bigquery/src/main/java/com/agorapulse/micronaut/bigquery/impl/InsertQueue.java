@@ -0,0 +1,447 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.agorapulse.micronaut.bigquery.BigQueryService;
+import com.agorapulse.micronaut.bigquery.metrics.BigQueryMetrics;
+import io.micronaut.context.event.ShutdownEvent;
+import io.micronaut.context.event.StartupEvent;
+import io.micronaut.runtime.event.annotation.EventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Durable queue of the inserts.
+ *
+ * If <code>bigquery.insert-queue.enabled</code> is set to <code>true</code> then the rows inserted using
+ * {@link BigQueryService#insert(Object, String, String)} are written into the journal on the local disk and
+ * the caller is acknowledged immediately. The rows are sent to BigQuery in batches in the background and retried with
+ * exponential backoff if BigQuery is not available. The rows which have not been sent yet are replayed after
+ * the restart of the application. The rows are delivered at least once - a batch can be sent again if the application
+ * crashes before the successful delivery is recorded. The batches which cannot be sent within the configured number of
+ * attempts are moved into the dead letter journal in the <code>dead-letter</code> subdirectory which can be replayed by
+ * another queue using that subdirectory as its directory.
+ */
+@Singleton
+public class InsertQueue implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InsertQueue.class);
+    private static final String DEAD_LETTER = "dead-letter";
+
+    public InsertQueue(InsertQueueConfiguration configuration, Provider<BigQueryService> service, BigQueryMetrics metrics) {
+        this.configuration = configuration;
+        this.service = service;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return <code>true</code> if the inserts should be sent through this queue
+     */
+    public boolean isEnabled() {
+        return configuration.isEnabled();
+    }
+
+    /**
+     * Writes the row into the journal. The row will be sent to BigQuery in the background.
+     * @param columnValues the map of the column names and their values
+     * @param dataset the name of the dataset
+     * @param table the name of the table
+     * @throws IllegalStateException if the queue is full, disabled or closed
+     * @throws IllegalArgumentException if any of the values cannot be stored in the queue
+     */
+    public void offer(Map<String, ?> columnValues, String dataset, String table) {
+        InsertJournal current = start();
+        try {
+            current.append(encode(dataset, table, columnValues));
+            metrics.increment("bigquery.insert-queue.enqueued", "table", dataset + "." + table);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            metrics.increment("bigquery.insert-queue.rejected", "table", dataset + "." + table);
+            throw e;
+        } catch (IOException e) {
+            metrics.increment("bigquery.insert-queue.rejected", "table", dataset + "." + table);
+            throw new UncheckedIOException("Cannot write the row into the insert queue", e);
+        }
+    }
+
+    /**
+     * @return the number of the rows waiting to be sent
+     */
+    public long size() {
+        InsertJournal current = journal;
+        return current == null ? 0 : current.getPendingRecords();
+    }
+
+    /**
+     * Sends the pending rows to BigQuery in the current thread.
+     * @return the number of the rows sent
+     */
+    public long drain() {
+        lock.lock();
+        try {
+            return drain(start());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long drain(InsertJournal current) {
+        long drained = 0;
+
+        List<InsertJournal.Record> records = current.peek(configuration.getBatchSize());
+        while (!records.isEmpty()) {
+            for (List<InsertJournal.Record> batch : split(records)) {
+                long started = System.nanoTime();
+                try {
+                    send(batch);
+                    current.acknowledge(batch);
+                    drained += batch.size();
+                    attempts = 0;
+                    metrics.increment("bigquery.insert-queue.drained");
+                    metrics.record("bigquery.insert-queue.drain", Duration.ofNanos(System.nanoTime() - started));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot write the insert queue checkpoint", e);
+                } catch (RuntimeException e) {
+                    handleFailure(current, batch, e);
+                    return drained;
+                }
+            }
+            records = current.peek(configuration.getBatchSize());
+        }
+
+        return drained;
+    }
+
+    @EventListener
+    void onStartup(StartupEvent event) {
+        if (isEnabled()) {
+            start();
+        }
+    }
+
+    @EventListener
+    void onShutdown(ShutdownEvent event) {
+        close();
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+
+            if (deadLetters != null) {
+                deadLetters.close();
+                deadLetters = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private InsertJournal start() {
+        InsertJournal current = journal;
+        if (current != null) {
+            return current;
+        }
+        return open();
+    }
+
+    private InsertJournal open() {
+        lock.lock();
+        try {
+            if (!isEnabled()) {
+                throw new IllegalStateException("Insert queue is not enabled, set bigquery.insert-queue.enabled to true");
+            }
+
+            if (closed) {
+                throw new IllegalStateException("Insert queue has already been closed");
+            }
+
+            if (journal != null) {
+                return journal;
+            }
+
+            try {
+                journal = InsertJournal.open(
+                    Paths.get(configuration.getDirectory()),
+                    configuration.getSegmentSize(),
+                    configuration.getMaxSize(),
+                    configuration.isSync()
+                );
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open the insert queue in " + configuration.getDirectory(), e);
+            }
+
+            if (journal.getPendingRecords() > 0) {
+                LOGGER.info("Replaying {} row(s) from the insert queue in {}", journal.getPendingRecords(), configuration.getDirectory());
+            }
+
+            if (!gaugesRegistered) {
+                metrics.gauge("bigquery.insert-queue.size", this::size);
+                metrics.gauge("bigquery.insert-queue.bytes", () -> {
+                    InsertJournal current = journal;
+                    return current == null ? 0 : current.getPendingBytes();
+                });
+                gaugesRegistered = true;
+            }
+
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "bigquery-insert-queue");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            long interval = configuration.getDrainInterval().toMillis();
+            executor.scheduleWithFixedDelay(this::drainInBackground, interval, interval, TimeUnit.MILLISECONDS);
+
+            return journal;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private InsertJournal openDeadLetters() throws IOException {
+        if (deadLetters == null) {
+            deadLetters = InsertJournal.open(
+                Paths.get(configuration.getDirectory(), DEAD_LETTER),
+                configuration.getSegmentSize(),
+                Long.MAX_VALUE,
+                true
+            );
+        }
+        return deadLetters;
+    }
+
+    private void drainInBackground() {
+        if (System.currentTimeMillis() < retryAt) {
+            return;
+        }
+
+        try {
+            drain();
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to drain the insert queue", e);
+        }
+    }
+
+    private void handleFailure(InsertJournal current, List<InsertJournal.Record> batch, RuntimeException e) {
+        attempts++;
+        metrics.increment("bigquery.insert-queue.failed");
+
+        if (configuration.getMaxAttempts() > 0 && attempts >= configuration.getMaxAttempts()) {
+            LOGGER.error(
+                "Moving {} row(s) from the insert queue into the dead letter journal in {} after {} failed attempt(s)",
+                batch.size(),
+                Paths.get(configuration.getDirectory(), DEAD_LETTER),
+                attempts,
+                e
+            );
+            metrics.increment("bigquery.insert-queue.dropped");
+            attempts = 0;
+            try {
+                InsertJournal letters = openDeadLetters();
+                for (InsertJournal.Record record : batch) {
+                    letters.append(record.getData());
+                }
+                current.acknowledge(batch);
+            } catch (IOException io) {
+                throw new UncheckedIOException("Cannot move the failed rows into the dead letter journal", io);
+            }
+            return;
+        }
+
+        long delay = Math.min(
+            configuration.getInitialRetryDelay().toMillis() << Math.min(attempts - 1, 30),
+            configuration.getMaxRetryDelay().toMillis()
+        );
+        retryAt = System.currentTimeMillis() + delay;
+
+        LOGGER.warn("Failed to send {} row(s) from the insert queue, retrying in {} ms", batch.size(), delay, e);
+    }
+
+    private void send(List<InsertJournal.Record> batch) {
+        List<Entry> entries = new ArrayList<>(batch.size());
+        for (InsertJournal.Record record : batch) {
+            entries.add(decode(record.getData()));
+        }
+
+        Entry first = entries.get(0);
+        List<String> columns = new ArrayList<>(first.values.keySet());
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        List<String> rows = new ArrayList<>(entries.size());
+
+        for (int i = 0; i < entries.size(); i++) {
+            List<String> placeholders = new ArrayList<>(columns.size());
+            for (String column : columns) {
+                String parameter = column + "__" + i;
+                parameters.put(parameter, entries.get(i).values.get(column));
+                placeholders.add("@" + parameter);
+            }
+            rows.add("(" + String.join(", ", placeholders) + ")");
+        }
+
+        service.get().execute(parameters, String.format(
+            "insert into %s.%s (%s) values %s",
+            first.dataset,
+            first.table,
+            String.join(", ", columns),
+            String.join(", ", rows)
+        ));
+    }
+
+    /**
+     * Splits the records into the batches of consecutive records targeting the same table with the same columns, each
+     * batch fits into the limit of the query parameters of a single statement.
+     */
+    private static List<List<InsertJournal.Record>> split(List<InsertJournal.Record> records) {
+        List<List<InsertJournal.Record>> batches = new ArrayList<>();
+        List<InsertJournal.Record> current = new ArrayList<>();
+        Entry previous = null;
+        int parameters = 0;
+
+        for (InsertJournal.Record record : records) {
+            Entry entry = decode(record.getData());
+            int entryParameters = countParameters(entry.values);
+            boolean full = parameters + entryParameters > InsertPlan.MAX_PARAMETERS;
+            if (previous != null && (full || !previous.isCompatible(entry))) {
+                batches.add(current);
+                current = new ArrayList<>();
+                parameters = 0;
+            }
+            current.add(record);
+            parameters += entryParameters;
+            previous = entry;
+        }
+
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+
+        return batches;
+    }
+
+    /**
+     * Counts the query parameters of the row, the records are expanded into a parameter per field.
+     */
+    private static int countParameters(Object value) {
+        if (value instanceof Map) {
+            int count = 0;
+            for (Object field : ((Map<?, ?>) value).values()) {
+                count += countParameters(field);
+            }
+            return Math.max(count, 1);
+        }
+        if (value instanceof Iterable && ((Iterable<?>) value).iterator().hasNext() && ((Iterable<?>) value).iterator().next() instanceof Map) {
+            int count = 0;
+            for (Object element : (Iterable<?>) value) {
+                count += countParameters(element);
+            }
+            return count;
+        }
+        return 1;
+    }
+
+    private static byte[] encode(String dataset, String table, Map<String, ?> columnValues) {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer = ValueCodec.write(buffer, dataset);
+        buffer = ValueCodec.write(buffer, table);
+        buffer = ValueCodec.write(buffer, (long) columnValues.size());
+        for (Map.Entry<String, ?> entry : columnValues.entrySet()) {
+            buffer = ValueCodec.write(buffer, entry.getKey());
+            buffer = ValueCodec.write(buffer, entry.getValue());
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static Entry decode(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        String dataset = (String) ValueCodec.read(buffer);
+        String table = (String) ValueCodec.read(buffer);
+        long size = (Long) ValueCodec.read(buffer);
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (long i = 0; i < size; i++) {
+            values.put((String) ValueCodec.read(buffer), ValueCodec.read(buffer));
+        }
+        return new Entry(dataset, table, values);
+    }
+
+    private static final class Entry {
+
+        private final String dataset;
+        private final String table;
+        private final Map<String, Object> values;
+
+        private Entry(String dataset, String table, Map<String, Object> values) {
+            this.dataset = dataset;
+            this.table = table;
+            this.values = values;
+        }
+
+        boolean isCompatible(Entry other) {
+            return Objects.equals(dataset, other.dataset)
+                && Objects.equals(table, other.table)
+                && values.keySet().equals(other.values.keySet());
+        }
+
+    }
+
+    private final InsertQueueConfiguration configuration;
+    private final Provider<BigQueryService> service;
+    private final BigQueryMetrics metrics;
+    // guards the journals and the executor, the rows are sent and the journals are forced while holding the lock
+    // so it must not be a monitor pinning the virtual threads to their carrier threads
+    private final Lock lock = new ReentrantLock();
+
+    private volatile InsertJournal journal;
+    private ScheduledExecutorService executor;
+    private InsertJournal deadLetters;
+    private boolean closed;
+    private volatile long retryAt;
+    private int attempts;
+    private boolean gaugesRegistered;
+}
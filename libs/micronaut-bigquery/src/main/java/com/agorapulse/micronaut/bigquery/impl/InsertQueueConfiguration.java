@@ -0,0 +1,166 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+
+/**
+ * Configures the durable insert queue.
+ */
+@ConfigurationProperties("bigquery.insert-queue")
+public class InsertQueueConfiguration {
+
+    private boolean enabled;
+    private String directory = Paths.get(System.getProperty("java.io.tmpdir"), "bigquery-insert-queue").toString();
+    private long segmentSize = 16 * 1024 * 1024;
+    private long maxSize = 1024 * 1024 * 1024;
+    private boolean sync;
+    private int batchSize = 100;
+    private Duration drainInterval = Duration.ofSeconds(1);
+    private Duration initialRetryDelay = Duration.ofSeconds(1);
+    private Duration maxRetryDelay = Duration.ofMinutes(5);
+    private int maxAttempts = 10;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables the durable insert queue. If enabled then the inserts are written into the journal on the local disk
+     * and sent to BigQuery in batches in the background.
+     * @param enabled whether the durable insert queue is enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the directory holding the journal files. The directory must not be shared by multiple applications.
+     * @param directory the directory holding the journal files
+     */
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Sets the size of the single memory mapped journal file in bytes.
+     * @param segmentSize the size of the single memory mapped journal file in bytes
+     */
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximal size of the rows waiting to be sent in bytes. The inserts are rejected when the limit is reached.
+     * @param maxSize the maximal size of the rows waiting to be sent in bytes
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * Forces every insert to the storage device before it is acknowledged. Without the sync the rows survive the crash
+     * of the application but not the crash of the operating system.
+     * @param sync whether every insert is forced to the storage device
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximal number of rows sent to BigQuery in a single statement.
+     * @param batchSize the maximal number of rows sent to BigQuery in a single statement
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public Duration getDrainInterval() {
+        return drainInterval;
+    }
+
+    /**
+     * Sets the delay between the attempts to send the pending rows.
+     * @param drainInterval the delay between the attempts to send the pending rows
+     */
+    public void setDrainInterval(Duration drainInterval) {
+        this.drainInterval = drainInterval;
+    }
+
+    public Duration getInitialRetryDelay() {
+        return initialRetryDelay;
+    }
+
+    /**
+     * Sets the delay after the first failure. The delay doubles with every consecutive failure.
+     * @param initialRetryDelay the delay after the first failure
+     */
+    public void setInitialRetryDelay(Duration initialRetryDelay) {
+        this.initialRetryDelay = initialRetryDelay;
+    }
+
+    public Duration getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    /**
+     * Sets the maximal delay between the failed attempts.
+     * @param maxRetryDelay the maximal delay between the failed attempts
+     */
+    public void setMaxRetryDelay(Duration maxRetryDelay) {
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Sets the maximal number of attempts to send the batch after which the batch is moved into the dead letter journal
+     * in the <code>dead-letter</code> subdirectory. Zero means the batch is retried until it succeeds which blocks all
+     * the following rows if the batch can never be sent.
+     * @param maxAttempts the maximal number of attempts to send the batch
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+}
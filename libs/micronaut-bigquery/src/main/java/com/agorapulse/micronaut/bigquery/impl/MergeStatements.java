@@ -0,0 +1,206 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.agorapulse.micronaut.bigquery.ParameterizedSql;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.Schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Generates the statements of the bulk upsert, i.e. the staging table schema, the inserts loading the rows into the
+ * staging table and the single <code>MERGE</code> statement applying the staged rows to the target table.
+ *
+ * The named parameters of each staged row are prefixed with the index of the row, e.g. <code>@id</code> of the second
+ * row becomes <code>@r1__id</code>. The columns missing in the row are staged as <code>NULL</code> and keep the values
+ * of the target table unless the merge overwrites the current values with <code>NULL</code>.
+ */
+final class MergeStatements {
+
+    private static final Set<String> OPAQUE_TYPES = new HashSet<>(Arrays.asList("RECORD", "GEOGRAPHY", "JSON"));
+
+    private MergeStatements() { }
+
+    /**
+     * Returns the schema of the staging table which contains only the given columns, all of them nullable.
+     * @param schema the schema of the target table
+     * @param columns the columns to be staged
+     * @return the schema of the staging table
+     * @throws IllegalArgumentException if any of the columns does not exist in the target table
+     */
+    static Schema stagingSchema(Schema schema, Collection<String> columns) {
+        FieldList fields = schema.getFields();
+        List<Field> staged = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            Field field = find(fields, column);
+            if (field.getMode() == Field.Mode.REQUIRED) {
+                field = field.toBuilder().setMode(Field.Mode.NULLABLE).build();
+            }
+            staged.add(field);
+        }
+        return Schema.of(staged);
+    }
+
+    /**
+     * Splits the rows into the inserts into the staging table so each insert fits into the parameter limit.
+     * @param stagingTable the staging table as <code>dataset.table</code>
+     * @param columns the columns of the staging table
+     * @param rows the column values of the rows
+     * @return the inserts loading all the rows into the staging table
+     */
+    static List<ParameterizedSql> stage(String stagingTable, List<String> columns, List<Map<String, Object>> rows) {
+        int rowsPerInsert = Math.max(1, InsertPlan.MAX_PARAMETERS / Math.max(1, columns.size()));
+        List<ParameterizedSql> inserts = new ArrayList<>(rows.size() / rowsPerInsert + 1);
+        for (int from = 0; from < rows.size(); from += rowsPerInsert) {
+            List<Map<String, Object>> chunk = rows.subList(from, Math.min(rows.size(), from + rowsPerInsert));
+            Map<String, Object> parameters = new LinkedHashMap<>();
+            List<String> values = new ArrayList<>(chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                Map<String, Object> row = chunk.get(i);
+                List<String> placeholders = new ArrayList<>(columns.size());
+                for (String column : columns) {
+                    Object value = row.get(column);
+                    if (value == null) {
+                        placeholders.add("NULL");
+                    } else {
+                        String name = "r" + i + "__" + column;
+                        placeholders.add("@" + name);
+                        parameters.put(name, value);
+                    }
+                }
+                values.add("(" + String.join(", ", placeholders) + ")");
+            }
+            String sql = "INSERT INTO " + stagingTable + " (" + String.join(", ", columns) + ") VALUES " + String.join(", ", values);
+            inserts.add(ParameterizedSql.from(parameters, sql));
+        }
+        return inserts;
+    }
+
+    /**
+     * Generates the statement merging the staging table into the target table.
+     *
+     * The matched rows are only updated if any of the staged values differs from the current value. Unless the nulls
+     * are overwritten, only the staged non-null values are compared and only the columns with non-null staged values
+     * are changed. Otherwise the <code>NULL</code> values clear the current values and the repeated columns are
+     * cleared by <code>NULL</code> arrays.
+     *
+     * @param schema the schema of the target table
+     * @param targetTable the target table as <code>dataset.table</code>
+     * @param stagingTable the staging table as <code>dataset.table</code>
+     * @param columns the staged columns
+     * @param keyColumns the columns identifying the rows
+     * @param overwriteNulls whether the staged <code>NULL</code> values replace the current values
+     * @return the merge statement
+     */
+    static String merge(
+        Schema schema,
+        String targetTable,
+        String stagingTable,
+        List<String> columns,
+        List<String> keyColumns,
+        boolean overwriteNulls
+    ) {
+        StringBuilder merge = new StringBuilder();
+        merge.append("MERGE ").append(targetTable).append(" T\n");
+        merge.append("USING ").append(stagingTable).append(" S\n");
+        merge.append("ON ").append(keyColumns.stream().map(k -> "T." + k + " = S." + k).collect(Collectors.joining(" AND "))).append('\n');
+
+        List<String> changes = new ArrayList<>();
+        List<String> assignments = new ArrayList<>();
+        for (String column : columns) {
+            if (keyColumns.contains(column)) {
+                continue;
+            }
+            Field field = find(schema.getFields(), column);
+            String staged = "S." + column;
+            String current = "T." + column;
+            if (overwriteNulls) {
+                String value = field.getMode() == Field.Mode.REPEATED ? "IFNULL(" + staged + ", [])" : staged;
+                if (field.getMode() == Field.Mode.REPEATED || OPAQUE_TYPES.contains(field.getType().name())) {
+                    changes.add("TO_JSON_STRING(" + current + ") != TO_JSON_STRING(" + value + ")");
+                } else {
+                    changes.add(current + " IS DISTINCT FROM " + staged);
+                }
+                assignments.add(column + " = " + value);
+            } else if (field.getMode() == Field.Mode.REPEATED) {
+                changes.add("(ARRAY_LENGTH(" + staged + ") > 0 AND TO_JSON_STRING(" + current + ") != TO_JSON_STRING(" + staged + "))");
+                assignments.add(column + " = IF(ARRAY_LENGTH(" + staged + ") > 0, " + staged + ", " + current + ")");
+            } else if (OPAQUE_TYPES.contains(field.getType().name())) {
+                changes.add("(" + staged + " IS NOT NULL AND TO_JSON_STRING(" + current + ") != TO_JSON_STRING(" + staged + "))");
+                assignments.add(column + " = COALESCE(" + staged + ", " + current + ")");
+            } else {
+                changes.add("(" + staged + " IS NOT NULL AND " + current + " IS DISTINCT FROM " + staged + ")");
+                assignments.add(column + " = COALESCE(" + staged + ", " + current + ")");
+            }
+        }
+
+        if (!assignments.isEmpty()) {
+            merge.append("WHEN MATCHED AND (").append(String.join(" OR ", changes)).append(") THEN\n");
+            merge.append("  UPDATE SET ").append(String.join(", ", assignments)).append('\n');
+        }
+
+        merge.append("WHEN NOT MATCHED THEN\n");
+        merge.append("  INSERT (").append(String.join(", ", columns)).append(")\n");
+        merge.append("  VALUES (").append(columns.stream().map(c -> "S." + c).collect(Collectors.joining(", "))).append(')');
+        return merge.toString();
+    }
+
+    /**
+     * Keeps only the last row for each combination of the key values so the merge never matches a target row twice.
+     * @param rows the column values of the rows
+     * @param keyColumns the columns identifying the rows
+     * @return the rows with unique keys in the order of their first occurrence
+     * @throws IllegalArgumentException if any of the rows is missing any of the key values
+     */
+    static List<Map<String, Object>> deduplicate(List<Map<String, Object>> rows, List<String> keyColumns) {
+        Map<List<Object>, Map<String, Object>> unique = new LinkedHashMap<>();
+        for (Map<String, Object> row : rows) {
+            List<Object> key = new ArrayList<>(keyColumns.size());
+            for (String column : keyColumns) {
+                Object value = row.get(column);
+                if (value == null) {
+                    throw new IllegalArgumentException("Missing value of key column " + column + " in " + row);
+                }
+                key.add(value);
+            }
+            unique.put(Collections.unmodifiableList(key), row);
+        }
+        return new ArrayList<>(unique.values());
+    }
+
+    private static Field find(FieldList fields, String column) {
+        for (Field field : fields) {
+            if (field.getName().equalsIgnoreCase(column)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Column " + column + " does not exist in the target table");
+    }
+
+}
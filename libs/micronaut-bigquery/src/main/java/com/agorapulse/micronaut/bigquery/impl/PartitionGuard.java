@@ -0,0 +1,234 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TimePartitioning;
+import io.micronaut.context.annotation.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Partition guard routes the inserts into the desired partitions and checks that the queries against the partitioned
+ * tables contain the partition filter.
+ *
+ * The check is only performed if <code>bigquery.partition-guard</code> is set to <code>warn</code> or <code>reject</code>.
+ * The check is heuristic - the partitioning column or pseudo column must be mentioned after the first <code>where</code>
+ * keyword of the statement. The queries against the clustered tables which do not filter by the first clustering column
+ * are only logged as a warning because such queries still read the whole partitions but they are never rejected.
+ */
+@Singleton
+public class PartitionGuard {
+
+    /**
+     * What to do with the queries without partition filter.
+     */
+    public enum Mode {
+        /**
+         * The queries are not checked.
+         */
+        NONE,
+
+        /**
+         * Warning is logged if the partition filter is missing.
+         */
+        WARN,
+
+        /**
+         * {@link IllegalArgumentException} is thrown if the partition filter is missing.
+         */
+        REJECT
+    }
+
+    static final String PARTITION_TIME_COLUMN = "_PARTITIONTIME";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionGuard.class);
+    private static final Pattern WHERE = Pattern.compile("\\bwhere\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INGESTION_TIME_FILTER = Pattern.compile("\\b_PARTITION(TIME|DATE)\\b", Pattern.CASE_INSENSITIVE);
+
+    private final TableMetadataCache metadata;
+    private final Mode mode;
+
+    public PartitionGuard(TableMetadataCache metadata, @Value("${bigquery.partition-guard:none}") Mode mode) {
+        this.metadata = metadata;
+        this.mode = mode;
+    }
+
+    /**
+     * Checks whether the queries against partitioned tables contain the partition filter and whether the queries
+     * against clustered tables filter by the first clustering column.
+     * @param sql the SQL statement to be checked
+     * @throws IllegalArgumentException if the partition filter is missing and the mode is {@link Mode#REJECT}
+     */
+    public void check(String sql) {
+        if (mode == Mode.NONE) {
+            return;
+        }
+
+        for (TableId tableId : TableReferences.find(sql)) {
+            Optional<TimePartitioning> partitioning = getTimePartitioning(tableId);
+            if (partitioning.isPresent() && !hasPartitionFilter(sql, partitioning.get())) {
+                String message = String.format(
+                    "Query on partitioned table %s.%s does not filter by %s: %s",
+                    tableId.getDataset(),
+                    tableId.getTable(),
+                    partitioning.get().getField() == null ? PARTITION_TIME_COLUMN : partitioning.get().getField(),
+                    sql
+                );
+
+                if (mode == Mode.REJECT) {
+                    throw new IllegalArgumentException(message);
+                }
+
+                LOGGER.warn(message);
+            }
+
+            List<String> clustering = getClusteringFields(tableId);
+            if (!clustering.isEmpty() && !hasFilter(sql, clustering.get(0))) {
+                LOGGER.warn(
+                    "Query on clustered table {}.{} does not filter by {}: {}",
+                    tableId.getDataset(),
+                    tableId.getTable(),
+                    clustering.get(0),
+                    sql
+                );
+            }
+        }
+    }
+
+    /**
+     * Routes the insert into the partition for the given time.
+     *
+     * Ingestion-time partitioned tables receive the <code>_PARTITIONTIME</code> pseudo column truncated to the partition
+     * granularity, column partitioned tables receive the partition time converted to the type of the partitioning column
+     * unless already set.
+     *
+     * @param columnValues the column values to be inserted, they will be updated with the partition value
+     * @param tableId the table identifier
+     * @param partitionTime the time of the partition or <code>null</code> to let BigQuery decide
+     * @throws IllegalArgumentException if the partitioning column is not a <code>DATE</code>, <code>DATETIME</code>
+     *                                  or <code>TIMESTAMP</code> column
+     */
+    public void route(Map<String, Object> columnValues, TableId tableId, Instant partitionTime) {
+        if (partitionTime == null) {
+            return;
+        }
+
+        Optional<TimePartitioning> partitioning = getTimePartitioning(tableId);
+        if (!partitioning.isPresent()) {
+            LOGGER.warn("Table {}.{} is not partitioned by time, ignoring partition time {}", tableId.getDataset(), tableId.getTable(), partitionTime);
+            return;
+        }
+
+        String field = partitioning.get().getField();
+        if (field == null) {
+            columnValues.put(PARTITION_TIME_COLUMN, truncate(partitionTime, partitioning.get().getType()));
+        } else if (!columnValues.containsKey(field)) {
+            columnValues.put(field, toPartitionValue(tableId, field, partitionTime));
+        }
+    }
+
+    /**
+     * Converts the partition time to the type of the partitioning column, i.e. the UTC date for <code>DATE</code>,
+     * the UTC date and time for <code>DATETIME</code> and the timestamp for <code>TIMESTAMP</code> columns.
+     */
+    private Object toPartitionValue(TableId tableId, String field, Instant partitionTime) {
+        Optional<Schema> schema = getDefinition(tableId).map(StandardTableDefinition::getSchema);
+        if (!schema.isPresent()) {
+            return partitionTime;
+        }
+
+        Function<Object, Object> converter = QueryParameterConverters.forSchema(schema.get()).create(field, Instant.class);
+        return converter == null ? partitionTime : converter.apply(partitionTime);
+    }
+
+    private Optional<TimePartitioning> getTimePartitioning(TableId tableId) {
+        return getDefinition(tableId).map(StandardTableDefinition::getTimePartitioning);
+    }
+
+    private List<String> getClusteringFields(TableId tableId) {
+        try {
+            return metadata.getClusteringFields(tableId);
+        } catch (BigQueryException e) {
+            LOGGER.debug("Cannot fetch metadata for table {}", tableId, e);
+            return Collections.emptyList();
+        }
+    }
+
+    private Optional<StandardTableDefinition> getDefinition(TableId tableId) {
+        try {
+            return metadata.get(tableId)
+                .map(Table::getDefinition)
+                .filter(StandardTableDefinition.class::isInstance)
+                .map(StandardTableDefinition.class::cast);
+        } catch (BigQueryException e) {
+            LOGGER.debug("Cannot fetch metadata for table {}", tableId, e);
+            return Optional.empty();
+        }
+    }
+
+    private static boolean hasPartitionFilter(String sql, TimePartitioning partitioning) {
+        if (partitioning.getField() == null) {
+            String[] parts = WHERE.split(sql, 2);
+            return parts.length == 2 && INGESTION_TIME_FILTER.matcher(parts[1]).find();
+        }
+
+        return hasFilter(sql, partitioning.getField());
+    }
+
+    private static boolean hasFilter(String sql, String column) {
+        String[] parts = WHERE.split(sql, 2);
+        if (parts.length < 2) {
+            return false;
+        }
+
+        return Pattern.compile("\\b" + Pattern.quote(column) + "\\b", Pattern.CASE_INSENSITIVE).matcher(parts[1]).find();
+    }
+
+    private static Instant truncate(Instant partitionTime, TimePartitioning.Type type) {
+        ZonedDateTime time = partitionTime.atZone(ZoneOffset.UTC);
+        switch (type.name().toUpperCase(Locale.ROOT)) {
+            case "HOUR":
+                return time.truncatedTo(ChronoUnit.HOURS).toInstant();
+            case "MONTH":
+                return time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).toInstant();
+            case "YEAR":
+                return time.truncatedTo(ChronoUnit.DAYS).withDayOfYear(1).toInstant();
+            default:
+                return time.truncatedTo(ChronoUnit.DAYS).toInstant();
+        }
+    }
+
+}
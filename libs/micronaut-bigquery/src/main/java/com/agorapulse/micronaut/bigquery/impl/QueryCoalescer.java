@@ -0,0 +1,252 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.agorapulse.micronaut.bigquery.QueryOptions;
+import com.agorapulse.micronaut.bigquery.metrics.BigQueryMetrics;
+import io.micronaut.context.annotation.Value;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.flowables.ConnectableFlowable;
+import org.reactivestreams.Subscriber;
+
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Shares the job and the results between the identical queries running concurrently.
+ *
+ * The first subscriber runs the query, the subscribers arriving before the first row is received wait for the same job
+ * and the rows are streamed to all of them. Only a bounded number of rows is buffered so the slowest subscriber sets
+ * the pace. The subscribers arriving later run their own query. The job is cancelled only when all the subscribers dispose their
+ * subscriptions.
+ */
+@Singleton
+public class QueryCoalescer {
+
+    /**
+     * The results multicast to the participants, the query is cancelled once all the participants cancel their
+     * subscriptions before the results are read completely.
+     *
+     * @param <R> the type of the results
+     */
+    private final class SharedQuery<R> {
+
+        SharedQuery(Object key, Supplier<Flowable<R>> query) {
+            this.key = key;
+            this.rows = Flowable.defer(query::get)
+                .doOnNext(row -> {
+                    if (open) {
+                        close(false);
+                    }
+                })
+                .doOnTerminate(() -> close(true))
+                .publish();
+        }
+
+        /**
+         * Subscribes the new participant unless the first row has already been received, the first participant starts
+         * the query.
+         * @param subscriber the subscriber of the participant
+         * @return <code>true</code> if the participant has been subscribed to the shared results
+         */
+        boolean join(Subscriber<? super R> subscriber) {
+            lock.lock();
+            try {
+                if (!open) {
+                    return false;
+                }
+                participants++;
+                AtomicBoolean left = new AtomicBoolean();
+                rows
+                    .doOnTerminate(() -> leave(left, false))
+                    .doOnCancel(() -> leave(left, true))
+                    .subscribe(subscriber);
+            } finally {
+                lock.unlock();
+            }
+
+            if (connected.compareAndSet(false, true)) {
+                rows.connect(connection::set);
+            }
+            return true;
+        }
+
+        private void leave(AtomicBoolean left, boolean cancelled) {
+            if (!left.compareAndSet(false, true)) {
+                return;
+            }
+
+            boolean dispose;
+            lock.lock();
+            try {
+                participants--;
+                dispose = cancelled && participants == 0 && !terminated;
+                if (dispose) {
+                    terminated = true;
+                    open = false;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (dispose) {
+                inFlight.remove(key, this);
+                Disposable upstream = connection.get();
+                if (upstream != null) {
+                    upstream.dispose();
+                }
+            }
+        }
+
+        private void close(boolean finished) {
+            lock.lock();
+            try {
+                open = false;
+                terminated |= finished;
+            } finally {
+                lock.unlock();
+            }
+            inFlight.remove(key, this);
+        }
+
+        private final Lock lock = new ReentrantLock();
+        private final AtomicBoolean connected = new AtomicBoolean();
+        private final AtomicReference<Disposable> connection = new AtomicReference<>();
+        private final Object key;
+        private final ConnectableFlowable<R> rows;
+        private volatile boolean open = true;
+        private boolean terminated;
+        private int participants;
+
+    }
+
+    public QueryCoalescer(@Value("${bigquery.coalesce-queries:false}") boolean enabled, BigQueryMetrics metrics) {
+        this.enabled = enabled;
+        this.metrics = metrics;
+
+        metrics.gauge("bigquery.query.in-flight", inFlight::size);
+    }
+
+    /**
+     * Returns <code>true</code> if the query with given options should be coalesced.
+     * @param options the query options
+     * @return <code>true</code> if the query with given options should be coalesced
+     */
+    public boolean isEnabled(QueryOptions options) {
+        return options.getCoalesced() == null ? enabled : options.getCoalesced();
+    }
+
+    /**
+     * Runs the query or joins the identical query already running once the returned flowable is subscribed.
+     * @param key the key identifying the query, usually the SQL and the normalized parameters
+     * @param query the supplier returning the lazy flowable running the query
+     * @param <R> the type of the results
+     * @return the flowable of the results shared with the other subscribers using the same key
+     */
+    public <R> Flowable<R> coalesce(Object key, Supplier<Flowable<R>> query) {
+        return Flowable.fromPublisher(subscriber -> subscribe(key, query, subscriber));
+    }
+
+    /**
+     * Runs the query or joins the identical query already running once the returned flowable is subscribed, applying
+     * the timeout and the deadline of the options to this subscriber only.
+     *
+     * The shared query must not be limited by the timeout or the deadline of any of the subscribers. The subscriber
+     * fails and leaves the shared query if the first row does not arrive within the remaining time or if the deadline
+     * passes while reading the results, the other subscribers are not affected.
+     *
+     * @param key the key identifying the query, usually the SQL and the normalized parameters
+     * @param options the options of the caller
+     * @param query the supplier returning the lazy flowable running the query
+     * @param <R> the type of the results
+     * @return the flowable of the results shared with the other subscribers using the same key
+     */
+    public <R> Flowable<R> coalesce(Object key, QueryOptions options, Supplier<Flowable<R>> query) {
+        Flowable<R> rows = coalesce(key, query);
+        if (options.getTimeout() == null && options.getDeadline() == null) {
+            return rows;
+        }
+
+        return Flowable.defer(() -> {
+            Duration remaining = options.getRemainingTime();
+            if (remaining.isNegative() || remaining.isZero()) {
+                return Flowable.<R>error(new IllegalStateException("The deadline " + options.getDeadline() + " has passed before the query started"));
+            }
+
+            Flowable<R> limited = rows.timeout(
+                Flowable.timer(remaining.toMillis(), TimeUnit.MILLISECONDS),
+                row -> Flowable.<Long>never(),
+                Flowable.<R>error(new IllegalStateException("Query did not finish within " + remaining))
+            );
+
+            if (options.getDeadline() == null) {
+                return limited;
+            }
+
+            long untilDeadline = Math.max(0, Duration.between(Instant.now(), options.getDeadline()).toMillis());
+            return limited.mergeWith(
+                Completable.timer(untilDeadline, TimeUnit.MILLISECONDS)
+                    .andThen(Completable.error(new IllegalStateException("The deadline " + options.getDeadline() + " has passed while reading the results")))
+            );
+        });
+    }
+
+    /**
+     * @return the number of the queries currently waiting for their first row
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> void subscribe(Object key, Supplier<Flowable<R>> query, Subscriber<? super R> subscriber) {
+        while (true) {
+            SharedQuery<R> existing = (SharedQuery<R>) inFlight.get(key);
+            if (existing != null) {
+                if (existing.join(subscriber)) {
+                    metrics.increment("bigquery.query.coalesced");
+                    return;
+                }
+                // the rows are already being received or the query is being cancelled
+                inFlight.remove(key, existing);
+                continue;
+            }
+
+            SharedQuery<R> shared = new SharedQuery<>(key, query);
+            if (inFlight.putIfAbsent(key, shared) == null && shared.join(subscriber)) {
+                return;
+            }
+        }
+    }
+
+    private final ConcurrentMap<Object, SharedQuery<?>> inFlight = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final BigQueryMetrics metrics;
+
+}
@@ -0,0 +1,181 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.QueryParameterValue;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableResult;
+import io.micronaut.context.annotation.Value;
+
+import javax.inject.Singleton;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Materializes the query results into the tables in the scratch dataset configured by
+ * <code>bigquery.materialization.dataset</code> property.
+ *
+ * The tables are named by the hash of the SQL and the names, types and values of the named parameters so the identical
+ * queries share the same table even if they are executed by different instances of the application. The tables expire
+ * after <code>bigquery.materialization.expiration</code> (one day by default).
+ */
+@Singleton
+public class QueryMaterializer {
+
+    private static final String TABLE_PREFIX = "materialized_";
+
+    private final String dataset;
+    private final Duration expiration;
+
+    public QueryMaterializer(
+        @Value("${bigquery.materialization.dataset:}") String dataset,
+        @Value("${bigquery.materialization.expiration:1d}") Duration expiration
+    ) {
+        this.dataset = dataset;
+        this.expiration = expiration;
+    }
+
+    /**
+     * Returns the table holding the materialized results of the query.
+     * @param sql the SQL query
+     * @param namedParameters the named parameters of the query
+     * @return the table holding the materialized results of the query
+     */
+    public TableId getTableId(String sql, Map<String, QueryParameterValue> namedParameters) {
+        if (dataset.isEmpty()) {
+            throw new IllegalStateException("Materialized queries require bigquery.materialization.dataset property to be set");
+        }
+
+        MessageDigest digest = sha256();
+        update(digest, sql);
+        for (Map.Entry<String, QueryParameterValue> parameter : new TreeMap<>(namedParameters).entrySet()) {
+            update(digest, parameter.getKey());
+            update(digest, parameter.getValue());
+        }
+
+        return TableId.of(dataset, TABLE_PREFIX + hex(digest.digest()));
+    }
+
+    /**
+     * Reads the materialized results if they are not older than the given freshness.
+     * @param bigquery the client running the materialized query
+     * @param tableId the table holding the materialized results
+     * @param freshness the maximal age of the materialized results
+     * @return the materialized results or empty optional if they do not exist or are too old
+     */
+    public Optional<TableResult> read(BigQuery bigquery, TableId tableId, Duration freshness) {
+        Table table = bigquery.getTable(tableId);
+        if (table == null || table.getLastModifiedTime() == null || table.getLastModifiedTime() + freshness.toMillis() < System.currentTimeMillis()) {
+            return Optional.empty();
+        }
+        return Optional.of(bigquery.listTableData(tableId, table.getDefinition().getSchema()));
+    }
+
+    /**
+     * Configures the query to write the results into the given table.
+     * @param queryConfig the query job configuration
+     * @param tableId the table holding the materialized results
+     * @return the query job configuration writing the results into the given table
+     */
+    public QueryJobConfiguration.Builder configure(QueryJobConfiguration.Builder queryConfig, TableId tableId) {
+        return queryConfig
+            .setDestinationTable(tableId)
+            .setCreateDisposition(JobInfo.CreateDisposition.CREATE_IF_NEEDED)
+            .setWriteDisposition(JobInfo.WriteDisposition.WRITE_TRUNCATE);
+    }
+
+    /**
+     * Sets the expiration of the table holding the materialized results.
+     * @param bigquery the client which has run the materialized query
+     * @param tableId the table holding the materialized results
+     */
+    public void expire(BigQuery bigquery, TableId tableId) {
+        Table table = bigquery.getTable(tableId);
+        if (table != null) {
+            table.toBuilder().setExpirationTime(System.currentTimeMillis() + expiration.toMillis()).build().update();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Hashes the type and the value of the parameter explicitly, the string representation of the parameter is not
+     * guaranteed to be stable between the versions of the BigQuery client.
+     */
+    private static void update(MessageDigest digest, QueryParameterValue parameter) {
+        update(digest, parameter.getType().name());
+        update(digest, parameter.getValue());
+        update(digest, parameter.getArrayType() == null ? null : parameter.getArrayType().name());
+
+        List<QueryParameterValue> elements = parameter.getArrayValues();
+        if (elements == null) {
+            update(digest, -1);
+            return;
+        }
+
+        update(digest, elements.size());
+        for (QueryParameterValue element : elements) {
+            update(digest, element);
+        }
+    }
+
+    /**
+     * Hashes the text prefixed by its length so the neighbouring values cannot be confused, <code>null</code> is
+     * hashed as the negative length.
+     */
+    private static void update(MessageDigest digest, String text) {
+        if (text == null) {
+            update(digest, -1);
+            return;
+        }
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        update(digest, bytes.length);
+        digest.update(bytes);
+    }
+
+    private static void update(MessageDigest digest, int value) {
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(value).array());
+    }
+
+    private static String hex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+}
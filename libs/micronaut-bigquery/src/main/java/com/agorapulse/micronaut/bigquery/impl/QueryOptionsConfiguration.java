@@ -0,0 +1,144 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.agorapulse.micronaut.bigquery.QueryOptions;
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Configures the default options of the queries and statements.
+ *
+ * The options passed to the particular call take precedence over the defaults.
+ */
+@ConfigurationProperties("bigquery.query")
+public class QueryOptionsConfiguration {
+
+    private QueryOptions.Priority priority;
+    private Boolean useQueryCache;
+    private Integer pageSize;
+    private Long maximumBytesBilled;
+    private Duration timeout;
+    private String location;
+    private Map<String, String> labels = new LinkedHashMap<>();
+
+    public QueryOptions.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the default priority of the query jobs.
+     * @param priority the default priority of the query jobs
+     */
+    public void setPriority(QueryOptions.Priority priority) {
+        this.priority = priority;
+    }
+
+    public Boolean getUseQueryCache() {
+        return useQueryCache;
+    }
+
+    /**
+     * Sets whether the query cache should be used by default.
+     * @param useQueryCache whether the query cache should be used by default
+     */
+    public void setUseQueryCache(Boolean useQueryCache) {
+        this.useQueryCache = useQueryCache;
+    }
+
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets the default number of rows fetched in a single request.
+     * @param pageSize the default number of rows fetched in a single request
+     */
+    public void setPageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public Long getMaximumBytesBilled() {
+        return maximumBytesBilled;
+    }
+
+    /**
+     * Sets the default limit of the bytes billed for a single query.
+     * @param maximumBytesBilled the default limit of the bytes billed for a single query
+     */
+    public void setMaximumBytesBilled(Long maximumBytesBilled) {
+        this.maximumBytesBilled = maximumBytesBilled;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets how long to wait for the queries to finish by default.
+     * @param timeout how long to wait for the queries to finish by default
+     */
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Sets the default location of the query jobs.
+     * @param location the default location of the query jobs
+     */
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public Map<String, String> getLabels() {
+        return labels;
+    }
+
+    /**
+     * Sets the labels added to every query job.
+     * @param labels the labels added to every query job
+     */
+    public void setLabels(Map<String, String> labels) {
+        this.labels = labels;
+    }
+
+    /**
+     * @return the default query options
+     */
+    public QueryOptions toQueryOptions() {
+        QueryOptions.Builder builder = QueryOptions.builder().priority(priority).location(location).timeout(timeout).labels(labels);
+        if (useQueryCache != null) {
+            builder.useQueryCache(useQueryCache);
+        }
+        if (pageSize != null) {
+            builder.pageSize(pageSize);
+        }
+        if (maximumBytesBilled != null) {
+            builder.maximumBytesBilled(maximumBytesBilled);
+        }
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,291 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.LegacySQLTypeName;
+import com.google.cloud.bigquery.QueryParameterValue;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Converters of the Java values into the query parameter values.
+ *
+ * The converters for the columns are selected by the declared type of the column so the values are always sent
+ * with the type BigQuery expects. The dynamic converters are selected by the runtime type of the value and cached
+ * for each class.
+ */
+final class QueryParameterConverters {
+
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS", Locale.ROOT);
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSSSSS", Locale.ROOT);
+
+    private static final ConcurrentMap<Class<?>, Function<Object, QueryParameterValue>> DYNAMIC = new ConcurrentHashMap<>();
+
+    private QueryParameterConverters() { }
+
+    /**
+     * Creates the factory of the converters for the columns of the given schema.
+     * @param schema the schema of the table
+     * @return the factory of the converters for the columns of the given schema
+     */
+    static InsertPlan.ConverterFactory forSchema(Schema schema) {
+        return (column, propertyType) -> {
+            Field field = findField(schema, column);
+            if (field == null) {
+                return null;
+            }
+            return forField(field, propertyType);
+        };
+    }
+
+    /**
+     * Converts the value to the query parameter value using its runtime type.
+     * @param value the value, already converted using {@link com.agorapulse.micronaut.bigquery.BigQueryService#convertIfNecessary(Object)}
+     * @return the query parameter value
+     */
+    static QueryParameterValue toParameter(Object value) {
+        if (value instanceof QueryParameterValue) {
+            return (QueryParameterValue) value;
+        }
+        return DYNAMIC.computeIfAbsent(value.getClass(), QueryParameterConverters::dynamic).apply(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, QueryParameterValue> dynamic(Class<?> type) {
+        if (Instant.class.isAssignableFrom(type)) {
+            return value -> QueryParameterValue.timestamp(toMicros((Instant) value));
+        }
+        if (BigDecimal.class.isAssignableFrom(type)) {
+            return value -> QueryParameterValue.numeric((BigDecimal) value);
+        }
+        if (LocalDate.class.isAssignableFrom(type)) {
+            return value -> QueryParameterValue.date(value.toString());
+        }
+        if (LocalDateTime.class.isAssignableFrom(type)) {
+            return value -> QueryParameterValue.dateTime(DATE_TIME_FORMAT.format((TemporalAccessor) value));
+        }
+        if (LocalTime.class.isAssignableFrom(type)) {
+            return value -> QueryParameterValue.time(TIME_FORMAT.format((TemporalAccessor) value));
+        }
+        if (byte[].class.equals(type)) {
+            return value -> QueryParameterValue.bytes((byte[]) value);
+        }
+        if (Iterable.class.isAssignableFrom(type)) {
+            return value -> toArray((Iterable<?>) value);
+        }
+        if (type.isArray()) {
+            return value -> toArray(toList(value));
+        }
+        Class<Object> objectType = (Class<Object>) type;
+        return value -> QueryParameterValue.of(value, objectType);
+    }
+
+    private static Function<Object, Object> forField(Field field, Class<?> propertyType) {
+        if (LegacySQLTypeName.RECORD.equals(field.getType())) {
+            // records are expanded into STRUCT expressions by StructParameters
+            return Function.identity();
+        }
+
+        if (field.getMode() == Field.Mode.REPEATED || Object.class.equals(propertyType)) {
+            return QueryParameterConverters::toDynamicParameter;
+        }
+
+        Class<?> type = box(propertyType);
+        String columnType = field.getType().name();
+
+        switch (columnType) {
+            case "TIMESTAMP":
+                if (Instant.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.timestamp(toMicros((Instant) value));
+                }
+                if (Date.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.timestamp(toMicros(((Date) value).toInstant()));
+                }
+                if (OffsetDateTime.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.timestamp(toMicros(((OffsetDateTime) value).toInstant()));
+                }
+                if (ZonedDateTime.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.timestamp(toMicros(((ZonedDateTime) value).toInstant()));
+                }
+                break;
+            case "DATETIME":
+                if (LocalDateTime.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.dateTime(DATE_TIME_FORMAT.format((LocalDateTime) value));
+                }
+                if (Instant.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.dateTime(DATE_TIME_FORMAT.format(((Instant) value).atOffset(ZoneOffset.UTC)));
+                }
+                break;
+            case "DATE":
+                if (LocalDate.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.date(value.toString());
+                }
+                if (Instant.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.date(((Instant) value).atOffset(ZoneOffset.UTC).toLocalDate().toString());
+                }
+                break;
+            case "TIME":
+                if (LocalTime.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.time(TIME_FORMAT.format((LocalTime) value));
+                }
+                break;
+            case "NUMERIC":
+                if (BigDecimal.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.numeric((BigDecimal) value);
+                }
+                if (Number.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.numeric(new BigDecimal(value.toString()));
+                }
+                break;
+            case "INTEGER":
+                if (isIntegral(type)) {
+                    return value -> QueryParameterValue.int64(((Number) value).longValue());
+                }
+                break;
+            case "FLOAT":
+                if (Number.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.float64(((Number) value).doubleValue());
+                }
+                break;
+            case "BOOLEAN":
+                if (Boolean.class.equals(type)) {
+                    return value -> QueryParameterValue.bool((Boolean) value);
+                }
+                break;
+            case "STRING":
+                if (CharSequence.class.isAssignableFrom(type) || Enum.class.isAssignableFrom(type) || UUID.class.equals(type)) {
+                    return value -> QueryParameterValue.string(value.toString());
+                }
+                break;
+            case "BYTES":
+                if (byte[].class.equals(type)) {
+                    return value -> QueryParameterValue.bytes((byte[]) value);
+                }
+                if (CharSequence.class.isAssignableFrom(type)) {
+                    return value -> QueryParameterValue.bytes(Base64.getDecoder().decode(value.toString()));
+                }
+                break;
+            default:
+                return QueryParameterConverters::toDynamicParameter;
+        }
+
+        throw new IllegalArgumentException("Property of type " + propertyType.getName() + " cannot be stored in column " + field.getName() + " of type " + columnType);
+    }
+
+    private static QueryParameterValue toArray(Iterable<?> values) {
+        List<QueryParameterValue> elements = new ArrayList<>();
+        StandardSQLTypeName elementType = StandardSQLTypeName.STRING;
+        for (Object value : values) {
+            if (value == null) {
+                throw new IllegalArgumentException("Array parameters cannot contain null values: " + values);
+            }
+            QueryParameterValue element = toParameter(value instanceof Enum ? value.toString() : value);
+            if (element.getType() == StandardSQLTypeName.ARRAY) {
+                throw new IllegalArgumentException("Array parameters cannot contain nested arrays: " + values);
+            }
+            elements.add(element);
+            elementType = element.getType();
+        }
+        return QueryParameterValue.newBuilder()
+            .setType(StandardSQLTypeName.ARRAY)
+            .setArrayType(elementType)
+            .setArrayValues(elements)
+            .build();
+    }
+
+    private static List<Object> toList(Object array) {
+        int length = Array.getLength(array);
+        List<Object> values = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            values.add(Array.get(array, i));
+        }
+        return values;
+    }
+
+    private static Object toDynamicParameter(Object value) {
+        return toParameter(value instanceof Enum ? value.toString() : value);
+    }
+
+    private static Field findField(Schema schema, String column) {
+        for (Field field : schema.getFields()) {
+            if (field.getName().equalsIgnoreCase(column)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isIntegral(Class<?> type) {
+        return Long.class.equals(type) || Integer.class.equals(type) || Short.class.equals(type) || Byte.class.equals(type);
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == int.class) {
+            return Integer.class;
+        }
+        if (type == long.class) {
+            return Long.class;
+        }
+        if (type == double.class) {
+            return Double.class;
+        }
+        if (type == float.class) {
+            return Float.class;
+        }
+        if (type == boolean.class) {
+            return Boolean.class;
+        }
+        if (type == short.class) {
+            return Short.class;
+        }
+        if (type == byte.class) {
+            return Byte.class;
+        }
+        return Character.class;
+    }
+
+    private static long toMicros(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000 + instant.getNano() / 1000;
+    }
+
+}
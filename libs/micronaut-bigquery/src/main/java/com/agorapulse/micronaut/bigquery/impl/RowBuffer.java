@@ -0,0 +1,210 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.agorapulse.micronaut.bigquery.BufferedResult;
+import com.agorapulse.micronaut.bigquery.RowResult;
+import io.reactivex.Flowable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Buffer of the rows which keeps the rows on the heap until the configured threshold is reached and then spills
+ * the rows into memory mapped temporary files.
+ *
+ * The rows are encoded using compact binary encoding so only the scalar values are supported. The buffer is filled
+ * from a single thread using {@link #append(Object[])} and it can be read any number of times after it is completed.
+ */
+public class RowBuffer implements BufferedResult {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RowBuffer.class);
+    private static final int INITIAL_CAPACITY = 4096;
+
+    public RowBuffer(List<String> columns, RowBufferConfiguration configuration) {
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            index.put(columns.get(i).toLowerCase(Locale.ROOT), i);
+        }
+        this.columns = Collections.unmodifiableMap(index);
+        this.configuration = configuration;
+        this.heap = ByteBuffer.allocate((int) Math.min(INITIAL_CAPACITY, Math.max(configuration.getHeapThreshold(), 1)));
+    }
+
+    /**
+     * Appends the row values into the buffer.
+     * @param values the values of the row in the order of the columns
+     * @return this buffer
+     */
+    public RowBuffer append(Object[] values) {
+        if (values.length != columns.size()) {
+            throw new IllegalArgumentException("Expected " + columns.size() + " values but got " + values.length);
+        }
+
+        scratch.clear();
+        for (Object value : values) {
+            scratch = ValueCodec.write(scratch, value);
+        }
+        scratch.flip();
+
+        if (segments.isEmpty() && heap.position() + scratch.remaining() <= configuration.getHeapThreshold()) {
+            if (heap.remaining() < scratch.remaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(
+                    Math.max(heap.capacity() * 2L, (long) heap.position() + scratch.remaining()),
+                    configuration.getHeapThreshold()
+                ));
+                heap.flip();
+                heap = bigger.put(heap);
+            }
+            heap.put(scratch);
+        } else {
+            MappedByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || segment.remaining() < scratch.remaining()) {
+                segment = createSegment(scratch.remaining());
+            }
+            segment.put(scratch);
+        }
+
+        size++;
+        return this;
+    }
+
+    /**
+     * Completes the buffer. No more rows can be appended after the buffer has been completed.
+     * @return this buffer
+     */
+    public RowBuffer complete() {
+        completed = true;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public Flowable<RowResult> rows() {
+        return Flowable.defer(() -> {
+            if (disposed) {
+                return Flowable.error(new IllegalStateException("The buffered result has already been disposed"));
+            }
+
+            if (!completed) {
+                return Flowable.error(new IllegalStateException("The buffered result has not been completed yet"));
+            }
+
+            List<ByteBuffer> chunks = new ArrayList<>(segments.size() + 1);
+            chunks.add(readOnly(heap));
+            for (MappedByteBuffer segment : segments) {
+                chunks.add(readOnly(segment));
+            }
+
+            return Flowable.fromIterable(chunks).concatMap(chunk -> Flowable.<RowResult>generate(emitter -> {
+                if (chunk.hasRemaining()) {
+                    Object[] values = new Object[columns.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = ValueCodec.read(chunk);
+                    }
+                    emitter.onNext(new BufferedRowResult(columns, values));
+                } else {
+                    emitter.onComplete();
+                }
+            }));
+        });
+    }
+
+    @Override
+    public void dispose() {
+        if (disposed) {
+            return;
+        }
+
+        disposed = true;
+        heap = ByteBuffer.allocate(0);
+        segments.clear();
+
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOGGER.warn("Cannot delete buffer file " + file, e);
+            }
+        }
+        files.clear();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    /**
+     * @return the number of the temporary files used by this buffer
+     */
+    public int getSpilledSegments() {
+        return files.size();
+    }
+
+    private MappedByteBuffer createSegment(int minimalSize) {
+        long segmentSize = Math.min(Math.max(configuration.getSegmentSize(), minimalSize), Integer.MAX_VALUE);
+        try {
+            Path file = Files.createTempFile(Paths.get(configuration.getDirectory()), "bigquery-", ".rows");
+            files.add(file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+                segments.add(segment);
+                return segment;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create buffer file in " + configuration.getDirectory(), e);
+        }
+    }
+
+    private static ByteBuffer readOnly(ByteBuffer buffer) {
+        ByteBuffer copy = buffer.asReadOnlyBuffer();
+        copy.flip();
+        return copy;
+    }
+
+    private final Map<String, Integer> columns;
+    private final RowBufferConfiguration configuration;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final List<Path> files = new ArrayList<>();
+
+    private ByteBuffer heap;
+    private ByteBuffer scratch = ByteBuffer.allocate(256);
+    private long size;
+    private volatile boolean completed;
+    private volatile boolean disposed;
+}
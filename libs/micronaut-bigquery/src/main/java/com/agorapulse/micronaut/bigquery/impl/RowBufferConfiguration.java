@@ -0,0 +1,68 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+/**
+ * Configures the buffered query results.
+ */
+@ConfigurationProperties("bigquery.buffer")
+public class RowBufferConfiguration {
+
+    private long heapThreshold = 8 * 1024 * 1024;
+    private long segmentSize = 64 * 1024 * 1024;
+    private String directory = System.getProperty("java.io.tmpdir");
+
+    public long getHeapThreshold() {
+        return heapThreshold;
+    }
+
+    /**
+     * Sets the maximal size of the result in bytes which is kept on the heap.
+     * @param heapThreshold the maximal size of the result in bytes which is kept on the heap
+     */
+    public void setHeapThreshold(long heapThreshold) {
+        this.heapThreshold = heapThreshold;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Sets the size of the single memory mapped temporary file.
+     * @param segmentSize the size of the single memory mapped temporary file
+     */
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the directory for the temporary files.
+     * @param directory the directory for the temporary files
+     */
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+}
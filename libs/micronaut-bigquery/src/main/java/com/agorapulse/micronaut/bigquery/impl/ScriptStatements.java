@@ -0,0 +1,78 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.agorapulse.micronaut.bigquery.ParameterizedSql;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Combines multiple statements into a single BigQuery script.
+ *
+ * The named parameters of each statement are prefixed with the index of the statement, e.g. <code>@id</code> of the
+ * second statement becomes <code>@s1__id</code>, so the statements cannot see each other's parameters.
+ */
+final class ScriptStatements {
+
+    private static final Pattern TRAILING_SEMICOLONS = Pattern.compile("[\\s;]+$");
+
+    private ScriptStatements() { }
+
+    /**
+     * Combines the statements into a single script.
+     * @param statements the statements with the parameters already expanded
+     * @param transactional whether the statements should be wrapped into a transaction rolled back on any error
+     * @return the script with the namespaced parameters
+     */
+    static ParameterizedSql combine(List<ParameterizedSql> statements, boolean transactional) {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        StringBuilder script = new StringBuilder();
+
+        if (transactional) {
+            script.append("BEGIN\n");
+            script.append("BEGIN TRANSACTION;\n");
+        }
+
+        for (int i = 0; i < statements.size(); i++) {
+            ParameterizedSql statement = statements.get(i);
+            String sql = TRAILING_SEMICOLONS.matcher(statement.getSql()).replaceAll("");
+            for (Map.Entry<String, ?> entry : statement.getNamedParameters().entrySet()) {
+                String name = "s" + i + "__" + entry.getKey();
+                Matcher matcher = Pattern.compile("(?<!@)@" + Pattern.quote(entry.getKey()) + "\\b").matcher(sql);
+                sql = matcher.replaceAll(Matcher.quoteReplacement("@" + name));
+                parameters.put(name, entry.getValue());
+            }
+            script.append(sql).append(";\n");
+        }
+
+        if (transactional) {
+            script.append("COMMIT TRANSACTION;\n");
+            script.append("EXCEPTION WHEN ERROR THEN\n");
+            script.append("ROLLBACK TRANSACTION;\n");
+            script.append("RAISE USING MESSAGE = @@error.message;\n");
+            script.append("END;\n");
+        }
+
+        return ParameterizedSql.from(parameters, script.toString());
+    }
+
+}
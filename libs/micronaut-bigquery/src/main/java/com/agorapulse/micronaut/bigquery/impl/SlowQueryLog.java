@@ -0,0 +1,364 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobStatistics;
+import com.google.cloud.bigquery.QueryStage;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the statistics of the jobs which took longer than <code>bigquery.slow-query.threshold</code> (ten seconds by default).
+ *
+ * The most recent <code>bigquery.slow-query.capacity</code> slow queries are kept together with their query plans.
+ * The slow queries are also aggregated by the fingerprint of the SQL statement which ignores the literal values.
+ * The log can be disabled by setting <code>bigquery.slow-query.enabled</code> to <code>false</code>.
+ */
+@Singleton
+@Requires(property = "bigquery.slow-query.enabled", notEquals = "false")
+public class SlowQueryLog implements BigQueryJobListener {
+
+    /**
+     * The statistics of a single stage of the query plan.
+     */
+    public static final class Stage {
+
+        private final String name;
+        private final String status;
+        private final double waitRatioAvg;
+        private final double readRatioAvg;
+        private final double computeRatioAvg;
+        private final double writeRatioAvg;
+        private final long shuffleOutputBytes;
+        private final long recordsRead;
+        private final long recordsWritten;
+
+        Stage(QueryStage stage) {
+            this.name = stage.getName();
+            this.status = stage.getStatus();
+            this.waitRatioAvg = stage.getWaitRatioAvg();
+            this.readRatioAvg = stage.getReadRatioAvg();
+            this.computeRatioAvg = stage.getComputeRatioAvg();
+            this.writeRatioAvg = stage.getWriteRatioAvg();
+            this.shuffleOutputBytes = stage.getShuffleOutputBytes();
+            this.recordsRead = stage.getRecordsRead();
+            this.recordsWritten = stage.getRecordsWritten();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public double getWaitRatioAvg() {
+            return waitRatioAvg;
+        }
+
+        public double getReadRatioAvg() {
+            return readRatioAvg;
+        }
+
+        public double getComputeRatioAvg() {
+            return computeRatioAvg;
+        }
+
+        public double getWriteRatioAvg() {
+            return writeRatioAvg;
+        }
+
+        public long getShuffleOutputBytes() {
+            return shuffleOutputBytes;
+        }
+
+        public long getRecordsRead() {
+            return recordsRead;
+        }
+
+        public long getRecordsWritten() {
+            return recordsWritten;
+        }
+
+    }
+
+    /**
+     * The statistics of a single slow query.
+     */
+    public static final class Entry {
+
+        private final String jobId;
+        private final String fingerprint;
+        private final String sql;
+        private final Instant started;
+        private final long durationMs;
+        private final Long totalBytesProcessed;
+        private final Long totalSlotMs;
+        private final long shuffleOutputBytes;
+        private final Boolean cacheHit;
+        private final List<Stage> stages;
+
+        Entry(String jobId, String sql, Instant started, long durationMs, JobStatistics.QueryStatistics statistics) {
+            this.jobId = jobId;
+            this.fingerprint = SqlFingerprint.fingerprint(sql);
+            this.sql = sql;
+            this.started = started;
+            this.durationMs = durationMs;
+            this.totalBytesProcessed = statistics.getTotalBytesProcessed();
+            this.totalSlotMs = statistics.getTotalSlotMs();
+            this.cacheHit = statistics.getCacheHit();
+
+            List<Stage> plan = new ArrayList<>();
+            long shuffle = 0;
+            if (statistics.getQueryPlan() != null) {
+                for (QueryStage stage : statistics.getQueryPlan()) {
+                    plan.add(new Stage(stage));
+                    shuffle += stage.getShuffleOutputBytes();
+                }
+            }
+            this.stages = Collections.unmodifiableList(plan);
+            this.shuffleOutputBytes = shuffle;
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public Instant getStarted() {
+            return started;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public Long getTotalBytesProcessed() {
+            return totalBytesProcessed;
+        }
+
+        public Long getTotalSlotMs() {
+            return totalSlotMs;
+        }
+
+        public long getShuffleOutputBytes() {
+            return shuffleOutputBytes;
+        }
+
+        public Boolean getCacheHit() {
+            return cacheHit;
+        }
+
+        public List<Stage> getStages() {
+            return stages;
+        }
+
+    }
+
+    /**
+     * The aggregated statistics of the slow queries sharing the same fingerprint.
+     */
+    public static final class Summary {
+
+        private final String fingerprint;
+        private final String sql;
+        private long count;
+        private long totalDurationMs;
+        private long maxDurationMs;
+        private long totalBytesProcessed;
+        private Instant lastSeen;
+
+        Summary(String fingerprint, String sql) {
+            this.fingerprint = fingerprint;
+            this.sql = sql;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return the normalized SQL statement with the literals replaced by <code>?</code>
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalDurationMs() {
+            return totalDurationMs;
+        }
+
+        public long getMaxDurationMs() {
+            return maxDurationMs;
+        }
+
+        public long getAverageDurationMs() {
+            return count == 0 ? 0 : totalDurationMs / count;
+        }
+
+        public long getTotalBytesProcessed() {
+            return totalBytesProcessed;
+        }
+
+        public Instant getLastSeen() {
+            return lastSeen;
+        }
+
+        private Summary add(Entry entry) {
+            count++;
+            totalDurationMs += entry.getDurationMs();
+            maxDurationMs = Math.max(maxDurationMs, entry.getDurationMs());
+            totalBytesProcessed += entry.getTotalBytesProcessed() == null ? 0 : entry.getTotalBytesProcessed();
+            lastSeen = entry.getStarted();
+            return this;
+        }
+
+        private Summary copy() {
+            Summary copy = new Summary(fingerprint, sql);
+            copy.count = count;
+            copy.totalDurationMs = totalDurationMs;
+            copy.maxDurationMs = maxDurationMs;
+            copy.totalBytesProcessed = totalBytesProcessed;
+            copy.lastSeen = lastSeen;
+            return copy;
+        }
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    private final Duration threshold;
+    private final int capacity;
+    private final int maxFingerprints;
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private final Map<String, Summary> summaries;
+
+    public SlowQueryLog(
+        @Value("${bigquery.slow-query.threshold:10s}") Duration threshold,
+        @Value("${bigquery.slow-query.capacity:100}") int capacity,
+        @Value("${bigquery.slow-query.max-fingerprints:1000}") int maxFingerprints
+    ) {
+        this.threshold = threshold;
+        this.capacity = capacity;
+        this.maxFingerprints = maxFingerprints;
+        this.summaries = new LinkedHashMap<String, Summary>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Summary> eldest) {
+                return size() > SlowQueryLog.this.maxFingerprints;
+            }
+        };
+    }
+
+    @Override
+    public void onJobCompleted(String sql, Job job) {
+        if (!(job.getStatistics() instanceof JobStatistics.QueryStatistics)) {
+            return;
+        }
+
+        JobStatistics.QueryStatistics statistics = job.getStatistics();
+        if (statistics.getStartTime() == null || statistics.getEndTime() == null) {
+            return;
+        }
+
+        long durationMs = statistics.getEndTime() - statistics.getStartTime();
+        if (durationMs < threshold.toMillis()) {
+            return;
+        }
+
+        Entry entry = new Entry(job.getJobId().getJob(), sql, Instant.ofEpochMilli(statistics.getStartTime()), durationMs, statistics);
+
+        LOGGER.info(
+            "Slow query {} took {} ms, processed {} bytes and used {} slot ms: {}",
+            entry.getJobId(),
+            durationMs,
+            entry.getTotalBytesProcessed(),
+            entry.getTotalSlotMs(),
+            sql
+        );
+
+        synchronized (this) {
+            entries.addFirst(entry);
+            while (entries.size() > capacity) {
+                entries.removeLast();
+            }
+            summaries.computeIfAbsent(entry.getFingerprint(), f -> new Summary(f, SqlFingerprint.normalize(sql))).add(entry);
+        }
+    }
+
+    /**
+     * @return the slow query threshold
+     */
+    public Duration getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return the most recent slow queries, the most recent first
+     */
+    public synchronized List<Entry> getRecent() {
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * @return the slow queries aggregated by the fingerprint, the one with the highest total duration first
+     */
+    public synchronized List<Summary> getSummaries() {
+        List<Summary> result = new ArrayList<>(summaries.size());
+        for (Summary summary : summaries.values()) {
+            result.add(summary.copy());
+        }
+        result.sort(Comparator.comparingLong(Summary::getTotalDurationMs).reversed());
+        return result;
+    }
+
+    /**
+     * Removes all the recorded slow queries.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        summaries.clear();
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes the SQL statements so the statements which only differ in the literal values share the same fingerprint.
+ */
+final class SqlFingerprint {
+
+    private static final Pattern COMMENTS = Pattern.compile("--[^\\n]*|#[^\\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+    private static final Pattern STRINGS = Pattern.compile("'(?:[^'\\\\]|\\\\.)*'|\"(?:[^\"\\\\]|\\\\.)*\"");
+    private static final Pattern NUMBERS = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern LISTS = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int FINGERPRINT_BYTES = 8;
+
+    private SqlFingerprint() { }
+
+    /**
+     * Replaces the literals with <code>?</code>, removes the comments and collapses the whitespace.
+     * @param sql the SQL statement
+     * @return the normalized SQL statement
+     */
+    static String normalize(String sql) {
+        String result = COMMENTS.matcher(sql).replaceAll(" ");
+        result = STRINGS.matcher(result).replaceAll("?");
+        result = NUMBERS.matcher(result).replaceAll("?");
+        result = LISTS.matcher(result).replaceAll("(?)");
+        return WHITESPACE.matcher(result).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param sql the SQL statement
+     * @return the short hash of the normalized SQL statement
+     */
+    static String fingerprint(String sql) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(normalize(sql).getBytes(StandardCharsets.UTF_8));
+            char[] chars = new char[FINGERPRINT_BYTES * 2];
+            for (int i = 0; i < FINGERPRINT_BYTES; i++) {
+                chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+                chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.agorapulse.micronaut.bigquery.ParameterizedSql;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Expands the {@link Map} parameters into <code>STRUCT</code> expressions.
+ *
+ * Each map parameter such as <code>@author</code> is replaced with <code>STRUCT(@author__name AS name, ...)</code>
+ * and each collection of maps with the array of such expressions so the scalar values of the fields are still sent as
+ * the regular query parameters.
+ */
+final class StructParameters {
+
+    private static final String SEPARATOR = "__";
+
+    private StructParameters() { }
+
+    /**
+     * Expands the map parameters into <code>STRUCT</code> expressions.
+     * @param sql the SQL statement
+     * @param namedParameters the named parameters
+     * @return the statement with <code>STRUCT</code> expressions and the flattened parameters
+     */
+    static ParameterizedSql expand(String sql, Map<String, ?> namedParameters) {
+        if (namedParameters.values().stream().noneMatch(StructParameters::containsStruct)) {
+            return ParameterizedSql.from(namedParameters, sql);
+        }
+
+        Map<String, Object> flattened = new LinkedHashMap<>();
+        String result = sql;
+        for (Map.Entry<String, ?> entry : namedParameters.entrySet()) {
+            if (containsStruct(entry.getValue())) {
+                String expression = toExpression(entry.getKey(), entry.getValue(), flattened);
+                Matcher matcher = Pattern.compile("@" + Pattern.quote(entry.getKey()) + "\\b").matcher(result);
+                result = matcher.replaceAll(Matcher.quoteReplacement(expression));
+            } else {
+                flattened.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return ParameterizedSql.from(flattened, result);
+    }
+
+    private static String toExpression(String name, Object value, Map<String, Object> flattened) {
+        if (value == null) {
+            return "NULL";
+        }
+
+        if (value instanceof Map) {
+            StringJoiner fields = new StringJoiner(", ", "STRUCT(", ")");
+            for (Map.Entry<?, ?> field : ((Map<?, ?>) value).entrySet()) {
+                String fieldName = field.getKey().toString();
+                fields.add(toExpression(name + SEPARATOR + fieldName, field.getValue(), flattened) + " AS " + fieldName);
+            }
+            return fields.toString();
+        }
+
+        if (containsStruct(value)) {
+            StringJoiner elements = new StringJoiner(", ", "[", "]");
+            int index = 0;
+            for (Object element : toCollection(value)) {
+                elements.add(toExpression(name + SEPARATOR + index++, element, flattened));
+            }
+            return elements.toString();
+        }
+
+        flattened.put(name, value);
+        return "@" + name;
+    }
+
+    private static boolean containsStruct(Object value) {
+        if (value instanceof Map) {
+            return true;
+        }
+        for (Object element : toCollection(value)) {
+            if (element instanceof Map) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Collection<?> toCollection(Object value) {
+        if (value instanceof Collection) {
+            return (Collection<?>) value;
+        }
+        if (value instanceof Object[]) {
+            List<Object> values = new ArrayList<>();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                values.add(Array.get(value, i));
+            }
+            return values;
+        }
+        return Collections.emptyList();
+    }
+
+}
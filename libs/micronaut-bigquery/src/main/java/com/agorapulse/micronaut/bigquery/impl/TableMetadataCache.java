@@ -0,0 +1,155 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Clustering;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableDefinition;
+import com.google.cloud.bigquery.TableId;
+import io.micronaut.context.annotation.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caches the table metadata such as partitioning, clustering and schema for the configured time (10 minutes by default).
+ *
+ * The entries older than <code>bigquery.table-metadata.refresh</code> are still returned but they are reloaded
+ * in the background so the callers are not blocked. The entries older than <code>bigquery.table-metadata.ttl</code>
+ * are reloaded synchronously. The missing tables are only remembered for <code>bigquery.table-metadata.missing-ttl</code>
+ * (30 seconds by default) so the tables created later are picked up quickly.
+ */
+@Singleton
+public class TableMetadataCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TableMetadataCache.class);
+    private static final Duration DEFAULT_MISSING_TTL = Duration.ofSeconds(30);
+
+    private static class Entry {
+        private final Table table;
+        private final long loadedAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(Table table, long loadedAt) {
+            this.table = table;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final ConcurrentMap<TableId, Entry> cache = new ConcurrentHashMap<>();
+    private final BigQuery bigquery;
+    private final long ttlMillis;
+    private final long refreshMillis;
+    private final long missingTtlMillis;
+
+    public TableMetadataCache(BigQuery bigquery, Duration ttl) {
+        this(bigquery, ttl, ttl);
+    }
+
+    public TableMetadataCache(BigQuery bigquery, Duration ttl, Duration refresh) {
+        this(bigquery, ttl, refresh, DEFAULT_MISSING_TTL);
+    }
+
+    @Inject
+    public TableMetadataCache(
+        BigQuery bigquery,
+        @Value("${bigquery.table-metadata.ttl:10m}") Duration ttl,
+        @Value("${bigquery.table-metadata.refresh:5m}") Duration refresh,
+        @Value("${bigquery.table-metadata.missing-ttl:30s}") Duration missingTtl
+    ) {
+        this.bigquery = bigquery;
+        this.ttlMillis = ttl.toMillis();
+        this.refreshMillis = Math.min(refresh.toMillis(), ttlMillis);
+        this.missingTtlMillis = Math.min(missingTtl.toMillis(), ttlMillis);
+    }
+
+    /**
+     * Returns the table metadata, fetching them from BigQuery if not cached yet or if the cached value has expired.
+     * @param tableId the table identifier
+     * @return the table metadata or empty optional if the table does not exist
+     */
+    public Optional<Table> get(TableId tableId) {
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(tableId);
+        if (entry == null || now - entry.loadedAt > (entry.table == null ? missingTtlMillis : ttlMillis)) {
+            entry = new Entry(bigquery.getTable(tableId), now);
+            cache.put(tableId, entry);
+        } else if (entry.table != null && now - entry.loadedAt > refreshMillis && entry.refreshing.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(() -> refresh(tableId));
+        }
+        return Optional.ofNullable(entry.table);
+    }
+
+    /**
+     * Returns the schema of the table.
+     * @param tableId the table identifier
+     * @return the schema of the table or empty optional if the table does not exist or it is not a standard table
+     */
+    public Optional<Schema> getSchema(TableId tableId) {
+        return get(tableId)
+            .map(table -> (TableDefinition) table.getDefinition())
+            .filter(definition -> definition instanceof StandardTableDefinition)
+            .map(TableDefinition::getSchema);
+    }
+
+    /**
+     * Returns the clustering columns of the table in the order of their significance.
+     * @param tableId the table identifier
+     * @return the clustering columns or empty list if the table does not exist or it is not clustered
+     */
+    public List<String> getClusteringFields(TableId tableId) {
+        return get(tableId)
+            .map(Table::getDefinition)
+            .filter(StandardTableDefinition.class::isInstance)
+            .map(definition -> ((StandardTableDefinition) definition).getClustering())
+            .map(Clustering::getFields)
+            .orElse(Collections.emptyList());
+    }
+
+    /**
+     * Removes the table metadata from the cache so they are fetched again on the next access.
+     * @param tableId the table identifier
+     */
+    public void invalidate(TableId tableId) {
+        cache.remove(tableId);
+    }
+
+    private void refresh(TableId tableId) {
+        try {
+            cache.put(tableId, new Entry(bigquery.getTable(tableId), System.currentTimeMillis()));
+        } catch (BigQueryException e) {
+            LOGGER.warn("Failed to refresh the metadata of table {}.{}", tableId.getDataset(), tableId.getTable(), e);
+            cache.remove(tableId);
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.google.cloud.bigquery.TableId;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the tables referenced by a SQL statement.
+ *
+ * Only fully qualified references (<code>dataset.table</code> or <code>project.dataset.table</code>) following
+ * <code>from</code>, <code>join</code> or <code>update</code> keywords are recognized so the common table expressions
+ * and aliases are not reported.
+ *
+ * The same references can be qualified with the project so the statement reads the same tables when the job is
+ * billed to another project, or sampled using <code>TABLESAMPLE SYSTEM</code> so only a part of the tables is read.
+ */
+final class TableReferences {
+
+    private static final Pattern TABLE_REFERENCE = Pattern.compile(
+        "\\b(?:from|join|update)\\s+(`[^`]+`|[a-z_][\\w-]*(?:\\.[a-z_$][\\w$-]*){1,2})",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    private static final Pattern QUALIFIABLE_REFERENCE = Pattern.compile(
+        "\\b(from|join|update|into|merge|using)(\\s+)(`[^`.]+\\.[^`.]+`|[a-z_][\\w-]*\\.[a-z_$][\\w$-]*)(?![\\w$.-])",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    private static final Pattern SAMPLEABLE_REFERENCE = Pattern.compile(
+        "\\b(?:from|join)\\s+(?:`[^`]+`|[a-z_][\\w-]*(?:\\.[a-z_$][\\w$-]*){1,2})(?![\\w$.-])"
+            + "(?:\\s+(?:as\\s+)?(?!(?:" + String.join("|", Arrays.asList(
+                "where", "join", "inner", "left", "right", "full", "cross", "on", "using", "group", "order", "limit",
+                "having", "window", "qualify", "union", "intersect", "except", "for", "tablesample"
+            )) + ")\\b)[a-z_]\\w*)?"
+            + "(\\s+tablesample\\b)?",
+        Pattern.CASE_INSENSITIVE
+    );
+
+    private TableReferences() { }
+
+    static List<TableId> find(String sql) {
+        List<TableId> references = new ArrayList<>();
+        Matcher matcher = TABLE_REFERENCE.matcher(sql);
+        while (matcher.find()) {
+            String[] parts = matcher.group(1).replace("`", "").split("\\.");
+            TableId tableId = null;
+            if (parts.length == 2) {
+                tableId = TableId.of(parts[0], parts[1]);
+            } else if (parts.length == 3) {
+                tableId = TableId.of(parts[0], parts[1], parts[2]);
+            }
+            if (tableId != null && !references.contains(tableId)) {
+                references.add(tableId);
+            }
+        }
+        return references;
+    }
+
+    static String qualify(String sql, String project) {
+        Matcher matcher = QUALIFIABLE_REFERENCE.matcher(sql);
+        StringBuffer qualified = new StringBuffer(sql.length() + 32);
+        while (matcher.find()) {
+            String reference = matcher.group(1) + matcher.group(2) + "`" + project + "." + matcher.group(3).replace("`", "") + "`";
+            matcher.appendReplacement(qualified, Matcher.quoteReplacement(reference));
+        }
+        matcher.appendTail(qualified);
+        return qualified.toString();
+    }
+
+    static String sample(String sql, double percent) {
+        String clause = " TABLESAMPLE SYSTEM (" + BigDecimal.valueOf(percent).stripTrailingZeros().toPlainString() + " PERCENT)";
+        Matcher matcher = SAMPLEABLE_REFERENCE.matcher(sql);
+        StringBuffer sampled = new StringBuffer(sql.length() + 64);
+        while (matcher.find()) {
+            String reference = matcher.group();
+            if (matcher.group(1) == null) {
+                reference += clause;
+            }
+            matcher.appendReplacement(sampled, Matcher.quoteReplacement(reference));
+        }
+        matcher.appendTail(sampled);
+        return sampled.toString();
+    }
+
+}
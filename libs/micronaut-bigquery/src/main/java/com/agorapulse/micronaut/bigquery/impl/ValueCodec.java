@@ -0,0 +1,259 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import com.google.cloud.bigquery.QueryParameterValue;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of the values of the inserted columns.
+ *
+ * Each value is written as a single byte tag followed by the value itself. Integral numbers are stored as longs,
+ * floating point numbers as doubles, timestamps as epoch seconds and nanos, dates and times as their epoch or daily
+ * counterparts, arrays and records element by element and the query parameters as their type and value. The values of
+ * any other type are rejected so they cannot be silently replayed as a different value.
+ */
+final class ValueCodec {
+
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte STRING = 4;
+    private static final byte TIMESTAMP = 5;
+    private static final byte DECIMAL = 6;
+    private static final byte BYTES = 7;
+    private static final byte DATE = 8;
+    private static final byte DATE_TIME = 9;
+    private static final byte TIME = 10;
+    private static final byte LIST = 11;
+    private static final byte MAP = 12;
+    private static final byte PARAMETER = 13;
+
+    private ValueCodec() { }
+
+    /**
+     * Writes the value into the buffer.
+     * @param buffer the buffer to write the value into
+     * @param value the value to be written
+     * @return either the original buffer or a bigger copy if the value did not fit into the original one
+     * @throws IllegalArgumentException if the value of given type cannot be encoded
+     */
+    static ByteBuffer write(ByteBuffer buffer, Object value) {
+        if (value == null) {
+            return ensureCapacity(buffer, 1).put(NULL);
+        }
+
+        if (value instanceof Boolean) {
+            return ensureCapacity(buffer, 2).put(BOOLEAN).put((byte) ((Boolean) value ? 1 : 0));
+        }
+
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ensureCapacity(buffer, 1 + Long.BYTES).put(LONG).putLong(((Number) value).longValue());
+        }
+
+        if (value instanceof Double || value instanceof Float) {
+            return ensureCapacity(buffer, 1 + Double.BYTES).put(DOUBLE).putDouble(((Number) value).doubleValue());
+        }
+
+        if (value instanceof Instant) {
+            Instant instant = (Instant) value;
+            return ensureCapacity(buffer, 1 + Long.BYTES + Integer.BYTES).put(TIMESTAMP).putLong(instant.getEpochSecond()).putInt(instant.getNano());
+        }
+
+        if (value instanceof LocalDate) {
+            return ensureCapacity(buffer, 1 + Long.BYTES).put(DATE).putLong(((LocalDate) value).toEpochDay());
+        }
+
+        if (value instanceof LocalDateTime) {
+            LocalDateTime dateTime = (LocalDateTime) value;
+            return ensureCapacity(buffer, 1 + Long.BYTES + Integer.BYTES)
+                .put(DATE_TIME)
+                .putLong(dateTime.toEpochSecond(ZoneOffset.UTC))
+                .putInt(dateTime.getNano());
+        }
+
+        if (value instanceof LocalTime) {
+            return ensureCapacity(buffer, 1 + Long.BYTES).put(TIME).putLong(((LocalTime) value).toNanoOfDay());
+        }
+
+        if (value instanceof BigDecimal) {
+            return writeBytes(buffer, DECIMAL, ((BigDecimal) value).toPlainString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        if (value instanceof CharSequence) {
+            return writeBytes(buffer, STRING, value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        if (value instanceof byte[]) {
+            return writeBytes(buffer, BYTES, (byte[]) value);
+        }
+
+        if (value instanceof Iterable) {
+            List<Object> elements = new ArrayList<>();
+            ((Iterable<?>) value).forEach(elements::add);
+            ByteBuffer result = ensureCapacity(buffer, 1 + Integer.BYTES).put(LIST).putInt(elements.size());
+            for (Object element : elements) {
+                result = write(result, element);
+            }
+            return result;
+        }
+
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            ByteBuffer result = ensureCapacity(buffer, 1 + Integer.BYTES).put(MAP).putInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                result = write(result, String.valueOf(entry.getKey()));
+                result = write(result, entry.getValue());
+            }
+            return result;
+        }
+
+        if (value instanceof QueryParameterValue) {
+            return writeParameter(ensureCapacity(buffer, 1).put(PARAMETER), (QueryParameterValue) value);
+        }
+
+        throw new IllegalArgumentException("Values of type " + value.getClass().getName() + " cannot be stored in the insert queue: " + value);
+    }
+
+    /**
+     * Reads the value from the buffer.
+     * @param buffer the buffer to read the value from
+     * @return the value read
+     */
+    static Object read(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return buffer.get() != 0;
+            case LONG:
+                return buffer.getLong();
+            case DOUBLE:
+                return buffer.getDouble();
+            case TIMESTAMP:
+                return Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+            case DATE:
+                return LocalDate.ofEpochDay(buffer.getLong());
+            case DATE_TIME:
+                return LocalDateTime.ofEpochSecond(buffer.getLong(), buffer.getInt(), ZoneOffset.UTC);
+            case TIME:
+                return LocalTime.ofNanoOfDay(buffer.getLong());
+            case STRING:
+                return new String(readBytes(buffer), StandardCharsets.UTF_8);
+            case DECIMAL:
+                return new BigDecimal(new String(readBytes(buffer), StandardCharsets.UTF_8));
+            case BYTES:
+                return readBytes(buffer);
+            case LIST:
+                int size = buffer.getInt();
+                List<Object> elements = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    elements.add(read(buffer));
+                }
+                return elements;
+            case MAP:
+                int entries = buffer.getInt();
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < entries; i++) {
+                    map.put((String) read(buffer), read(buffer));
+                }
+                return map;
+            case PARAMETER:
+                return readParameter(buffer);
+            default:
+                throw new IllegalStateException("Unknown value tag " + tag);
+        }
+    }
+
+    private static ByteBuffer writeParameter(ByteBuffer buffer, QueryParameterValue parameter) {
+        if (parameter.getType() == StandardSQLTypeName.STRUCT) {
+            throw new IllegalArgumentException("Struct parameters cannot be stored in the insert queue: " + parameter);
+        }
+
+        ByteBuffer result = write(buffer, parameter.getType().name());
+        result = write(result, parameter.getValue());
+        result = write(result, parameter.getArrayType() == null ? null : parameter.getArrayType().name());
+
+        List<QueryParameterValue> elements = parameter.getArrayValues();
+        if (elements == null) {
+            return ensureCapacity(result, Integer.BYTES).putInt(-1);
+        }
+        result = ensureCapacity(result, Integer.BYTES).putInt(elements.size());
+        for (QueryParameterValue element : elements) {
+            result = writeParameter(result, element);
+        }
+        return result;
+    }
+
+    private static QueryParameterValue readParameter(ByteBuffer buffer) {
+        StandardSQLTypeName type = StandardSQLTypeName.valueOf((String) read(buffer));
+        String value = (String) read(buffer);
+        String arrayType = (String) read(buffer);
+
+        QueryParameterValue.Builder builder = QueryParameterValue.newBuilder().setType(type).setValue(value);
+        if (arrayType != null) {
+            builder.setArrayType(StandardSQLTypeName.valueOf(arrayType));
+        }
+
+        int size = buffer.getInt();
+        if (size >= 0) {
+            List<QueryParameterValue> elements = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                elements.add(readParameter(buffer));
+            }
+            builder.setArrayValues(elements);
+        }
+        return builder.build();
+    }
+
+    private static ByteBuffer writeBytes(ByteBuffer buffer, byte tag, byte[] bytes) {
+        return ensureCapacity(buffer, 1 + Integer.BYTES + bytes.length).put(tag).putInt(bytes.length).put(bytes);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        return bigger.put(buffer);
+    }
+
+}
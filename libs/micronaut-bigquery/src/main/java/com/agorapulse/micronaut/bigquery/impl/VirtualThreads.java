@@ -0,0 +1,72 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the virtual threads if the current runtime supports them.
+ *
+ * The library is compiled for Java 8 so the virtual thread API introduced in Java 21 is accessed reflectively.
+ */
+final class VirtualThreads {
+
+    private static final ThreadFactory FACTORY = createFactory();
+
+    private VirtualThreads() { }
+
+    /**
+     * @return <code>true</code> if the current runtime supports virtual threads
+     */
+    static boolean isAvailable() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Creates the executor starting new virtual thread for each task.
+     * @return the executor starting new virtual thread for each task
+     * @throws IllegalStateException if the current runtime does not support virtual threads
+     */
+    static ExecutorService newExecutor() {
+        if (FACTORY == null) {
+            throw new IllegalStateException("Virtual threads are not supported by the current runtime");
+        }
+        try {
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, FACTORY);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create virtual thread executor", e);
+        }
+    }
+
+    private static ThreadFactory createFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "bigquery-virtual-", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // not running on Java 21 or newer
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.management;
+
+import com.agorapulse.micronaut.bigquery.impl.SlowQueryLog;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.management.endpoint.annotation.Delete;
+import io.micronaut.management.endpoint.annotation.Endpoint;
+import io.micronaut.management.endpoint.annotation.Read;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Management endpoint exposing the recent slow queries and the slow queries aggregated by the fingerprint.
+ *
+ * The endpoint is available at <code>/bigquery</code> if the <code>micronaut-management</code> module is present.
+ * It is sensitive by default, use <code>endpoints.bigquery.sensitive</code> to change it.
+ */
+@Endpoint(id = BigQueryEndpoint.ID, defaultSensitive = true)
+@Requires(classes = Endpoint.class)
+@Requires(beans = SlowQueryLog.class)
+public class BigQueryEndpoint {
+
+    public static final String ID = "bigquery";
+
+    private final SlowQueryLog slowQueryLog;
+
+    public BigQueryEndpoint(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    @Read
+    public Map<String, Object> read() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("threshold", slowQueryLog.getThreshold().toString());
+        result.put("fingerprints", slowQueryLog.getSummaries());
+        result.put("slowQueries", slowQueryLog.getRecent());
+        return result;
+    }
+
+    @Delete
+    public void clear() {
+        slowQueryLog.clear();
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.metrics;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Metrics recorded by the BigQuery services.
+ *
+ * Metrics are published to Micrometer if there is <code>MeterRegistry</code> bean present, otherwise they are ignored.
+ * The tags are passed as the key value pairs.
+ */
+public interface BigQueryMetrics {
+
+    /**
+     * Increments the counter.
+     * @param name the name of the counter
+     * @param tags the tags as the key value pairs
+     */
+    void increment(String name, String... tags);
+
+    /**
+     * Records the duration.
+     * @param name the name of the timer
+     * @param duration the duration to be recorded
+     * @param tags the tags as the key value pairs
+     */
+    void record(String name, Duration duration, String... tags);
+
+    /**
+     * Registers the gauge.
+     * @param name the name of the gauge
+     * @param value the supplier of the current value
+     * @param tags the tags as the key value pairs
+     */
+    void gauge(String name, Supplier<Number> value, String... tags);
+
+}
@@ -0,0 +1,59 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micronaut.context.annotation.Primary;
+import io.micronaut.context.annotation.Requires;
+
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.function.Supplier;
+
+@Primary
+@Singleton
+@Requires(classes = MeterRegistry.class)
+@Requires(beans = MeterRegistry.class)
+public class MicrometerBigQueryMetrics implements BigQueryMetrics {
+
+    private final MeterRegistry registry;
+
+    public MicrometerBigQueryMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void increment(String name, String... tags) {
+        registry.counter(name, tags).increment();
+    }
+
+    @Override
+    public void record(String name, Duration duration, String... tags) {
+        registry.timer(name, tags).record(duration);
+    }
+
+    @Override
+    public void gauge(String name, Supplier<Number> value, String... tags) {
+        Gauge.builder(name, value, supplier -> supplier.get().doubleValue())
+            .tags(tags)
+            .strongReference(true)
+            .register(registry);
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.metrics;
+
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.function.Supplier;
+
+@Singleton
+public class NoopBigQueryMetrics implements BigQueryMetrics {
+
+    public static final BigQueryMetrics INSTANCE = new NoopBigQueryMetrics();
+
+    @Override
+    public void increment(String name, String... tags) {
+        // metrics disabled
+    }
+
+    @Override
+    public void record(String name, Duration duration, String... tags) {
+        // metrics disabled
+    }
+
+    @Override
+    public void gauge(String name, Supplier<Number> value, String... tags) {
+        // metrics disabled
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.tracing;
+
+import java.util.Map;
+
+/**
+ * Span covering a BigQuery operation or its part.
+ *
+ * The span does not become the current span of the thread so it can be safely ended in a different thread,
+ * the child spans must be created using {@link #startChild(String)}.
+ */
+public interface BigQuerySpan {
+
+    /**
+     * Starts a new child span of this span.
+     * @param name the name of the span
+     * @return the new span which must be ended by calling {@link #end()}
+     */
+    BigQuerySpan startChild(String name);
+
+    /**
+     * Sets the string attribute.
+     * @param key the name of the attribute
+     * @param value the value of the attribute, ignored if <code>null</code>
+     * @return this span
+     */
+    BigQuerySpan setAttribute(String key, String value);
+
+    /**
+     * Sets the numeric attribute.
+     * @param key the name of the attribute
+     * @param value the value of the attribute, ignored if <code>null</code>
+     * @return this span
+     */
+    BigQuerySpan setAttribute(String key, Long value);
+
+    /**
+     * Sets the boolean attribute.
+     * @param key the name of the attribute
+     * @param value the value of the attribute, ignored if <code>null</code>
+     * @return this span
+     */
+    BigQuerySpan setAttribute(String key, Boolean value);
+
+    /**
+     * Records the failure of the operation.
+     * @param error the error thrown by the operation
+     */
+    void recordError(Throwable error);
+
+    /**
+     * Ends this span.
+     */
+    void end();
+
+    /**
+     * Returns the BigQuery job labels identifying this span so the BigQuery audit logs can be joined with the traces.
+     * @return the job labels identifying this span, empty if the span is not recorded
+     */
+    Map<String, String> getJobLabels();
+
+}
@@ -0,0 +1,34 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.tracing;
+
+/**
+ * Tracer creating the spans for the BigQuery operations.
+ *
+ * Spans are published to OpenTelemetry if there is <code>OpenTelemetry</code> bean present, otherwise they are ignored.
+ */
+public interface BigQueryTracer {
+
+    /**
+     * Starts a new span which is a child of the current trace context if present.
+     * @param name the name of the span
+     * @return the new span which must be ended by calling {@link BigQuerySpan#end()}
+     */
+    BigQuerySpan startSpan(String name);
+
+}
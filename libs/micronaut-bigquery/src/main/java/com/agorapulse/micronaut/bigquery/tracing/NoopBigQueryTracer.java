@@ -0,0 +1,73 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.tracing;
+
+import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.Map;
+
+@Singleton
+public class NoopBigQueryTracer implements BigQueryTracer {
+
+    public static final BigQueryTracer INSTANCE = new NoopBigQueryTracer();
+
+    private static final BigQuerySpan NOOP_SPAN = new BigQuerySpan() {
+
+        @Override
+        public BigQuerySpan startChild(String name) {
+            return this;
+        }
+
+        @Override
+        public BigQuerySpan setAttribute(String key, String value) {
+            return this;
+        }
+
+        @Override
+        public BigQuerySpan setAttribute(String key, Long value) {
+            return this;
+        }
+
+        @Override
+        public BigQuerySpan setAttribute(String key, Boolean value) {
+            return this;
+        }
+
+        @Override
+        public void recordError(Throwable error) {
+            // tracing disabled
+        }
+
+        @Override
+        public void end() {
+            // tracing disabled
+        }
+
+        @Override
+        public Map<String, String> getJobLabels() {
+            return Collections.emptyMap();
+        }
+
+    };
+
+    @Override
+    public BigQuerySpan startSpan(String name) {
+        return NOOP_SPAN;
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.tracing;
+
+import io.micronaut.context.annotation.Primary;
+import io.micronaut.context.annotation.Requires;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+
+import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Primary
+@Singleton
+@Requires(classes = OpenTelemetry.class)
+@Requires(beans = OpenTelemetry.class)
+public class OpenTelemetryBigQueryTracer implements BigQueryTracer {
+
+    public static final String INSTRUMENTATION_NAME = "com.agorapulse.micronaut.bigquery";
+
+    private static class OpenTelemetrySpan implements BigQuerySpan {
+
+        private final Tracer tracer;
+        private final Span span;
+
+        OpenTelemetrySpan(Tracer tracer, Span span) {
+            this.tracer = tracer;
+            this.span = span;
+        }
+
+        @Override
+        public BigQuerySpan startChild(String name) {
+            return new OpenTelemetrySpan(tracer, tracer.spanBuilder(name)
+                .setParent(Context.current().with(span))
+                .setSpanKind(SpanKind.CLIENT)
+                .startSpan()
+            );
+        }
+
+        @Override
+        public BigQuerySpan setAttribute(String key, String value) {
+            if (value != null) {
+                span.setAttribute(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public BigQuerySpan setAttribute(String key, Long value) {
+            if (value != null) {
+                span.setAttribute(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public BigQuerySpan setAttribute(String key, Boolean value) {
+            if (value != null) {
+                span.setAttribute(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public void recordError(Throwable error) {
+            span.recordException(error);
+            span.setStatus(StatusCode.ERROR);
+        }
+
+        @Override
+        public void end() {
+            span.end();
+        }
+
+        @Override
+        public Map<String, String> getJobLabels() {
+            SpanContext context = span.getSpanContext();
+            if (!context.isValid()) {
+                return Collections.emptyMap();
+            }
+
+            Map<String, String> labels = new LinkedHashMap<>();
+            labels.put("trace_id", context.getTraceId());
+            labels.put("span_id", context.getSpanId());
+            return labels;
+        }
+
+    }
+
+    private final Tracer tracer;
+
+    public OpenTelemetryBigQueryTracer(OpenTelemetry openTelemetry) {
+        this.tracer = openTelemetry.getTracer(INSTRUMENTATION_NAME);
+    }
+
+    @Override
+    public BigQuerySpan startSpan(String name) {
+        return new OpenTelemetrySpan(tracer, tracer.spanBuilder(name)
+            .setAttribute("db.system", "bigquery")
+            .startSpan()
+        );
+    }
+
+}
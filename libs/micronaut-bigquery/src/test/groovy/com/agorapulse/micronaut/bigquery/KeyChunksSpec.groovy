@@ -0,0 +1,41 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery
+
+import spock.lang.Specification
+
+class KeyChunksSpec extends Specification {
+
+    void 'keys are split by count'() {
+        expect:
+            KeyChunks.split(1..5, 2, Integer.MAX_VALUE) == [[1, 2], [3, 4], [5]]
+    }
+
+    void 'keys are split by size'() {
+        expect:
+            KeyChunks.split(['a' * 10, 'b' * 10, 'c' * 10], 100, 60)*.size() == [2, 1]
+    }
+
+    void 'null keys are rejected'() {
+        when:
+            KeyChunks.split([1, null], 10, 100)
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+}
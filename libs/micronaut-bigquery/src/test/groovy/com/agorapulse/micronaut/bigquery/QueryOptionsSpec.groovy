@@ -0,0 +1,287 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery
+
+import com.agorapulse.micronaut.bigquery.impl.BigQueryServiceCollaborators
+import com.agorapulse.micronaut.bigquery.impl.DefaultBigQueryService
+import com.agorapulse.micronaut.bigquery.impl.QueryCoalescer
+import com.agorapulse.micronaut.bigquery.impl.QueryOptionsConfiguration
+import com.agorapulse.micronaut.bigquery.metrics.BigQueryMetrics
+import com.agorapulse.micronaut.bigquery.metrics.NoopBigQueryMetrics
+import com.google.cloud.bigquery.BigQuery
+import com.google.cloud.bigquery.Job
+import com.google.cloud.bigquery.JobId
+import com.google.cloud.bigquery.JobInfo
+import com.google.cloud.bigquery.JobStatistics
+import com.google.cloud.bigquery.JobStatus
+import com.google.cloud.bigquery.QueryJobConfiguration
+import com.google.cloud.bigquery.TableResult
+import io.reactivex.disposables.Disposable
+import io.reactivex.schedulers.Schedulers
+import spock.lang.Specification
+
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+class QueryOptionsSpec extends Specification {
+
+    BigQueryMetrics metrics = Mock()
+
+    void 'options fall back to defaults'() {
+        given:
+            QueryOptions defaults = QueryOptions.builder()
+                .priority(QueryOptions.Priority.BATCH)
+                .pageSize(100)
+                .label('team', 'data')
+                .label('feature', 'default')
+                .build()
+        when:
+            QueryOptions options = QueryOptions.builder()
+                .pageSize(10)
+                .label('feature', 'reports')
+                .build()
+                .withDefaults(defaults)
+        then:
+            options.priority == QueryOptions.Priority.BATCH
+            options.pageSize == 10
+            options.labels == [team: 'data', feature: 'reports']
+            options.timeout == null
+    }
+
+    void 'options are applied to the job configuration'() {
+        given:
+            JobInfo submitted = null
+            Job job = Mock {
+                getJobId() >> JobId.of('job-1')
+                getStatus() >> Mock(JobStatus)
+            }
+            job.waitFor(*_) >> job
+            BigQuery bigquery = Mock {
+                create(_ as JobInfo) >> { JobInfo info -> submitted = info; job }
+            }
+            QueryOptionsConfiguration configuration = new QueryOptionsConfiguration(
+                priority: QueryOptions.Priority.BATCH,
+                location: 'EU',
+                labels: [team: 'data'],
+            )
+            DefaultBigQueryService service = createService(bigquery, configuration)
+        when:
+            service.execute('delete from persons.persons where 1 = 1', QueryOptions.builder()
+                .useQueryCache(false)
+                .maximumBytesBilled(1024)
+                .timeout(Duration.ofMinutes(1))
+                .label('feature', 'cleanup')
+                .build()
+            )
+        then:
+            submitted.jobId.location == 'EU'
+
+        when:
+            QueryJobConfiguration queryConfiguration = submitted.configuration as QueryJobConfiguration
+        then:
+            queryConfiguration.priority == QueryJobConfiguration.Priority.BATCH
+            !queryConfiguration.useQueryCache()
+            queryConfiguration.maximumBytesBilled == 1024L
+            queryConfiguration.labels == [team: 'data', feature: 'cleanup']
+    }
+
+    void 'single row queries fetch only the first row using the options'() {
+        given:
+            JobInfo submitted = null
+            Job job = Mock {
+                getJobId() >> JobId.of('job-1')
+                getStatus() >> Mock(JobStatus)
+            }
+            job.waitFor(*_) >> job
+            BigQuery bigquery = Mock {
+                create(_ as JobInfo) >> { JobInfo info -> submitted = info; job }
+            }
+            DefaultBigQueryService service = createService(bigquery, new QueryOptionsConfiguration())
+        when:
+            Optional<String> name = service.querySingle(
+                'select name from persons.persons',
+                QueryOptions.builder().priority(QueryOptions.Priority.BATCH).build()
+            ) { it.getStringValue('name') }
+        then:
+            1 * job.getQueryResults(BigQuery.QueryResultsOption.pageSize(1)) >> Mock(TableResult) {
+                getValues() >> []
+            }
+            !name.present
+            (submitted.configuration as QueryJobConfiguration).priority == QueryJobConfiguration.Priority.BATCH
+    }
+
+    void 'disposing the query cancels the running job'() {
+        given:
+            CountDownLatch waiting = new CountDownLatch(1)
+            CountDownLatch cancelled = new CountDownLatch(1)
+            Job job = Mock {
+                getJobId() >> JobId.of('job-1')
+                getStatus() >> Mock(JobStatus)
+            }
+            job.waitFor(*_) >> {
+                waiting.countDown()
+                cancelled.await(5, TimeUnit.SECONDS)
+                return job
+            }
+            BigQuery bigquery = Mock {
+                create(_ as JobInfo) >> job
+            }
+            DefaultBigQueryService service = createService(bigquery, new QueryOptionsConfiguration())
+            Disposable subscription = service.query('select * from persons.persons', QueryOptions.DEFAULT) { it.getLongValue('id') }
+                .subscribeOn(Schedulers.io())
+                .subscribe()
+            waiting.await(5, TimeUnit.SECONDS)
+        when:
+            subscription.dispose()
+        then:
+            1 * job.cancel() >> {
+                cancelled.countDown()
+                return true
+            }
+            1 * metrics.increment('bigquery.job.cancelled', 'reason', 'disposed')
+            1 * metrics.increment('bigquery.query.cancelled')
+    }
+
+    void 'the job is cancelled once the deadline passes'() {
+        given:
+            Job job = Mock {
+                getJobId() >> JobId.of('job-1')
+                getStatus() >> Mock(JobStatus)
+            }
+            BigQuery bigquery = Mock {
+                create(_ as JobInfo) >> job
+            }
+            DefaultBigQueryService service = createService(bigquery, new QueryOptionsConfiguration())
+        when:
+            service.execute('delete from persons.persons where 1 = 1', QueryOptions.builder()
+                .deadline(Instant.now().plusMillis(100))
+                .build()
+            )
+        then:
+            IllegalStateException e = thrown()
+            e.message.contains('has been cancelled')
+
+            1 * job.waitFor(*_) >> {
+                Thread.sleep(200)
+                throw new IllegalStateException('Timed out')
+            }
+            1 * job.cancel() >> true
+            1 * metrics.increment('bigquery.job.cancelled', 'reason', 'deadline')
+    }
+
+    void 'no job is started after the deadline has passed'() {
+        given:
+            BigQuery bigquery = Mock()
+            DefaultBigQueryService service = createService(bigquery, new QueryOptionsConfiguration())
+        when:
+            service.execute('delete from persons.persons where 1 = 1', QueryOptions.builder()
+                .deadline(Instant.now().minusSeconds(1))
+                .build()
+            )
+        then:
+            thrown(IllegalStateException)
+            0 * bigquery.create(_)
+    }
+
+    void 'the remaining time respects both the timeout and the deadline'() {
+        expect:
+            QueryOptions.DEFAULT.remainingTime == null
+            QueryOptions.builder().timeout(Duration.ofSeconds(1)).build().remainingTime == Duration.ofSeconds(1)
+            QueryOptions.builder()
+                .timeout(Duration.ofMinutes(1))
+                .deadline(Instant.now().plusSeconds(10))
+                .build()
+                .remainingTime <= Duration.ofSeconds(10)
+    }
+
+    void 'sample rate is picked using the dry run'() {
+        given:
+            List<JobInfo> submitted = []
+            JobStatistics.QueryStatistics statistics = Mock {
+                getTotalBytesProcessed() >> 10_000_000_000L
+            }
+            TableResult result = Mock {
+                getValues() >> []
+            }
+            Job job = Mock {
+                getJobId() >> JobId.of('job-1')
+                getStatus() >> Mock(JobStatus)
+                getStatistics() >> statistics
+                getQueryResults(*_) >> result
+            }
+            job.waitFor(*_) >> job
+            BigQuery bigquery = Mock {
+                create(_ as JobInfo) >> { JobInfo info -> submitted << info; job }
+            }
+            DefaultBigQueryService service = createService(bigquery, new QueryOptionsConfiguration())
+        when:
+            SampledResult<Long> sampled = service.querySampled(
+                'select count(*) as total from persons.persons p',
+                QueryOptions.builder().sampleBytes(2_000_000_000L).maximumBytesBilled(1_000_000_000L).build()
+            ) { it.getLongValue('total') }
+        then:
+            sampled.samplePercent == 10
+            sampled.sampled
+            sampled.scale(42) == 420
+            sampled.rows.empty
+
+            submitted.size() == 2
+            (submitted[0].configuration as QueryJobConfiguration).dryRun()
+            (submitted[1].configuration as QueryJobConfiguration).query == 'select count(*) as total from persons.persons p TABLESAMPLE SYSTEM (10 PERCENT)'
+    }
+
+    void 'fixed sample rate skips the dry run'() {
+        given:
+            List<JobInfo> submitted = []
+            Job job = Mock {
+                getJobId() >> JobId.of('job-1')
+                getStatus() >> Mock(JobStatus)
+                getQueryResults(*_) >> Mock(TableResult) {
+                    getValues() >> []
+                }
+            }
+            job.waitFor(*_) >> job
+            BigQuery bigquery = Mock {
+                create(_ as JobInfo) >> { JobInfo info -> submitted << info; job }
+            }
+            DefaultBigQueryService service = createService(bigquery, new QueryOptionsConfiguration())
+        when:
+            SampledResult<Long> sampled = service.querySampled(
+                'select count(*) as total from persons.persons',
+                QueryOptions.builder().sample(12.5).build()
+            ) { it.getLongValue('total') }
+        then:
+            sampled.samplePercent == 12.5
+            submitted.size() == 1
+            (submitted[0].configuration as QueryJobConfiguration).query == 'select count(*) as total from persons.persons TABLESAMPLE SYSTEM (12.5 PERCENT)'
+    }
+
+    private DefaultBigQueryService createService(BigQuery bigquery, QueryOptionsConfiguration configuration) {
+        return new DefaultBigQueryService(BigQueryServiceCollaborators.builder(bigquery)
+            .executor({ Runnable task -> Schedulers.io().scheduleDirect(task) } as Executor)
+            .coalescer(new QueryCoalescer(true, NoopBigQueryMetrics.INSTANCE))
+            .queryOptions(configuration)
+            .metrics(metrics)
+            .build()
+        )
+    }
+
+}
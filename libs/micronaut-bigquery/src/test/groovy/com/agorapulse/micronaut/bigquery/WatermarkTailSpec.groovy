@@ -0,0 +1,60 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery
+
+import io.reactivex.Flowable
+import spock.lang.Specification
+
+import java.time.Instant
+
+class WatermarkTailSpec extends Specification {
+
+    private static final String SQL = 'select id, created from events.events where account = @account and created >= @watermark'
+
+    BigQueryService service = Mock()
+
+    void 'tailing starts at the epoch without the initial watermark'() {
+        given:
+            WatermarkTail<String> tail = new WatermarkTail<>(service, new InMemoryWatermarkStore(), [:], SQL, 'created', { RowResult row -> row.getStringValue('id') })
+        when:
+            tail.poll().blockingSubscribe()
+        then:
+            1 * service.query([watermark: Instant.EPOCH], SQL, _) >> Flowable.empty()
+    }
+
+    void 'watermarks are kept separately for different named parameters'() {
+        expect:
+            WatermarkTail.createKey([account: 1L], SQL, 'created') != WatermarkTail.createKey([account: 2L], SQL, 'created')
+            WatermarkTail.createKey([account: 1L, watermark: Instant.EPOCH], SQL, 'created') == WatermarkTail.createKey([account: 1L], SQL, 'created')
+            WatermarkTail.createKey([a: 1L, b: 2L], SQL, 'created') == WatermarkTail.createKey([b: 2L, a: 1L], SQL, 'created')
+    }
+
+    void 'tail resumes from the watermark saved for the same named parameters'() {
+        given:
+            Instant last = Instant.parse('2022-02-22T10:20:30Z')
+            WatermarkStore store = new InMemoryWatermarkStore()
+            store.save(WatermarkTail.createKey([account: 1L], SQL, 'created'), last.toString())
+        when:
+            new WatermarkTail<>(service, store, [account: 1L], SQL, 'created', { RowResult row -> row }).poll().blockingSubscribe()
+            new WatermarkTail<>(service, store, [account: 2L], SQL, 'created', { RowResult row -> row }).poll().blockingSubscribe()
+        then:
+            1 * service.query([account: 1L, watermark: last], SQL, _) >> Flowable.empty()
+            1 * service.query([account: 2L, watermark: Instant.EPOCH], SQL, _) >> Flowable.empty()
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.groovy
+
+import com.agorapulse.micronaut.bigquery.BigQueryService
+import com.agorapulse.micronaut.bigquery.RowResult
+import com.agorapulse.micronaut.bigquery.tck.JavaPersonService
+import com.agorapulse.micronaut.bigquery.tck.Person
+import com.agorapulse.micronaut.bigquery.tck.Role
+import groovy.transform.CompileStatic
+import io.reactivex.Flowable
+import space.jasan.support.groovy.closure.FunctionWithDelegate
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.time.Instant
+import java.util.concurrent.TimeUnit
+import java.util.function.Function
+
+class RowMapperSpec extends Specification {
+
+    private static final int ROWS = Integer.getInteger('bigquery.benchmark.rows', 1_000_000)
+
+    RowResult row = new FixedRowResult()
+
+    void 'statically compiled closure is called directly'() {
+        when:
+            RowMapper<Person> mapper = RowMapper.of(PersonMappers.TYPED)
+            Person person = mapper.apply(row)
+        then:
+            mapper.direct
+            person.id == 42
+            person.firstName == 'Vladimir'
+            person.role == Role.ADMIN
+    }
+
+    void 'dynamic closure using its parameter is supported'() {
+        when:
+            RowMapper<String> mapper = RowMapper.of { it.getStringValue('last_name') }
+        then:
+            mapper.apply(row) == 'Orany'
+    }
+
+    void 'closure with more parameters is rejected'() {
+        when:
+            RowMapper.of { RowResult a, RowResult b -> a }
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    void 'mapper is passed to the service as it is'() {
+        given:
+            long id = 42
+            RowMapper<Person> mapper = RowMapper.of(PersonMappers.TYPED)
+            BigQueryService service = Mock {
+                convertIfNecessary(_) >> { Object value -> value }
+            }
+        when:
+            service.query("select * from persons.persons where id = $id", mapper)
+        then:
+            1 * service.query([var0: 42L], 'select * from persons.persons where id = @var0', mapper) >> Flowable.empty()
+    }
+
+    /**
+     * Run with <code>-Dbigquery.benchmark=true</code>, the number of rows can be set using
+     * <code>-Dbigquery.benchmark.rows</code>.
+     */
+    @Requires({ System.getProperty('bigquery.benchmark') })
+    void 'row mapper is faster than the delegating closure'() {
+        when:
+            double delegating = throughput(FunctionWithDelegate.create(PersonMappers.TYPED))
+            double direct = throughput(RowMapper.of(PersonMappers.TYPED))
+            double java = throughput(JavaPersonService.&buildPerson as Function<RowResult, Person>)
+            println "Rows mapped per second: delegating closure ${delegating.round()}, row mapper ${direct.round()}, Java mapper ${java.round()}"
+        then:
+            direct > delegating
+    }
+
+    @CompileStatic
+    private double throughput(Function<RowResult, Person> mapper) {
+        // warm up
+        for (int i = 0; i < ROWS; i++) {
+            mapper.apply(row)
+        }
+
+        long started = System.nanoTime()
+        long ids = 0
+        for (int i = 0; i < ROWS; i++) {
+            ids += mapper.apply(row).id
+        }
+        assert ids == 42L * ROWS
+        return ROWS * TimeUnit.SECONDS.toNanos(1) / (System.nanoTime() - started)
+    }
+
+    @CompileStatic
+    static class PersonMappers {
+
+        static final Closure<Person> TYPED = { RowResult row ->
+            return new Person(
+                id: row.getLongValue('id'),
+                firstName: row.getStringValue('first_name'),
+                lastName: row.getStringValue('last_name'),
+                email: row.getStringValue('email'),
+                role: row.getEnumValue('role', Role),
+                score: row.getDoubleValue('score'),
+                created: row.getTimestampValue('created'),
+                enabled: row.getBooleanValue('enabled')
+            )
+        }
+
+    }
+
+    @CompileStatic
+    static class FixedRowResult implements RowResult {
+
+        private static final Map<String, Object> VALUES = [
+            id: 42L,
+            first_name: 'Vladimir',
+            last_name: 'Orany',
+            email: 'vlad@example.com',
+            role: 'ADMIN',
+            score: 1.5d,
+            created: Instant.parse('2020-01-01T00:00:00Z'),
+            enabled: true,
+        ] as Map<String, Object>
+
+        @Override
+        boolean isNull(String key) {
+            return VALUES[key] == null
+        }
+
+        @Override
+        Boolean getBooleanValue(String key) {
+            return (Boolean) VALUES[key]
+        }
+
+        @Override
+        Double getDoubleValue(String key) {
+            return (Double) VALUES[key]
+        }
+
+        @Override
+        String getStringValue(String key) {
+            return (String) VALUES[key]
+        }
+
+        @Override
+        Long getLongValue(String key) {
+            return (Long) VALUES[key]
+        }
+
+        @Override
+        Instant getTimestampValue(String key) {
+            return (Instant) VALUES[key]
+        }
+
+        @Override
+        RowResult getRecord(String key) {
+            return null
+        }
+
+        @Override
+        List<RowResult> getRepeated(String key) {
+            return []
+        }
+
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.agorapulse.micronaut.bigquery.metrics.NoopBigQueryMetrics
+import com.google.cloud.NoCredentials
+import com.google.cloud.bigquery.BigQuery
+import com.google.cloud.bigquery.BigQueryError
+import com.google.cloud.bigquery.BigQueryException
+import com.google.cloud.bigquery.BigQueryOptions
+import spock.lang.Specification
+
+import java.time.Duration
+
+class BigQueryClientPoolSpec extends Specification {
+
+    BigQueryRoutingConfiguration routing = new BigQueryRoutingConfiguration()
+
+    BigQueryClientPool.Client primary = client('default', 'main')
+    BigQueryClientPool.Client reports = client('reports', 'reports-billing')
+    BigQueryClientPool.Client batch = client('batch', 'batch-billing')
+
+    void 'jobs are distributed in turns'() {
+        given:
+            BigQueryClientPool pool = createPool()
+        expect:
+            (1..6).collect { pool.select([:], []).name } == ['default', 'reports', 'batch', 'default', 'reports', 'batch']
+            pool.select([:], [primary, reports]) == batch
+            pool.select([:], [primary, reports, batch]) == null
+    }
+
+    void 'least loaded client is selected'() {
+        given:
+            routing.strategy = BigQueryRoutingConfiguration.Strategy.LEAST_LOADED
+            BigQueryClientPool pool = createPool()
+        when:
+            pool.started(primary)
+            pool.started(batch)
+        then:
+            pool.select([:], []) == reports
+
+        when:
+            pool.started(reports)
+            pool.started(reports)
+            pool.finished(batch)
+        then:
+            pool.select([:], []) == batch
+            primary.jobs == 1
+            reports.inFlight == 2
+    }
+
+    void 'client is selected by tag'() {
+        given:
+            routing.strategy = BigQueryRoutingConfiguration.Strategy.TAG
+            routing.tags = [dashboard: 'reports', export: 'batch']
+            BigQueryClientPool pool = createPool()
+        expect:
+            pool.select([tag: 'dashboard'], []) == reports
+            pool.select([tag: 'export'], []) == batch
+            pool.select([tag: 'export'], [batch]) in [primary, reports]
+            pool.select([:], []) in [primary, reports, batch]
+    }
+
+    void 'throttled clients are avoided'() {
+        given:
+            routing.strategy = BigQueryRoutingConfiguration.Strategy.TAG
+            routing.tags = [export: 'batch']
+            BigQueryClientPool pool = createPool()
+        when:
+            pool.throttled(batch)
+        then:
+            batch.throttled
+            batch.quotaErrors == 1
+            (1..4).collect { pool.select([tag: 'export'], []) }.every { it != batch }
+
+        when:
+            pool.throttled(primary)
+            pool.throttled(reports)
+        then:
+            pool.select([:], []) in [primary, reports, batch]
+    }
+
+    void 'throttling expires after the backoff'() {
+        given:
+            routing.throttleBackoff = Duration.ofMillis(50)
+            BigQueryClientPool pool = createPool()
+        when:
+            pool.throttled(reports)
+        then:
+            reports.throttled
+
+        when:
+            Thread.sleep(100)
+        then:
+            !reports.throttled
+    }
+
+    void 'quota errors are recognized'() {
+        expect:
+            BigQueryClientPool.isQuotaError(new BigQueryException(429, 'Too many requests'))
+            BigQueryClientPool.isQuotaError(new BigQueryException(403, 'Quota exceeded', new BigQueryError('quotaExceeded', 'global', 'Quota exceeded')))
+            BigQueryClientPool.isQuotaError(new BigQueryError('rateLimitExceeded', 'global', 'Exceeded rate limits'))
+            !BigQueryClientPool.isQuotaError(new BigQueryException(400, 'Syntax error', new BigQueryError('invalidQuery', 'query', 'Syntax error')))
+            !BigQueryClientPool.isQuotaError((BigQueryError) null)
+    }
+
+    void 'clients are found by project'() {
+        given:
+            BigQueryClientPool pool = createPool()
+        expect:
+            pool.primary == primary
+            pool.forProject('batch-billing') == batch
+            pool.forProject('') == primary
+    }
+
+    void 'tables are qualified with the project'() {
+        expect:
+            TableReferences.qualify('''
+                SELECT * FROM persons.persons p
+                JOIN `persons.addresses` a ON a.person_id = p.id
+                JOIN other.persons.events e ON e.person_id = p.id
+            ''', 'main') == '''
+                SELECT * FROM `main.persons.persons` p
+                JOIN `main.persons.addresses` a ON a.person_id = p.id
+                JOIN other.persons.events e ON e.person_id = p.id
+            '''
+            TableReferences.qualify('MERGE persons.persons t USING persons.staging s ON t.id = s.id', 'main') == 'MERGE `main.persons.persons` t USING `main.persons.staging` s ON t.id = s.id'
+    }
+
+    private BigQueryClientPool createPool() {
+        return new BigQueryClientPool([primary, reports, batch], routing, NoopBigQueryMetrics.INSTANCE)
+    }
+
+    private static BigQueryClientPool.Client client(String name, String project) {
+        BigQuery bigquery = BigQueryOptions.newBuilder()
+            .setProjectId(project)
+            .setCredentials(NoCredentials.instance)
+            .build()
+            .service
+        return new BigQueryClientPool.Client(name, bigquery)
+    }
+
+}
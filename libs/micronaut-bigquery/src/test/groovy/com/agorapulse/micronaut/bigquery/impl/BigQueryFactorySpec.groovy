@@ -0,0 +1,44 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.google.cloud.NoCredentials
+import com.google.cloud.bigquery.BigQuery
+import io.micronaut.context.ApplicationContext
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+
+class BigQueryFactorySpec extends Specification {
+
+    @AutoCleanup ApplicationContext context
+
+    void 'client connects to the overridden endpoint without credentials'() {
+        given:
+            context = ApplicationContext.run(
+                'bigquery.endpoint.host': 'http://localhost:9050',
+                'bigquery.endpoint.project-id': 'local'
+            )
+        when:
+            BigQuery bigquery = context.getBean(BigQuery)
+        then:
+            bigquery.options.host == 'http://localhost:9050'
+            bigquery.options.projectId == 'local'
+            bigquery.options.credentials instanceof NoCredentials
+    }
+
+}
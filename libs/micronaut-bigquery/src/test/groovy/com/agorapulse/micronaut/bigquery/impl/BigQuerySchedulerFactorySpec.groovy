@@ -0,0 +1,94 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import io.reactivex.Completable
+import io.reactivex.Scheduler
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+
+class BigQuerySchedulerFactorySpec extends Specification {
+
+    private static final int OPERATIONS = 500
+    private static final long LATENCY_MILLIS = 20
+
+    BigQuerySchedulerFactory factory = new BigQuerySchedulerFactory()
+
+    void 'blocking calls run on virtual threads if enabled and supported'() {
+        given:
+            ExecutorService executor = factory.bigQueryExecutor(new BigQueryAsyncConfiguration(virtualThreads: true))
+        when:
+            String threadName = executor.submit({ Thread.currentThread().name } as Callable<String>).get(5, TimeUnit.SECONDS)
+        then:
+            threadName.startsWith(VirtualThreads.available ? 'bigquery-virtual-' : 'bigquery-')
+        cleanup:
+            executor.shutdown()
+    }
+
+    void 'operations are rejected if all the threads are busy and the queue is full'() {
+        given:
+            ExecutorService executor = factory.bigQueryExecutor(new BigQueryAsyncConfiguration(maxThreads: 1, queueSize: 1))
+            CountDownLatch release = new CountDownLatch(1)
+            Runnable blocking = { release.await() }
+        when:
+            executor.execute(blocking)
+            executor.execute(blocking)
+            executor.execute(blocking)
+        then:
+            thrown(RejectedExecutionException)
+        cleanup:
+            release.countDown()
+            executor.shutdown()
+    }
+
+    /**
+     * Compares the throughput of the simulated blocking BigQuery calls such as waiting for a job.
+     *
+     * Run with <code>-Dbigquery.benchmark=true</code> on Java 21 or newer.
+     */
+    @Requires({ System.getProperty('bigquery.benchmark') && VirtualThreads.available })
+    void 'virtual threads serve more concurrent blocking calls than platform threads'() {
+        when:
+            double platform = throughput(new BigQueryAsyncConfiguration())
+            double virtual = throughput(new BigQueryAsyncConfiguration(virtualThreads: true))
+            println "Blocking calls per second: platform threads ${platform.round()}, virtual threads ${virtual.round()}"
+        then:
+            virtual > platform
+    }
+
+    private double throughput(BigQueryAsyncConfiguration configuration) {
+        ExecutorService executor = factory.bigQueryExecutor(configuration)
+        Scheduler scheduler = factory.bigQueryScheduler(executor)
+        try {
+            long started = System.nanoTime()
+            Completable.merge((1..OPERATIONS).collect {
+                Completable.fromAction { Thread.sleep(LATENCY_MILLIS) }.subscribeOn(scheduler)
+            }).blockingAwait(1, TimeUnit.MINUTES)
+            return OPERATIONS * TimeUnit.SECONDS.toNanos(1) / (System.nanoTime() - started)
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+}
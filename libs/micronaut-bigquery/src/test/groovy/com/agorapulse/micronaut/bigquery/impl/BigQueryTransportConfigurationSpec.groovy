@@ -0,0 +1,128 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.google.api.client.http.ByteArrayContent
+import com.google.api.client.http.GenericUrl
+import com.google.api.client.http.HttpResponse
+import com.google.api.client.http.HttpTransport
+import com.google.api.client.http.apache.v2.ApacheHttpTransport
+import com.google.cloud.NoCredentials
+import com.google.cloud.bigquery.BigQueryOptions
+import com.google.cloud.http.HttpTransportOptions
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.time.Duration
+
+class BigQueryTransportConfigurationSpec extends Specification {
+
+    List<String> encodings = []
+    List<Integer> ports = []
+
+    HttpServer server = startServer()
+
+    void cleanup() {
+        server.stop(0)
+    }
+
+    void 'transport and retry settings are applied to the options'() {
+        given:
+            BigQueryTransportConfiguration configuration = new BigQueryTransportConfiguration(
+                connectTimeout: Duration.ofSeconds(5),
+                readTimeout: Duration.ofSeconds(7),
+                maxAttempts: 3,
+                initialRetryDelay: Duration.ofMillis(500),
+            )
+        when:
+            BigQueryOptions options = configure(configuration)
+            HttpTransportOptions transportOptions = options.transportOptions as HttpTransportOptions
+        then:
+            transportOptions.connectTimeout == 5000
+            transportOptions.readTimeout == 7000
+            transportOptions.httpTransportFactory.create() instanceof ApacheHttpTransport
+            options.retrySettings.maxAttempts == 3
+            options.retrySettings.initialRetryDelay.toMillis() == 500
+    }
+
+    void 'connections are pooled and reused'() {
+        given:
+            HttpTransport transport = createTransport(new BigQueryTransportConfiguration())
+        when:
+            3.times { post(transport, 'ping') }
+        then:
+            ports.size() == 3
+            ports.toSet().size() == 1
+    }
+
+    void 'request bodies of at least the threshold size are compressed'() {
+        given:
+            HttpTransport transport = createTransport(new BigQueryTransportConfiguration(compressionThreshold: 10))
+        when:
+            post(transport, 'x' * 100)
+            post(transport, 'short')
+        then:
+            encodings == ['gzip', null]
+    }
+
+    void 'request bodies are not compressed by default'() {
+        given:
+            HttpTransport transport = createTransport(new BigQueryTransportConfiguration())
+        when:
+            post(transport, 'x' * 100)
+        then:
+            encodings == [null]
+    }
+
+    private static BigQueryOptions configure(BigQueryTransportConfiguration configuration) {
+        return configuration.configure(BigQueryOptions.newBuilder().setProjectId('test').setCredentials(NoCredentials.instance)).build()
+    }
+
+    private static HttpTransport createTransport(BigQueryTransportConfiguration configuration) {
+        return (configure(configuration).transportOptions as HttpTransportOptions).httpTransportFactory.create()
+    }
+
+    private void post(HttpTransport transport, String body) {
+        HttpResponse response = transport.createRequestFactory()
+            .buildPostRequest(new GenericUrl("http://localhost:${server.address.port}/"), ByteArrayContent.fromString('text/plain', body))
+            .execute()
+        try {
+            assert response.parseAsString() == 'ok'
+        } finally {
+            response.disconnect()
+        }
+    }
+
+    private HttpServer startServer() {
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress('localhost', 0), 0)
+        httpServer.createContext('/') { HttpExchange exchange ->
+            exchange.requestBody.bytes
+            encodings << exchange.requestHeaders.getFirst('Content-Encoding')
+            ports << exchange.remoteAddress.port
+
+            byte[] response = 'ok'.getBytes(StandardCharsets.UTF_8)
+            exchange.sendResponseHeaders(200, response.length)
+            exchange.responseBody.withStream { it.write(response) }
+        }
+        httpServer.start()
+        return httpServer
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.google.auth.Credentials
+import com.google.cloud.NoCredentials
+import com.google.cloud.bigquery.BigQuery
+import com.google.cloud.bigquery.BigQueryOptions
+import io.micronaut.context.event.StartupEvent
+import spock.lang.Specification
+
+import javax.inject.Provider
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+
+class BigQueryWarmUpSpec extends Specification {
+
+    List<Runnable> tasks = []
+    Executor executor = { Runnable task -> tasks << task } as Executor
+
+    Credentials credentials = Mock()
+    BigQuery bigquery = Mock {
+        getOptions() >> BigQueryOptions.newBuilder().setProjectId('test').setCredentials(credentials).build()
+    }
+
+    void 'access token is fetched and connections are opened using the executor'() {
+        given:
+            BigQueryWarmUp warmUp = createWarmUp(executor)
+        when:
+            warmUp.onApplicationEvent(Mock(StartupEvent))
+        then:
+            0 * credentials.refresh()
+            0 * bigquery.listDatasets(*_)
+            tasks.size() == 1
+
+        when:
+            runTasks()
+        then:
+            1 * credentials.refresh()
+            2 * bigquery.listDatasets(BigQuery.DatasetListOption.pageSize(1))
+    }
+
+    void 'no credentials are not refreshed'() {
+        given:
+            BigQuery emulator = Mock {
+                getOptions() >> BigQueryOptions.newBuilder().setProjectId('test').setCredentials(NoCredentials.instance).build()
+            }
+            BigQueryWarmUp warmUp = new BigQueryWarmUp({ emulator } as Provider<BigQuery>, new BigQueryTransportConfiguration(), executor)
+        when:
+            warmUp.onApplicationEvent(Mock(StartupEvent))
+            runTasks()
+        then:
+            1 * emulator.listDatasets(*_)
+    }
+
+    void 'failures are only logged'() {
+        given:
+            BigQueryWarmUp warmUp = createWarmUp(executor)
+        when:
+            warmUp.onApplicationEvent(Mock(StartupEvent))
+            runTasks()
+        then:
+            1 * credentials.refresh() >> { throw new IOException('Token endpoint is not available') }
+            0 * bigquery.listDatasets(*_)
+            noExceptionThrown()
+    }
+
+    void 'rejected warm up is only logged'() {
+        given:
+            BigQueryWarmUp warmUp = createWarmUp({ Runnable task -> throw new RejectedExecutionException('All threads are busy') } as Executor)
+        when:
+            warmUp.onApplicationEvent(Mock(StartupEvent))
+        then:
+            0 * credentials.refresh()
+            noExceptionThrown()
+    }
+
+    private BigQueryWarmUp createWarmUp(Executor executor) {
+        return new BigQueryWarmUp(
+            { bigquery } as Provider<BigQuery>,
+            new BigQueryTransportConfiguration(warmUp: true, warmUpConnections: 2),
+            executor
+        )
+    }
+
+    private void runTasks() {
+        while (!tasks.empty) {
+            tasks.remove(0).run()
+        }
+    }
+
+}
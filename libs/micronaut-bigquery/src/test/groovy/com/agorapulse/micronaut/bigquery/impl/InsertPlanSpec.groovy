@@ -0,0 +1,169 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.agorapulse.micronaut.bigquery.ParameterizedSql
+import com.agorapulse.micronaut.bigquery.tck.Person
+import com.agorapulse.micronaut.bigquery.tck.Role
+import com.google.cloud.bigquery.BigQuery
+import com.google.cloud.bigquery.Field
+import com.google.cloud.bigquery.LegacySQLTypeName
+import com.google.cloud.bigquery.QueryParameterValue
+import com.google.cloud.bigquery.Schema
+import com.google.cloud.bigquery.StandardSQLTypeName
+import com.google.cloud.bigquery.StandardTableDefinition
+import com.google.cloud.bigquery.Table
+import com.google.cloud.bigquery.TableId
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.Instant
+import java.time.LocalDate
+import java.time.LocalDateTime
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+
+class InsertPlanSpec extends Specification {
+
+    private static final TableId PERSONS = TableId.of('persons', 'persons')
+
+    Schema schema = Schema.of(
+        Field.of('id', LegacySQLTypeName.INTEGER),
+        Field.of('first_name', LegacySQLTypeName.STRING),
+        Field.of('last_name', LegacySQLTypeName.STRING),
+        Field.of('email', LegacySQLTypeName.STRING),
+        Field.of('role', LegacySQLTypeName.STRING),
+        Field.of('score', LegacySQLTypeName.NUMERIC),
+        Field.of('enabled', LegacySQLTypeName.BOOLEAN),
+        Field.of('created', LegacySQLTypeName.DATETIME)
+    )
+
+    void 'properties are converted using the column types'() {
+        given:
+            Person person = new Person(
+                id: 1,
+                firstName: 'Jane',
+                lastName: 'Doe',
+                role: Role.ADMIN,
+                score: 2.5,
+                created: Instant.parse('2022-01-02T03:04:05.123456Z')
+            )
+        when:
+            Map<String, Object> values = InsertPlan.create(Person, 'persons.persons', QueryParameterConverters.forSchema(schema)).toColumnValues(person)
+        then:
+            values.keySet() == ['id', 'enabled', 'created', 'score', 'first_name', 'last_name', 'role'] as Set
+            values.id == QueryParameterValue.int64(1L)
+            values.role == QueryParameterValue.string('ADMIN')
+            values.score == QueryParameterValue.numeric(new BigDecimal('2.5'))
+            values.created == QueryParameterValue.dateTime('2022-01-02 03:04:05.123456')
+    }
+
+    void 'missing columns are reported'() {
+        given:
+            Schema partial = Schema.of(Field.of('id', LegacySQLTypeName.INTEGER))
+        when:
+            InsertPlan.create(Person, 'persons.persons', QueryParameterConverters.forSchema(partial))
+        then:
+            IllegalArgumentException e = thrown(IllegalArgumentException)
+            e.message.contains('first_name')
+    }
+
+    @Unroll
+    void 'property of type #type.simpleName cannot be stored in #columnType column'() {
+        when:
+            QueryParameterConverters.forSchema(Schema.of(Field.of('value', columnType))).create('value', type)
+        then:
+            thrown(IllegalArgumentException)
+        where:
+            type    | columnType
+            Double  | LegacySQLTypeName.INTEGER
+            String  | LegacySQLTypeName.TIMESTAMP
+            Instant | LegacySQLTypeName.TIME
+            boolean | LegacySQLTypeName.STRING
+    }
+
+    @Unroll
+    void 'parameter #value is converted by its runtime type'() {
+        expect:
+            QueryParameterConverters.toParameter(value).type == type
+        where:
+            value                                    | type
+            Instant.now()                            | StandardSQLTypeName.TIMESTAMP
+            new BigDecimal('1.5')                    | StandardSQLTypeName.NUMERIC
+            LocalDate.of(2022, 1, 2)                 | StandardSQLTypeName.DATE
+            LocalDateTime.of(2022, 1, 2, 3, 4)       | StandardSQLTypeName.DATETIME
+            'text'                                   | StandardSQLTypeName.STRING
+            QueryParameterValue.int64(1L)            | StandardSQLTypeName.INT64
+    }
+
+    void 'insert plans are created from the cached schema'() {
+        given:
+            BigQuery bigquery = Mock {
+                getTable(PERSONS) >> Mock(Table) {
+                    getDefinition() >> StandardTableDefinition.of(schema)
+                }
+            }
+            DefaultBigQueryService service = new DefaultBigQueryService(bigquery)
+        when:
+            ParameterizedSql insert = service.generateInsert(new Person(id: 1, firstName: 'Jane'), 'persons', 'persons')
+        then:
+            insert.namedParameters.id == QueryParameterValue.int64(1L)
+            insert.namedParameters.created.type == StandardSQLTypeName.DATETIME
+    }
+
+    void 'queued inserts are converted using the cached schema'() {
+        given:
+            BigQuery bigquery = Mock {
+                getTable(PERSONS) >> Mock(Table) {
+                    getDefinition() >> StandardTableDefinition.of(schema)
+                }
+            }
+            InsertQueue queue = Mock {
+                isEnabled() >> true
+            }
+            DefaultBigQueryService service = createService(bigquery, queue, { Runnable task -> task.run() } as Executor)
+        when:
+            service.insert(new Person(id: 1, score: 2.5, created: Instant.parse('2022-01-02T03:04:05.123456Z')), 'persons', 'persons')
+        then:
+            1 * queue.offer({ Map<String, Object> values ->
+                values.score == QueryParameterValue.numeric(new BigDecimal('2.5'))
+                    && values.created == QueryParameterValue.dateTime('2022-01-02 03:04:05.123456')
+            }, 'persons', 'persons')
+    }
+
+    void 'asynchronous inserts rejected by the busy executor are signalled to the subscriber'() {
+        given:
+            BigQuery bigquery = Mock()
+            Executor busy = { Runnable task -> throw new RejectedExecutionException('All threads are busy') } as Executor
+            DefaultBigQueryService service = createService(bigquery, Mock(InsertQueue), busy)
+        when:
+            service.insertAsync(new Person(id: 1), 'persons', 'persons').blockingGet()
+        then:
+            thrown(RejectedExecutionException)
+            0 * bigquery._
+    }
+
+    private static DefaultBigQueryService createService(BigQuery bigquery, InsertQueue queue, Executor executor) {
+        return new DefaultBigQueryService(BigQueryServiceCollaborators.builder(bigquery)
+            .insertQueue(queue)
+            .executor(executor)
+            .build()
+        )
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.agorapulse.micronaut.bigquery.BigQueryService
+import com.agorapulse.micronaut.bigquery.metrics.NoopBigQueryMetrics
+import com.google.cloud.bigquery.QueryParameterValue
+import com.google.cloud.bigquery.StandardSQLTypeName
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Path
+import java.time.Duration
+import java.time.Instant
+import java.time.LocalDate
+import java.time.LocalDateTime
+import java.time.LocalTime
+
+class InsertQueueSpec extends Specification {
+
+    private static final Instant CREATED = Instant.parse('2022-02-22T10:20:30Z')
+
+    @TempDir Path directory
+
+    BigQueryService service = Mock()
+
+    void 'rows are sent in batches'() {
+        given:
+            InsertQueue queue = createQueue()
+        when:
+            queue.offer([id: 1L, name: 'one', created: CREATED], 'persons', 'persons')
+            queue.offer([id: 2L, name: 'two', created: CREATED], 'persons', 'persons')
+            queue.offer([id: 3L], 'persons', 'persons')
+        then:
+            queue.size() == 3
+        when:
+            long drained = queue.drain()
+        then:
+            drained == 3
+            queue.size() == 0
+            1 * service.execute(
+                [id__0: 1L, name__0: 'one', created__0: CREATED, id__1: 2L, name__1: 'two', created__1: CREATED],
+                'insert into persons.persons (id, name, created) values (@id__0, @name__0, @created__0), (@id__1, @name__1, @created__1)'
+            )
+            1 * service.execute([id__0: 3L], 'insert into persons.persons (id) values (@id__0)')
+        cleanup:
+            queue.close()
+    }
+
+    void 'failed rows are retried and replayed after restart'() {
+        given:
+            InsertQueue queue = createQueue()
+        when:
+            5.times { queue.offer([id: it], 'persons', 'persons') }
+            queue.drain()
+        then:
+            1 * service.execute(_, _) >> { throw new IllegalStateException('BigQuery is down') }
+            queue.size() == 5
+        when:
+            queue.close()
+            queue = createQueue()
+        then:
+            queue.size() == 5
+        when:
+            long drained = queue.drain()
+        then:
+            drained == 5
+            2 * service.execute(_, _)
+            queue.size() == 0
+        when:
+            queue.close()
+            queue = createQueue()
+        then:
+            queue.size() == 0
+        cleanup:
+            queue?.close()
+    }
+
+    void 'bytes, dates and query parameters are replayed with their original types'() {
+        given:
+            InsertQueue queue = createQueue(segmentSize: 4096)
+            byte[] avatar = [1, 2, 3] as byte[]
+            QueryParameterValue tags = QueryParameterValue.newBuilder()
+                .setType(StandardSQLTypeName.ARRAY)
+                .setArrayType(StandardSQLTypeName.STRING)
+                .setArrayValues([QueryParameterValue.string('a'), QueryParameterValue.string('b')])
+                .build()
+            Map<String, Object> sent = null
+        when:
+            queue.offer([
+                avatar: avatar,
+                born: LocalDate.of(1980, 2, 29),
+                updated: LocalDateTime.of(2022, 2, 22, 10, 20, 30, 123456000),
+                alarm: LocalTime.of(6, 30),
+                score: QueryParameterValue.numeric(new BigDecimal('1.50')),
+                tags: tags,
+                address: [city: 'Prague', zip: 11000L],
+            ], 'persons', 'persons')
+            queue.close()
+            queue = createQueue(segmentSize: 4096)
+            queue.drain()
+        then:
+            1 * service.execute(_, _) >> { Map<String, Object> parameters, String sql -> sent = parameters }
+            sent.avatar__0 == avatar
+            sent.born__0 == LocalDate.of(1980, 2, 29)
+            sent.updated__0 == LocalDateTime.of(2022, 2, 22, 10, 20, 30, 123456000)
+            sent.alarm__0 == LocalTime.of(6, 30)
+            sent.score__0 == QueryParameterValue.numeric(new BigDecimal('1.50'))
+            sent.tags__0 == tags
+            sent.address__0 == [city: 'Prague', zip: 11000L]
+        cleanup:
+            queue.close()
+    }
+
+    void 'values which cannot be replayed are rejected'() {
+        given:
+            InsertQueue queue = createQueue()
+        when:
+            queue.offer([id: UUID.randomUUID()], 'persons', 'persons')
+        then:
+            thrown(IllegalArgumentException)
+            queue.size() == 0
+        cleanup:
+            queue.close()
+    }
+
+    void 'batches failing repeatedly are moved into the dead letter journal'() {
+        given:
+            InsertQueue queue = createQueue(maxAttempts: 2, initialRetryDelay: Duration.ZERO)
+            queue.offer([id: 1L], 'persons', 'persons')
+            queue.offer([name: 'other'], 'persons', 'persons')
+        when:
+            3.times { queue.drain() }
+        then:
+            2 * service.execute(_, 'insert into persons.persons (id) values (@id__0)') >> { throw new IllegalStateException('Invalid row') }
+            1 * service.execute([name__0: 'other'], _)
+            queue.size() == 0
+        when:
+            queue.close()
+            queue = createQueue(directory: directory.resolve('dead-letter').toString())
+        then:
+            queue.size() == 1
+        when:
+            queue.drain()
+        then:
+            1 * service.execute([id__0: 1L], 'insert into persons.persons (id) values (@id__0)')
+        cleanup:
+            queue.close()
+    }
+
+    void 'batches are split to fit into the query parameter limit'() {
+        given:
+            Map<String, Object> row = (1..4000).collectEntries { ["c$it".toString(), 1L] } as Map<String, Object>
+            InsertQueue queue = createQueue(segmentSize: 1024 * 1024)
+            3.times { queue.offer(row, 'persons', 'wide') }
+        when:
+            long drained = queue.drain()
+        then:
+            drained == 3
+            1 * service.execute({ it.size() == 8000 }, _)
+            1 * service.execute({ it.size() == 4000 }, _)
+        cleanup:
+            queue.close()
+    }
+
+    void 'rows are rejected once the queue is closed'() {
+        given:
+            InsertQueue queue = createQueue()
+            queue.close()
+        when:
+            queue.offer([id: 1L], 'persons', 'persons')
+        then:
+            thrown(IllegalStateException)
+    }
+
+    void 'rows are rejected when the queue is full'() {
+        given:
+            InsertQueue queue = createQueue(maxSize: 64)
+        when:
+            10.times { queue.offer([name: 'a row which takes some space'], 'persons', 'persons') }
+        then:
+            thrown(IllegalStateException)
+        cleanup:
+            queue.close()
+    }
+
+    private InsertQueue createQueue(Map<String, Object> overrides = [:]) {
+        InsertQueueConfiguration configuration = new InsertQueueConfiguration(
+            enabled: true,
+            directory: directory.toString(),
+            segmentSize: 128,
+            batchSize: 3,
+            drainInterval: Duration.ofHours(1)
+        )
+        overrides.each { key, value -> configuration[key] = value }
+        return new InsertQueue(configuration, { service }, NoopBigQueryMetrics.INSTANCE)
+    }
+
+}
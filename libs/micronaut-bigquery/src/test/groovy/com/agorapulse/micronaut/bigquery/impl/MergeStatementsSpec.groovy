@@ -0,0 +1,113 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.agorapulse.micronaut.bigquery.ParameterizedSql
+import com.google.cloud.bigquery.Field
+import com.google.cloud.bigquery.LegacySQLTypeName
+import com.google.cloud.bigquery.Schema
+import spock.lang.Specification
+
+class MergeStatementsSpec extends Specification {
+
+    private static final Schema SCHEMA = Schema.of(
+        Field.newBuilder('id', LegacySQLTypeName.INTEGER).setMode(Field.Mode.REQUIRED).build(),
+        Field.of('first_name', LegacySQLTypeName.STRING),
+        Field.newBuilder('tags', LegacySQLTypeName.STRING).setMode(Field.Mode.REPEATED).build(),
+        Field.of('address', LegacySQLTypeName.RECORD, Field.of('city', LegacySQLTypeName.STRING)),
+    )
+
+    void 'staging schema contains only the staged nullable columns'() {
+        when:
+            Schema staging = MergeStatements.stagingSchema(SCHEMA, ['id', 'tags'])
+        then:
+            staging.fields*.name == ['id', 'tags']
+            staging.fields*.mode == [Field.Mode.NULLABLE, Field.Mode.REPEATED]
+
+        when:
+            MergeStatements.stagingSchema(SCHEMA, ['id', 'unknown'])
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    void 'rows are staged in chunks with missing values as nulls'() {
+        given:
+            List<String> columns = ['id', 'first_name']
+            List<Map<String, Object>> rows = (1..InsertPlan.MAX_PARAMETERS).collect {
+                it == 1 ? [id: 1L] as Map<String, Object> : [id: (long) it, first_name: 'Name'] as Map<String, Object>
+            }
+        when:
+            List<ParameterizedSql> inserts = MergeStatements.stage('persons.staging', columns, rows)
+        then:
+            inserts.size() == 2
+            inserts[0].sql.startsWith('INSERT INTO persons.staging (id, first_name) VALUES (@r0__id, NULL), (@r1__id, @r1__first_name)')
+            inserts[0].namedParameters.size() == InsertPlan.MAX_PARAMETERS - 1
+            inserts[1].namedParameters.size() == InsertPlan.MAX_PARAMETERS
+    }
+
+    void 'merge updates only changed columns'() {
+        expect:
+            MergeStatements.merge(SCHEMA, 'persons.persons', 'persons.staging', ['id', 'first_name', 'tags', 'address'], ['id'], false) == '''MERGE persons.persons T
+USING persons.staging S
+ON T.id = S.id
+WHEN MATCHED AND ((S.first_name IS NOT NULL AND T.first_name IS DISTINCT FROM S.first_name) OR (ARRAY_LENGTH(S.tags) > 0 AND TO_JSON_STRING(T.tags) != TO_JSON_STRING(S.tags)) OR (S.address IS NOT NULL AND TO_JSON_STRING(T.address) != TO_JSON_STRING(S.address))) THEN
+  UPDATE SET first_name = COALESCE(S.first_name, T.first_name), tags = IF(ARRAY_LENGTH(S.tags) > 0, S.tags, T.tags), address = COALESCE(S.address, T.address)
+WHEN NOT MATCHED THEN
+  INSERT (id, first_name, tags, address)
+  VALUES (S.id, S.first_name, S.tags, S.address)'''
+    }
+
+    void 'merge can overwrite columns with nulls'() {
+        expect:
+            MergeStatements.merge(SCHEMA, 'persons.persons', 'persons.staging', ['id', 'first_name', 'tags', 'address'], ['id'], true) == '''MERGE persons.persons T
+USING persons.staging S
+ON T.id = S.id
+WHEN MATCHED AND (T.first_name IS DISTINCT FROM S.first_name OR TO_JSON_STRING(T.tags) != TO_JSON_STRING(IFNULL(S.tags, [])) OR TO_JSON_STRING(T.address) != TO_JSON_STRING(S.address)) THEN
+  UPDATE SET first_name = S.first_name, tags = IFNULL(S.tags, []), address = S.address
+WHEN NOT MATCHED THEN
+  INSERT (id, first_name, tags, address)
+  VALUES (S.id, S.first_name, S.tags, S.address)'''
+    }
+
+    void 'merge of key columns only inserts missing rows'() {
+        expect:
+            MergeStatements.merge(SCHEMA, 'persons.persons', 'persons.staging', ['id'], ['id'], false) == '''MERGE persons.persons T
+USING persons.staging S
+ON T.id = S.id
+WHEN NOT MATCHED THEN
+  INSERT (id)
+  VALUES (S.id)'''
+    }
+
+    void 'last row with the same key wins'() {
+        when:
+            List<Map<String, Object>> rows = MergeStatements.deduplicate([
+                [id: 1L, first_name: 'Vladimir'],
+                [id: 2L, first_name: 'Ann'],
+                [id: 1L, first_name: 'Vlad'],
+            ] as List<Map<String, Object>>, ['id'])
+        then:
+            rows == [[id: 1L, first_name: 'Vlad'], [id: 2L, first_name: 'Ann']]
+
+        when:
+            MergeStatements.deduplicate([[first_name: 'Nobody']] as List<Map<String, Object>>, ['id'])
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+}
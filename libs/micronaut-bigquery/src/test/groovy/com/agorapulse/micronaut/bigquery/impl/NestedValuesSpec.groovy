@@ -0,0 +1,80 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.agorapulse.micronaut.bigquery.ParameterizedSql
+import com.agorapulse.micronaut.bigquery.RowResult
+import com.google.cloud.bigquery.Field
+import com.google.cloud.bigquery.FieldList
+import com.google.cloud.bigquery.FieldValue
+import com.google.cloud.bigquery.FieldValueList
+import com.google.cloud.bigquery.LegacySQLTypeName
+import com.google.cloud.bigquery.QueryParameterValue
+import com.google.cloud.bigquery.StandardSQLTypeName
+import spock.lang.Specification
+
+class NestedValuesSpec extends Specification {
+
+    void 'map parameters are expanded into structs'() {
+        when:
+            ParameterizedSql expanded = StructParameters.expand(
+                'select @author.name, @authors, @id',
+                [author: [name: 'Vlad', age: 40], authors: [[name: 'Ann']], id: 1L]
+            )
+        then:
+            expanded.sql == 'select STRUCT(@author__name AS name, @author__age AS age).name, [STRUCT(@authors__0__name AS name)], @id'
+            expanded.namedParameters == [author__name: 'Vlad', author__age: 40, authors__0__name: 'Ann', id: 1L]
+    }
+
+    void 'parameters without maps are kept'() {
+        given:
+            Map<String, Object> parameters = [ids: [1L, 2L]]
+        expect:
+            StructParameters.expand('select @ids', parameters).namedParameters.is(parameters)
+    }
+
+    void 'collections are converted into arrays'() {
+        when:
+            QueryParameterValue value = QueryParameterConverters.toParameter([1L, 2L])
+        then:
+            value.type == StandardSQLTypeName.ARRAY
+            value.arrayType == StandardSQLTypeName.INT64
+            value.arrayValues*.value == ['1', '2']
+    }
+
+    void 'nested records and arrays are read'() {
+        given:
+            FieldList nameSchema = FieldList.of(Field.of('name', LegacySQLTypeName.STRING))
+            Field author = Field.of('author', LegacySQLTypeName.RECORD, nameSchema)
+            Field tags = Field.newBuilder('tags', LegacySQLTypeName.STRING).setMode(Field.Mode.REPEATED).build()
+            FieldValue name = FieldValue.of(FieldValue.Attribute.PRIMITIVE, 'Vlad')
+            FieldValueList row = FieldValueList.of([
+                FieldValue.of(FieldValue.Attribute.RECORD, FieldValueList.of([name], nameSchema)),
+                FieldValue.of(FieldValue.Attribute.REPEATED, [
+                    FieldValue.of(FieldValue.Attribute.PRIMITIVE, 'groovy'),
+                    FieldValue.of(FieldValue.Attribute.PRIMITIVE, 'java'),
+                ]),
+            ], FieldList.of(author, tags))
+        when:
+            RowResult result = new FieldValueListRowResult(row)
+        then:
+            result.getRecord('author').getStringValue('name') == 'Vlad'
+            result.getArray('tags') { it.getStringValue('tags') } == ['groovy', 'java']
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.google.cloud.bigquery.BigQuery
+import com.google.cloud.bigquery.Clustering
+import com.google.cloud.bigquery.Field
+import com.google.cloud.bigquery.LegacySQLTypeName
+import com.google.cloud.bigquery.QueryParameterValue
+import com.google.cloud.bigquery.Schema
+import com.google.cloud.bigquery.StandardTableDefinition
+import com.google.cloud.bigquery.Table
+import com.google.cloud.bigquery.TableId
+import com.google.cloud.bigquery.TimePartitioning
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.Duration
+import java.time.Instant
+
+class PartitionGuardSpec extends Specification {
+
+    private static final TableId INGESTION = TableId.of('events', 'ingested')
+    private static final TableId COLUMN = TableId.of('events', 'created')
+    private static final TableId PLAIN = TableId.of('events', 'plain')
+    private static final TableId CLUSTERED = TableId.of('events', 'clustered')
+
+    BigQuery bigquery = Mock {
+        getTable(INGESTION) >> table(TimePartitioning.of(TimePartitioning.Type.DAY))
+        getTable(COLUMN) >> table(TimePartitioning.newBuilder(TimePartitioning.Type.DAY).setField('created').build())
+        getTable(PLAIN) >> table(null)
+        getTable(CLUSTERED) >> table(null, null, Clustering.newBuilder().setFields(['account', 'id']).build())
+    }
+
+    TableMetadataCache cache = new TableMetadataCache(bigquery, Duration.ofMinutes(1))
+
+    void 'table references are extracted'() {
+        expect:
+            TableReferences.find('''
+                select * from events.ingested i
+                join `my-project.events.created` c on c.id = i.id
+                where i.id in (select id from recent)
+            ''') == [INGESTION, TableId.of('my-project', 'events', 'created')]
+    }
+
+    @Unroll
+    void 'query #sql is #description'() {
+        given:
+            PartitionGuard guard = new PartitionGuard(cache, PartitionGuard.Mode.REJECT)
+        when:
+            guard.check(sql)
+        then:
+            noExceptionThrown()
+        where:
+            description            | sql
+            'ingestion filtered'   | 'select * from events.ingested where _PARTITIONTIME > @since'
+            'date filtered'        | 'select * from events.ingested where _PARTITIONDATE = current_date()'
+            'column filtered'      | 'select * from events.created where created > @since'
+            'not partitioned'      | 'select * from events.plain'
+    }
+
+    @Unroll
+    void 'query #sql is rejected'() {
+        given:
+            PartitionGuard guard = new PartitionGuard(cache, PartitionGuard.Mode.REJECT)
+        when:
+            guard.check(sql)
+        then:
+            thrown(IllegalArgumentException)
+        where:
+            sql << [
+                'select * from events.ingested',
+                'select * from events.created where id = @id',
+                'select created from events.created',
+            ]
+    }
+
+    void 'clustered tables are only warned about'() {
+        given:
+            PartitionGuard guard = new PartitionGuard(cache, PartitionGuard.Mode.REJECT)
+        when:
+            guard.check('select * from events.clustered where id = @id')
+        then:
+            noExceptionThrown()
+            cache.getClusteringFields(CLUSTERED) == ['account', 'id']
+            cache.getClusteringFields(PLAIN) == []
+    }
+
+    void 'metadata are cached'() {
+        when:
+            new PartitionGuard(cache, PartitionGuard.Mode.WARN).check('select * from events.plain')
+            new PartitionGuard(cache, PartitionGuard.Mode.WARN).check('select * from events.plain')
+        then:
+            1 * bigquery.getTable(PLAIN) >> table(null)
+    }
+
+    void 'inserts are routed to the partition'() {
+        given:
+            PartitionGuard guard = new PartitionGuard(cache, PartitionGuard.Mode.NONE)
+            Instant time = Instant.parse('2020-05-04T12:34:56Z')
+            Map<String, Object> ingested = [id: 1L]
+            Map<String, Object> created = [id: 1L]
+        when:
+            guard.route(ingested, INGESTION, time)
+            guard.route(created, COLUMN, time)
+        then:
+            ingested == [id: 1L, _PARTITIONTIME: Instant.parse('2020-05-04T00:00:00Z')]
+            created == [id: 1L, created: time]
+    }
+
+    @Unroll
+    void 'partition time is converted to #type partitioning column'() {
+        given:
+            TableId tableId = TableId.of('events', "by_${type.name().toLowerCase()}")
+            Schema schema = Schema.of(Field.of('id', LegacySQLTypeName.INTEGER), Field.of('created', type))
+            bigquery.getTable(tableId) >> table(TimePartitioning.newBuilder(TimePartitioning.Type.DAY).setField('created').build(), schema)
+            PartitionGuard guard = new PartitionGuard(cache, PartitionGuard.Mode.NONE)
+            Map<String, Object> values = [id: 1L]
+        when:
+            guard.route(values, tableId, Instant.parse('2020-05-04T12:34:56Z'))
+        then:
+            values.created == expected
+        where:
+            type                        | expected
+            LegacySQLTypeName.DATE      | QueryParameterValue.date('2020-05-04')
+            LegacySQLTypeName.DATETIME  | QueryParameterValue.dateTime('2020-05-04 12:34:56.000000')
+            LegacySQLTypeName.TIMESTAMP | QueryParameterValue.timestamp(Instant.parse('2020-05-04T12:34:56Z').epochSecond * 1_000_000)
+    }
+
+    void 'partition time cannot be routed to the column of other types'() {
+        given:
+            TableId tableId = TableId.of('events', 'by_string')
+            Schema schema = Schema.of(Field.of('created', LegacySQLTypeName.STRING))
+            bigquery.getTable(tableId) >> table(TimePartitioning.newBuilder(TimePartitioning.Type.DAY).setField('created').build(), schema)
+        when:
+            new PartitionGuard(cache, PartitionGuard.Mode.NONE).route([:], tableId, Instant.now())
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    void 'missing tables are cached only for a short time'() {
+        given:
+            TableId missing = TableId.of('events', 'missing')
+            TableMetadataCache shortLived = new TableMetadataCache(bigquery, Duration.ofMinutes(10), Duration.ofMinutes(5), Duration.ofMillis(50))
+        when:
+            shortLived.get(missing)
+            shortLived.get(missing)
+        then:
+            1 * bigquery.getTable(missing) >> null
+
+        when:
+            Thread.sleep(100)
+            Optional<Table> created = shortLived.get(missing)
+        then:
+            1 * bigquery.getTable(missing) >> table(null)
+            created.present
+    }
+
+    private Table table(TimePartitioning partitioning, Schema schema = null, Clustering clustering = null) {
+        StandardTableDefinition definition = StandardTableDefinition.newBuilder()
+            .setTimePartitioning(partitioning)
+            .setSchema(schema)
+            .setClustering(clustering)
+            .build()
+        return Mock(Table) {
+            getDefinition() >> definition
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.agorapulse.micronaut.bigquery.QueryOptions
+import com.agorapulse.micronaut.bigquery.metrics.BigQueryMetrics
+import io.reactivex.Flowable
+import io.reactivex.processors.PublishProcessor
+import io.reactivex.subscribers.TestSubscriber
+import spock.lang.Specification
+
+import java.time.Instant
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class QueryCoalescerSpec extends Specification {
+
+    BigQueryMetrics metrics = Mock()
+    QueryCoalescer coalescer = new QueryCoalescer(true, metrics)
+
+    void 'concurrent identical queries share the job'() {
+        given:
+            AtomicInteger jobs = new AtomicInteger()
+            CountDownLatch running = new CountDownLatch(1)
+            CountDownLatch release = new CountDownLatch(1)
+            ExecutorService executor = Executors.newFixedThreadPool(2)
+        when:
+            Future<List<Integer>> first = executor.submit({
+                coalescer.coalesce('key') {
+                    jobs.incrementAndGet()
+                    running.countDown()
+                    release.await(5, TimeUnit.SECONDS)
+                    return Flowable.range(1, 3)
+                }.toList().blockingGet()
+            } as Callable<List<Integer>>)
+            running.await(5, TimeUnit.SECONDS)
+            Future<List<Integer>> second = executor.submit({
+                coalescer.coalesce('key') {
+                    jobs.incrementAndGet()
+                    return Flowable.range(1, 3)
+                }.toList().blockingGet()
+            } as Callable<List<Integer>>)
+            Thread.sleep(100)
+            release.countDown()
+        then:
+            first.get(5, TimeUnit.SECONDS) == [1, 2, 3]
+            second.get(5, TimeUnit.SECONDS) == [1, 2, 3]
+            jobs.get() == 1
+            1 * metrics.increment('bigquery.query.coalesced')
+            coalescer.inFlight == 0
+        cleanup:
+            executor.shutdownNow()
+    }
+
+    void 'subscribers arriving after the first row run their own query'() {
+        given:
+            AtomicInteger jobs = new AtomicInteger()
+            Flowable<Integer> shared = coalescer.coalesce('key') {
+                jobs.incrementAndGet()
+                Flowable.range(1, 5)
+            }
+            TestSubscriber<Integer> slow = new TestSubscriber<>(2)
+            TestSubscriber<Integer> late = new TestSubscriber<>()
+        when:
+            shared.subscribe(slow)
+            shared.subscribe(late)
+        then:
+            slow.assertValues(1, 2)
+            late.assertValues(1, 2, 3, 4, 5)
+            jobs.get() == 2
+        when:
+            slow.request(3)
+        then:
+            slow.assertValues(1, 2, 3, 4, 5)
+    }
+
+    void 'rows are streamed at the pace of the slowest subscriber'() {
+        given:
+            AtomicInteger emitted = new AtomicInteger()
+            PublishProcessor<Integer> rows = PublishProcessor.create()
+            Flowable<Integer> shared = coalescer.coalesce('key') {
+                rows.onBackpressureBuffer().doOnNext { emitted.incrementAndGet() }
+            }
+            TestSubscriber<Integer> slow = new TestSubscriber<>(1)
+            TestSubscriber<Integer> fast = new TestSubscriber<>()
+        when:
+            shared.subscribe(slow)
+            shared.subscribe(fast)
+            (1..1000).each { rows.onNext(it) }
+        then:
+            slow.assertValues(1)
+            fast.values().size() == 1
+            emitted.get() < 1000
+        when:
+            slow.request(Long.MAX_VALUE)
+            rows.onComplete()
+        then:
+            slow.values().size() == 1000
+            fast.values().size() == 1000
+    }
+
+    void 'flowables which are never subscribed do not join the query'() {
+        given:
+            AtomicInteger jobs = new AtomicInteger()
+            AtomicInteger cancelled = new AtomicInteger()
+            Flowable<Long> query = Flowable.<Long>never().doOnCancel { cancelled.incrementAndGet() }
+        when:
+            TestSubscriber<Long> first = coalescer.coalesce('key') { jobs.incrementAndGet(); query }.test()
+            coalescer.coalesce('key') { jobs.incrementAndGet(); query }
+            first.cancel()
+        then:
+            jobs.get() == 1
+            cancelled.get() == 1
+            coalescer.inFlight == 0
+    }
+
+    void 'finished queries are not shared'() {
+        given:
+            AtomicInteger jobs = new AtomicInteger()
+        when:
+            2.times {
+                coalescer.coalesce('key') {
+                    jobs.incrementAndGet()
+                    Flowable.just(1)
+                }.blockingSubscribe()
+            }
+        then:
+            jobs.get() == 2
+    }
+
+    void 'shared query is cancelled only when all the callers dispose their subscriptions'() {
+        given:
+            AtomicInteger cancelled = new AtomicInteger()
+            Flowable<Long> query = Flowable.<Long>never().doOnCancel { cancelled.incrementAndGet() }
+            TestSubscriber<Long> first = coalescer.coalesce('key') { query }.test()
+            TestSubscriber<Long> second = coalescer.coalesce('key') { query }.test()
+        when:
+            first.cancel()
+        then:
+            cancelled.get() == 0
+            coalescer.inFlight == 1
+        when:
+            second.cancel()
+        then:
+            cancelled.get() == 1
+            coalescer.inFlight == 0
+    }
+
+    void 'deadlines are applied to each subscriber separately'() {
+        given:
+            AtomicInteger cancelled = new AtomicInteger()
+            PublishProcessor<Integer> rows = PublishProcessor.create()
+            Flowable<Integer> query = rows.doOnCancel { cancelled.incrementAndGet() }
+            QueryOptions shortDeadline = QueryOptions.builder().deadline(Instant.now().plusMillis(100)).build()
+            QueryOptions longDeadline = QueryOptions.builder().deadline(Instant.now().plusSeconds(60)).build()
+        when:
+            TestSubscriber<Integer> first = coalescer.coalesce('key', shortDeadline) { query }.test()
+            TestSubscriber<Integer> second = coalescer.coalesce('key', longDeadline) { query }.test()
+            first.awaitDone(5, TimeUnit.SECONDS)
+        then:
+            first.assertError(IllegalStateException)
+            cancelled.get() == 0
+            second.assertNotTerminated()
+        when:
+            rows.onNext(1)
+            rows.onComplete()
+        then:
+            second.assertResult(1)
+    }
+
+    void 'expired deadline does not affect the shared query'() {
+        given:
+            AtomicInteger jobs = new AtomicInteger()
+            QueryOptions expired = QueryOptions.builder().deadline(Instant.now().minusSeconds(1)).build()
+        when:
+            TestSubscriber<Integer> first = coalescer.coalesce('key', expired) { jobs.incrementAndGet(); Flowable.just(1) }.test()
+        then:
+            first.assertError(IllegalStateException)
+            jobs.get() == 0
+    }
+
+    void 'coalescing can be configured per query'() {
+        expect:
+            coalescer.isEnabled(QueryOptions.DEFAULT)
+            !coalescer.isEnabled(QueryOptions.builder().coalesce(false).build())
+            new QueryCoalescer(false, metrics).isEnabled(QueryOptions.builder().coalesce(true).build())
+            !new QueryCoalescer(false, metrics).isEnabled(QueryOptions.DEFAULT)
+    }
+
+}
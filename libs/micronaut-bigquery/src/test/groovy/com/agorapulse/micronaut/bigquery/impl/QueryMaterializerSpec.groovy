@@ -0,0 +1,118 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.google.cloud.bigquery.BigQuery
+import com.google.cloud.bigquery.Field
+import com.google.cloud.bigquery.LegacySQLTypeName
+import com.google.cloud.bigquery.QueryParameterValue
+import com.google.cloud.bigquery.Schema
+import com.google.cloud.bigquery.StandardSQLTypeName
+import com.google.cloud.bigquery.StandardTableDefinition
+import com.google.cloud.bigquery.Table
+import com.google.cloud.bigquery.TableId
+import com.google.cloud.bigquery.TableResult
+import spock.lang.Specification
+
+import java.time.Duration
+
+class QueryMaterializerSpec extends Specification {
+
+    private static final String SQL = 'select * from persons.persons where id = @id'
+    private static final TableId TABLE = TableId.of('scratch', 'materialized_persons')
+
+    BigQuery bigquery = Mock()
+    QueryMaterializer materializer = new QueryMaterializer('scratch', Duration.ofDays(1))
+
+    void 'tables are named by the query and the types and values of the parameters'() {
+        when:
+            TableId tableId = materializer.getTableId(SQL, [id: QueryParameterValue.int64(1L), name: QueryParameterValue.string('Jane')])
+        then:
+            tableId.dataset == 'scratch'
+            tableId.table ==~ /materialized_[0-9a-f]{64}/
+            tableId == materializer.getTableId(SQL, [name: QueryParameterValue.string('Jane'), id: QueryParameterValue.int64(1L)])
+            tableId != materializer.getTableId(SQL, [id: QueryParameterValue.string('1'), name: QueryParameterValue.string('Jane')])
+            tableId != materializer.getTableId(SQL, [id: QueryParameterValue.int64(2L), name: QueryParameterValue.string('Jane')])
+            tableId != materializer.getTableId(SQL, [id: QueryParameterValue.int64(1L), name: QueryParameterValue.string(null)])
+            tableId != materializer.getTableId(SQL + ' ', [id: QueryParameterValue.int64(1L), name: QueryParameterValue.string('Jane')])
+    }
+
+    void 'array parameters are named by the types and values of their elements'() {
+        when:
+            TableId numbers = materializer.getTableId(SQL, [id: QueryParameterValue.array([1L, 2L] as Long[], StandardSQLTypeName.INT64)])
+        then:
+            numbers == materializer.getTableId(SQL, [id: QueryParameterValue.array([1L, 2L] as Long[], StandardSQLTypeName.INT64)])
+            numbers != materializer.getTableId(SQL, [id: QueryParameterValue.array(['1', '2'] as String[], StandardSQLTypeName.STRING)])
+            numbers != materializer.getTableId(SQL, [id: QueryParameterValue.array([12L] as Long[], StandardSQLTypeName.INT64)])
+    }
+
+    void 'materialization requires the dataset'() {
+        when:
+            new QueryMaterializer('', Duration.ofDays(1)).getTableId(SQL, [:])
+        then:
+            thrown(IllegalStateException)
+    }
+
+    void 'materialized results are read only if they are fresh enough'() {
+        given:
+            Schema schema = Schema.of(Field.of('id', LegacySQLTypeName.INTEGER))
+            TableResult result = Mock()
+            bigquery.getTable(TABLE) >> Mock(Table) {
+                getLastModifiedTime() >> System.currentTimeMillis() - Duration.ofHours(1).toMillis()
+                getDefinition() >> StandardTableDefinition.of(schema)
+            }
+            bigquery.listTableData(*_) >> result
+        expect:
+            materializer.read(bigquery, TABLE, Duration.ofHours(2)).get() == result
+            !materializer.read(bigquery, TABLE, Duration.ofMinutes(30)).present
+    }
+
+    void 'missing materialized results are not read'() {
+        when:
+            Optional<TableResult> result = materializer.read(bigquery, TABLE, Duration.ofHours(1))
+        then:
+            1 * bigquery.getTable(TABLE) >> null
+            0 * bigquery.listTableData(*_)
+            !result.present
+    }
+
+    void 'materialized tables expire after the configured expiration'() {
+        given:
+            long started = System.currentTimeMillis()
+            Table updated = Mock()
+            Table.Builder builder = Mock()
+            bigquery.getTable(TABLE) >> Mock(Table) {
+                toBuilder() >> builder
+            }
+        when:
+            materializer.expire(bigquery, TABLE)
+        then:
+            1 * builder.setExpirationTime({ Long expiration -> expiration >= started + Duration.ofDays(1).toMillis() }) >> builder
+            1 * builder.build() >> updated
+            1 * updated.update(*_)
+    }
+
+    void 'missing materialized tables are not expired'() {
+        when:
+            materializer.expire(bigquery, TABLE)
+        then:
+            1 * bigquery.getTable(TABLE) >> null
+            noExceptionThrown()
+    }
+
+}
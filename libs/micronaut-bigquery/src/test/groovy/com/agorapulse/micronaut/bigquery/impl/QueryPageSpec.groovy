@@ -0,0 +1,72 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.agorapulse.micronaut.bigquery.QueryPage
+import com.google.cloud.bigquery.BigQuery
+import com.google.cloud.bigquery.Job
+import com.google.cloud.bigquery.JobId
+import com.google.cloud.bigquery.JobStatistics
+import com.google.cloud.bigquery.TableResult
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class QueryPageSpec extends Specification {
+
+    BigQuery bigquery = Mock()
+    DefaultBigQueryService service = new DefaultBigQueryService(BigQueryServiceCollaborators.builder(bigquery).build())
+
+    void 'page token resumes the job in its project'() {
+        given:
+            Job job = Mock {
+                getJobId() >> JobId.newBuilder().setProject('main').setLocation('EU').setJob('job-1').build()
+                getStatistics() >> Mock(JobStatistics.QueryStatistics) {
+                    getTotalPartitionsProcessed() >> 3L
+                }
+            }
+        when:
+            QueryPage<Long> page = service.queryPage('select id from persons.persons', 10, token("job-1\nEU\nmain\nnext")) {
+                it.getLongValue('id')
+            }
+        then:
+            1 * bigquery.getJob(JobId.newBuilder().setProject('main').setLocation('EU').setJob('job-1').build()) >> job
+            1 * job.getQueryResults(BigQuery.QueryResultsOption.pageSize(10), BigQuery.QueryResultsOption.pageToken('next')) >> Mock(TableResult) {
+                getValues() >> []
+                hasNextPage() >> false
+            }
+            page.rows.empty
+            page.jobId == 'job-1'
+            page.nextPageToken == null
+            page.partitionsScanned == 3
+    }
+
+    void 'page tokens without the project are rejected'() {
+        when:
+            service.queryPage('select id from persons.persons', 10, token("job-1\nEU\nnext")) { it.getLongValue('id') }
+        then:
+            IllegalArgumentException e = thrown()
+            e.message.startsWith('Invalid page token')
+            0 * bigquery.getJob(_)
+    }
+
+    private static String token(String decoded) {
+        return Base64.urlEncoder.withoutPadding().encodeToString(decoded.getBytes(StandardCharsets.UTF_8))
+    }
+
+}
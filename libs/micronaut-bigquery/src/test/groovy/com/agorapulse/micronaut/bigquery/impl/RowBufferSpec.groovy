@@ -0,0 +1,112 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.agorapulse.micronaut.bigquery.RowResult
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Instant
+
+class RowBufferSpec extends Specification {
+
+    @TempDir Path directory
+
+    void 'rows are kept on heap below the threshold'() {
+        given:
+            RowBuffer buffer = new RowBuffer(['id', 'name'], configuration(1024))
+        when:
+            buffer.append([1L, 'one'] as Object[]).append([2L, null] as Object[]).complete()
+        then:
+            buffer.size() == 2
+            buffer.spilledSegments == 0
+            buffer.rows().map { RowResult r -> r.isNull('NAME') ? r.getLongValue('id') : r.getStringValue('name') }.toList().blockingGet() == [
+                'one', 2L
+            ]
+        cleanup:
+            buffer.dispose()
+    }
+
+    void 'rows are spilled to disk above the threshold'() {
+        given:
+            Instant now = Instant.parse('2022-02-22T10:20:30.123456Z')
+            RowBuffer buffer = new RowBuffer(['id', 'score', 'enabled', 'created', 'amount', 'name'], configuration(64))
+        when:
+            100.times {
+                buffer.append([it, it / 2d, it % 2 == 0, now.plusSeconds(it), new BigDecimal("${it}.5"), "name-$it".toString()] as Object[])
+            }
+            buffer.complete()
+        then:
+            buffer.size() == 100
+            buffer.spilledSegments > 1
+            Files.list(directory).count() == buffer.spilledSegments
+
+        when:
+            List<RowResult> rows = buffer.rows().toList().blockingGet()
+        then:
+            rows.size() == 100
+            rows[99].getLongValue('id') == 99
+            rows[99].getDoubleValue('score') == 49.5d
+            !rows[99].getBooleanValue('enabled')
+            rows[99].getTimestampValue('created') == now.plusSeconds(99)
+            rows[99].getStringValue('amount') == '99.5'
+            rows[99].getStringValue('name') == 'name-99'
+
+        and: 'the result can be replayed'
+            buffer.rows().count().blockingGet() == 100
+
+        when:
+            buffer.dispose()
+        then:
+            Files.list(directory).count() == 0
+            buffer.disposed
+    }
+
+    void 'unknown column is rejected'() {
+        given:
+            RowBuffer buffer = new RowBuffer(['id'], configuration(1024)).append([1L] as Object[]).complete()
+        when:
+            buffer.rows().blockingFirst().getStringValue('name')
+        then:
+            thrown(IllegalArgumentException)
+        cleanup:
+            buffer.dispose()
+    }
+
+    void 'buffered scalar values are neither records nor arrays'() {
+        given:
+            RowBuffer buffer = new RowBuffer(['id', 'name'], configuration(1024)).append([1L, null] as Object[]).complete()
+            RowResult row = buffer.rows().blockingFirst()
+        expect:
+            row.getRecord('name') == null
+            row.getRepeated('name') == []
+        when:
+            row.getRepeated('id')
+        then:
+            thrown(IllegalArgumentException)
+        cleanup:
+            buffer.dispose()
+    }
+
+    private RowBufferConfiguration configuration(long heapThreshold) {
+        return new RowBufferConfiguration(heapThreshold: heapThreshold, segmentSize: 256, directory: directory.toString())
+    }
+
+}
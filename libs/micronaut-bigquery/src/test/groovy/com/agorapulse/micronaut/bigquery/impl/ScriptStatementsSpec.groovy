@@ -0,0 +1,55 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.agorapulse.micronaut.bigquery.ParameterizedSql
+import spock.lang.Specification
+
+class ScriptStatementsSpec extends Specification {
+
+    void 'parameters are namespaced per statement'() {
+        when:
+            ParameterizedSql script = ScriptStatements.combine([
+                ParameterizedSql.from([id: 1L], 'delete from persons.persons where id = @id;'),
+                ParameterizedSql.from([id: 2L, id_prefix: 'x'], 'insert into persons.persons (id, email) values (@id, @id_prefix)'),
+            ], false)
+        then:
+            script.sql == '''delete from persons.persons where id = @s0__id;
+insert into persons.persons (id, email) values (@s1__id, @s1__id_prefix);
+'''
+            script.namedParameters == [s0__id: 1L, s1__id: 2L, s1__id_prefix: 'x']
+    }
+
+    void 'transactional script is rolled back on error'() {
+        when:
+            ParameterizedSql script = ScriptStatements.combine([
+                ParameterizedSql.from([:], 'delete from persons.persons where true'),
+            ], true)
+        then:
+            script.sql == '''BEGIN
+BEGIN TRANSACTION;
+delete from persons.persons where true;
+COMMIT TRANSACTION;
+EXCEPTION WHEN ERROR THEN
+ROLLBACK TRANSACTION;
+RAISE USING MESSAGE = @@error.message;
+END;
+'''
+    }
+
+}
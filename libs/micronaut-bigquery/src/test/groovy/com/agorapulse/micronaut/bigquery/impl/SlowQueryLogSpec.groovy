@@ -0,0 +1,90 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.impl
+
+import com.agorapulse.micronaut.bigquery.management.BigQueryEndpoint
+import com.google.cloud.bigquery.Job
+import com.google.cloud.bigquery.JobId
+import com.google.cloud.bigquery.JobStatistics
+import spock.lang.Specification
+
+import java.time.Duration
+
+class SlowQueryLogSpec extends Specification {
+
+    SlowQueryLog log = new SlowQueryLog(Duration.ofSeconds(1), 2, 10)
+
+    void 'literals are removed from the fingerprint'() {
+        expect:
+            SqlFingerprint.normalize('''
+                SELECT * FROM persons.persons -- the persons
+                WHERE id IN (1, 2, 3) AND name = 'Vlad' AND score > 1.5
+            ''') == 'select * from persons.persons where id in (?) and name = ? and score > ?'
+            SqlFingerprint.fingerprint("select * from persons where id = 1") == SqlFingerprint.fingerprint('SELECT *  FROM persons WHERE id = 42')
+            SqlFingerprint.fingerprint('select * from persons') != SqlFingerprint.fingerprint('select * from events')
+    }
+
+    void 'only slow queries are recorded'() {
+        when:
+            log.onJobCompleted('select * from persons where id = 1', job('fast', 999))
+            log.onJobCompleted('select * from persons where id = 2', job('slow-1', 1500))
+            log.onJobCompleted('select * from persons where id = 3', job('slow-2', 2500))
+            log.onJobCompleted('select count(*) from persons', job('slow-3', 3000))
+        then:
+            log.recent*.jobId == ['slow-3', 'slow-2']
+            log.recent[0].totalBytesProcessed == 1024L
+            log.recent[0].totalSlotMs == 2000L
+
+        and:
+            log.summaries.size() == 2
+            log.summaries[0].sql == 'select * from persons where id = ?'
+            log.summaries[0].count == 2
+            log.summaries[0].totalDurationMs == 4000
+            log.summaries[0].maxDurationMs == 2500
+            log.summaries[0].averageDurationMs == 2000
+            log.summaries[1].sql == 'select count(*) from persons'
+
+        when:
+            Map<String, Object> report = new BigQueryEndpoint(log).read()
+        then:
+            report.threshold == 'PT1S'
+            report.slowQueries.size() == 2
+            report.fingerprints.size() == 2
+
+        when:
+            log.clear()
+        then:
+            log.recent.empty
+            log.summaries.empty
+    }
+
+    private Job job(String id, long durationMs) {
+        JobStatistics.QueryStatistics statistics = Mock {
+            getStartTime() >> 1_000_000L
+            getEndTime() >> 1_000_000L + durationMs
+            getTotalBytesProcessed() >> 1024L
+            getTotalSlotMs() >> 2000L
+            getQueryPlan() >> []
+        }
+        return Mock(Job) {
+            getJobId() >> JobId.of(id)
+            getStatistics() >> statistics
+        }
+    }
+
+}
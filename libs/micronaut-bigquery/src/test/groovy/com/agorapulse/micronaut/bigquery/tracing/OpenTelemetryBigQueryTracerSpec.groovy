@@ -0,0 +1,118 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.tracing
+
+import com.agorapulse.micronaut.bigquery.impl.BigQueryServiceCollaborators
+import com.agorapulse.micronaut.bigquery.impl.DefaultBigQueryService
+import com.agorapulse.micronaut.bigquery.impl.QueryCoalescer
+import com.agorapulse.micronaut.bigquery.metrics.NoopBigQueryMetrics
+import com.google.cloud.bigquery.BigQuery
+import com.google.cloud.bigquery.Job
+import com.google.cloud.bigquery.JobId
+import com.google.cloud.bigquery.JobInfo
+import com.google.cloud.bigquery.JobStatistics
+import com.google.cloud.bigquery.JobStatus
+import com.google.cloud.bigquery.QueryJobConfiguration
+import io.opentelemetry.api.common.AttributeKey
+import io.opentelemetry.sdk.OpenTelemetrySdk
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter
+import io.opentelemetry.sdk.trace.SdkTracerProvider
+import io.opentelemetry.sdk.trace.data.SpanData
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor
+import io.reactivex.schedulers.Schedulers
+import spock.lang.Specification
+
+import java.util.concurrent.Executor
+
+class OpenTelemetryBigQueryTracerSpec extends Specification {
+
+    InMemorySpanExporter exporter = InMemorySpanExporter.create()
+
+    BigQueryTracer tracer = new OpenTelemetryBigQueryTracer(OpenTelemetrySdk.builder()
+        .setTracerProvider(SdkTracerProvider.builder().addSpanProcessor(SimpleSpanProcessor.create(exporter)).build())
+        .build()
+    )
+
+    void 'child spans share the trace'() {
+        when:
+            BigQuerySpan span = tracer.startSpan('bigquery.query').setAttribute('db.statement', 'select 1')
+            span.startChild('bigquery.page').setAttribute('bigquery.rows', 1L).end()
+            span.end()
+        then:
+            exporter.finishedSpanItems.size() == 2
+
+        when:
+            SpanData page = exporter.finishedSpanItems.find { it.name == 'bigquery.page' }
+            SpanData query = exporter.finishedSpanItems.find { it.name == 'bigquery.query' }
+        then:
+            page.parentSpanId == query.spanId
+            page.traceId == query.traceId
+            query.attributes.get(AttributeKey.stringKey('db.statement')) == 'select 1'
+            query.attributes.get(AttributeKey.stringKey('db.system')) == 'bigquery'
+            page.attributes.get(AttributeKey.longKey('bigquery.rows')) == 1L
+
+        and:
+            span.jobLabels == [trace_id: query.traceId, span_id: query.spanId]
+    }
+
+    void 'execute is traced and the trace is propagated into the job labels'() {
+        given:
+            JobInfo submitted = null
+            JobStatistics.QueryStatistics statistics = Mock {
+                getStatementType() >> JobStatistics.QueryStatistics.StatementType.DELETE
+                getTotalBytesProcessed() >> 1024L
+                getCacheHit() >> false
+            }
+            Job job = Mock {
+                getJobId() >> JobId.of('job-1')
+                getStatus() >> Mock(JobStatus)
+                getStatistics() >> statistics
+            }
+            job.waitFor() >> job
+            BigQuery bigquery = Mock {
+                create(_ as JobInfo) >> { JobInfo info -> submitted = info; job }
+            }
+            DefaultBigQueryService service = createService(bigquery)
+        when:
+            service.execute('delete from persons.persons where 1 = 1')
+        then:
+            exporter.finishedSpanItems*.name.toSet() == ['bigquery.execute', 'bigquery.job.create', 'bigquery.job.wait'].toSet()
+
+        when:
+            SpanData execute = exporter.finishedSpanItems.find { it.name == 'bigquery.execute' }
+        then:
+            execute.attributes.get(AttributeKey.stringKey('bigquery.statement_type')) == 'DELETE'
+            execute.attributes.get(AttributeKey.longKey('bigquery.bytes_processed')) == 1024L
+            !execute.attributes.get(AttributeKey.booleanKey('bigquery.cache_hit'))
+            exporter.finishedSpanItems.every { it.traceId == execute.traceId }
+
+        and:
+            QueryJobConfiguration configuration = submitted.configuration as QueryJobConfiguration
+            configuration.labels == [trace_id: execute.traceId, span_id: execute.spanId]
+    }
+
+    private DefaultBigQueryService createService(BigQuery bigquery) {
+        return new DefaultBigQueryService(BigQueryServiceCollaborators.builder(bigquery)
+            .executor({ Runnable task -> Schedulers.io().scheduleDirect(task) } as Executor)
+            .tracer(tracer)
+            .coalescer(new QueryCoalescer(true, NoopBigQueryMetrics.INSTANCE))
+            .build()
+        )
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright 2020-2022 Agorapulse.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.agorapulse.micronaut.bigquery.tck
+
+import com.agorapulse.micronaut.bigquery.BigQueryService
+import io.micronaut.context.ApplicationContext
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Measures the throughput and the latency of any {@link BigQueryService} implementation.
+ *
+ * The number of rows and the regression thresholds can be set using the system properties prefixed with
+ * <code>bigquery.tck.performance.</code> or by overriding the getters in the subclass. The defaults are lenient
+ * enough to run against the SQL mock in CI.
+ */
+@SuppressWarnings([
+    'AbstractClassWithoutAbstractMethod',
+    'DuplicateNumberLiteral',
+])
+abstract class BigQueryPerformanceSpec extends Specification {
+
+    private static final String PREFIX = 'bigquery.tck.performance.'
+    private static final String LAST_NAME = 'Performance'
+    private static final AtomicLong IDS = new AtomicLong(System.currentTimeMillis() * 1000)
+
+    @AutoCleanup ApplicationContext context
+
+    BigQueryService bigquery
+    JavaPersonService service
+
+    void setup() {
+        context = buildContext()
+        context.start()
+
+        bigquery = context.getBean(BigQueryService)
+        service = context.getBean(JavaPersonService)
+        service.deleteEverything()
+    }
+
+    void cleanup() {
+        service?.deleteEverything()
+    }
+
+    abstract ApplicationContext buildContext()
+
+    void 'insert throughput'() {
+        when:
+            long elapsed = insert(insertedRows)
+            double rowsPerSecond = perSecond(insertedRows, elapsed)
+            report('insert throughput', rowsPerSecond, 'rows/s')
+        then:
+            rowsPerSecond >= minimalInsertRate
+    }
+
+    void 'single row lookup latency'() {
+        given:
+            List<Long> ids = insertRows(lookups)
+            Collections.shuffle(ids)
+            List<Long> latencies = []
+        when:
+            ids.each { id ->
+                long started = System.nanoTime()
+                assert service.get(id).present
+                latencies << System.nanoTime() - started
+            }
+            latencies.sort()
+            report('lookup latency p50', toMillis(percentile(latencies, 50)), 'ms')
+            report('lookup latency p95', toMillis(percentile(latencies, 95)), 'ms')
+            report('lookup latency p99', toMillis(percentile(latencies, 99)), 'ms')
+        then:
+            toMillis(percentile(latencies, 95)) <= maximalLookupLatency
+    }
+
+    void 'large scan streaming rate'() {
+        given:
+            insertRows(scannedRows)
+        when:
+            long started = System.nanoTime()
+            long count = service.findByLastName(LAST_NAME).count().blockingGet()
+            double rowsPerSecond = perSecond(count, System.nanoTime() - started)
+            report('scan rate', rowsPerSecond, 'rows/s')
+        then:
+            count == scannedRows
+            rowsPerSecond >= minimalScanRate
+    }
+
+    void 'memory per row'() {
+        given:
+            insertRows(scannedRows)
+            long before = usedMemory()
+        when:
+            List<Person> persons = service.findByLastName(LAST_NAME).toList().blockingGet()
+            double bytesPerRow = (usedMemory() - before) / persons.size()
+            report('memory per row', bytesPerRow, 'bytes')
+        then:
+            persons.size() == scannedRows
+            bytesPerRow <= maximalBytesPerRow
+    }
+
+    /**
+     * @return the number of rows inserted when measuring the insert throughput
+     */
+    protected int getInsertedRows() {
+        return Integer.getInteger(PREFIX + 'inserted-rows', 200)
+    }
+
+    /**
+     * @return the number of single row lookups
+     */
+    protected int getLookups() {
+        return Integer.getInteger(PREFIX + 'lookups', 50)
+    }
+
+    /**
+     * @return the number of rows read by the large scan
+     */
+    protected int getScannedRows() {
+        return Integer.getInteger(PREFIX + 'scanned-rows', 1000)
+    }
+
+    /**
+     * @return the minimal accepted insert throughput in rows per second
+     */
+    protected double getMinimalInsertRate() {
+        return Double.valueOf(System.getProperty(PREFIX + 'min-insert-rate', '10'))
+    }
+
+    /**
+     * @return the maximal accepted 95th percentile of the lookup latency in milliseconds
+     */
+    protected double getMaximalLookupLatency() {
+        return Double.valueOf(System.getProperty(PREFIX + 'max-lookup-latency', '1000'))
+    }
+
+    /**
+     * @return the minimal accepted scan rate in rows per second
+     */
+    protected double getMinimalScanRate() {
+        return Double.valueOf(System.getProperty(PREFIX + 'min-scan-rate', '100'))
+    }
+
+    /**
+     * @return the maximal accepted heap used by a single mapped row in bytes
+     */
+    protected double getMaximalBytesPerRow() {
+        return Double.valueOf(System.getProperty(PREFIX + 'max-bytes-per-row', '65536'))
+    }
+
+    /**
+     * Reports the measured value, prints it to the standard output by default.
+     * @param name the name of the measurement
+     * @param value the measured value
+     * @param unit the unit of the value
+     */
+    protected void report(String name, double value, String unit) {
+        println "${bigquery.getClass().simpleName} $name: ${String.format('%.2f', value)} $unit"
+    }
+
+    private long insert(int count) {
+        long started = System.nanoTime()
+        insertRows(count)
+        return System.nanoTime() - started
+    }
+
+    private List<Long> insertRows(int count) {
+        String schema = context.getProperty('person.schema', String).orElse('persons')
+        String table = context.getProperty('person.table', String).orElse('persons')
+        return (1..count).collect { i ->
+            Person person = new Person(
+                id: IDS.incrementAndGet(),
+                firstName: "First $i",
+                lastName: LAST_NAME,
+                email: "person$i@example.com",
+                role: Role.GUEST
+            )
+            bigquery.insert(person, schema, table)
+            return person.id
+        }
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        return sorted[Math.max(0, (int) Math.ceil(percentile / 100d * sorted.size()) - 1)]
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return count * TimeUnit.SECONDS.toNanos(1) / (double) Math.max(1L, nanos)
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1)
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.runtime
+        System.gc()
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+}
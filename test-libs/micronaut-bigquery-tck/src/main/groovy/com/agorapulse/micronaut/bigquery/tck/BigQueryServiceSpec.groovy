@@ -18,11 +18,18 @@
 package com.agorapulse.micronaut.bigquery.tck
 
 import com.agorapulse.micronaut.bigquery.BigQueryService
+import com.agorapulse.micronaut.bigquery.BufferedQueryService
+import com.agorapulse.micronaut.bigquery.BufferedResult
+import com.agorapulse.micronaut.bigquery.QueryPage
 import io.micronaut.context.ApplicationContext
+import io.reactivex.subscribers.TestSubscriber
 import spock.lang.AutoCleanup
 import spock.lang.Specification
 import spock.lang.Unroll
 
+import java.time.Duration
+import java.time.Instant
+
 @SuppressWarnings([
     'AbstractClassWithoutAbstractMethod',
     'DuplicateStringLiteral',
@@ -144,4 +151,127 @@ abstract class BigQueryServiceSpec extends Specification {
             ]
     }
 
+    @Unroll
+    void 'tail new rows using #serviceType.simpleName'() {
+        given:
+            PersonService service = context.getBean(serviceType)
+            service.deleteEverything()
+            service.createPerson('Ann', 'Tail', 'ann@example.com', Role.GUEST)
+        when:
+            TestSubscriber<Person> subscriber = service.tail(Instant.now().minusSeconds(3600), Duration.ofMillis(100)).test()
+            subscriber.awaitCount(1)
+        then:
+            subscriber.values()*.firstName == ['Ann']
+        when:
+            Thread.sleep(10)
+            service.createPerson('Bob', 'Tail', 'bob@example.com', Role.GUEST)
+            subscriber.awaitCount(2)
+            Thread.sleep(500)
+        then:
+            subscriber.values()*.firstName == ['Ann', 'Bob']
+        cleanup:
+            subscriber?.dispose()
+            service.deleteEverything()
+        where:
+            serviceType << [
+                JavaPersonService,
+                GroovyPersonService,
+            ]
+    }
+
+    void 'buffer query results'() {
+        given:
+            PersonService service = context.getBean(JavaPersonService)
+            service.deleteEverything()
+            service.createPerson('Ann', 'Buffer', 'ann@example.com', Role.GUEST)
+            Thread.sleep(10)
+            service.createPerson('Bob', 'Buffer', 'bob@example.com', Role.ADMIN)
+        when:
+            BufferedResult result = context.getBean(BufferedQueryService).queryBuffered('select * from persons.persons order by first_name')
+        then:
+            result.size() == 2
+            result.map { it.getStringValue('first_name') }.toList().blockingGet() == ['Ann', 'Bob']
+            result.map { it.getEnumValue('role', Role) }.toList().blockingGet() == [Role.GUEST, Role.ADMIN]
+        when:
+            result.dispose()
+            result.rows().blockingFirst()
+        then:
+            thrown(IllegalStateException)
+        cleanup:
+            result?.dispose()
+            service.deleteEverything()
+    }
+
+    @Unroll
+    void 'page through results using #serviceType.simpleName'() {
+        given:
+            PersonService service = context.getBean(serviceType)
+            service.deleteEverything()
+            ['Ann', 'Bob', 'Cid'].each {
+                service.createPerson(it, 'Page', "${it.toLowerCase()}@example.com", Role.GUEST)
+                Thread.sleep(10)
+            }
+        when:
+            QueryPage<Person> first = service.findByLastName('Page', 2, null)
+        then:
+            first.rows*.firstName == ['Ann', 'Bob']
+            first.hasNextPage()
+        when:
+            QueryPage<Person> second = service.findByLastName('Page', 2, first.nextPageToken)
+        then:
+            second.rows*.firstName == ['Cid']
+            !second.hasNextPage()
+        cleanup:
+            service.deleteEverything()
+        where:
+            serviceType << [
+                JavaPersonService,
+                GroovyPersonService,
+            ]
+    }
+
+    @Unroll
+    void 'load by keys using #serviceType.simpleName'() {
+        given:
+            PersonService service = context.getBean(serviceType)
+            service.deleteEverything()
+            List<Person> persons = ['Ann', 'Bob', 'Cid'].collect {
+                service.createPerson(it, 'Keys', "${it.toLowerCase()}@example.com", Role.GUEST)
+            }
+        when:
+            Map<Long, Person> loaded = service.findAllByIds([persons[0].id, persons[2].id, -1L])
+        then:
+            loaded.keySet() == [persons[0].id, persons[2].id] as Set
+            loaded[persons[2].id].firstName == 'Cid'
+        cleanup:
+            service.deleteEverything()
+        where:
+            serviceType << [
+                JavaPersonService,
+                GroovyPersonService,
+            ]
+    }
+
+    @Unroll
+    void 'insert and execute asynchronously using #serviceType.simpleName'() {
+        given:
+            PersonService service = context.getBean(serviceType)
+            service.deleteEverything()
+        when:
+            Person ann = service.createPersonAsync('Ann', 'Async', 'ann@example.com', Role.GUEST).blockingGet()
+        then:
+            service.get(ann.id).present
+        when:
+            service.deletePersonAsync(ann.id).blockingAwait()
+        then:
+            !service.get(ann.id).present
+        cleanup:
+            service.deleteEverything()
+        where:
+            serviceType << [
+                JavaPersonService,
+                GroovyPersonService,
+            ]
+    }
+
 }
@@ -18,12 +18,17 @@
 package com.agorapulse.micronaut.bigquery.tck
 
 import com.agorapulse.micronaut.bigquery.BigQueryService
+import com.agorapulse.micronaut.bigquery.QueryPage
 import com.agorapulse.micronaut.bigquery.RowResult
 import groovy.transform.CompileStatic
 import io.micronaut.context.annotation.Value
+import io.reactivex.Completable
 import io.reactivex.Flowable
+import io.reactivex.Single
 
 import javax.inject.Singleton
+import java.time.Duration
+import java.time.Instant
 
 @Singleton
 @CompileStatic
@@ -58,6 +63,19 @@ class GroovyPersonService implements PersonService {
     }
     // end::new-person[]
 
+    @Override
+    // tag::new-person-async[]
+    Single<Person> createPersonAsync(String firstName, String lastName, String email, Role role) {
+        return bq.insertAsync(new Person(
+            id: System.currentTimeMillis(),
+            firstName: firstName,
+            lastName: lastName,
+            role: role,
+            email: email
+        ), schema, table)
+    }
+    // end::new-person-async[]
+
     @Override
     // tag::query-single[]
     Optional<Person> get(long id) {
@@ -90,6 +108,26 @@ class GroovyPersonService implements PersonService {
     }
     // end::query-many[]
 
+    @Override
+    // tag::query-page[]
+    QueryPage<Person> findByLastName(String lastName, int pageSize, String pageToken) {
+        return bq.queryPage("select * from ${schema}.${table} where last_name = $lastName order by id", pageSize, pageToken) {
+            return buildPerson(it)
+        }
+    }
+    // end::query-page[]
+
+    @Override
+    // tag::query-by-keys[]
+    Map<Long, Person> findAllByIds(Collection<Long> ids) {
+        return bq.queryByKeys(ids, "select * from ${schema}.${table} where id in (select * from unnest(@keys))", {
+            it.getLongValue('id')
+        }) {
+            return buildPerson(it)
+        }
+    }
+    // end::query-by-keys[]
+
     @Override
     // tag::execute-update[]
     void updateRole(long id, Role role) {
@@ -110,11 +148,27 @@ class GroovyPersonService implements PersonService {
     }
     // end::execute-delete[]
 
+    @Override
+    // tag::execute-async[]
+    Completable deletePersonAsync(long id) {
+        return bq.executeAsync("delete from ${schema}.${table} where id = @id", id: id)
+    }
+    // end::execute-async[]
+
     @Override
     void deleteEverything() {
         bq.execute"delete from ${schema}.${table} where 1 = 1"
     }
 
+    @Override
+    // tag::tail[]
+    Flowable<Person> tail(Instant since, Duration interval) {
+        return bq.tail([watermark: since], "select * from ${schema}.${table} where created >= @watermark", 'created', interval) {
+            return buildPerson(it)
+        }
+    }
+    // end::tail[]
+
     // tag::build-person[]
     private static Person buildPerson(RowResult result) {
         return new Person(
@@ -18,11 +18,17 @@
 package com.agorapulse.micronaut.bigquery.tck;
 
 import com.agorapulse.micronaut.bigquery.BigQueryService;
+import com.agorapulse.micronaut.bigquery.QueryPage;
 import com.agorapulse.micronaut.bigquery.RowResult;
 import io.micronaut.context.annotation.Value;
+import io.reactivex.Completable;
 import io.reactivex.Flowable;
+import io.reactivex.Single;
 
 import javax.inject.Singleton;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -61,6 +67,20 @@ public class JavaPersonService implements PersonService {
     }
     // end::new-person[]
 
+    @Override
+    // tag::new-person-async[]
+    public Single<Person> createPersonAsync(String firstName, String lastName, String email, Role role) {
+        Person person = new Person();
+        person.setId(System.currentTimeMillis());
+        person.setFirstName(firstName);
+        person.setLastName(lastName);
+        person.setEmail(email);
+        person.setRole(role);
+
+        return bq.insertAsync(person, schema, table);
+    }
+    // end::new-person-async[]
+
     @Override
     // tag::query-single[]
     public Optional<Person> get(long id) {
@@ -99,6 +119,31 @@ public class JavaPersonService implements PersonService {
     }
     // end::query-many[]
 
+    @Override
+    // tag::query-page[]
+    public QueryPage<Person> findByLastName(String lastName, int pageSize, String pageToken) {
+        return bq.queryPage(
+            Collections.singletonMap("last_name", lastName),
+            String.format("select * from %s.%s where last_name = @last_name order by id", schema, table),
+            pageSize,                                                                   // <1>
+            pageToken,                                                                  // <2>
+            JavaPersonService::buildPerson
+        );
+    }
+    // end::query-page[]
+
+    @Override
+    // tag::query-by-keys[]
+    public Map<Long, Person> findAllByIds(Collection<Long> ids) {
+        return bq.queryByKeys(
+            ids,
+            String.format("select * from %s.%s where id in (select * from unnest(@keys))", schema, table), // <1>
+            row -> row.getLongValue("id"),                                              // <2>
+            JavaPersonService::buildPerson
+        );
+    }
+    // end::query-by-keys[]
+
     @Override
     // tag::execute-update[]
     public void updateRole(long id, Role role) {
@@ -123,6 +168,16 @@ public class JavaPersonService implements PersonService {
     }
     // end::execute-delete[]
 
+    @Override
+    // tag::execute-async[]
+    public Completable deletePersonAsync(long id) {
+        return bq.executeAsync(
+            Collections.singletonMap("id", id),
+            String.format("delete from %s.%s where id = @id", schema, table)
+        );
+    }
+    // end::execute-async[]
+
     @Override
     public void deleteEverything() {
         bq.execute(
@@ -130,8 +185,21 @@ public class JavaPersonService implements PersonService {
         );
     }
 
+    @Override
+    // tag::tail[]
+    public Flowable<Person> tail(Instant since, Duration interval) {
+        return bq.tail(
+            Collections.singletonMap("watermark", since),                               // <1>
+            String.format("select * from %s.%s where created >= @watermark", schema, table),
+            "created",                                                                  // <2>
+            interval,                                                                   // <3>
+            JavaPersonService::buildPerson
+        );
+    }
+    // end::tail[]
+
     // tag::build-person[]
-    private static Person buildPerson(RowResult result) {
+    public static Person buildPerson(RowResult result) {
         Person person = new Person();
         person.setId(result.getLongValue("id"));
         person.setFirstName(result.getStringValue("first_name"));
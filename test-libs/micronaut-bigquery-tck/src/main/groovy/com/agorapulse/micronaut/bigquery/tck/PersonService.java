@@ -17,14 +17,23 @@
  */
 package com.agorapulse.micronaut.bigquery.tck;
 
+import com.agorapulse.micronaut.bigquery.QueryPage;
+import io.reactivex.Completable;
 import io.reactivex.Flowable;
+import io.reactivex.Single;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
 
 public interface PersonService {
 
     Person createPerson(String firstName, String lastName, String email, Role role);
 
+    Single<Person> createPersonAsync(String firstName, String lastName, String email, Role role);
+
     Optional<Person> get(long id);
 
     Optional<Person> getUnsafe(long id);
@@ -33,10 +42,18 @@ public interface PersonService {
 
     Flowable<Person> findByLastName(String lastName);
 
+    QueryPage<Person> findByLastName(String lastName, int pageSize, String pageToken);
+
+    Map<Long, Person> findAllByIds(Collection<Long> ids);
+
     void updateRole(long id, Role role);
 
     void deletePerson(long id);
 
+    Completable deletePersonAsync(long id);
+
     void deleteEverything();
 
+    Flowable<Person> tail(Instant since, Duration interval);
+
 }